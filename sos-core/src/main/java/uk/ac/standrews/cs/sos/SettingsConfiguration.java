@@ -39,7 +39,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.security.PublicKey;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
@@ -413,6 +415,8 @@ public class SettingsConfiguration {
 
                 private boolean sequentialReplication = true;
                 private int replicationThreads = 3;
+                private boolean cacheRemoteAtoms = true; // Keep a local copy of the atoms read from other nodes
+                private boolean textIndex = false; // Index the text of the atoms added to this node, so that text predicates can skip them
 
                 public StorageSettings() {}
 
@@ -443,6 +447,22 @@ public class SettingsConfiguration {
                 public void setReplicationThreads(int replicationThreads) {
                     this.replicationThreads = replicationThreads;
                 }
+
+                public boolean isCacheRemoteAtoms() {
+                    return cacheRemoteAtoms;
+                }
+
+                public void setCacheRemoteAtoms(boolean cacheRemoteAtoms) {
+                    this.cacheRemoteAtoms = cacheRemoteAtoms;
+                }
+
+                public boolean isTextIndex() {
+                    return textIndex;
+                }
+
+                public void setTextIndex(boolean textIndex) {
+                    this.textIndex = textIndex;
+                }
             }
 
             public static class NDSSettings extends RoleSettings {
@@ -450,6 +470,9 @@ public class SettingsConfiguration {
                 private boolean startupRegistration = false;
                 private boolean bootstrap = true;
                 private boolean ping = false;
+                private String placement = "rendezvous";
+                private boolean zoneSpread = false;
+                private Map<String, String> zones = new HashMap<>(); // Node GUID -> availability zone
 
                 public NDSSettings() {}
 
@@ -476,6 +499,30 @@ public class SettingsConfiguration {
                 public void setPing(boolean ping) {
                     this.ping = ping;
                 }
+
+                public String getPlacement() {
+                    return placement;
+                }
+
+                public void setPlacement(String placement) {
+                    this.placement = placement;
+                }
+
+                public boolean isZoneSpread() {
+                    return zoneSpread;
+                }
+
+                public void setZoneSpread(boolean zoneSpread) {
+                    this.zoneSpread = zoneSpread;
+                }
+
+                public Map<String, String> getZones() {
+                    return zones;
+                }
+
+                public void setZones(Map<String, String> zones) {
+                    this.zones = zones;
+                }
             }
 
             public static class MMSSettings extends RoleSettings {
@@ -491,6 +538,18 @@ public class SettingsConfiguration {
                 private boolean sequentialReplication = true;
                 private int replicationThreads = 3;
 
+                // Memory budget (in bytes) for the in-memory manifests cache
+                private long cacheMaxBytes = 64 * 1024 * 1024;
+
+                // Ask multiple remote nodes at the same time when looking for a manifest
+                private boolean parallelLookup = true;
+                // Delay (ms) before asking the next remote node, if no answer has been received yet. 0 asks all nodes at once
+                private int lookupHedgeDelay = 0;
+
+                // Manifests that could not be found are not looked up again for negativeCacheTTL ms. 0 disables this cache
+                private long negativeCacheTTL = 30000;
+                private int negativeCacheSize = 8192;
+
                 public MDSSettings() {}
 
                 public int getMaxReplication() {
@@ -516,6 +575,46 @@ public class SettingsConfiguration {
                 public void setReplicationThreads(int replicationThreads) {
                     this.replicationThreads = replicationThreads;
                 }
+
+                public long getCacheMaxBytes() {
+                    return cacheMaxBytes;
+                }
+
+                public void setCacheMaxBytes(long cacheMaxBytes) {
+                    this.cacheMaxBytes = cacheMaxBytes;
+                }
+
+                public boolean isParallelLookup() {
+                    return parallelLookup;
+                }
+
+                public void setParallelLookup(boolean parallelLookup) {
+                    this.parallelLookup = parallelLookup;
+                }
+
+                public int getLookupHedgeDelay() {
+                    return lookupHedgeDelay;
+                }
+
+                public void setLookupHedgeDelay(int lookupHedgeDelay) {
+                    this.lookupHedgeDelay = lookupHedgeDelay;
+                }
+
+                public long getNegativeCacheTTL() {
+                    return negativeCacheTTL;
+                }
+
+                public void setNegativeCacheTTL(long negativeCacheTTL) {
+                    this.negativeCacheTTL = negativeCacheTTL;
+                }
+
+                public int getNegativeCacheSize() {
+                    return negativeCacheSize;
+                }
+
+                public void setNegativeCacheSize(int negativeCacheSize) {
+                    this.negativeCacheSize = negativeCacheSize;
+                }
             }
 
             public static class RMSSettings extends RoleSettings {
@@ -530,6 +629,11 @@ public class SettingsConfiguration {
                 // If true the predicates are run just after adding the context
                 private boolean predicateOnNewContext = false;
                 private ThreadSettings predicateThread = new ThreadSettings();
+                // If true, the predicates are run as soon as the heads of the assets change and when their results expire.
+                // The periodic predicate thread still runs over all the assets, as a fallback.
+                private boolean incrementalPredicates = false;
+                // Number of threads used to run the predicates and policies of the contexts. If not positive, the number of available processors is used
+                private int parallelism = 0;
                 private ThreadSettings policiesThread = new ThreadSettings();
                 private ThreadSettings checkPoliciesThread = new ThreadSettings();
                 private ThreadSettings getdataThread = new ThreadSettings();
@@ -596,6 +700,22 @@ public class SettingsConfiguration {
                     this.predicateOnNewContext = predicateOnNewContext;
                 }
 
+                public boolean isIncrementalPredicates() {
+                    return incrementalPredicates;
+                }
+
+                public void setIncrementalPredicates(boolean incrementalPredicates) {
+                    this.incrementalPredicates = incrementalPredicates;
+                }
+
+                public int getParallelism() {
+                    return parallelism;
+                }
+
+                public void setParallelism(int parallelism) {
+                    this.parallelism = parallelism;
+                }
+
                 public boolean isTrackPolicies() {
                     return trackPolicies;
                 }
@@ -726,6 +846,7 @@ public class SettingsConfiguration {
             private String ssl_trust_store;
             private TasksSettings tasks;
             private NodeMaintainerSettings nodeMaintainer;
+            private NetworkSettings network;
 
             public GlobalSettings() {}
 
@@ -745,6 +866,14 @@ public class SettingsConfiguration {
                 this.nodeMaintainer = nodeMaintainer;
             }
 
+            public NetworkSettings getNetwork() {
+                return network;
+            }
+
+            public void setNetwork(NetworkSettings network) {
+                this.network = network;
+            }
+
             public String getSsl_trust_store() {
                 return ssl_trust_store;
             }
@@ -754,9 +883,89 @@ public class SettingsConfiguration {
                 System.setProperty("javax.net.ssl.trustStore", ssl_trust_store);
             }
 
+            public static class NetworkSettings {
+
+                // Connections are pooled and kept alive across requests
+                private int maxConnections = 200;
+                private int maxConnectionsPerHost = 20;
+                private long keepAlive = 30000; // ms, used when the remote node does not send a Keep-Alive header
+
+                private int connectTimeout = 10000; // ms
+                private int socketTimeout = 60000; // ms
+                private int ioThreads = Runtime.getRuntime().availableProcessors();
+                private int bufferSize = 65536; // bytes of a response body buffered while waiting to be read
+
+                public NetworkSettings() {}
+
+                public int getMaxConnections() {
+                    return maxConnections;
+                }
+
+                public void setMaxConnections(int maxConnections) {
+                    this.maxConnections = maxConnections;
+                }
+
+                public int getMaxConnectionsPerHost() {
+                    return maxConnectionsPerHost;
+                }
+
+                public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+                    this.maxConnectionsPerHost = maxConnectionsPerHost;
+                }
+
+                public long getKeepAlive() {
+                    return keepAlive;
+                }
+
+                public void setKeepAlive(long keepAlive) {
+                    this.keepAlive = keepAlive;
+                }
+
+                public int getConnectTimeout() {
+                    return connectTimeout;
+                }
+
+                public void setConnectTimeout(int connectTimeout) {
+                    this.connectTimeout = connectTimeout;
+                }
+
+                public int getSocketTimeout() {
+                    return socketTimeout;
+                }
+
+                public void setSocketTimeout(int socketTimeout) {
+                    this.socketTimeout = socketTimeout;
+                }
+
+                public int getIoThreads() {
+                    return ioThreads;
+                }
+
+                public void setIoThreads(int ioThreads) {
+                    this.ioThreads = ioThreads;
+                }
+
+                public int getBufferSize() {
+                    return bufferSize;
+                }
+
+                public void setBufferSize(int bufferSize) {
+                    this.bufferSize = bufferSize;
+                }
+            }
+
             public static class TasksSettings {
 
+                // Default settings for the pools of tasks. Each type of task is run by a separate pool
                 private ThreadSettings thread;
+                // Settings for specific types of tasks. If not set, the default settings are used
+                private ThreadSettings replicationThread;
+                private ThreadSettings fetchThread;
+                private ThreadSettings pingThread;
+                private ThreadSettings deletionThread;
+
+                // Maximum number of tasks waiting in each pool. Once full, submitters run the tasks themselves
+                private int queueCapacity = 1024;
                 private boolean fallbackToSyncTasks = false;
 
                 public TasksSettings() {}
@@ -769,6 +978,46 @@ public class SettingsConfiguration {
                     this.thread = thread;
                 }
 
+                public ThreadSettings getReplicationThread() {
+                    return replicationThread;
+                }
+
+                public void setReplicationThread(ThreadSettings replicationThread) {
+                    this.replicationThread = replicationThread;
+                }
+
+                public ThreadSettings getFetchThread() {
+                    return fetchThread;
+                }
+
+                public void setFetchThread(ThreadSettings fetchThread) {
+                    this.fetchThread = fetchThread;
+                }
+
+                public ThreadSettings getPingThread() {
+                    return pingThread;
+                }
+
+                public void setPingThread(ThreadSettings pingThread) {
+                    this.pingThread = pingThread;
+                }
+
+                public ThreadSettings getDeletionThread() {
+                    return deletionThread;
+                }
+
+                public void setDeletionThread(ThreadSettings deletionThread) {
+                    this.deletionThread = deletionThread;
+                }
+
+                public int getQueueCapacity() {
+                    return queueCapacity;
+                }
+
+                public void setQueueCapacity(int queueCapacity) {
+                    this.queueCapacity = queueCapacity;
+                }
+
                 public boolean isFallbackToSyncTasks() {
                     return fallbackToSyncTasks;
                 }
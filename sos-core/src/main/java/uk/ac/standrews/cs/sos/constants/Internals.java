@@ -31,10 +31,15 @@ public class Internals {
 
     public static final String MANIFESTS_CACHE_FILE = "manifests.cache";
     public static final String MANIFESTS_INDEX_FILE = "manifests.index";
+    public static final String MANIFESTS_INDEX_LOG_FILE = "manifests.index.log";
     public static final String MDS_INDEX_FILE = "mds.index";
     public static final String CMS_INDEX_FILE = "cms.index";
     public static final String USRO_INDEX_FILE = "usro.index";
     public static final String LOCATIONS_INDEX_FILE = "locations.index";
+    public static final String LOCATIONS_INDEX_LOG_FILE = "locations.index.log";
+    public static final String ATOMS_CACHE_FILE = "atoms.cache";
+    public static final String TEXT_INDEX_FILE = "text.index";
+    public static final String TEXT_INDEX_LOG_FILE = "text.index.log";
     public static final String DB_FILE = "node.db";
 
     public static final TimeUnit NODE_MAINTAINER_TIME_UNIT = TimeUnit.SECONDS;
@@ -29,6 +29,7 @@ import uk.ac.standrews.cs.sos.impl.metadata.MetaType;
 import uk.ac.standrews.cs.sos.impl.metadata.MetadataConstants;
 import uk.ac.standrews.cs.sos.impl.metadata.Property;
 import uk.ac.standrews.cs.sos.impl.services.SOSAgent;
+import uk.ac.standrews.cs.sos.impl.utils.TextSearch;
 import uk.ac.standrews.cs.sos.model.Manifest;
 import uk.ac.standrews.cs.sos.model.SecureManifest;
 import uk.ac.standrews.cs.sos.model.Version;
@@ -216,77 +217,42 @@ public class CommonPredicates {
 
     public static boolean SearchText(IGUID guid, String textToSearch) {
 
-        SOSAgent agent = SOSAgent.instance();
-
-        try (Data data = agent.getData(guid)){
-
-            return stringUtilsWithLimits(data.toString(), textToSearch, 1) == 1;
-
-        } catch (ServiceException | IOException e) {
-            return false;
-        }
+        return countOccurrences(guid, textToSearch, false, 1) == 1;
     }
 
     public static boolean SearchTextIgnoreCase(IGUID guid, String textToSearch) {
 
-        SOSAgent agent = SOSAgent.instance();
-
-        try (Data data = agent.getData(guid)){
-
-            return stringUtilsWithLimits(data.toString().toLowerCase(), textToSearch.toLowerCase(), 1) == 1;
-
-        } catch (ServiceException | IOException e) {
-            return false;
-        }
-
+        return countOccurrences(guid, textToSearch, true, 1) == 1;
     }
 
     public static int TextOccurrences(IGUID guid, String textToSearch) {
 
-        SOSAgent agent = SOSAgent.instance();
-
-        try (Data data = agent.getData(guid)){
-
-            return stringUtilsWithLimits(data.toString(), textToSearch, -1);
-
-        } catch (ServiceException | IOException e) {
-            return 0;
-        }
-
+        return countOccurrences(guid, textToSearch, false, TextSearch.NO_LIMIT);
     }
 
     public static int TextOccurrencesIgnoreCase(IGUID guid, String textToSearch) {
 
-        SOSAgent agent = SOSAgent.instance();
+        return countOccurrences(guid, textToSearch, true, TextSearch.NO_LIMIT);
+    }
 
-        try (Data data = agent.getData(guid)){
+    // The data is streamed through the search, so that the atom is never loaded in memory as a whole
+    private static int countOccurrences(IGUID guid, String textToSearch, boolean ignoreCase, int limit) {
 
-            return stringUtilsWithLimits(data.toString().toLowerCase(), textToSearch.toLowerCase(), -1);
+        SOSAgent agent = SOSAgent.instance();
 
-        } catch (ServiceException | IOException e) {
+        // The text index (if any) excludes most of the data without reading it
+        if (!agent.mayContainText(guid, textToSearch)) {
             return 0;
         }
 
-    }
+        try (Data data = agent.getData(guid);
+             InputStream stream = data.getInputStream()) {
 
-    // Improvement over method StringUtils.countMatches from commons.lang3
-    private static int stringUtilsWithLimits(String str, String sub, int limit) {
+            return new TextSearch(textToSearch, ignoreCase).count(stream, limit);
 
-        if (isEmpty(str) || isEmpty(sub)) {
+        } catch (ServiceException | IOException e) {
             return 0;
         }
-        int count = 0;
-        int idx = 0;
-        while ((idx = str.indexOf(sub, idx)) != -1) {
-            count++;
-            if (limit != -1 && count == limit) break;
-            idx += sub.length();
-        }
-        return count;
-    }
-
-    private static boolean isEmpty(final CharSequence cs) {
-        return cs == null || cs.length() == 0;
     }
 
     public static boolean JavaFileHasMethod(IGUID guid, String method) {
@@ -50,6 +50,7 @@ import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.util.Collection;
 import java.util.Set;
 
 import static uk.ac.standrews.cs.sos.impl.services.SOSNodeDiscoveryService.NO_LIMIT;
@@ -66,6 +67,7 @@ public class CommonUtilities {
     private ManifestsDataService manifestsDataService;
     private UsersRolesService usersRolesService;
     private StorageService storageService;
+    private ReplicasAuditor replicasAuditor;
 
     /**
      * Create a policy language utility object using the specified SOS services
@@ -81,6 +83,7 @@ public class CommonUtilities {
         this.manifestsDataService = manifestsDataService;
         this.usersRolesService = usersRolesService;
         this.storageService = storageService;
+        this.replicasAuditor = new ReplicasAuditor(nodeDiscoveryService, manifestsDataService, storageService);
     }
 
     /**
@@ -183,26 +186,19 @@ public class CommonUtilities {
      */
     public int numberOfManifestReplicas(NodesCollection codomain, IGUID guid, int limit) {
 
-        int counter = 0;
-
         Set<IGUID> nodesRefs = codomain.nodesRefs();
         if (nodesRefs == null || nodesRefs.isEmpty()) {
             return 0;
         }
 
-        for(IGUID nodeRef:codomain.nodesRefs()) {
-
-            if (nodeHasManifest(nodeRef, guid)) {
-                counter++;
-
-                // Make sure that the manifestDataService has record of this information
-                manifestsDataService.addManifestNodeMapping(guid, nodeRef);
-            }
+        Set<IGUID> holders = replicasAuditor.manifestHolders(nodesRefs, guid);
+        for(IGUID nodeRef:holders) {
 
-            if (limit != -1 && counter >= limit) return counter;
+            // Make sure that the manifestDataService has record of this information
+            manifestsDataService.addManifestNodeMapping(guid, nodeRef);
         }
 
-        return counter;
+        return limit != -1 ? Math.min(holders.size(), limit) : holders.size();
     }
 
     /**
@@ -239,32 +235,40 @@ public class CommonUtilities {
      */
     public int numberOfDataReplicas(NodesCollection codomain, IGUID guid, int limit) {
 
-        int counter = 0;
-
         Set<IGUID> nodesRefs = codomain.nodesRefs();
         if (nodesRefs == null || nodesRefs.isEmpty()) {
             return 0;
         }
 
-        for(IGUID nodeRef:nodesRefs) {
-
-            if (nodeHasData(nodeRef, guid)) {
-                counter++;
-
-                // Make sure that the storage service is aware of this new location
-                try {
-                    LocationBundle locationBundle = new CacheLocationBundle(new SOSLocation(nodeRef, guid));
-                    storageService.addLocation(guid, locationBundle);
-                } catch (MalformedURLException e) {
-                    SOS_LOG.log(LEVEL.WARN, "Unable to add the mapping data-location " +
-                            guid.toShortString() + " -- " + nodeRef.toShortString() + " to the storage service");
-                }
+        Set<IGUID> holders = replicasAuditor.dataHolders(nodesRefs, guid);
+        for(IGUID nodeRef:holders) {
 
-                if (limit != -1 && counter >= limit) return counter;
+            // Make sure that the storage service is aware of this new location
+            try {
+                LocationBundle locationBundle = new CacheLocationBundle(new SOSLocation(nodeRef, guid));
+                storageService.addLocation(guid, locationBundle);
+            } catch (MalformedURLException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to add the mapping data-location " +
+                        guid.toShortString() + " -- " + nodeRef.toShortString() + " to the storage service");
             }
         }
 
-        return counter;
+        return limit != -1 ? Math.min(holders.size(), limit) : holders.size();
+    }
+
+    /**
+     * Audit the replicas of many entities within a codomain at once.
+     * Until the returned session is closed, checking the number of replicas of these entities within the codomain
+     * uses the results of this audit rather than challenging the nodes again.
+     *
+     * @param codomain nodes to check
+     * @param data GUIDs of the data to audit
+     * @param manifests GUIDs of the manifests to audit
+     * @return the audit session
+     */
+    public ReplicasAuditor.Session auditReplicas(NodesCollection codomain, Collection<IGUID> data, Collection<IGUID> manifests) {
+
+        return replicasAuditor.startSession(codomain.nodesRefs(), data, manifests);
     }
 
     /**
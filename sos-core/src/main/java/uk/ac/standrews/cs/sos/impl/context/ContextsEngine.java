@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.context;
+
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the predicates and policies of the contexts in parallel over a work-stealing pool.
+ *
+ * The work of a context is made of independent tasks (e.g. one per asset) and a completion step,
+ * which runs once all the tasks of the context have completed (e.g. to update the context with the results).
+ * The work of multiple contexts is submitted as a batch.
+ *
+ * Contexts are kept fair: within a batch, each context runs at most parallelism/contexts tasks at a time (at least one),
+ * so that a context with many assets does not starve the other contexts.
+ * The next task of a context is scheduled only when one of its running tasks completes.
+ *
+ * Tasks must be thread-safe and must not wait for other tasks of the engine.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ContextsEngine {
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelism number of threads of the engine. If not positive, the number of available processors is used.
+     */
+    public ContextsEngine(int parallelism) {
+
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+        // Async mode, as tasks are never joined
+        this.pool = new ForkJoinPool(this.parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param numberOfContexts that will be submitted to the batch. Used to share the threads among the contexts.
+     * @return a new batch
+     */
+    public Batch newBatch(int numberOfContexts) {
+
+        int tasksPerContext = Math.max(1, parallelism / Math.max(1, numberOfContexts));
+        return new Batch(tasksPerContext);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public class Batch {
+
+        private final int tasksPerContext;
+
+        // The caller is registered as a party, so that the batch does not terminate while contexts are being submitted
+        private final Phaser phaser = new Phaser(1);
+
+        private Batch(int tasksPerContext) {
+            this.tasksPerContext = tasksPerContext;
+        }
+
+        /**
+         * Start running the tasks of a context.
+         *
+         * @param tasks of the context
+         * @param onComplete run once all the tasks of the context have completed (also if some of them failed)
+         */
+        public void submit(List<Runnable> tasks, Runnable onComplete) {
+
+            phaser.register();
+            new ContextWork(tasks, onComplete, phaser).start(tasksPerContext);
+        }
+
+        /**
+         * Wait for the work of all the submitted contexts, including their completion step, to complete.
+         * The batch must not be used afterwards.
+         */
+        public void await() {
+
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    private class ContextWork {
+
+        private final Iterator<Runnable> tasks;
+        private final AtomicInteger remaining;
+        private final Runnable onComplete;
+        private final Phaser phaser;
+
+        ContextWork(List<Runnable> tasks, Runnable onComplete, Phaser phaser) {
+            this.tasks = tasks.iterator();
+            this.remaining = new AtomicInteger(tasks.size());
+            this.onComplete = onComplete;
+            this.phaser = phaser;
+        }
+
+        void start(int concurrentTasks) {
+
+            if (remaining.get() == 0) {
+                complete();
+                return;
+            }
+
+            for (int i = 0; i < concurrentTasks; i++) {
+                runNext();
+            }
+        }
+
+        private synchronized Runnable next() {
+            return tasks.hasNext() ? tasks.next() : null;
+        }
+
+        private void runNext() {
+
+            Runnable task = next();
+            if (task == null) return;
+
+            try {
+                pool.execute(() -> {
+                    // The slot of the task is passed on to the next task, whatever the outcome of this one
+                    try {
+                        runTask(task);
+                    } finally {
+                        runNext();
+                    }
+                });
+
+            } catch (RejectedExecutionException e) {
+
+                // The engine is shutting down, so the remaining tasks are run by this thread
+                for (Runnable inlineTask = task; inlineTask != null; inlineTask = next()) {
+                    runTask(inlineTask);
+                }
+            }
+        }
+
+        private void runTask(Runnable task) {
+
+            // Errors are not caught, but the slot of the task is still passed on and the task is still counted as done
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                SOS_LOG.log(LEVEL.ERROR, "Context task failed: " + e.toString());
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    complete();
+                }
+            }
+        }
+
+        private void complete() {
+
+            try {
+                onComplete.run();
+            } catch (RuntimeException e) {
+                SOS_LOG.log(LEVEL.ERROR, "Context completion step failed: " + e.toString());
+            } finally {
+                phaser.arriveAndDeregister();
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.context;
+
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.exceptions.manifest.AtomNotFoundException;
+import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
+import uk.ac.standrews.cs.sos.exceptions.node.NodeNotFoundException;
+import uk.ac.standrews.cs.sos.exceptions.node.NodesCollectionException;
+import uk.ac.standrews.cs.sos.impl.node.NodesCollectionImpl;
+import uk.ac.standrews.cs.sos.impl.protocol.Task;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TasksQueue;
+import uk.ac.standrews.cs.sos.impl.protocol.json.ChallengePackage;
+import uk.ac.standrews.cs.sos.impl.protocol.tasks.EntitiesChallenge;
+import uk.ac.standrews.cs.sos.impl.protocol.tasks.EntityChallenge;
+import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
+import uk.ac.standrews.cs.sos.model.Manifest;
+import uk.ac.standrews.cs.sos.model.Node;
+import uk.ac.standrews.cs.sos.model.NodesCollectionType;
+import uk.ac.standrews.cs.sos.services.ManifestsDataService;
+import uk.ac.standrews.cs.sos.services.NodeDiscoveryService;
+import uk.ac.standrews.cs.sos.services.StorageService;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Audits which nodes hold replicas of some data or manifests, by challenging them.
+ *
+ * All the entities of an audit are challenged with the same challenge string, so that the expected result
+ * for each entity is computed only once, however many nodes are challenged.
+ * Each node is challenged for all the entities in a single request (or a few, for large audits)
+ * and all the nodes are challenged in parallel.
+ *
+ * The entities to audit can be registered for the duration of a session (e.g. a check of the policies of a context),
+ * so that checking the replicas of the entities one by one does not challenge the nodes for each of them.
+ * The data and the manifests of a session are audited only when the replicas of one of them are first checked,
+ * so that nothing is audited for the policies that do not check replicas (auditing the data requires reading all of it).
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ReplicasAuditor {
+
+    private final NodeDiscoveryService nodeDiscoveryService;
+    private final ManifestsDataService manifestsDataService;
+    private final StorageService storageService;
+
+    // Audits of the open sessions, by entity
+    private final Map<IGUID, SessionAudit> dataAudits;
+    private final Map<IGUID, SessionAudit> manifestAudits;
+
+    public ReplicasAuditor(NodeDiscoveryService nodeDiscoveryService, ManifestsDataService manifestsDataService, StorageService storageService) {
+
+        this.nodeDiscoveryService = nodeDiscoveryService;
+        this.manifestsDataService = manifestsDataService;
+        this.storageService = storageService;
+
+        this.dataAudits = new ConcurrentHashMap<>();
+        this.manifestAudits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param nodes to check
+     * @param guid of the data
+     * @return the nodes that hold the data
+     */
+    public Set<IGUID> dataHolders(Set<IGUID> nodes, IGUID guid) {
+        return holders(nodes, guid, true);
+    }
+
+    /**
+     * @param nodes to check
+     * @param guid of the manifest
+     * @return the nodes that hold the manifest
+     */
+    public Set<IGUID> manifestHolders(Set<IGUID> nodes, IGUID guid) {
+        return holders(nodes, guid, false);
+    }
+
+    /**
+     * Register the given data and manifests to be audited against the given nodes until the session is closed.
+     * The data (or manifests) are all audited at once, when the replicas of one of them are first checked.
+     *
+     * @param nodes to check
+     * @param data GUIDs of the data to audit
+     * @param manifests GUIDs of the manifests to audit
+     * @return the session
+     */
+    public Session startSession(Set<IGUID> nodes, Collection<IGUID> data, Collection<IGUID> manifests) {
+
+        if (nodes == null || nodes.isEmpty()) {
+            return new Session(null, null);
+        }
+
+        Session session = new Session(new SessionAudit(nodes, data, true), new SessionAudit(nodes, manifests, false));
+        for(IGUID guid : data) {
+            dataAudits.put(guid, session.dataAudit);
+        }
+        for(IGUID guid : manifests) {
+            manifestAudits.put(guid, session.manifestAudit);
+        }
+
+        return session;
+    }
+
+    private Set<IGUID> holders(Set<IGUID> nodes, IGUID guid, boolean isData) {
+
+        if (nodes == null || nodes.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Audit audit = null;
+        SessionAudit sessionAudit = (isData ? dataAudits : manifestAudits).get(guid);
+        if (sessionAudit != null && sessionAudit.nodes.containsAll(nodes)) {
+            audit = sessionAudit.get(guid);
+        }
+
+        if (audit == null) {
+            audit = audit(nodes, Collections.singleton(guid), isData).get(guid);
+        }
+
+        Set<IGUID> holders = new LinkedHashSet<>(audit.holders);
+        holders.retainAll(nodes);
+        return holders;
+    }
+
+    private Map<IGUID, Audit> audit(Set<IGUID> nodes, Collection<IGUID> entities, boolean isData) {
+
+        Map<IGUID, Audit> audits = new HashMap<>();
+        if (entities.isEmpty()) {
+            return audits;
+        }
+
+        Set<IGUID> auditedNodes = new HashSet<>(nodes);
+        for(IGUID entity : entities) {
+            audits.put(entity, new Audit(auditedNodes));
+        }
+
+        String challenge = EntityChallenge.makeChallenge();
+
+        // The nodes are challenged first, so that the expected results are computed while the nodes work out their answers
+        List<CompletableFuture<Task>> answers = new LinkedList<>();
+        List<List<IGUID>> batches = batches(new ArrayList<>(audits.keySet()));
+        for(IGUID nodeRef : auditedNodes) {
+
+            try {
+                Node node = nodeDiscoveryService.getNode(nodeRef);
+                for(List<IGUID> batch : batches) {
+                    answers.add(TasksQueue.instance().performAsyncTask(new EntitiesChallenge(node, batch, challenge, isData)));
+                }
+
+            } catch (NodeNotFoundException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to audit node with GUID " + nodeRef.toShortString());
+            }
+        }
+
+        Map<IGUID, IGUID> expectedResults = expectedResults(audits.keySet(), challenge, isData);
+
+        for(CompletableFuture<Task> answer : answers) {
+
+            try {
+                EntitiesChallenge entitiesChallenge = (EntitiesChallenge) answer.get();
+                if (entitiesChallenge.getState() != TaskState.SUCCESSFUL) continue;
+
+                IGUID nodeRef = entitiesChallenge.getChallengedNode().guid();
+                entitiesChallenge.getResults().forEach((entity, result) -> {
+                    IGUID expectedResult = expectedResults.get(entity);
+                    if (expectedResult != null && expectedResult.equals(result)) {
+                        audits.get(entity).holders.add(nodeRef);
+                    }
+                });
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | CancellationException e) {
+                SOS_LOG.log(LEVEL.WARN, "A node did not answer the replicas audit in time");
+            }
+        }
+
+        return audits;
+    }
+
+    private Map<IGUID, IGUID> expectedResults(Collection<IGUID> entities, String challenge, boolean isData) {
+
+        Map<IGUID, IGUID> expectedResults = new HashMap<>();
+        for(IGUID entity : entities) {
+
+            try {
+                if (isData) {
+
+                    try (Data data = storageService.getAtomContent(entity);
+                         InputStream inputStream = data.getInputStream()) {
+                        expectedResults.put(entity, EntityChallenge.challengeResult(inputStream, challenge));
+                    }
+
+                } else {
+
+                    Manifest manifest = manifestsDataService.getManifest(new NodesCollectionImpl(NodesCollectionType.LOCAL), NodeType.MDS, entity);
+                    try (InputStream inputStream = manifest.contentToHash()) {
+                        expectedResults.put(entity, EntityChallenge.challengeResult(inputStream, challenge));
+                    }
+                }
+
+            } catch (AtomNotFoundException | ManifestNotFoundException | NodesCollectionException | GUIDGenerationException | IOException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to audit entity with GUID " + entity.toShortString() + " because it cannot be found locally");
+            }
+        }
+
+        return expectedResults;
+    }
+
+    private static List<List<IGUID>> batches(List<IGUID> entities) {
+
+        List<List<IGUID>> batches = new LinkedList<>();
+        for(int i = 0; i < entities.size(); i += ChallengePackage.MAX_ENTITIES) {
+            batches.add(entities.subList(i, Math.min(i + ChallengePackage.MAX_ENTITIES, entities.size())));
+        }
+
+        return batches;
+    }
+
+    private static class Audit {
+
+        final Set<IGUID> nodes;
+        final Set<IGUID> holders;
+
+        Audit(Set<IGUID> nodes) {
+            this.nodes = nodes;
+            this.holders = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * The audit of the data or manifests of a session, run when the replicas of one of them are first checked.
+     */
+    private class SessionAudit {
+
+        final Set<IGUID> nodes;
+        final Collection<IGUID> entities;
+        final boolean isData;
+
+        private Map<IGUID, Audit> audits;
+
+        SessionAudit(Set<IGUID> nodes, Collection<IGUID> entities, boolean isData) {
+            this.nodes = new HashSet<>(nodes);
+            this.entities = entities;
+            this.isData = isData;
+        }
+
+        /**
+         * Checks of the replicas running in parallel wait for the same audit
+         */
+        synchronized Audit get(IGUID guid) {
+
+            if (audits == null) {
+                audits = audit(nodes, entities, isData);
+            }
+
+            return audits.get(guid);
+        }
+    }
+
+    /**
+     * Closing the session discards its audits.
+     */
+    public class Session implements AutoCloseable {
+
+        private final SessionAudit dataAudit;
+        private final SessionAudit manifestAudit;
+
+        private Session(SessionAudit dataAudit, SessionAudit manifestAudit) {
+            this.dataAudit = dataAudit;
+            this.manifestAudit = manifestAudit;
+        }
+
+        @Override
+        public void close() {
+
+            // Audits of other sessions for the same entities are left alone
+            if (dataAudit != null) {
+                for(IGUID guid : dataAudit.entities) {
+                    dataAudits.remove(guid, dataAudit);
+                }
+            }
+
+            if (manifestAudit != null) {
+                for(IGUID guid : manifestAudit.entities) {
+                    manifestAudits.remove(guid, manifestAudit);
+                }
+            }
+        }
+    }
+}
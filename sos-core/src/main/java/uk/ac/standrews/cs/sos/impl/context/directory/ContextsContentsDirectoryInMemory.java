@@ -19,7 +19,8 @@ package uk.ac.standrews.cs.sos.impl.context.directory;
 import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
-import uk.ac.standrews.cs.sos.impl.utils.LRU_GUID;
+import uk.ac.standrews.cs.sos.impl.utils.CompactGUID;
+import uk.ac.standrews.cs.sos.impl.utils.LRUCache;
 import uk.ac.standrews.cs.sos.interfaces.context.ContextsContentsDirectory;
 
 import java.io.IOException;
@@ -27,16 +28,13 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * The ContextsDirectory caches information regarding contexts and their contents.
  *
  * Evicted entries allow us to re-use old results if the HEAD of an asset is changed.
+ * The GUIDs of the contexts and versions are stored as CompactGUIDs.
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
@@ -44,28 +42,47 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
 
     // Maps the context to the versions belonging to it
     // [ context -> [version -> ContextVersionInfo] ]
-    private transient HashMap<IGUID, HashMap<IGUID, ContextVersionInfo>> mappings;
-    private transient LRU_GUID lru;
+    private transient LRUCache<CompactGUID, HashMap<CompactGUID, ContextVersionInfo>> mappings;
 
     private static final long serialVersionUID = 1L;
     ContextsContentsDirectoryInMemory() {
-        mappings = new HashMap<>();
-        lru = new LRU_GUID();
+        mappings = new LRUCache<>();
     }
 
     @Override
     public void addOrUpdateEntry(IGUID contextInvariant, IGUID version, ContextVersionInfo content) {
 
-        IGUID guidToRemove = lru.applyLRU(contextInvariant);
-        if (!guidToRemove.isInvalid()) {
-            mappings.remove(guidToRemove);
-        }
+        CompactGUID key = CompactGUID.of(version);
+        mappings.compute(CompactGUID.of(contextInvariant), (context, contents) -> {
+
+            if (contents == null) {
+                contents = new LinkedHashMap<>();
+            }
+
+            contents.put(key, content);
+            return contents;
+        });
+    }
+
+    @Override
+    public void addOrUpdateEntries(IGUID contextInvariant, Map<IGUID, ContextVersionInfo> entries) {
+
+        if (entries.isEmpty()) return;
 
-        if (!mappings.containsKey(contextInvariant)) {
-            mappings.put(contextInvariant, new HashMap<>());
+        Map<CompactGUID, ContextVersionInfo> compactEntries = new LinkedHashMap<>();
+        for (Map.Entry<IGUID, ContextVersionInfo> entry : entries.entrySet()) {
+            compactEntries.put(CompactGUID.of(entry.getKey()), entry.getValue());
         }
 
-        mappings.get(contextInvariant).put(version, content);
+        mappings.compute(CompactGUID.of(contextInvariant), (context, contents) -> {
+
+            if (contents == null) {
+                contents = new LinkedHashMap<>();
+            }
+
+            contents.putAll(compactEntries);
+            return contents;
+        });
     }
 
     /**
@@ -78,26 +95,57 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
     @Override
     public ContextVersionInfo getEntry(IGUID context, IGUID version) {
 
-        lru.applyReadLRU(context);
+        ContextVersionInfo[] entry = new ContextVersionInfo[1];
+        CompactGUID versionKey = CompactGUID.of(version);
+
+        // Read under the lock of the cache, as the contents might be updated concurrently
+        mappings.compute(CompactGUID.of(context), (key, contents) -> {
+            if (contents != null) {
+                entry[0] = contents.get(versionKey);
+            }
+
+            return contents;
+        });
+
+        return entry[0] != null ? entry[0] : new ContextVersionInfo();
+    }
+
+    @Override
+    public Map<IGUID, ContextVersionInfo> getEntries(IGUID context, Collection<IGUID> versions) {
 
-        if (entryExists(context, version)) {
-            return mappings.get(context).get(version);
-        } else {
-            return new ContextVersionInfo();
+        Map<IGUID, ContextVersionInfo> entries = new HashMap<>();
+
+        Map<CompactGUID, IGUID> keys = new HashMap<>();
+        for (IGUID version : versions) {
+            keys.put(CompactGUID.of(version), version);
         }
+
+        // Read under the lock of the cache, as the contents might be updated concurrently
+        mappings.compute(CompactGUID.of(context), (key, contents) -> {
+            if (contents == null) return null;
+
+            for (Map.Entry<CompactGUID, IGUID> version : keys.entrySet()) {
+                ContextVersionInfo contextVersionInfo = contents.get(version.getKey());
+                if (contextVersionInfo != null) {
+                    entries.put(version.getValue(), contextVersionInfo);
+                }
+            }
+
+            return contents;
+        });
+
+        return entries;
     }
 
     public void remove(IGUID context, IGUID version) {
 
-        if (entryExists(context, version)) {
-            HashMap<IGUID, ContextVersionInfo> mappedVersions = mappings.get(context);
-            mappedVersions.remove(version);
+        CompactGUID versionKey = CompactGUID.of(version);
+        mappings.compute(CompactGUID.of(context), (key, mappedVersions) -> {
+            if (mappedVersions == null) return null;
 
-            if (mappedVersions.isEmpty()) {
-                mappings.remove(context);
-                lru.remove(context);
-            }
-        }
+            mappedVersions.remove(versionKey);
+            return mappedVersions.isEmpty() ? null : mappedVersions;
+        });
     }
 
     /**
@@ -112,21 +160,36 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
     @Override
     public boolean entryExists(IGUID context, IGUID version) {
 
-        return mappings.containsKey(context) && mappings.get(context).containsKey(version);
+        CompactGUID versionKey = CompactGUID.of(version);
+
+        // Read under the lock of the cache, as the contents might be updated concurrently
+        return mappings.peek(CompactGUID.of(context), contents -> contents != null && contents.containsKey(versionKey));
     }
 
     @Override
     public Map<IGUID, ContextVersionInfo> getContentsThatPassedPredicateTestRows(IGUID context, boolean includeEvicted) {
-        HashMap<IGUID, ContextVersionInfo> contents = mappings.get(context);
-        if (contents == null) {
-            return new HashMap<>();
-        } else {
-            return contents.entrySet()
-                    .stream()
-                    .filter(p -> p.getValue().predicateResult && (includeEvicted || !p.getValue().evicted))
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        Map<CompactGUID, ContextVersionInfo> compactRows = new LinkedHashMap<>();
+
+        // Read under the lock of the cache, as the contents might be updated concurrently (e.g. by the policies)
+        mappings.compute(CompactGUID.of(context), (key, contents) -> {
+            if (contents == null) return null;
+
+            for (Map.Entry<CompactGUID, ContextVersionInfo> row : contents.entrySet()) {
+                ContextVersionInfo info = row.getValue();
+                if (info.predicateResult && (includeEvicted || !info.evicted)) {
+                    compactRows.put(row.getKey(), info);
+                }
+            }
+
+            return contents;
+        });
 
+        Map<IGUID, ContextVersionInfo> rows = new HashMap<>();
+        for (Map.Entry<CompactGUID, ContextVersionInfo> row : compactRows.entrySet()) {
+            rows.put(row.getKey().toGUID(), row.getValue());
         }
+
+        return rows;
     }
 
     /**
@@ -139,36 +202,48 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
     @Override
     public void evict(IGUID context, IGUID version) {
 
-        HashMap<IGUID, ContextVersionInfo> contents = mappings.get(context);
-        if (contents != null) {
+        evict(context, Collections.singleton(version));
+    }
 
-            ContextVersionInfo contextVersionInfo = contents.get(version);
-            if (contextVersionInfo != null) {
-                contextVersionInfo.evicted = true;
-                contents.put(version, contextVersionInfo);
-            }
+    @Override
+    public void evict(IGUID context, Collection<IGUID> versions) {
+
+        if (versions.isEmpty()) return;
 
+        List<CompactGUID> keys = new ArrayList<>(versions.size());
+        for (IGUID version : versions) {
+            keys.add(CompactGUID.of(version));
         }
+
+        mappings.compute(CompactGUID.of(context), (key, contents) -> {
+            if (contents == null) return null;
+
+            for (CompactGUID version : keys) {
+                ContextVersionInfo contextVersionInfo = contents.get(version);
+                if (contextVersionInfo != null) {
+                    contextVersionInfo.evicted = true;
+                }
+            }
+
+            return contents;
+        });
     }
 
     @Override
     public void delete(IGUID context, IGUID version) {
 
-        if (mappings.containsKey(context)) {
-            mappings.get(context).remove(version);
-        }
+        remove(context, version);
     }
 
     @Override
     public void delete(IGUID context) {
 
-        mappings.remove(context);
+        mappings.remove(CompactGUID.of(context));
     }
 
     public void clear() {
 
         mappings.clear();
-        lru.clear();
     }
 
     ///////////////////
@@ -179,17 +254,18 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
 
-        out.writeInt(mappings.size());
-
         // Store entries as ordered in the LRU
-        ConcurrentLinkedQueue<IGUID> lruQueue = new  ConcurrentLinkedQueue<>(lru.getQueue());
-        IGUID guid;
-        while ((guid = lruQueue.poll()) != null) {
+        List<CompactGUID> guids = mappings.keys();
+        out.writeInt(guids.size());
+
+        for (CompactGUID guid : guids) {
             out.writeUTF(guid.toMultiHash());
 
-            HashMap<IGUID, ContextVersionInfo> values = mappings.get(guid);
+            // Copied under the lock of the cache, as the contents might be updated while serialising
+            // The copy is empty if the entry was evicted while serialising
+            HashMap<CompactGUID, ContextVersionInfo> values = mappings.peek(guid, contents -> contents != null ? new HashMap<>(contents) : new HashMap<>());
             out.writeInt(values.size());
-            for(Map.Entry<IGUID, ContextVersionInfo> content:values.entrySet()) {
+            for(Map.Entry<CompactGUID, ContextVersionInfo> content:values.entrySet()) {
                 out.writeUTF(content.getKey().toMultiHash());
                 out.writeBoolean(content.getValue().predicateResult);
                 out.writeLong(content.getValue().timestamp.getEpochSecond());
@@ -204,16 +280,14 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
         in.defaultReadObject();
 
         try {
-            lru = new LRU_GUID();
-
-            mappings = new LinkedHashMap<>();
+            mappings = new LRUCache<>();
 
             int numberOfContexts = in.readInt();
             for (int i = 0; i < numberOfContexts; i++) {
                 String guids = in.readUTF();
                 IGUID contextGUID = GUIDFactory.recreateGUID(guids);
 
-                mappings.put(contextGUID, new LinkedHashMap<>());
+                HashMap<CompactGUID, ContextVersionInfo> contents = new LinkedHashMap<>();
 
                 int numberOfContents = in.readInt();
                 for(int j = 0; j < numberOfContents; j++) {
@@ -230,8 +304,10 @@ public class ContextsContentsDirectoryInMemory implements Serializable, Contexts
                     contextVersionInfo.policySatisfied = policySatisfied;
                     contextVersionInfo.evicted = evicted;
 
-                    mappings.get(contextGUID).put(contentGUID, contextVersionInfo);
+                    contents.put(CompactGUID.of(contentGUID), contextVersionInfo);
                 }
+
+                mappings.put(CompactGUID.of(contextGUID), contents);
             }
 
         } catch (GUIDGenerationException e) {
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.context.reflection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class loader for the classes of the computational units (predicates and policies).
+ *
+ * Classes are defined from the bytecode just compiled in memory or, otherwise, from the bytecode cached on disk.
+ * A single class loader is used for all the computational units, so that each class is loaded only once.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class ComputationalUnitsClassLoader extends ClassLoader {
+
+    static final String CLASS_EXTENSION = ".class";
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final File classPath;
+
+    // Compiled classes that have not been defined yet [class name --> bytecode]
+    private final Map<String, byte[]> compiledClasses = new ConcurrentHashMap<>();
+
+    /**
+     * @param classPath directory of the bytecode cache
+     * @param parent class loader, which must be able to load the classes of the SOS
+     */
+    ComputationalUnitsClassLoader(File classPath, ClassLoader parent) {
+        super(parent);
+
+        this.classPath = classPath;
+    }
+
+    void addClasses(Map<String, byte[]> classes) {
+        compiledClasses.putAll(classes);
+    }
+
+    /**
+     * @param className fully qualified name of the class
+     * @return the file of the class in the bytecode cache
+     */
+    File classFile(String className) {
+        return new File(classPath, className.replace('.', File.separatorChar) + CLASS_EXTENSION);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+
+        byte[] bytecode = compiledClasses.remove(name);
+        if (bytecode == null) {
+
+            File classFile = classFile(name);
+            if (!classFile.isFile()) {
+                throw new ClassNotFoundException(name);
+            }
+
+            try {
+                bytecode = Files.readAllBytes(classFile.toPath());
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+
+        return defineClass(name, bytecode, 0, bytecode.length);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.context.reflection;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Java file manager that keeps the source and the compiled classes in memory, rather than on disk.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    // class name --> bytecode
+    private final Map<String, ClassFile> classes = new LinkedHashMap<>();
+
+    InMemoryFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+
+        ClassFile classFile = new ClassFile(className, kind);
+        classes.put(className, classFile);
+
+        return classFile;
+    }
+
+    /**
+     * @return the compiled classes, including the nested ones [class name --> bytecode]
+     */
+    Map<String, byte[]> getClasses() {
+
+        Map<String, byte[]> retval = new LinkedHashMap<>();
+        for (Map.Entry<String, ClassFile> classFile : classes.entrySet()) {
+            retval.put(classFile.getKey(), classFile.getValue().getBytes());
+        }
+
+        return retval;
+    }
+
+    static JavaFileObject sourceFile(String className, String source) {
+
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className, Kind kind) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+
+        byte[] getBytes() {
+            return bytes.toByteArray();
+        }
+    }
+}
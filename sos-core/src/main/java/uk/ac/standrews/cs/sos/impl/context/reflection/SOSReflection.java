@@ -17,7 +17,7 @@
 package uk.ac.standrews.cs.sos.impl.context.reflection;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.io.Files;
+import org.apache.commons.codec.binary.Hex;
 import uk.ac.standrews.cs.castore.interfaces.IDirectory;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.constants.JSONConstants;
@@ -33,28 +33,55 @@ import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import javax.tools.*;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
+ * Compiles and loads the classes of the computational units (predicates and policies).
+ *
+ * The classes are compiled in memory and their bytecode is cached in the java directory of the node.
+ * The name of a class is derived from the GUID of the JSON of its computational unit (see ClassBuilder.className),
+ * but the bytecode also depends on the SOS classes it was compiled against. Therefore, the cache is kept in a
+ * directory named after the fingerprint of the SOS classes (see apiFingerprint) and the caches of other builds are
+ * removed. Computational units are compiled only the first time they are seen by a build of the SOS, and not at every restart.
+ *
+ * Instances are created through the constructor handle of the class, which is looked up only once per class.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class SOSReflection {
 
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class, JsonNode.class);
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    private static String apiFingerprint;
+
     private LocalStorage localStorage;
-    private Set<String> loadedClasses;
+    private ComputationalUnitsClassLoader classLoader;
+
+    // Fully qualified class name --> constructor of the class, taking the JSON of the computational unit
+    private Map<String, MethodHandle> factories;
 
     private static SOSReflection instance;
 
     private SOSReflection(LocalStorage localStorage) {
         this.localStorage = localStorage;
-        loadedClasses = new LinkedHashSet<>();
+        factories = new ConcurrentHashMap<>();
     }
 
     public static void init(LocalStorage localStorage) {
@@ -68,7 +95,8 @@ public class SOSReflection {
     }
 
     /**
-     * Load a class given a context JSON structure
+     * Load a class given a context JSON structure.
+     * The class is compiled only if it is not in the bytecode cache already.
      *
      * @param node JSON representation for computational unit to load
      * @throws ClassLoaderException if computational unit could not be loaded properly
@@ -76,136 +104,291 @@ public class SOSReflection {
     public void load(JsonNode node) throws ClassLoaderException {
 
         try {
-            IDirectory targetClassPath = localStorage.getJavaDirectory();
-
             ManifestType type = ManifestType.get(node.get(JSONConstants.KEY_TYPE).textValue());
-            SOS_LOG.log(LEVEL.INFO, "Preparing to load class for computation unit of type: " + type.toString());
             ClassBuilder classBuilder = ClassBuilderFactory.getClassBuilder(type.toString());
-            String clazzString = classBuilder.constructClass(node);
-            // System.out.println(clazzString); // THIS LINE IS HERE FOR DEBUG PURPOSES
-
-            // Print class to file
             String clazzName = classBuilder.className(node);
-            // Assume that we have access to the local file system and can create a temporary directory there
-            File sourceClazzFile = new File(Files.createTempDir() + "/" + clazzName + ".java");
-            if (sourceClazzFile.exists()) {
-                boolean deleted = sourceClazzFile.delete();
-                if (!deleted) {
-                    throw new IOException("Unable to delete existing source class file: " + sourceClazzFile.getAbsolutePath());
+            if (factories.containsKey(fullName(clazzName))) return;
+
+            synchronized (this) {
+                if (factories.containsKey(fullName(clazzName))) return;
+
+                boolean invalidCache = false;
+                if (isCached(clazzName)) {
+
+                    try {
+                        loadClassName(clazzName);
+                        return;
+                    } catch (ClassLoaderException | LinkageError e) {
+                        // The cached bytecode is not valid anymore (e.g. it was compiled against another version of the SOS)
+                        SOS_LOG.log(LEVEL.WARN, "Unable to load cached class " + clazzName + ". The class will be compiled again");
+                        invalidCache = true;
+                    }
                 }
-            }
-            sourceClazzFile.deleteOnExit();
-            try (PrintWriter out = new PrintWriter(sourceClazzFile)){
-                out.println(clazzString);
+
+                SOS_LOG.log(LEVEL.INFO, "Preparing to load class for computation unit of type: " + type.toString());
+                String clazzString = classBuilder.constructClass(node);
+
+                Map<String, byte[]> classes = compile(fullName(clazzName), clazzString);
+                persist(classes);
+
+                // The class loader might have defined the invalid class already, so a new class loader is needed
+                if (invalidCache) {
+                    classLoader = null;
+                }
+                classLoader().addClasses(classes);
+                loadClassName(clazzName);
             }
 
-            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        } catch (IOException | DataStorageException | ClassBuilderException | LinkageError e) {
+            throw new ClassLoaderException(e);
+        }
+    }
 
-            try(StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
-                fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(targetClassPath.toFile()));
+    public Predicate predicateInstance(JsonNode node) throws ClassLoaderException {
 
-                // Compile the file
-                JavaCompiler.CompilationTask task = compiler.getTask(
-                        null,
-                        fileManager,
-                        diagnostics,
-                        null,
-                        null,
-                        fileManager.getJavaFileObjects(sourceClazzFile));
+        try {
+            ClassBuilder classBuilder = ClassBuilderFactory.getClassBuilder("PREDICATE");
+            String className = classBuilder.className(node);
 
-                if (task.call()) {
-                    loadClassName(clazzName);
-                } else {
-                    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
-                        SOS_LOG.log(LEVEL.ERROR, "Error on line " + diagnostic.getLineNumber() + " in " + diagnostic.getSource().toUri());
-                    }
+            return (Predicate) factory(className).invoke(node);
+
+        } catch (ClassBuilderException | IOException | ClassLoaderException e) {
+
+            throw new ClassLoaderException("Unable to create instance for Predicate from jsonnode " + node.toString());
+        } catch (Throwable e) {
+
+            throw new ClassLoaderException("General exception while creating predicate instance. jsonnode: " + node.toString());
+        }
+
+    }
+
+    public Policy policyInstance(JsonNode node) throws ClassLoaderException {
+
+        try {
+            ClassBuilder classBuilder = ClassBuilderFactory.getClassBuilder("POLICY");
+            String className = classBuilder.className(node);
+
+            return (Policy) factory(className).invoke(node);
+
+        } catch (ClassBuilderException | IOException | ClassLoaderException e) {
+
+            throw new ClassLoaderException("Unable to create instance for Policy from jsonnode " + node.toString());
+        } catch (Throwable e) {
+
+            throw new ClassLoaderException("General exception while creating policy instance. jsonnode: " + node.toString());
+        }
+
+    }
+
+    /**
+     * Compile the class in memory
+     *
+     * @param className fully qualified name of the class
+     * @param source of the class
+     * @return the compiled classes, including the nested ones [class name --> bytecode]
+     * @throws ClassLoaderException if the class could not be compiled
+     */
+    private Map<String, byte[]> compile(String className, String source) throws ClassLoaderException, IOException {
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new ClassLoaderException("No Java compiler available. Make sure that the node runs on a JDK");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try(InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null))) {
+
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null,
+                    fileManager,
+                    diagnostics,
+                    null,
+                    null,
+                    Collections.singletonList(InMemoryFileManager.sourceFile(className, source)));
+
+            if (!task.call()) {
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    SOS_LOG.log(LEVEL.ERROR, "Error on line " + diagnostic.getLineNumber() + " in " + className + ": " + diagnostic.getMessage(null));
                 }
 
+                throw new ClassLoaderException("Unable to compile class: " + className);
             }
 
-        } catch (IOException | DataStorageException | ClassLoaderException | ClassBuilderException e) {
-            throw new ClassLoaderException(e);
+            return fileManager.getClasses();
+        }
+    }
+
+    /**
+     * Write the bytecode to the cache.
+     * Each class is written to a temporary file first and then moved, so that a class file is never partially written.
+     */
+    private void persist(Map<String, byte[]> classes) throws ClassLoaderException {
+
+        for (Map.Entry<String, byte[]> clazz : classes.entrySet()) {
+
+            File classFile = classLoader().classFile(clazz.getKey());
+            try {
+                Files.createDirectories(classFile.getParentFile().toPath());
+
+                Path temp = Files.createTempFile(classFile.getParentFile().toPath(), classFile.getName(), ".tmp");
+                Files.write(temp, clazz.getValue());
+                Files.move(temp, classFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } catch (IOException e) {
+                // The class can still be used, but it will be compiled again after a restart
+                SOS_LOG.log(LEVEL.WARN, "Unable to cache class: " + clazz.getKey());
+            }
         }
     }
 
+    private boolean isCached(String className) throws ClassLoaderException {
+
+        return classLoader().classFile(fullName(className)).isFile();
+    }
+
     /**
-     * Load context class from path
+     * Load the class and look up its constructor
+     *
      * @param className to be loaded
      * @throws ClassLoaderException if class could not be loaded
      */
     private void loadClassName(String className) throws ClassLoaderException {
 
-        if (loadedClasses.contains(ClassBuilderFactory.PACKAGE + "." + className)) return;
-
         try {
-            java.lang.ClassLoader cl = SOSClassLoader();
-            Class<?> cls = cl.loadClass(ClassBuilderFactory.PACKAGE + "." + className);
-            loadedClasses.add(ClassBuilderFactory.PACKAGE + "." + className);
+            Class<?> cls = Class.forName(fullName(className), true, classLoader());
+            MethodHandle constructor = MethodHandles.publicLookup().findConstructor(cls, CONSTRUCTOR_TYPE);
+            factories.put(cls.getName(), constructor);
+
             SOS_LOG.log(LEVEL.INFO, "Loaded class: " + cls.getName());
 
-        } catch (ClassNotFoundException e) {
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
             throw new ClassLoaderException("Unable to load class: " + className);
         }
 
     }
 
-    public Predicate predicateInstance(JsonNode node) throws ClassLoaderException {
+    private MethodHandle factory(String className) throws ClassLoaderException {
 
-        try {
-            ClassBuilder classBuilder = ClassBuilderFactory.getClassBuilder("PREDICATE");
-            String className = classBuilder.className(node);
+        MethodHandle factory = factories.get(fullName(className));
+        if (factory == null) {
 
-            java.lang.ClassLoader classLoader = SOSClassLoader();
-            Class<?> clazz = Class.forName(ClassBuilderFactory.PACKAGE + "." + className, true, classLoader);
-            Constructor<?> constructor = clazz.getConstructor(JsonNode.class);
-            return (Predicate) constructor.newInstance(node);
+            // The class might have been compiled by a previous run of the node
+            synchronized (this) {
+                if (!factories.containsKey(fullName(className))) {
+                    loadClassName(className);
+                }
+            }
+            factory = factories.get(fullName(className));
+        }
 
-        } catch (InstantiationException | IllegalAccessException | ClassNotFoundException | NoSuchMethodException | InvocationTargetException |
-                ClassBuilderException | IOException e) {
+        return factory;
+    }
 
-            throw new ClassLoaderException("Unable to create instance for Predicate from jsonnode " + node.toString());
-        } catch (Exception e) {
+    private synchronized ComputationalUnitsClassLoader classLoader() throws ClassLoaderException {
 
-            throw new ClassLoaderException("General exception while creating predicate instance. jsonnode: " + node.toString());
+        if (classLoader == null) {
+
+            try {
+                IDirectory javaDirectory = localStorage.getJavaDirectory();
+                String fingerprint = apiFingerprint();
+                removeOtherCaches(javaDirectory.toFile(), fingerprint);
+
+                File targetClassPath = new File(javaDirectory.toFile(), fingerprint);
+                classLoader = new ComputationalUnitsClassLoader(targetClassPath, SOSReflection.class.getClassLoader());
+
+            } catch (DataStorageException e) {
+                throw new ClassLoaderException("Cannot create class loader");
+            }
         }
 
+        return classLoader;
     }
 
-    public Policy policyInstance(JsonNode node) throws ClassLoaderException {
+    /**
+     * The fingerprint of the SOS classes that the computational units are compiled against.
+     * It is the hash of the class files of the jar or directory that SOSReflection is loaded from, so that bytecode
+     * compiled against another build of the SOS is never loaded (it could fail later, e.g. with a NoSuchMethodError).
+     * If the classes cannot be read, the fingerprint is random and the computational units are compiled at every restart.
+     *
+     * @return the fingerprint of the SOS classes, computed only once
+     */
+    static synchronized String apiFingerprint() {
 
-        try {
-            ClassBuilder classBuilder = ClassBuilderFactory.getClassBuilder("POLICY");
-            String className = classBuilder.className(node);
+        if (apiFingerprint == null) {
 
-            java.lang.ClassLoader classLoader = SOSClassLoader();
-            Class<?> clazz = Class.forName(ClassBuilderFactory.PACKAGE + "." + className, true, classLoader);
-            Constructor<?> constructor = clazz.getConstructor(JsonNode.class);
-            return (Policy) constructor.newInstance(node);
+            try {
+                MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
 
-        } catch (InstantiationException | IllegalAccessException | ClassNotFoundException | NoSuchMethodException | InvocationTargetException |
-                ClassBuilderException | IOException e) {
+                CodeSource codeSource = SOSReflection.class.getProtectionDomain().getCodeSource();
+                if (codeSource == null) throw new IOException("Unknown location of the SOS classes");
 
-            throw new ClassLoaderException("Unable to create instance for Policy from jsonnode " + node.toString());
-        } catch (Exception e) {
+                Path location = Paths.get(codeSource.getLocation().toURI());
+                if (Files.isDirectory(location)) {
+                    for (Path classFile : classFiles(location)) {
+                        digest.update(location.relativize(classFile).toString().getBytes());
+                        update(digest, classFile);
+                    }
+                } else {
+                    update(digest, location);
+                }
 
-            throw new ClassLoaderException("General exception while creating policy instance. jsonnode: " + node.toString());
+                apiFingerprint = Hex.encodeHexString(digest.digest()).substring(0, FINGERPRINT_LENGTH);
+
+            } catch (IOException | URISyntaxException | NoSuchAlgorithmException | IllegalArgumentException | SecurityException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to fingerprint the SOS classes. Computational units will be compiled at every restart");
+                apiFingerprint = UUID.randomUUID().toString().replace("-", "").substring(0, FINGERPRINT_LENGTH);
+            }
         }
 
+        return apiFingerprint;
     }
 
-    private java.lang.ClassLoader SOSClassLoader() throws ClassLoaderException {
+    private static List<Path> classFiles(Path directory) throws IOException {
 
-        try {
-            IDirectory targetClassPath = localStorage.getJavaDirectory();
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.toString().endsWith(ComputationalUnitsClassLoader.CLASS_EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void update(MessageDigest digest, Path file) throws IOException {
 
-            URL url = targetClassPath.getPath().toUri().toURL();
-            URL[] urls = new URL[]{url};
+        byte[] buffer = new byte[8192];
+        try (InputStream inputStream = Files.newInputStream(file)) {
 
-            // Create a new class loader with the directory
-            return new URLClassLoader(urls);
-        } catch (IOException | DataStorageException e) {
-            throw new ClassLoaderException("Cannot create class loader");
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
         }
     }
+
+    /**
+     * Remove the bytecode compiled against other builds of the SOS, which would never be loaded again.
+     */
+    private static void removeOtherCaches(File javaDirectory, String fingerprint) {
+
+        File[] caches = javaDirectory.listFiles();
+        if (caches == null) return;
+
+        for (File cache : caches) {
+            if (cache.getName().equals(fingerprint)) continue;
+
+            try (Stream<Path> files = Files.walk(cache.toPath())) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+
+                SOS_LOG.log(LEVEL.INFO, "Removed the bytecode cache of another build of the SOS: " + cache.getName());
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to remove the bytecode cache " + cache.getName());
+            }
+        }
+    }
+
+    private static String fullName(String className) {
+
+        return ClassBuilderFactory.PACKAGE + "." + className;
+    }
 }
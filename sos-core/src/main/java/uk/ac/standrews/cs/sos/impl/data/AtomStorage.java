@@ -17,23 +17,19 @@
 package uk.ac.standrews.cs.sos.impl.data;
 
 import uk.ac.standrews.cs.castore.data.Data;
-import uk.ac.standrews.cs.castore.data.InputStreamData;
+import uk.ac.standrews.cs.castore.exceptions.BindingAbsentException;
 import uk.ac.standrews.cs.castore.exceptions.PersistenceException;
 import uk.ac.standrews.cs.castore.exceptions.RenameException;
 import uk.ac.standrews.cs.castore.interfaces.IDirectory;
 import uk.ac.standrews.cs.castore.interfaces.IFile;
 import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
-import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
-import uk.ac.standrews.cs.guid.impl.keys.InvalidID;
 import uk.ac.standrews.cs.sos.constants.Internals;
 import uk.ac.standrews.cs.sos.exceptions.crypto.ProtectionException;
 import uk.ac.standrews.cs.sos.exceptions.location.SourceLocationException;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
-import uk.ac.standrews.cs.sos.impl.datamodel.locations.LocationUtility;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.SOSLocation;
-import uk.ac.standrews.cs.sos.impl.datamodel.locations.URILocation;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.BundleType;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.LocationBundle;
 import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
@@ -41,17 +37,14 @@ import uk.ac.standrews.cs.sos.instrument.InstrumentFactory;
 import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
 import uk.ac.standrews.cs.sos.model.Location;
 import uk.ac.standrews.cs.sos.model.Role;
-import uk.ac.standrews.cs.sos.utils.IO;
 import uk.ac.standrews.cs.utilities.Pair;
 import uk.ac.standrews.cs.utilities.crypto.CryptoException;
 import uk.ac.standrews.cs.utilities.crypto.SymmetricEncryption;
 
 import javax.crypto.SecretKey;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URISyntaxException;
+import java.util.function.Consumer;
 
 import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
 
@@ -85,19 +78,17 @@ public class AtomStorage {
 
     }
 
-    public Data decryptData(Data encryptedData, SecretKey decryptedKey) throws ProtectionException {
-
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            SymmetricEncryption.decrypt(decryptedKey, encryptedData.getInputStream(), out);
-            try (InputStream inputStream = IO.OutputStreamToInputStream(out)) {
-                return new InputStreamData(inputStream);
-            }
-
-        } catch (CryptoException | IOException e) {
-            throw new ProtectionException(e);
-        }
-
+    /**
+     * Decrypt the given data while it is being read.
+     * The returned data owns the encrypted data, which is closed when the returned data is closed.
+     *
+     * @param encryptedData to be decrypted
+     * @param decryptedKey used to decrypt the data
+     * @return the decrypted data
+     */
+    public Data decryptData(Data encryptedData, SecretKey decryptedKey) {
+
+        return CipherData.decrypt(encryptedData, decryptedKey);
     }
 
     private StoredAtomInfo storeToLocalStorage(AtomBuilder atomBuilder) throws DataStorageException {
@@ -106,34 +97,23 @@ public class AtomStorage {
             throw new DataStorageException("AtomBuilder not set correctly");
         }
 
-        // Store data first and then assign valid GUID
-        try {
-            IGUID tmpGUID = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
-            StoredAtomInfo storedAtomInfo = persistData(tmpGUID, atomBuilder);
-
-            IFile tmpCachedLocation = createAtomFileInLocalStorage(tmpGUID);
-            Location location = new URILocation(tmpCachedLocation.getPathname());
-            IGUID guid = generateGUID(location);
-            tmpCachedLocation.rename(guid.toMultiHash());
-
-            return storedAtomInfo.setGuid(guid);
-
-        } catch (RenameException | URISyntaxException e) {
-            throw new DataStorageException("Unable to store data properly");
-        }
-
-    }
-
-    private StoredAtomInfo persistData(IGUID tmpGUID, AtomBuilder atomBuilder) throws DataStorageException {
-
         try (Data data = atomBuilder.getData()) {
-            return persistData(tmpGUID, atomBuilder, data);
+            return storeToLocalStorage(atomBuilder, data);
         } catch (IOException e) {
             throw new DataStorageException("Data source could not be closed");
         }
     }
 
-    private StoredAtomInfo persistData(IGUID tmpGUID, AtomBuilder atomBuilder, Data data) throws DataStorageException {
+    /**
+     * Store the data to a temporary file and hash it while it is being written.
+     * The temporary file is then renamed to the GUID of the data, or dropped if an atom with the same GUID already exists.
+     *
+     * @param atomBuilder for the atom
+     * @param data to be stored
+     * @return info about the stored atom
+     * @throws DataStorageException if the data could not be stored
+     */
+    private StoredAtomInfo storeToLocalStorage(AtomBuilder atomBuilder, Data data) throws DataStorageException {
 
         try {
             StoredAtomInfo storedAtomInfo = new StoredAtomInfo();
@@ -149,57 +129,146 @@ public class AtomStorage {
                 storedAtomInfo.setEncryptedKey(encryptionResult.Y());
             }
 
-            IDirectory dataDirectory = localStorage.getAtomsDirectory();
-            IFile file = localStorage.createFile(dataDirectory, tmpGUID.toMultiHash(), data);
-            file.persist();
+            // Store data and generate its GUID in the same pass
+            IGUID guid = writeAtom(data, null);
 
-            return storedAtomInfo;
+            return storedAtomInfo.setGuid(guid);
 
-        } catch (PersistenceException | ProtectionException e) {
+        } catch (PersistenceException | ProtectionException | RenameException e) {
             throw new DataStorageException(e);
         }
     }
 
-    private Pair<Data, String> encrypt(Data originalData, Role role) throws ProtectionException {
+    /**
+     * Store a copy of data whose GUID is already known, e.g. data fetched from another node.
+     * The data is hashed while it is written to disk and it is discarded if it does not match the given GUID.
+     *
+     * @param guid expected for the data
+     * @param data to be stored
+     * @param type of the bundle for the local copy
+     * @return info about the stored atom
+     * @throws DataStorageException if the data could not be stored or if it does not match the GUID
+     */
+    public StoredAtomInfo storeVerified(IGUID guid, Data data, BundleType type) throws DataStorageException {
 
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+        try {
+            writeAtom(data, guid);
 
-            SecretKey key = SymmetricEncryption.generateRandomKey();
-            SymmetricEncryption.encrypt(key, originalData.getInputStream(), out);
+            Location localLocation = makeLocalSOSLocation(guid);
+            LocationBundle bundle = new LocationBundle(type, localLocation);
 
-            try (InputStream encryptedData = IO.OutputStreamToInputStream(out)) {
+            return new StoredAtomInfo()
+                    .setGuid(guid)
+                    .setLocationBundle(bundle);
 
-                String encryptedKey = role.encrypt(key);
-                return new Pair<>(new InputStreamData(encryptedData), encryptedKey);
-            }
-
-        } catch (CryptoException | ProtectionException | IOException e) {
-            throw new ProtectionException(e);
+        } catch (PersistenceException | RenameException | SourceLocationException e) {
+            throw new DataStorageException(e);
         }
+    }
+
+    /**
+     * Store a copy of data whose GUID is already known while the data is read by the caller (see CachingData).
+     * Unlike storeVerified, the caller gets the first bytes of the data without waiting for the whole data to be stored.
+     *
+     * @param guid expected for the data
+     * @param data to be stored. It is read again by the streams opened before the copy is stored
+     * @param type of the bundle for the local copy
+     * @param onStored called once the data has been fully read, verified and stored, with the size of the data
+     * @return the data, which is stored while it is read
+     * @throws DataStorageException if the data could not be read
+     */
+    public Data storeVerifiedWhileReading(IGUID guid, Data data, BundleType type, Consumer<StoredAtomInfo> onStored) throws DataStorageException {
+
+        try {
+            Location localLocation = makeLocalSOSLocation(guid);
+            StoredAtomInfo storedAtomInfo = new StoredAtomInfo()
+                    .setGuid(guid)
+                    .setLocationBundle(new LocationBundle(type, localLocation));
 
+            CachingData cachingData = new CachingData(data, localStorage, storedAtomInfo, onStored);
+            cachingData.open();
+
+            return cachingData;
+
+        } catch (SourceLocationException | IOException e) {
+            throw new DataStorageException(e);
+        }
     }
 
-    private IGUID generateGUID(Location location) {
+    /**
+     * Write the data to a temporary file in the atoms directory and hash it while it is being written.
+     * The temporary file is then renamed to the GUID of the data, or dropped if an atom with the same GUID already exists.
+     * The temporary file is also dropped if the data could not be written or verified.
+     *
+     * @param data to be written
+     * @param expectedGUID of the data, if known. The data is dropped if its GUID does not match this one
+     * @return the GUID of the data
+     */
+    private IGUID writeAtom(Data data, IGUID expectedGUID) throws DataStorageException, PersistenceException, RenameException {
+
+        IGUID tmpGUID = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        DigestData digestData = new DigestData(data, GUID_ALGORITHM);
+
+        IDirectory dataDirectory = localStorage.getAtomsDirectory();
+        IFile tmpFile = localStorage.createFile(dataDirectory, tmpGUID.toMultiHash(), digestData);
+
+        boolean renamed = false;
+        try {
+            tmpFile.persist();
 
-        try (Data data = LocationUtility.getData(location)) {
+            IGUID guid = digestData.guid();
+            measureGUIDGeneration(digestData);
+            if (guid.isInvalid()) {
+                throw new DataStorageException("Unable to generate GUID for data");
+            }
 
-            long start = System.nanoTime();
-            IGUID guid = GUIDFactory.generateGUID(GUID_ALGORITHM, data.getInputStream());
-            long duration = System.nanoTime() - start;
+            if (expectedGUID != null && !expectedGUID.equals(guid)) {
+                throw new DataStorageException("Data does not match the GUID " + expectedGUID.toMultiHash());
+            }
 
-            StatsTYPE subtype = StatsTYPE.getHashType(Internals.GUID_ALGORITHM);
-            InstrumentFactory.instance().measure(StatsTYPE.guid_data, subtype, Long.toString(data.getSize()), duration);
+            // Deduplication: if the atom is already stored, the temporary copy is dropped
+            if (!dataDirectory.contains(guid.toMultiHash())) {
+                tmpFile.rename(guid.toMultiHash());
+                renamed = true;
+            }
 
             return guid;
 
-        } catch (IOException | GUIDGenerationException e) {
-            return new InvalidID();
+        } finally {
+            if (!renamed) {
+                removeTemporaryFile(dataDirectory, tmpGUID);
+            }
         }
     }
 
-    private IFile createAtomFileInLocalStorage(IGUID guid) throws DataStorageException {
-        IDirectory dataDirectory = localStorage.getAtomsDirectory();
-        return localStorage.createFile(dataDirectory, guid.toMultiHash());
+    private void removeTemporaryFile(IDirectory dataDirectory, IGUID tmpGUID) {
+
+        try {
+            dataDirectory.remove(tmpGUID.toMultiHash());
+        } catch (BindingAbsentException e) {
+            // The temporary file was never created
+        }
+    }
+
+    private Pair<Data, String> encrypt(Data originalData, Role role) throws ProtectionException {
+
+        try {
+            SecretKey key = SymmetricEncryption.generateRandomKey();
+            String encryptedKey = role.encrypt(key);
+
+            // The data is encrypted while it is written to disk
+            return new Pair<>(CipherData.encrypt(originalData, key), encryptedKey);
+
+        } catch (CryptoException e) {
+            throw new ProtectionException(e);
+        }
+
+    }
+
+    private void measureGUIDGeneration(DigestData digestData) {
+
+        StatsTYPE subtype = StatsTYPE.getHashType(Internals.GUID_ALGORITHM);
+        InstrumentFactory.instance().measure(StatsTYPE.guid_data, subtype, Long.toString(digestData.getBytesRead()), digestData.getDigestTime());
     }
 
     private Location makeLocalSOSLocation(IGUID guid) throws SourceLocationException {
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.exceptions.BindingAbsentException;
+import uk.ac.standrews.cs.castore.exceptions.RenameException;
+import uk.ac.standrews.cs.castore.interfaces.IDirectory;
+import uk.ac.standrews.cs.castore.interfaces.IFile;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
+import uk.ac.standrews.cs.sos.impl.datamodel.locations.LocationUtility;
+import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.io.*;
+import java.util.function.Consumer;
+
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * Data of an atom stored in another node, which is written to the local atoms directory while it is read.
+ *
+ * The first stream copies the bytes to a temporary file and hashes them as the caller reads them, so that the caller
+ * does not wait for the whole atom to be downloaded. At the end of the data, the temporary file is renamed to the GUID
+ * of the atom and the listener is notified, or the file is dropped and the stream fails if the data does not match
+ * the GUID. The temporary file is also dropped if the stream fails or is closed before the end of the data.
+ *
+ * The following streams read the local copy, once stored. Until then (e.g. while the first stream is still being read
+ * or if the local copy could not be stored), they read the wrapped data again, so the wrapped data must be readable
+ * more than once (LocationData opens its location again on every stream). The wrapped data is always verified against
+ * the GUID, so wrapped data that cannot be read again fails the read rather than being returned truncated or empty.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class CachingData implements Data {
+
+    private final Data data;
+    private final LocalStorage localStorage;
+    private final StoredAtomInfo storedAtomInfo;
+    private final Consumer<StoredAtomInfo> onStored;
+
+    private InputStream first;
+    private volatile boolean stored;
+    private volatile long size = -1;
+
+    CachingData(Data data, LocalStorage localStorage, StoredAtomInfo storedAtomInfo, Consumer<StoredAtomInfo> onStored) {
+        this.data = data;
+        this.localStorage = localStorage;
+        this.storedAtomInfo = storedAtomInfo;
+        this.onStored = onStored;
+    }
+
+    /**
+     * Open the first stream of the data. The first byte is read ahead, so that data that cannot be reached
+     * (or empty data that does not match the GUID) is reported here rather than to the caller.
+     *
+     * @throws IOException if the data could not be read
+     */
+    synchronized void open() throws IOException {
+
+        PushbackInputStream stream = new PushbackInputStream(new VerifiedInputStream(createCacheFile()));
+        try {
+            int b = stream.read();
+            if (b != -1) stream.unread(b);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+
+        first = stream;
+    }
+
+    /**
+     * Note that this method reads the whole data in memory.
+     * Use getInputStream() whenever possible.
+     *
+     * @return the bytes of the atom
+     */
+    @Override
+    public byte[] getState() {
+
+        try (InputStream inputStream = getInputStream()) {
+            return IOUtils.toByteArray(inputStream);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * The size of the data is not known until the data has been fully read and verified.
+     *
+     * @return the number of bytes read or -1
+     */
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() {
+
+        if (first != null) {
+            InputStream stream = first;
+            first = null;
+
+            return stream;
+        }
+
+        return stored ? localData().getInputStream() : new VerifiedInputStream(null);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (first != null) {
+            first.close();
+            first = null;
+        }
+
+        data.close();
+    }
+
+    /**
+     * The data is read through getInputStream(), so that it is verified (and cached) like any other read.
+     */
+    @Override
+    public String toString() {
+        return new String(getState());
+    }
+
+    private Data localData() {
+        return LocationUtility.getData(storedAtomInfo.getLocationBundle().getLocation());
+    }
+
+    /**
+     * @return the temporary file where the data is cached or null if the file could not be created
+     */
+    private IFile createCacheFile() {
+
+        try {
+            IDirectory dataDirectory = localStorage.getAtomsDirectory();
+            return localStorage.createFile(dataDirectory, GUIDFactory.generateRandomGUID(GUID_ALGORITHM).toMultiHash());
+
+        } catch (DataStorageException e) {
+            SOS_LOG.log(LEVEL.WARN, "Unable to create the cache file for atom " + storedAtomInfo.getGuid().toShortString());
+            return null;
+        }
+    }
+
+    /**
+     * Stream of the wrapped data that is verified against the GUID of the atom and, optionally, cached.
+     */
+    private class VerifiedInputStream extends FilterInputStream {
+
+        private final DigestData digestData;
+        private final IFile cacheFile;
+        private OutputStream cache; // null if the data is not (or no longer) being cached
+        private boolean done;
+
+        VerifiedInputStream(IFile cacheFile) {
+            this(new DigestData(data, GUID_ALGORITHM), cacheFile);
+        }
+
+        private VerifiedInputStream(DigestData digestData, IFile cacheFile) {
+            super(digestData.getInputStream());
+
+            this.digestData = digestData;
+            this.cacheFile = cacheFile;
+
+            if (cacheFile != null) {
+                try {
+                    cache = new BufferedOutputStream(new FileOutputStream(cacheFile.toFile()));
+                } catch (IOException e) {
+                    SOS_LOG.log(LEVEL.WARN, "Unable to write the cache file for atom " + storedAtomInfo.getGuid().toShortString());
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            int read;
+            try {
+                read = in.read(b, off, len);
+            } catch (IOException e) {
+                done = true;
+                dropCache();
+                throw e;
+            }
+
+            if (read == -1) {
+                finish();
+                return -1;
+            }
+
+            if (cache != null) {
+                try {
+                    cache.write(b, off, read);
+                } catch (IOException e) {
+                    // The data is still served and verified, but it is not cached
+                    SOS_LOG.log(LEVEL.WARN, "Unable to cache atom " + storedAtomInfo.getGuid().toShortString() + " - " + e.getMessage());
+                    dropCache();
+                }
+            }
+
+            return read;
+        }
+
+        /**
+         * Skipped bytes are read, so that they are hashed and cached too.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) break;
+                skipped += read;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (!done) {
+                done = true;
+                dropCache();
+            }
+
+            super.close();
+        }
+
+        private void finish() throws IOException {
+
+            if (done) return;
+            done = true;
+
+            IGUID guid = storedAtomInfo.getGuid();
+            if (!guid.equals(digestData.guid())) {
+                dropCache();
+                throw new IOException("Data does not match the GUID " + guid.toMultiHash());
+            }
+
+            size = digestData.getBytesRead();
+            if (cache == null) return;
+
+            try {
+                cache.close();
+                cache = null;
+
+                // Deduplication: the atom might have been stored while it was being read
+                IDirectory dataDirectory = localStorage.getAtomsDirectory();
+                if (dataDirectory.contains(guid.toMultiHash())) {
+                    dataDirectory.remove(cacheFile.getName());
+                } else {
+                    cacheFile.rename(guid.toMultiHash());
+                }
+
+                stored = true;
+                onStored.accept(storedAtomInfo.setSize(size));
+
+            } catch (IOException | DataStorageException | BindingAbsentException | RenameException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to cache atom " + guid.toShortString() + " - " + e.getMessage());
+                removeCacheFile();
+            }
+        }
+
+        private void dropCache() {
+
+            if (cache == null) return;
+
+            IOUtils.closeQuietly(cache);
+            cache = null;
+            removeCacheFile();
+        }
+
+        private void removeCacheFile() {
+
+            try {
+                localStorage.getAtomsDirectory().remove(cacheFile.getName());
+            } catch (DataStorageException | BindingAbsentException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to remove the cache file " + cacheFile.getName());
+            }
+        }
+    }
+}
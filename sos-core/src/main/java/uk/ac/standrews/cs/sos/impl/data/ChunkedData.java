@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.exceptions.manifest.AtomNotFoundException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Data made of a sequence of chunks (atoms).
+ *
+ * The chunks are fetched lazily, one at a time, while the data is being read.
+ * Each chunk is closed as soon as it has been read, or when the stream is closed.
+ *
+ * In a compound of type DATA, each chunk is labelled with its position in the data and its length (see chunkLabel),
+ * so that the data can be reassembled and sized without fetching the chunks.
+ * Compounds created by previous versions of the SOS have the position only.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ChunkedData implements Data {
+
+    private static final Pattern CHUNK_LABEL = Pattern.compile("(\\d+)(?::(\\d+))?");
+
+    private final List<IGUID> chunks;
+    private final long size;
+    private final ChunkReader chunkReader;
+
+    /**
+     * @param chunks the GUIDs of the atoms making this data, in order
+     * @param size of the data, or -1 if unknown
+     * @param chunkReader used to fetch the chunks
+     */
+    public ChunkedData(List<IGUID> chunks, long size, ChunkReader chunkReader) {
+        this.chunks = chunks;
+        this.size = size;
+        this.chunkReader = chunkReader;
+    }
+
+    public interface ChunkReader {
+        Data read(IGUID chunk) throws AtomNotFoundException;
+    }
+
+    /**
+     * @param position of the chunk in the data
+     * @param length of the chunk in bytes
+     * @return the label of the chunk in a compound of type DATA
+     */
+    public static String chunkLabel(int position, long length) {
+        return position + ":" + length;
+    }
+
+    /**
+     * @param label of a content
+     * @return the position of the chunk, or -1 if the label is not the label of a chunk
+     */
+    public static int chunkPosition(String label) {
+
+        if (label == null) return -1;
+
+        Matcher matcher = CHUNK_LABEL.matcher(label);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * @param label of a content
+     * @return the length of the chunk, or -1 if unknown
+     */
+    public static long chunkLength(String label) {
+
+        if (label == null) return -1;
+
+        Matcher matcher = CHUNK_LABEL.matcher(label);
+        return matcher.matches() && matcher.group(2) != null ? Long.parseLong(matcher.group(2)) : -1;
+    }
+
+    /**
+     * Note that this method reads the whole data in memory.
+     * Use getInputStream() whenever possible.
+     *
+     * @return the bytes of all chunks
+     */
+    @Override
+    public byte[] getState() {
+
+        try (InputStream inputStream = getInputStream()) {
+            return IOUtils.toByteArray(inputStream);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * @return the total size of the chunks, as recorded in the compound, or -1 if unknown
+     */
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        Iterator<IGUID> iterator = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+
+                IGUID chunk = iterator.next();
+                try {
+                    return new ChunkInputStream(chunkReader.read(chunk));
+                } catch (AtomNotFoundException e) {
+                    return new MissingChunkInputStream(chunk);
+                }
+            }
+        }) {
+
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+
+                // SequenceInputStream.close() would fetch the remaining chunks only to close them,
+                // so skip them instead and close only the chunk being read
+                while (iterator.hasNext()) iterator.next();
+                super.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() { }
+
+    @Override
+    public String toString() {
+        return new String(getState());
+    }
+
+    public List<IGUID> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Stream of a chunk. Closing it closes the chunk too.
+     * The SequenceInputStream closes each chunk stream once it has been read.
+     */
+    private static class ChunkInputStream extends FilterInputStream {
+
+        private final Data chunk;
+
+        ChunkInputStream(Data chunk) {
+            super(chunk.getInputStream());
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                chunk.close();
+            }
+        }
+    }
+
+    /**
+     * Fails the read of the whole data, rather than silently skipping the missing chunk.
+     */
+    private static class MissingChunkInputStream extends InputStream {
+
+        private final IGUID chunk;
+
+        MissingChunkInputStream(IGUID chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Unable to read chunk with GUID " + chunk.toMultiHash());
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.utilities.crypto.CryptoException;
+import uk.ac.standrews.cs.utilities.crypto.SymmetricEncryption;
+
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data that encrypts or decrypts the wrapped data while it is being read.
+ *
+ * The cipher runs on a thread of its own and writes into a bounded pipe, so that the data is never fully held in memory
+ * and the reader gets the first bytes as soon as they are available.
+ * The actual encryption/decryption is delegated to SymmetricEncryption, so the format of the data is unchanged.
+ *
+ * Closing the input stream stops the cipher thread, even if the stream has not been fully read.
+ * Closing this data closes the wrapped data too.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class CipherData implements Data {
+
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    private static final long KEEP_ALIVE_S = 60;
+    private static final ExecutorService CIPHER_SERVICE = cipherService();
+
+    private enum MODE { ENCRYPT, DECRYPT }
+
+    private final Data data;
+    private final SecretKey key;
+    private final MODE mode;
+
+    private CipherData(Data data, SecretKey key, MODE mode) {
+        this.data = data;
+        this.key = key;
+        this.mode = mode;
+    }
+
+    public static CipherData encrypt(Data data, SecretKey key) {
+        return new CipherData(data, key, MODE.ENCRYPT);
+    }
+
+    public static CipherData decrypt(Data data, SecretKey key) {
+        return new CipherData(data, key, MODE.DECRYPT);
+    }
+
+    /**
+     * Note that this method reads the whole data in memory.
+     * Use getInputStream() whenever possible.
+     *
+     * @return the encrypted/decrypted bytes
+     */
+    @Override
+    public byte[] getState() {
+
+        try (InputStream inputStream = getInputStream()) {
+            return IOUtils.toByteArray(inputStream);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * The size of the encrypted/decrypted data depends on the IV and padding added by SymmetricEncryption,
+     * so it is not known until the data has been fully read.
+     *
+     * @return -1, as the size is unknown
+     */
+    @Override
+    public long getSize() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        Pipe pipe = new Pipe(PIPE_BUFFER_SIZE);
+        Future<?> cipher = CIPHER_SERVICE.submit(() -> {
+
+            OutputStream out = pipe.getOutputStream();
+            Throwable failure = null;
+            try (InputStream in = data.getInputStream()) {
+
+                if (mode == MODE.ENCRYPT) {
+                    SymmetricEncryption.encrypt(key, in, out);
+                } else {
+                    SymmetricEncryption.decrypt(key, in, out);
+                }
+
+            } catch (CryptoException | IOException | RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                // The failure is recorded as the pipe is closed, so that the reader does not mistake it for EOF
+                pipe.closeWriter(failure);
+            }
+        });
+
+        return pipe.getInputStream(cipher);
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
+    @Override
+    public String toString() {
+        return new String(getState());
+    }
+
+    /**
+     * Every open stream gets its own cipher thread (idle threads are reused), rather than a fixed number of threads.
+     * A cipher thread blocks while its reader is slow, so a bounded pool would make other streams wait behind it and
+     * a stream opened while reading another one (e.g. encrypting decrypted data) could wait forever.
+     */
+    private static ExecutorService cipherService() {
+
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "sos-cipher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Bounded buffer between the cipher thread and the reader.
+     *
+     * Unlike PipedInputStream/PipedOutputStream, the pipe does not depend on which threads are alive:
+     * the writer is aborted as soon as the reader closes its end, and failures of the writer are rethrown to the reader
+     * once the bytes already written have been read.
+     */
+    private static class Pipe {
+
+        private final byte[] buffer;
+        private int readPosition;
+        private int count;
+
+        private boolean writerClosed;
+        private boolean readerClosed;
+        private Throwable failure;
+
+        Pipe(int size) {
+            this.buffer = new byte[size];
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+
+            while (len > 0) {
+                while (count == buffer.length && !readerClosed && !writerClosed) {
+                    await();
+                }
+                if (readerClosed) throw new IOException("Pipe closed by the reader");
+                if (writerClosed) throw new IOException("Pipe closed");
+
+                int writePosition = (readPosition + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePosition));
+                System.arraycopy(b, off, buffer, writePosition, n);
+
+                count += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) return 0;
+
+            while (count == 0 && !writerClosed && !readerClosed) {
+                await();
+            }
+            if (readerClosed) throw new IOException("Stream closed");
+
+            if (count == 0) {
+                if (failure != null) throw new IOException("Unable to process protected data", failure);
+                return -1;
+            }
+
+            int n = Math.min(len, Math.min(count, buffer.length - readPosition));
+            System.arraycopy(buffer, readPosition, b, off, n);
+
+            readPosition = (readPosition + n) % buffer.length;
+            count -= n;
+            notifyAll();
+
+            return n;
+        }
+
+        synchronized int available() {
+            return count;
+        }
+
+        synchronized void closeWriter(Throwable failure) {
+
+            if (!writerClosed) {
+                writerClosed = true;
+                this.failure = failure;
+            }
+            notifyAll();
+        }
+
+        synchronized void closeReader() {
+
+            readerClosed = true;
+            count = 0;
+            notifyAll();
+        }
+
+        OutputStream getOutputStream() {
+
+            return new OutputStream() {
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    Pipe.this.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // The pipe is closed by the cipher task only, once the outcome of the encryption/decryption is known
+                }
+            };
+        }
+
+        /**
+         * @param writer task writing into the pipe, cancelled when the input stream is closed
+         * @return the input stream reading from the pipe
+         */
+        InputStream getInputStream(Future<?> writer) {
+
+            return new InputStream() {
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    int n = read(b, 0, 1);
+
+                    return n == -1 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return Pipe.this.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return Pipe.this.available();
+                }
+
+                @Override
+                public void close() {
+                    closeReader();
+                    // Interrupts the cipher thread, in case it is blocked reading the wrapped data
+                    writer.cancel(true);
+                }
+            };
+        }
+
+        private void await() throws IOException {
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting on the pipe");
+            }
+        }
+    }
+}
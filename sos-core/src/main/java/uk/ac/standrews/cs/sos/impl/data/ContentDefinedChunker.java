@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Split a stream of data into content-defined chunks using the FastCDC algorithm.
+ *
+ * Chunk boundaries depend on the content only, so an insertion or deletion in the data changes only the chunks around
+ * the edit. Near-identical data will therefore share most of its chunks.
+ *
+ * Chunks are between averageChunkSize/4 and averageChunkSize*4 bytes, except for the last chunk, which can be smaller.
+ * Memory usage is bounded by the maximum chunk size.
+ *
+ * See: Xia et al., "FastCDC: a Fast and Efficient Content-Defined Chunking Approach for Data Deduplication", USENIX ATC 2016
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ContentDefinedChunker implements Closeable {
+
+    public static final int DEFAULT_AVERAGE_CHUNK_SIZE = 64 * 1024;
+    public static final int MIN_AVERAGE_CHUNK_SIZE = 256;
+
+    // The gear table MUST be the same on all nodes, otherwise the same data would be chunked differently
+    private static final long GEAR_SEED = 0x5EA0F5717FFL;
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream inputStream;
+
+    private final int minChunkSize;
+    private final int averageChunkSize;
+    private final int maxChunkSize;
+
+    // Normalised chunking: a harder mask before the average size and an easier mask after it
+    private final long maskS;
+    private final long maskL;
+
+    private final byte[] buffer;
+    private int bufferStart = 0;
+    private int bufferEnd = 0;
+    private boolean endOfStream = false;
+
+    public ContentDefinedChunker(InputStream inputStream) {
+        this(inputStream, DEFAULT_AVERAGE_CHUNK_SIZE);
+    }
+
+    public ContentDefinedChunker(InputStream inputStream, int averageChunkSize) {
+
+        if (averageChunkSize < MIN_AVERAGE_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Average chunk size must be at least " + MIN_AVERAGE_CHUNK_SIZE + " bytes");
+        }
+
+        this.inputStream = inputStream;
+
+        int bits = 31 - Integer.numberOfLeadingZeros(averageChunkSize); // floor(log2(averageChunkSize))
+        this.averageChunkSize = 1 << bits;
+        this.minChunkSize = this.averageChunkSize / 4;
+        this.maxChunkSize = this.averageChunkSize * 4;
+
+        this.maskS = topBitsMask(bits + 1);
+        this.maskL = topBitsMask(bits - 1);
+
+        this.buffer = new byte[maxChunkSize];
+    }
+
+    /**
+     * Read the next chunk from the stream.
+     *
+     * @return the next chunk or null if there is no more data
+     * @throws IOException if the data could not be read
+     */
+    public byte[] next() throws IOException {
+
+        fillBuffer();
+
+        int available = bufferEnd - bufferStart;
+        if (available == 0) {
+            return null;
+        }
+
+        int chunkLength = cutPoint(bufferStart, available);
+        byte[] chunk = Arrays.copyOfRange(buffer, bufferStart, bufferStart + chunkLength);
+        bufferStart += chunkLength;
+
+        return chunk;
+    }
+
+    public int getAverageChunkSize() {
+        return averageChunkSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * @return the length of the chunk starting at the given offset in the buffer
+     */
+    private int cutPoint(int offset, int length) {
+
+        if (length <= minChunkSize) {
+            return length;
+        }
+
+        int normalSize = Math.min(length, averageChunkSize);
+        int maxSize = Math.min(length, maxChunkSize);
+
+        long fingerprint = 0;
+        int i = minChunkSize;
+
+        for (; i < normalSize; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[offset + i] & 0xFF];
+            if ((fingerprint & maskS) == 0) {
+                return i + 1;
+            }
+        }
+
+        for (; i < maxSize; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[offset + i] & 0xFF];
+            if ((fingerprint & maskL) == 0) {
+                return i + 1;
+            }
+        }
+
+        return maxSize;
+    }
+
+    /**
+     * Make sure that the buffer contains at least maxChunkSize bytes, unless the end of the stream has been reached.
+     */
+    private void fillBuffer() throws IOException {
+
+        if (bufferStart > 0) {
+            int remaining = bufferEnd - bufferStart;
+            System.arraycopy(buffer, bufferStart, buffer, 0, remaining);
+            bufferStart = 0;
+            bufferEnd = remaining;
+        }
+
+        while (!endOfStream && bufferEnd < buffer.length) {
+            int read = inputStream.read(buffer, bufferEnd, buffer.length - bufferEnd);
+            if (read == -1) {
+                endOfStream = true;
+            } else {
+                bufferEnd += read;
+            }
+        }
+    }
+
+    /**
+     * The gear hash shifts left, so the top bits of the fingerprint depend on the largest window of bytes.
+     */
+    private static long topBitsMask(int bits) {
+        return bits <= 0 ? 0 : (-1L) << (64 - bits);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.codec.binary.Hex;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.guid.ALGORITHM;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.guid.impl.keys.InvalidID;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data wrapper that hashes the bytes of the wrapped data while they are being read.
+ *
+ * This allows the data to be written to storage and its GUID to be generated in a single pass,
+ * rather than writing the data first and reading it back from disk to hash it.
+ *
+ * The GUID is only valid once the stream returned by getInputStream() has been fully consumed.
+ * Every call to getInputStream() or getState() restarts the digest.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class DigestData implements Data {
+
+    // Multi-hash prefix (e.g. SHA256_16_) for each algorithm, derived from the GUIDFactory itself
+    private static final Map<ALGORITHM, String> MULTIHASH_PREFIXES = new ConcurrentHashMap<>();
+
+    private final Data data;
+    private final ALGORITHM algorithm;
+
+    private MessageDigest digest;
+    private long bytesRead;
+    private long digestTime;
+
+    public DigestData(Data data, ALGORITHM algorithm) {
+        this.data = data;
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public byte[] getState() {
+
+        resetDigest();
+
+        byte[] state = data.getState();
+        update(state, 0, state.length);
+
+        return state;
+    }
+
+    @Override
+    public long getSize() {
+        return data.getSize();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        resetDigest();
+        return new DigestInputStream(data.getInputStream());
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
+    @Override
+    public String toString() {
+        return data.toString();
+    }
+
+    /**
+     * @return number of bytes hashed since the last call to getInputStream() or getState()
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return time (in nanoseconds) spent hashing since the last call to getInputStream() or getState()
+     */
+    public long getDigestTime() {
+        return digestTime;
+    }
+
+    /**
+     * Generate the GUID for the bytes read so far.
+     *
+     * @return the GUID of the data or an InvalidID if the GUID could not be generated
+     */
+    public IGUID guid() {
+
+        if (digest == null) {
+            return new InvalidID();
+        }
+
+        try {
+            String multiHash = multiHashPrefix(algorithm) + Hex.encodeHexString(digest.digest());
+            return GUIDFactory.recreateGUID(multiHash);
+
+        } catch (GUIDGenerationException e) {
+            return new InvalidID();
+        } finally {
+            digest = null;
+        }
+    }
+
+    private void resetDigest() {
+
+        digest = messageDigest(algorithm);
+        bytesRead = 0;
+        digestTime = 0;
+    }
+
+    private void update(byte[] bytes, int offset, int length) {
+
+        if (digest == null || length <= 0) return;
+
+        long start = System.nanoTime();
+        digest.update(bytes, offset, length);
+        digestTime += System.nanoTime() - start;
+
+        bytesRead += length;
+    }
+
+    private static MessageDigest messageDigest(ALGORITHM algorithm) {
+
+        try {
+            switch (algorithm) {
+                case SHA1:
+                    return MessageDigest.getInstance("SHA-1");
+                case SHA256:
+                    return MessageDigest.getInstance("SHA-256");
+                case SHA384:
+                    return MessageDigest.getInstance("SHA-384");
+                case SHA512:
+                    return MessageDigest.getInstance("SHA-512");
+                case MD5:
+                    return MessageDigest.getInstance("MD5");
+                default:
+                    return null;
+            }
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static String multiHashPrefix(ALGORITHM algorithm) throws GUIDGenerationException {
+
+        String prefix = MULTIHASH_PREFIXES.get(algorithm);
+        if (prefix == null) {
+            String probe = GUIDFactory.generateGUID(algorithm, new ByteArrayInputStream(new byte[0])).toMultiHash();
+            prefix = probe.substring(0, probe.lastIndexOf('_') + 1);
+            MULTIHASH_PREFIXES.put(algorithm, prefix);
+        }
+
+        return prefix;
+    }
+
+    private class DigestInputStream extends FilterInputStream {
+
+        DigestInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                update(new byte[]{(byte) b}, 0, 1);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            update(b, off, n);
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still be hashed
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) break;
+                skipped += read;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.sos.model.Location;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Data read directly from a location, without buffering it in memory.
+ * The source of the location is opened on every call to getInputStream().
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LocationData implements Data {
+
+    private final Location location;
+
+    public LocationData(Location location) {
+        this.location = location;
+    }
+
+    /**
+     * Note that this method reads the whole data in memory.
+     * Use getInputStream() whenever possible.
+     *
+     * @return the bytes at the location
+     */
+    @Override
+    public byte[] getState() {
+
+        try (InputStream inputStream = getInputStream()) {
+            return IOUtils.toByteArray(inputStream);
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * The size of the data is not known until the data has been fully read.
+     *
+     * @return -1
+     */
+    @Override
+    public long getSize() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+
+        try {
+            return location.getSource();
+        } catch (IOException e) {
+            return new UnreachableLocationInputStream(e);
+        }
+    }
+
+    @Override
+    public void close() { }
+
+    @Override
+    public String toString() {
+        return location.toString();
+    }
+
+    /**
+     * Fails the read of the data, rather than returning empty data.
+     */
+    private static class UnreachableLocationInputStream extends InputStream {
+
+        private final IOException cause;
+
+        UnreachableLocationInputStream(IOException cause) {
+            this.cause = cause;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Unable to read data from location", cause);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import uk.ac.standrews.cs.castore.interfaces.IFile;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.sos.utils.Persistence;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Keeps track of the atoms that were fetched from other nodes and cached in the local atoms directory.
+ *
+ * Only these atoms can be evicted to free space, since the other atoms in the atoms directory
+ * might not be stored anywhere else.
+ * Atoms are evicted in least-recently-used order.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class RemoteAtomsCache implements Serializable {
+
+    // [atom -> size in bytes], ordered from the least to the most recently used atom
+    private transient LinkedHashMap<IGUID, Long> atoms;
+    private transient long size;
+
+    private static final long serialVersionUID = 1L;
+    public RemoteAtomsCache() {
+        atoms = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized void add(IGUID guid, long atomSize) {
+
+        Long previous = atoms.put(guid, atomSize);
+        size += atomSize - (previous != null ? previous : 0);
+    }
+
+    /**
+     * Mark the atom as the most recently used.
+     *
+     * @param guid of the atom
+     * @return true if the atom is in the cache
+     */
+    public synchronized boolean touch(IGUID guid) {
+        return atoms.get(guid) != null;
+    }
+
+    public synchronized boolean contains(IGUID guid) {
+        return atoms.containsKey(guid);
+    }
+
+    /**
+     * @param guid of the atom
+     * @return the size of the removed atom, 0 if the atom was not in the cache
+     */
+    public synchronized long remove(IGUID guid) {
+
+        Long previous = atoms.remove(guid);
+        if (previous == null) return 0;
+
+        size -= previous;
+        return previous;
+    }
+
+    /**
+     * Get the least recently used atoms to be evicted, so that at least the given number of bytes is freed.
+     * The atoms are not removed from the cache.
+     *
+     * @param bytes to free
+     * @return the atoms to evict, from the least recently used one
+     */
+    public synchronized List<IGUID> toEvict(long bytes) {
+
+        List<IGUID> retval = new LinkedList<>();
+
+        long freed = 0;
+        Iterator<Map.Entry<IGUID, Long>> iterator = atoms.entrySet().iterator();
+        while (freed < bytes && iterator.hasNext()) {
+            Map.Entry<IGUID, Long> eldest = iterator.next();
+
+            retval.add(eldest.getKey());
+            freed += eldest.getValue();
+        }
+
+        return retval;
+    }
+
+    /**
+     * @return total size of the cached atoms in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return atoms.size();
+    }
+
+    public synchronized void clear() {
+
+        atoms.clear();
+        size = 0;
+    }
+
+    public void persist(IFile file) throws IOException {
+
+        Persistence.persist(this, file);
+    }
+
+    // This method defines how the cache is serialised
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        // Store entries as ordered in the LRU
+        out.writeInt(atoms.size());
+        for (Map.Entry<IGUID, Long> atom : atoms.entrySet()) {
+            out.writeUTF(atom.getKey().toMultiHash());
+            out.writeLong(atom.getValue());
+        }
+    }
+
+    // This method defines how the cache is de-serialised
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        atoms = new LinkedHashMap<>(16, 0.75f, true);
+        size = 0;
+
+        try {
+            int numberOfAtoms = in.readInt();
+            for (int i = 0; i < numberOfAtoms; i++) {
+                IGUID guid = GUIDFactory.recreateGUID(in.readUTF());
+                add(guid, in.readLong());
+            }
+
+        } catch (GUIDGenerationException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -28,6 +28,7 @@ public class StoredAtomInfo {
     private LocationBundle locationBundle;
     private IGUID role;
     private String encryptedKey;
+    private long size = -1; // Size of the stored data, or -1 if not known
 
     public IGUID getGuid() {
         return guid;
@@ -68,4 +69,14 @@ public class StoredAtomInfo {
 
         return this;
     }
+
+    public long getSize() {
+        return size;
+    }
+
+    public StoredAtomInfo setSize(long size) {
+        this.size = size;
+
+        return this;
+    }
 }
@@ -0,0 +1,759 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.impl.utils.LongObjectMap;
+import uk.ac.standrews.cs.sos.impl.utils.LongSet;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent inverted index of the text of the atoms stored in this node.
+ *
+ * The text of an atom is decoded with the default charset (as done by the text predicates, see CommonPredicates),
+ * folded to lower case one character at a time and split into trigrams (any three consecutive characters).
+ * The index maps each trigram to the sorted list (postings) of the atoms containing it.
+ * Trigrams are kept in primitive collections (see LongObjectMap and LongSet) and postings in int arrays.
+ * An atom can contain a text of at least three characters only if it contains all the trigrams of the text,
+ * so the index can tell which atoms definitely do not contain a text, without reading their data.
+ * Atoms that are not indexed (e.g. protected atoms or atoms cached from other nodes) are never excluded.
+ *
+ * The index is stored as a snapshot plus a log of the atoms added/removed since the snapshot.
+ * Updates are applied in memory and appended to the log, one record per atom.
+ * Once the log grows beyond COMPACTION_THRESHOLD records, the index is compacted: removed atoms are dropped,
+ * the snapshot is rewritten and the log is truncated.
+ *
+ * All updates (including compaction and rebuilds) are performed in the background by a single thread,
+ * so that ingesting data is not slowed down by the index. Lookups can be performed concurrently by any thread.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class TextIndex {
+
+    private static final int MAGIC_NUMBER = 0x534f5354;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte ADD_RECORD = 1;
+    private static final byte REMOVE_RECORD = 2;
+
+    // Atoms with more distinct trigrams than this are not indexed, so that memory is bounded while indexing
+    static final int MAX_TRIGRAMS_PER_ATOM = 1 << 18;
+    static final int COMPACTION_THRESHOLD = 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final AtomsData atomsData;
+    private final Charset charset;
+
+    private final ExecutorService executor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock. Atoms are identified internally by their position in the docs list
+    private List<IGUID> docs = new ArrayList<>();
+    private Map<IGUID, Integer> docIds = new HashMap<>();
+    private BitSet removed = new BitSet();
+    private LongObjectMap<Postings> postings = new LongObjectMap<>();
+
+    // Accessed only by the executor thread
+    private DataOutputStream log;
+    private int logRecords;
+
+    /**
+     * Load the index from the given files, if these exist.
+     * An index that cannot be read is discarded and should be rebuilt.
+     *
+     * @param snapshotFile where the compacted index is stored
+     * @param logFile where the updates to the index are logged
+     * @param atomsData gives the data of the atoms to index
+     * @throws IOException if the log cannot be opened
+     */
+    public TextIndex(File snapshotFile, File logFile, AtomsData atomsData) throws IOException {
+
+        this.snapshotFile = snapshotFile;
+        this.logFile = logFile;
+        this.atomsData = atomsData;
+        this.charset = Charset.defaultCharset();
+
+        // Daemon thread, so that pending indexing does not keep the JVM alive. Atoms left unindexed are never excluded
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sos-text-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        load();
+    }
+
+    /**
+     * Index the given atom in the background. Atoms that are already indexed are skipped.
+     *
+     * @param guid of the atom
+     * @return true, once the atom is indexed; false if the atom could not be indexed
+     */
+    public Future<Boolean> add(IGUID guid) {
+
+        return executor.submit(() -> {
+            try {
+                return index(guid);
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.WARN, "TextIndex - unable to index atom " + guid.toShortString() + " - " + e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Remove the given atom from the index in the background.
+     *
+     * @param guid of the atom
+     * @return future completed once the atom is removed
+     */
+    public Future<?> remove(IGUID guid) {
+
+        return executor.submit(() -> {
+            try {
+                unindex(guid);
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.WARN, "TextIndex - unable to remove atom " + guid.toShortString() + " - " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Discard the index and index the given atoms from scratch, in the background.
+     * Lookups remain correct during the rebuild, since atoms that are not indexed yet are never excluded.
+     *
+     * @param atoms to index
+     * @return the number of atoms indexed, once the rebuild is completed
+     */
+    public Future<Integer> rebuild(Collection<IGUID> atoms) {
+
+        return executor.submit(() -> {
+
+            reset();
+
+            int indexed = 0;
+            for (IGUID guid : atoms) {
+                try {
+                    if (index(guid)) indexed++;
+                } catch (IOException e) {
+                    SOS_LOG.log(LEVEL.WARN, "TextIndex - unable to index atom " + guid.toShortString() + " - " + e.getMessage());
+                }
+            }
+
+            compactNow();
+            SOS_LOG.log(LEVEL.INFO, "TextIndex - rebuilt index with " + indexed + " atoms");
+
+            return indexed;
+        });
+    }
+
+    /**
+     * Compact the index in the background.
+     * The index is compacted automatically as it is updated, so this is only needed to force a compaction.
+     *
+     * @return future completed once the index is compacted
+     */
+    Future<?> compact() {
+
+        return executor.submit(() -> {
+            try {
+                compactNow();
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.WARN, "TextIndex - unable to compact index - " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Flush the pending updates of the log to disk.
+     *
+     * @return future completed once the log is flushed
+     */
+    public Future<?> flush() {
+
+        return executor.submit(() -> {
+            try {
+                if (log != null) log.flush();
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.WARN, "TextIndex - unable to flush log - " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stop the indexing thread, once the pending updates are done, and close the log.
+     */
+    public void shutdown() {
+
+        flush();
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (log != null) log.close();
+        } catch (IOException e) {
+            SOS_LOG.log(LEVEL.WARN, "TextIndex - unable to close log - " + e.getMessage());
+        }
+    }
+
+    public boolean isIndexed(IGUID guid) {
+
+        lock.readLock().lock();
+        try {
+            Integer id = docIds.get(guid);
+            return id != null && !removed.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of atoms indexed
+     */
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return docs.size() - removed.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param guid of the atom
+     * @param text to look for, regardless of its case
+     * @return false only if the atom is indexed and its data definitely does not contain the text
+     */
+    public boolean mayContain(IGUID guid, String text) {
+
+        long[] trigrams = trigrams(text);
+        if (trigrams == null) return true;
+
+        lock.readLock().lock();
+        try {
+            Integer id = docIds.get(guid);
+            if (id == null || removed.get(id)) return true;
+
+            for (long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                if (list == null || !list.contains(id)) return false;
+            }
+
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param text to look for, regardless of its case
+     * @return the indexed atoms that may contain the text, or null if the text is too short to be looked up
+     */
+    Set<IGUID> candidates(String text) {
+
+        long[] trigrams = trigrams(text);
+        if (trigrams == null) return null;
+
+        lock.readLock().lock();
+        try {
+            // Intersect the postings, from the shortest one
+            List<Postings> lists = new ArrayList<>(trigrams.length);
+            for (long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                if (list == null) return Collections.emptySet();
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+
+            Set<IGUID> retval = new LinkedHashSet<>();
+            Postings shortest = lists.get(0);
+            for (int i = 0; i < shortest.size; i++) {
+                int id = shortest.ids[i];
+                if (removed.get(id)) continue;
+
+                boolean inAll = true;
+                for (int j = 1; j < lists.size() && inAll; j++) {
+                    inAll = lists.get(j).contains(id);
+                }
+
+                if (inAll) retval.add(docs.get(id));
+            }
+
+            return retval;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean index(IGUID guid) throws IOException {
+
+        if (isIndexed(guid)) return true;
+
+        long[] trigrams;
+        try (Data data = atomsData.getData(guid);
+             Reader reader = new InputStreamReader(data.getInputStream(), charset)) {
+            trigrams = trigrams(reader);
+        }
+
+        if (trigrams == null) {
+            SOS_LOG.log(LEVEL.INFO, "TextIndex - atom " + guid.toShortString() + " has too many distinct trigrams and will not be indexed");
+            return false;
+        }
+
+        appendRecord(ADD_RECORD, guid, trigrams);
+        apply(ADD_RECORD, guid, trigrams);
+        compactIfNeeded();
+
+        return true;
+    }
+
+    private void unindex(IGUID guid) throws IOException {
+
+        if (!isIndexed(guid)) return;
+
+        appendRecord(REMOVE_RECORD, guid, null);
+        apply(REMOVE_RECORD, guid, null);
+        compactIfNeeded();
+    }
+
+    private void apply(byte type, IGUID guid, long[] trigrams) {
+
+        lock.writeLock().lock();
+        try {
+            Integer current = docIds.get(guid);
+            boolean indexed = current != null && !removed.get(current);
+
+            if (type == ADD_RECORD && !indexed) {
+                int id = docs.size();
+                docs.add(guid);
+                docIds.put(guid, id);
+
+                // Ids are assigned in increasing order, so the postings stay sorted
+                for (long trigram : trigrams) {
+                    postings.computeIfAbsent(trigram, t -> new Postings()).add(id);
+                }
+
+            } else if (type == REMOVE_RECORD && indexed) {
+                removed.set(current);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+
+        if (logRecords >= COMPACTION_THRESHOLD) {
+            compactNow();
+        }
+    }
+
+    /**
+     * Must be called by the executor thread only.
+     * The compacted index is built while holding the read lock, since no other thread updates the index,
+     * and swapped in at the end, so that lookups are not blocked while the snapshot is written.
+     */
+    private void compactNow() throws IOException {
+
+        List<IGUID> newDocs = new ArrayList<>();
+        Map<IGUID, Integer> newDocIds = new HashMap<>();
+        LongObjectMap<Postings> newPostings;
+
+        lock.readLock().lock();
+        try {
+            int[] remap = new int[docs.size()];
+            for (int id = 0; id < docs.size(); id++) {
+                if (removed.get(id)) {
+                    remap[id] = -1;
+                } else {
+                    remap[id] = newDocs.size();
+                    newDocIds.put(docs.get(id), newDocs.size());
+                    newDocs.add(docs.get(id));
+                }
+            }
+
+            newPostings = new LongObjectMap<>(postings.size());
+            postings.forEach((trigram, list) -> {
+                Postings compacted = list.remap(remap);
+                if (compacted.size > 0) {
+                    newPostings.put(trigram, compacted);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        writeSnapshot(newDocs, newPostings);
+        resetLog();
+
+        lock.writeLock().lock();
+        try {
+            docs = newDocs;
+            docIds = newDocIds;
+            removed = new BitSet();
+            postings = newPostings;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void reset() throws IOException {
+
+        lock.writeLock().lock();
+        try {
+            docs = new ArrayList<>();
+            docIds = new HashMap<>();
+            removed = new BitSet();
+            postings = new LongObjectMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        resetLog();
+    }
+
+    private void load() throws IOException {
+
+        boolean valid = true;
+        if (snapshotFile.exists()) {
+            valid = readSnapshot();
+        }
+
+        long validLength = 0;
+        if (valid && logFile.exists()) {
+            validLength = replayLog();
+        }
+
+        if (!valid || validLength < 0) {
+            SOS_LOG.log(LEVEL.WARN, "TextIndex - the index could not be read and will be discarded. The index should be rebuilt");
+
+            docs = new ArrayList<>();
+            docIds = new HashMap<>();
+            removed = new BitSet();
+            postings = new LongObjectMap<>();
+
+            Files.deleteIfExists(snapshotFile.toPath());
+            resetLog();
+
+        } else if (validLength == 0) {
+            resetLog();
+
+        } else {
+            // Drop any partially written record at the end of the log, before appending to it
+            try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+
+            log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+        }
+    }
+
+    /**
+     * @return true if the snapshot was read, false if it is not valid
+     */
+    private boolean readSnapshot() {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+
+            if (!readHeader(in)) return false;
+
+            int numberOfDocs = in.readInt();
+            for (int id = 0; id < numberOfDocs; id++) {
+                IGUID guid = GUIDFactory.recreateGUID(in.readUTF());
+                docs.add(guid);
+                docIds.put(guid, id);
+            }
+
+            int numberOfTrigrams = in.readInt();
+            // Each trigram takes at least 12 bytes, so that a corrupted count cannot exhaust the memory
+            postings = new LongObjectMap<>(Math.max(0, (int) Math.min(numberOfTrigrams, snapshotFile.length() / 12)));
+            for (int i = 0; i < numberOfTrigrams; i++) {
+                long trigram = in.readLong();
+                int size = in.readInt();
+                Postings list = new Postings(size);
+                for (int j = 0; j < size; j++) {
+                    list.add(in.readInt());
+                }
+                postings.put(trigram, list);
+            }
+
+            return true;
+
+        } catch (IOException | GUIDGenerationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A record whose length does not fit in the log (e.g. because its length was not fully written) is treated
+     * as the partially written end of the log, so it is dropped together with anything that follows it.
+     *
+     * @return the length of the valid part of the log, 0 if the log is empty, or -1 if the log is not valid
+     */
+    private long replayLog() {
+
+        long logLength = logFile.length();
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+
+            if (!readHeader(in)) return -1;
+            validLength = headerLength();
+
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > logLength - validLength - 4) {
+                    SOS_LOG.log(LEVEL.WARN, "TextIndex - the log has a partially written record, which will be dropped");
+                    return validLength;
+                }
+
+                byte[] record = new byte[length];
+                in.readFully(record);
+
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = recordIn.readByte();
+                IGUID guid = GUIDFactory.recreateGUID(recordIn.readUTF());
+
+                long[] trigrams = null;
+                if (type == ADD_RECORD) {
+                    int numberOfTrigrams = recordIn.readInt();
+                    if (numberOfTrigrams < 0 || numberOfTrigrams > recordIn.available() / 8) {
+                        throw new IOException("Malformed record");
+                    }
+
+                    trigrams = new long[numberOfTrigrams];
+                    for (int i = 0; i < trigrams.length; i++) {
+                        trigrams[i] = recordIn.readLong();
+                    }
+                }
+
+                apply(type, guid, trigrams);
+                logRecords++;
+                validLength += 4 + length;
+            }
+
+        } catch (EOFException e) {
+            // End of the log, possibly with a partially written record
+            return validLength;
+        } catch (IOException | GUIDGenerationException e) {
+            return validLength > 0 ? validLength : -1;
+        }
+    }
+
+    private void appendRecord(byte type, IGUID guid, long[] trigrams) throws IOException {
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(type);
+        out.writeUTF(guid.toMultiHash());
+        if (trigrams != null) {
+            out.writeInt(trigrams.length);
+            for (long trigram : trigrams) {
+                out.writeLong(trigram);
+            }
+        }
+        out.flush();
+
+        // Records are length-prefixed, so that a partially written record can be detected when the log is replayed
+        log.writeInt(record.size());
+        record.writeTo(log);
+        log.flush();
+
+        logRecords++;
+    }
+
+    private void resetLog() throws IOException {
+
+        if (log != null) log.close();
+
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, false)));
+        writeHeader(log);
+        log.flush();
+
+        logRecords = 0;
+    }
+
+    private void writeSnapshot(List<IGUID> docs, LongObjectMap<Postings> postings) throws IOException {
+
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+
+            writeHeader(out);
+
+            out.writeInt(docs.size());
+            for (IGUID guid : docs) {
+                out.writeUTF(guid.toMultiHash());
+            }
+
+            out.writeInt(postings.size());
+            IOException[] failure = new IOException[1];
+            postings.forEach((trigram, list) -> {
+                if (failure[0] != null) return;
+
+                try {
+                    out.writeLong(trigram);
+                    out.writeInt(list.size);
+                    for (int i = 0; i < list.size; i++) {
+                        out.writeInt(list.ids[i]);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+
+            if (failure[0] != null) throw failure[0];
+        }
+
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The charset is part of the header, since the trigrams depend on how the data is decoded
+    private void writeHeader(DataOutputStream out) throws IOException {
+
+        out.writeInt(MAGIC_NUMBER);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(charset.name());
+    }
+
+    private boolean readHeader(DataInputStream in) throws IOException {
+
+        return in.readInt() == MAGIC_NUMBER &&
+                in.readInt() == FORMAT_VERSION &&
+                in.readUTF().equals(charset.name());
+    }
+
+    private long headerLength() {
+
+        // magic + version + UTF length + charset name (ASCII)
+        return 4 + 4 + 2 + charset.name().length();
+    }
+
+    /**
+     * @return the distinct trigrams of the text, or null if the text is shorter than a trigram
+     */
+    private static long[] trigrams(String text) {
+
+        if (text == null || text.length() < 3) return null;
+
+        try {
+            return trigrams(new StringReader(text));
+        } catch (IOException e) {
+            // Never thrown when reading from memory
+            return null;
+        }
+    }
+
+    /**
+     * @return the distinct trigrams read, or null if there are more than MAX_TRIGRAMS_PER_ATOM
+     */
+    private static long[] trigrams(Reader reader) throws IOException {
+
+        LongSet trigrams = new LongSet();
+
+        char[] buffer = new char[BUFFER_SIZE];
+        long window = 0;
+        long seen = 0;
+
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+
+                // The last three characters, 16 bits each
+                window = ((window << 16) | Character.toLowerCase(buffer[i])) & 0xFFFFFFFFFFFFL;
+                if (++seen >= 3) {
+                    trigrams.add(window);
+
+                    if (trigrams.size() > MAX_TRIGRAMS_PER_ATOM) return null;
+                }
+            }
+        }
+
+        return trigrams.toArray();
+    }
+
+    /**
+     * Gives the data of an atom. The data is read and closed by the indexing thread.
+     */
+    public interface AtomsData {
+
+        Data getData(IGUID guid) throws IOException;
+    }
+
+    /**
+     * Sorted list of atom ids
+     */
+    private static class Postings {
+
+        private int[] ids;
+        private int size;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            ids = new int[Math.max(1, capacity)];
+        }
+
+        void add(int id) {
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+
+            ids[size++] = id;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        Postings remap(int[] remap) {
+
+            Postings retval = new Postings(size);
+            for (int i = 0; i < size; i++) {
+                int id = remap[ids[i]];
+                if (id >= 0) retval.add(id);
+            }
+
+            return retval;
+        }
+    }
+}
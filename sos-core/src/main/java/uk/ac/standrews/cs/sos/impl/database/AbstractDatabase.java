@@ -18,42 +18,112 @@ package uk.ac.standrews.cs.sos.impl.database;
 
 import uk.ac.standrews.cs.castore.interfaces.IFile;
 import uk.ac.standrews.cs.sos.exceptions.db.DatabaseConnectionException;
+import uk.ac.standrews.cs.sos.exceptions.db.DatabaseException;
 import uk.ac.standrews.cs.sos.interfaces.database.Database;
 
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Each database keeps a single long-lived connection to the SQLite file, which is opened lazily.
+ * The connection uses the WAL journal mode, so that readers do not block writers and vice versa.
+ *
+ * Prepared statements are cached per connection and re-used across operations.
+ * Operations are serialised on the database, as a JDBC connection cannot be used by multiple threads at the same time.
+ * If an operation fails, the connection is closed and a new one is opened for the next operation.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 class AbstractDatabase implements Database {
 
     private final String dbPath;
 
+    private Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
     AbstractDatabase(IFile dbFile) {
         this.dbPath = dbFile.getPathname();
     }
 
     /**
-     * Caller must make sure that the connection is closed
+     * An operation on the database, run while holding the connection of the database.
+     */
+    interface Operation<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Run the operation on the long-lived connection of the database.
      *
-     * @return connection
-     * @throws DatabaseConnectionException if connection could not be established
+     * @param operation to run
+     * @return the result of the operation
+     * @throws DatabaseConnectionException if the connection could not be established or the operation failed
      */
-    Connection getSQLiteConnection() throws DatabaseConnectionException {
+    synchronized <T> T execute(Operation<T> operation) throws DatabaseConnectionException {
 
         try {
-            Class.forName("org.sqlite.JDBC");
-            return DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-        } catch (ClassNotFoundException | SQLException e) {
+            return operation.run(getSQLiteConnection());
+        } catch (SQLException e) {
+            reset();
+            throw new DatabaseConnectionException(e);
+        }
+    }
+
+    /**
+     * Run the operation in a single transaction.
+     * Either all the changes made by the operation are committed or none is.
+     *
+     * @param operation to run
+     * @return the result of the operation
+     * @throws DatabaseConnectionException if the connection could not be established or the operation failed
+     */
+    synchronized <T> T executeInTransaction(Operation<T> operation) throws DatabaseConnectionException {
+
+        Connection connection = getSQLiteConnection();
+        try {
+            connection.setAutoCommit(false);
+            T retval = operation.run(connection);
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            return retval;
+
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) { /* The connection is reset anyway */ }
+
+            reset();
             throw new DatabaseConnectionException(e);
         }
     }
 
-    boolean executeQuery(Connection connection, String query) throws SQLException {
+    /**
+     * Get a cached prepared statement for the given query.
+     * Must be called within an operation. The statement must not be closed by the caller.
+     *
+     * @param query of the statement
+     * @return the prepared statement, with no parameters set
+     * @throws SQLException if the statement could not be prepared
+     */
+    synchronized PreparedStatement prepare(String query) throws SQLException {
+
+        PreparedStatement preparedStatement = statements.get(query);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            preparedStatement = connection.prepareStatement(query);
+            statements.put(query, preparedStatement);
+        } else {
+            preparedStatement.clearParameters();
+        }
+
+        return preparedStatement;
+    }
+
+    boolean executeQuery(String query) throws SQLException {
 
         boolean retval;
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query);
-             ResultSet resultSet  = preparedStatement.executeQuery()) {
+        try (ResultSet resultSet  = prepare(query).executeQuery()) {
 
             retval = resultSet.next();
         }
@@ -61,11 +131,81 @@ class AbstractDatabase implements Database {
         return retval;
     }
 
-    void executeUpdate(Connection connection, String query) throws SQLException {
+    void executeUpdate(String query) throws SQLException {
 
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        prepare(query).executeUpdate();
+    }
+
+    /**
+     * Create the table, unless it exists already.
+     *
+     * @param checkTableExists query returning a row if the table exists
+     * @param createTable statement creating the table
+     * @throws DatabaseException if the table could not be created
+     */
+    void createTableIfNotExists(String checkTableExists, String createTable) throws DatabaseException {
+
+        try {
+            execute(connection -> {
+                boolean tableExists = executeQuery(checkTableExists);
+                if (!tableExists) {
+                    executeUpdate(createTable);
+                }
+
+                return null;
+            });
+        } catch (DatabaseConnectionException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    /**
+     * Close the connection to the database. A new connection will be opened on the next operation.
+     */
+    public synchronized void close() {
+        reset();
+    }
+
+    /**
+     * @return the long-lived connection, opened if needed
+     * @throws DatabaseConnectionException if connection could not be established
+     */
+    private Connection getSQLiteConnection() throws DatabaseConnectionException {
+
+        try {
+            if (connection == null || connection.isClosed()) {
+                Class.forName("org.sqlite.JDBC");
+                connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA journal_mode=WAL");
+                    statement.execute("PRAGMA synchronous=NORMAL"); // Safe in WAL mode
+                    statement.execute("PRAGMA busy_timeout=5000"); // Other connections to the same file might be writing
+                }
+            }
+
+            return connection;
+
+        } catch (ClassNotFoundException | SQLException e) {
+            reset();
+            throw new DatabaseConnectionException(e);
+        }
+    }
+
+    private void reset() {
+
+        for (PreparedStatement preparedStatement : statements.values()) {
+            try {
+                preparedStatement.close();
+            } catch (SQLException ignored) { /* SKIP */ }
+        }
+        statements.clear();
 
-            preparedStatement.executeUpdate();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) { /* SKIP */ }
+            connection = null;
         }
     }
 }
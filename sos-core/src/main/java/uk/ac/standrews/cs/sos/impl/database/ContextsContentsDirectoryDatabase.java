@@ -25,14 +25,11 @@ import uk.ac.standrews.cs.sos.exceptions.db.DatabaseException;
 import uk.ac.standrews.cs.sos.impl.context.directory.ContextVersionInfo;
 import uk.ac.standrews.cs.sos.interfaces.context.ContextsContentsDirectory;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
@@ -54,135 +51,205 @@ public class ContextsContentsDirectoryDatabase extends AbstractDatabase implemen
             "(context_id, version_id, pred_result, timestamp, policy_satisfied) " +
             "VALUES (?, ?, ?, ?, ?)";
 
-    private static final String SQL_GET_ENTRIES = "SELECT version_id, pred_result, timestamp, policy_satisfied " +
-            "FROM contexts";
+    private static final String SQL_GET_ENTRIES = "SELECT version_id, pred_result, timestamp, policy_satisfied, evict " +
+            "FROM contexts WHERE context_id=? AND pred_result=1";
 
-    private static final String SQL_GET_NOT_EVICTED_ENTRIES = "SELECT version_id, pred_result, timestamp, policy_satisfied " +
-            "FROM contexts WHERE evict == 0";
+    private static final String SQL_GET_NOT_EVICTED_ENTRIES = "SELECT version_id, pred_result, timestamp, policy_satisfied, evict " +
+            "FROM contexts WHERE context_id=? AND pred_result=1 AND evict=0";
 
-    private static final String SQL_GET_ENTRY = "SELECT pred_result, timestamp, policy_satisfied " +
-            "FROM contexts WHERE context_id=? and version_id=?";
+    private static final String SQL_GET_ENTRY = "SELECT pred_result, timestamp, policy_satisfied, evict " +
+            "FROM contexts WHERE context_id=? AND version_id=?";
 
-    private static final String SQL_EVICT_ENTRY = "UPDATE contexts SET evict=1 WHERE context_id=? version_id=?";
+    // The IN clause is completed with as many parameters as the versions in the batch, up to MAX_BATCH_PARAMETERS
+    private static final String SQL_GET_ENTRIES_FOR_VERSIONS = "SELECT version_id, pred_result, timestamp, policy_satisfied, evict " +
+            "FROM contexts WHERE context_id=? AND version_id IN ";
 
-    private static final String SQL_DELETE_ENTRY = "DELETE from contexts WHERE context_id=? version_id=?";
+    private static final String SQL_EVICT_ENTRY = "UPDATE contexts SET evict=1 WHERE context_id=? AND version_id=?";
+
+    private static final String SQL_DELETE_ENTRY = "DELETE from contexts WHERE context_id=? AND version_id=?";
 
     private static final String SQL_DELETE_ENTRIES = "DELETE from contexts WHERE context_id=?";
 
+    // Keep well below SQLITE_MAX_VARIABLE_NUMBER (999 in older versions of SQLite)
+    private static final int MAX_BATCH_PARAMETERS = 500;
+
     ContextsContentsDirectoryDatabase(IFile dbFile) throws DatabaseException {
         super(dbFile);
 
-        try (Connection connection = getSQLiteConnection()) {
+        createTableIfNotExists(SQL_CHECK_CONTEXTS_TABLE_EXISTS, SQL_CREATE_CONTEXTS_TABLE);
+    }
 
-            boolean tableExists = executeQuery(connection, SQL_CHECK_CONTEXTS_TABLE_EXISTS);
-            if (!tableExists) {
-                executeUpdate(connection, SQL_CREATE_CONTEXTS_TABLE);
-            }
+    @Override
+    public void addOrUpdateEntry(IGUID contextInvariant, IGUID version, ContextVersionInfo contextVersionInfo) {
 
-        } catch (SQLException e) {
-            throw new DatabaseException(e);
-        }
+        try {
+            execute(connection -> {
+
+                PreparedStatement preparedStatement = prepare(SQL_ADD_ENTRY);
+                setEntry(preparedStatement, contextInvariant, version, contextVersionInfo);
+                preparedStatement.execute();
+
+                return null;
+            });
+
+        } catch (DatabaseConnectionException ignored) { }
     }
 
     @Override
-    public void addOrUpdateEntry(IGUID contextInvariant, IGUID version, ContextVersionInfo contextVersionInfo) {
+    public void addOrUpdateEntries(IGUID contextInvariant, Map<IGUID, ContextVersionInfo> entries) {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_ADD_ENTRY)) {
+        if (entries.isEmpty()) return;
 
-            preparedStatement.setString(1, contextInvariant.toMultiHash());
-            preparedStatement.setString(2, version.toMultiHash());
-            preparedStatement.setBoolean(3, contextVersionInfo.predicateResult);
-            preparedStatement.setLong(4, contextVersionInfo.timestamp.getEpochSecond());
-            preparedStatement.setBoolean(5, contextVersionInfo.policySatisfied);
+        try {
+            executeInTransaction(connection -> {
 
-            preparedStatement.execute();
+                PreparedStatement preparedStatement = prepare(SQL_ADD_ENTRY);
+                for(Map.Entry<IGUID, ContextVersionInfo> entry:entries.entrySet()) {
+                    setEntry(preparedStatement, contextInvariant, entry.getKey(), entry.getValue());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
 
-        } catch (SQLException | DatabaseConnectionException ignored) { }
+                return null;
+            });
+
+        } catch (DatabaseConnectionException ignored) { }
     }
 
     @Override
     public void evict(IGUID context, IGUID version) {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_EVICT_ENTRY)) {
+        evict(context, Collections.singleton(version));
+    }
 
-            preparedStatement.setString(1, context.toMultiHash());
-            preparedStatement.setString(2, version.toMultiHash());
+    @Override
+    public void evict(IGUID context, Collection<IGUID> versions) {
 
-            preparedStatement.executeUpdate();
+        if (versions.isEmpty()) return;
 
-        } catch (SQLException | DatabaseConnectionException ignored) { }
+        try {
+            executeInTransaction(connection -> {
+
+                PreparedStatement preparedStatement = prepare(SQL_EVICT_ENTRY);
+                for(IGUID version:versions) {
+                    preparedStatement.setString(1, context.toMultiHash());
+                    preparedStatement.setString(2, version.toMultiHash());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+
+                return null;
+            });
+
+        } catch (DatabaseConnectionException ignored) { }
     }
 
     @Override
     public void delete(IGUID context, IGUID version) {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_DELETE_ENTRY)) {
+        try {
+            execute(connection -> {
 
-            preparedStatement.setString(1, context.toMultiHash());
-            preparedStatement.setString(2, version.toMultiHash());
+                PreparedStatement preparedStatement = prepare(SQL_DELETE_ENTRY);
+                preparedStatement.setString(1, context.toMultiHash());
+                preparedStatement.setString(2, version.toMultiHash());
+                preparedStatement.executeUpdate();
 
-            preparedStatement.executeUpdate();
+                return null;
+            });
 
-        } catch (SQLException | DatabaseConnectionException ignored) { }
+        } catch (DatabaseConnectionException ignored) { }
     }
 
     @Override
     public void delete(IGUID context) {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_DELETE_ENTRIES)) {
+        try {
+            execute(connection -> {
 
-            preparedStatement.setString(1, context.toMultiHash());
+                PreparedStatement preparedStatement = prepare(SQL_DELETE_ENTRIES);
+                preparedStatement.setString(1, context.toMultiHash());
+                preparedStatement.executeUpdate();
 
-            preparedStatement.executeUpdate();
+                return null;
+            });
 
-        } catch (SQLException | DatabaseConnectionException ignored) { }
+        } catch (DatabaseConnectionException ignored) { }
     }
 
     @Override
     public ContextVersionInfo getEntry(IGUID context, IGUID version) {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_GET_ENTRY)) {
+        try {
+            ContextVersionInfo contextVersionInfo = execute(connection -> {
+
+                PreparedStatement preparedStatement = prepare(SQL_GET_ENTRY);
+                preparedStatement.setString(1, context.toMultiHash());
+                preparedStatement.setString(2, version.toMultiHash());
+
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    return resultSet.next() ? getEntry(resultSet, 1) : null;
+                }
+            });
+
+            if (contextVersionInfo != null) {
+                return contextVersionInfo;
+            }
+
+        } catch (DatabaseConnectionException ignored) { }
+
+        return new ContextVersionInfo();
+    }
+
+    @Override
+    public Map<IGUID, ContextVersionInfo> getEntries(IGUID context, Collection<IGUID> versions) {
 
-            preparedStatement.setString(1, context.toMultiHash());
-            preparedStatement.setString(2, version.toMultiHash());
+        Map<IGUID, ContextVersionInfo> entries = new HashMap<>();
+        if (versions.isEmpty()) return entries;
 
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                if (resultSet.next()) {
+        List<IGUID> toCheck = new ArrayList<>(versions);
+        try {
+            execute(connection -> {
 
-                    ContextVersionInfo contextVersionInfo = new ContextVersionInfo();
-                    contextVersionInfo.predicateResult = resultSet.getBoolean(1);
-                    contextVersionInfo.timestamp = Instant.ofEpochSecond(resultSet.getLong(2));
-                    contextVersionInfo.policySatisfied = resultSet.getBoolean(3);
+                for (int from = 0; from < toCheck.size(); from += MAX_BATCH_PARAMETERS) {
+                    List<IGUID> batch = toCheck.subList(from, Math.min(from + MAX_BATCH_PARAMETERS, toCheck.size()));
 
-                    return contextVersionInfo;
+                    // Statements are cached by query, so there is at most one statement per batch size
+                    PreparedStatement preparedStatement = prepare(SQL_GET_ENTRIES_FOR_VERSIONS + inClause(batch.size()));
+                    preparedStatement.setString(1, context.toMultiHash());
+                    for (int i = 0; i < batch.size(); i++) {
+                        preparedStatement.setString(i + 2, batch.get(i).toMultiHash());
+                    }
 
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        readEntries(resultSet, entries);
+                    }
                 }
-            }
 
-        } catch (SQLException | DatabaseConnectionException ignored) { }
+                return null;
+            });
 
-        return new ContextVersionInfo();
+        } catch (DatabaseConnectionException ignored) { }
+
+        return entries;
     }
 
     @Override
     public boolean entryExists(IGUID context, IGUID version) {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_GET_ENTRY)) {
+        try {
+            return execute(connection -> {
 
-            preparedStatement.setString(1, context.toMultiHash());
-            preparedStatement.setString(2, version.toMultiHash());
+                PreparedStatement preparedStatement = prepare(SQL_GET_ENTRY);
+                preparedStatement.setString(1, context.toMultiHash());
+                preparedStatement.setString(2, version.toMultiHash());
 
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                return resultSet.next();
-            }
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    return resultSet.next();
+                }
+            });
 
-        } catch (SQLException | DatabaseConnectionException e) {
+        } catch (DatabaseConnectionException e) {
 
             return false;
         }
@@ -194,31 +261,20 @@ public class ContextsContentsDirectoryDatabase extends AbstractDatabase implemen
 
         HashMap<IGUID, ContextVersionInfo> contents = new LinkedHashMap<>();
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(includeEvicted ? SQL_GET_ENTRIES : SQL_GET_NOT_EVICTED_ENTRIES)) {
-
-            if (!includeEvicted) preparedStatement.setString(1, context.toMultiHash());
-
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                while (resultSet.next()) {
+        try {
+            execute(connection -> {
 
-                    try {
-                        IGUID version = GUIDFactory.recreateGUID(resultSet.getString(1));
-                        ContextVersionInfo contextVersionInfo = new ContextVersionInfo();
-                        contextVersionInfo.predicateResult = resultSet.getBoolean(2);
-                        contextVersionInfo.timestamp = Instant.ofEpochSecond(resultSet.getLong(3));
-                        contextVersionInfo.policySatisfied = resultSet.getBoolean(4);
-
-                        contents.put(version, contextVersionInfo);
-
-                    } catch (GUIDGenerationException ignored) { /* SKIP - DO NOTHING */ }
+                PreparedStatement preparedStatement = prepare(includeEvicted ? SQL_GET_ENTRIES : SQL_GET_NOT_EVICTED_ENTRIES);
+                preparedStatement.setString(1, context.toMultiHash());
 
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    readEntries(resultSet, contents);
                 }
-            }
 
-            return contents;
+                return null;
+            });
 
-        } catch (SQLException | DatabaseConnectionException ignored) { }
+        } catch (DatabaseConnectionException ignored) { }
 
         return contents;
 
@@ -229,4 +285,52 @@ public class ContextsContentsDirectoryDatabase extends AbstractDatabase implemen
         // DO NOTHING
     }
 
+    private void setEntry(PreparedStatement preparedStatement, IGUID contextInvariant, IGUID version, ContextVersionInfo contextVersionInfo) throws SQLException {
+
+        preparedStatement.setString(1, contextInvariant.toMultiHash());
+        preparedStatement.setString(2, version.toMultiHash());
+        preparedStatement.setBoolean(3, contextVersionInfo.predicateResult);
+        preparedStatement.setLong(4, contextVersionInfo.timestamp.getEpochSecond());
+        preparedStatement.setBoolean(5, contextVersionInfo.policySatisfied);
+    }
+
+    /**
+     * Read rows of the form: version_id, pred_result, timestamp, policy_satisfied, evict
+     */
+    private void readEntries(ResultSet resultSet, Map<IGUID, ContextVersionInfo> entries) throws SQLException {
+
+        while (resultSet.next()) {
+
+            try {
+                IGUID version = GUIDFactory.recreateGUID(resultSet.getString(1));
+                entries.put(version, getEntry(resultSet, 2));
+
+            } catch (GUIDGenerationException ignored) { /* SKIP - DO NOTHING */ }
+        }
+    }
+
+    /**
+     * Read the columns pred_result, timestamp, policy_satisfied, evict starting from the given column
+     */
+    private ContextVersionInfo getEntry(ResultSet resultSet, int column) throws SQLException {
+
+        ContextVersionInfo contextVersionInfo = new ContextVersionInfo();
+        contextVersionInfo.predicateResult = resultSet.getBoolean(column);
+        contextVersionInfo.timestamp = Instant.ofEpochSecond(resultSet.getLong(column + 1));
+        contextVersionInfo.policySatisfied = resultSet.getBoolean(column + 2);
+        contextVersionInfo.evicted = resultSet.getBoolean(column + 3);
+
+        return contextVersionInfo;
+    }
+
+    private static String inClause(int size) {
+
+        StringJoiner joiner = new StringJoiner(",", "(", ")");
+        for (int i = 0; i < size; i++) {
+            joiner.add("?");
+        }
+
+        return joiner.toString();
+    }
+
 }
@@ -19,14 +19,13 @@ package uk.ac.standrews.cs.sos.impl.database;
 import uk.ac.standrews.cs.castore.interfaces.IFile;
 import uk.ac.standrews.cs.sos.exceptions.db.DatabaseException;
 import uk.ac.standrews.cs.sos.interfaces.database.Database;
-import uk.ac.standrews.cs.sos.interfaces.database.NodesDatabase;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class DatabaseFactory {
 
-    private NodesDatabase nodesDatabase;
+    private NodesDatabaseImpl nodesDatabase;
     private TasksDatabase tasksDatabase;
     private ContextsContentsDirectoryDatabase contextsContentsDirectoryDatabase;
 
@@ -43,6 +42,7 @@ public class DatabaseFactory {
 
         boolean dbExists = dbFile.exists();
         if (instance == null || !dbExists) {
+            kill();
             instance = new DatabaseFactory(dbFile);
         }
     }
@@ -57,6 +57,13 @@ public class DatabaseFactory {
     }
 
     public static void kill() {
+
+        if (instance != null) {
+            instance.nodesDatabase.close();
+            instance.tasksDatabase.close();
+            instance.contextsContentsDirectoryDatabase.close();
+        }
+
         instance = null;
     }
 
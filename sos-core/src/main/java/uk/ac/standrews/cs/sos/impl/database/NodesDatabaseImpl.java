@@ -29,7 +29,6 @@ import uk.ac.standrews.cs.utilities.crypto.CryptoException;
 import uk.ac.standrews.cs.utilities.crypto.DigitalSignature;
 
 import java.security.PublicKey;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -68,26 +67,24 @@ public class NodesDatabaseImpl extends AbstractDatabase implements NodesDatabase
     NodesDatabaseImpl(IFile dbFile) throws DatabaseException {
         super(dbFile);
 
-        try (Connection connection = getSQLiteConnection()) {
-
-            boolean tableExists = executeQuery(connection, SQL_CHECK_NODES_TABLE_EXISTS);
-            if (!tableExists) {
-                executeUpdate(connection, SQL_CREATE_NODES_TABLE);
-            }
-
-        } catch (SQLException e) {
-            throw new DatabaseException(e);
-        }
+        createTableIfNotExists(SQL_CHECK_NODES_TABLE_EXISTS, SQL_CREATE_NODES_TABLE);
     }
 
     @Override
     public void addNode(Node node) throws DatabaseConnectionException {
 
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_ADD_NODE)) {
+        final String certificate;
+        try {
+            certificate = DigitalSignature.getCertificateString(node.getSignatureCertificate());
+        } catch (CryptoException e) {
+            throw new DatabaseConnectionException(e);
+        }
 
+        execute(connection -> {
+
+            PreparedStatement preparedStatement = prepare(SQL_ADD_NODE);
             preparedStatement.setString(1, node.guid().toMultiHash());
-            preparedStatement.setString(2, DigitalSignature.getCertificateString(node.getSignatureCertificate()));
+            preparedStatement.setString(2, certificate);
             preparedStatement.setString(3, node.getIP());
             preparedStatement.setInt(4, node.getHostAddress().getPort());
             preparedStatement.setBoolean(5, node.isAgent());
@@ -101,42 +98,41 @@ public class NodesDatabaseImpl extends AbstractDatabase implements NodesDatabase
 
             preparedStatement.execute();
 
-        } catch (SQLException | CryptoException e) {
-            throw new DatabaseConnectionException(e);
-        }
+            return null;
+        });
     }
 
     @Override
     public Set<SOSNode> getNodes() throws DatabaseConnectionException {
-        Set<SOSNode> retval = new HashSet<>();
-
-        try (Connection connection = getSQLiteConnection();
-             PreparedStatement preparedStatement = connection.prepareStatement(SQL_GET_NODES);
-             ResultSet resultSet = preparedStatement.executeQuery()) {
-
-            while(resultSet.next()) {
-                IGUID guid = GUIDFactory.recreateGUID(resultSet.getString(1));
-                PublicKey cert = DigitalSignature.getCertificate(resultSet.getString(2));
-                String hostname = resultSet.getString(3);
-                int port = resultSet.getInt(4);
-                boolean isAgent = resultSet.getBoolean(5);
-                boolean isStorage = resultSet.getBoolean(6);
-                boolean isMDS = resultSet.getBoolean(7);
-                boolean isNDS = resultSet.getBoolean(8);
-                boolean isMMS = resultSet.getBoolean(9);
-                boolean isCMS = resultSet.getBoolean(10);
-                boolean isRMS = resultSet.getBoolean(11);
-                boolean isExperiment = resultSet.getBoolean(12);
-
-                SOSNode node = new SOSNode(guid, cert, hostname, port, isAgent, isStorage, isMDS, isNDS, isMMS, isCMS, isRMS, isExperiment);
-
-                retval.add(node);
+        return execute(connection -> {
+
+            Set<SOSNode> retval = new HashSet<>();
+            try (ResultSet resultSet = prepare(SQL_GET_NODES).executeQuery()) {
+
+                while(resultSet.next()) {
+                    IGUID guid = GUIDFactory.recreateGUID(resultSet.getString(1));
+                    PublicKey cert = DigitalSignature.getCertificate(resultSet.getString(2));
+                    String hostname = resultSet.getString(3);
+                    int port = resultSet.getInt(4);
+                    boolean isAgent = resultSet.getBoolean(5);
+                    boolean isStorage = resultSet.getBoolean(6);
+                    boolean isMDS = resultSet.getBoolean(7);
+                    boolean isNDS = resultSet.getBoolean(8);
+                    boolean isMMS = resultSet.getBoolean(9);
+                    boolean isCMS = resultSet.getBoolean(10);
+                    boolean isRMS = resultSet.getBoolean(11);
+                    boolean isExperiment = resultSet.getBoolean(12);
+
+                    SOSNode node = new SOSNode(guid, cert, hostname, port, isAgent, isStorage, isMDS, isNDS, isMMS, isCMS, isRMS, isExperiment);
+
+                    retval.add(node);
+                }
+            } catch (GUIDGenerationException | CryptoException e) {
+                throw new SQLException("Unable to recreate node from database", e);
             }
-        } catch (SQLException | GUIDGenerationException | CryptoException e) {
-            throw new DatabaseConnectionException(e);
-        }
 
-        return retval;
+            return retval;
+        });
     }
 
-}
+}
\ No newline at end of file
@@ -20,8 +20,6 @@ import uk.ac.standrews.cs.castore.interfaces.IFile;
 import uk.ac.standrews.cs.sos.exceptions.db.DatabaseException;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 
-import java.sql.Connection;
-import java.sql.SQLException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -38,16 +36,7 @@ public class TasksDatabase extends AbstractDatabase {
     public TasksDatabase(IFile dbFile) throws DatabaseException {
         super(dbFile);
 
-        try (Connection connection = getSQLiteConnection()) {
-
-            boolean tableExists = executeQuery(connection, SQL_CHECK_TASKS_TABLE_EXISTS);
-            if (!tableExists) {
-                executeUpdate(connection, SQL_CREATE_TASKS_TABLE);
-            }
-
-        } catch (SQLException e) {
-            throw new DatabaseException(e);
-        }
+        createTableIfNotExists(SQL_CHECK_TASKS_TABLE_EXISTS, SQL_CREATE_TASKS_TABLE);
     }
 
     public void addTask(Task task) {
@@ -16,6 +16,7 @@
  */
 package uk.ac.standrews.cs.sos.impl.datamodel.builders;
 
+import uk.ac.standrews.cs.sos.impl.data.ContentDefinedChunker;
 import uk.ac.standrews.cs.sos.model.CompoundType;
 import uk.ac.standrews.cs.sos.model.Content;
 
@@ -30,7 +31,7 @@ public class CompoundBuilder extends ManifestBuilder {
     private CompoundType type;
     private Set<Content> contents;
     private AtomBuilder atomBuilder;
-    // TODO - chunk size param
+    private int chunkSize = ContentDefinedChunker.DEFAULT_AVERAGE_CHUNK_SIZE; // average size of the chunks, for DATA compounds only
 
     public CompoundBuilder() {
         type = CompoundType.COLLECTION;
@@ -69,4 +70,14 @@ public class CompoundBuilder extends ManifestBuilder {
         return atomBuilder;
     }
 
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public CompoundBuilder setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+
+        return this;
+    }
+
 }
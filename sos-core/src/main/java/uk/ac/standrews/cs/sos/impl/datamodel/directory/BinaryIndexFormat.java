@@ -0,0 +1,317 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.directory;
+
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Common layout of the binary files of the indices (checkpoints and write-ahead logs).
+ *
+ * A file is a header (magic number and format version) followed by length-prefixed records, so that a partially
+ * written record at the end of a file can be detected and ignored. The first byte of a record is its type.
+ * GUIDs are stored as raw digest bytes, with the algorithm/base prefix of their multihash dictionary-encoded.
+ * Prefixes are defined by DICT_PREFIX_RECORD records, before they are first used. Each file has its own dictionary,
+ * so that files can be read independently.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class BinaryIndexFormat {
+
+    static final int HEADER_LENGTH = 8;
+
+    // Type of the records defining GUID prefixes. Formats must use types greater than this one
+    static final byte DICT_PREFIX_RECORD = 1;
+
+    // First two bytes of a stream written with Java serialization
+    private static final short JAVA_SERIALIZATION_MAGIC = (short) 0xaced;
+
+    // Prefix id for GUIDs that are not hex-encoded and are stored as strings
+    private static final int RAW_GUID = 0;
+    private static final String HEX_BASE = "_16";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    static final int BUFFER_SIZE = 65536;
+
+    private BinaryIndexFormat() {}
+
+    /**
+     * Reads the records of a file, other than the DICT_PREFIX_RECORD ones.
+     */
+    interface RecordReader {
+
+        void read(byte type, DataInputStream record, GUIDs guids) throws IOException, GUIDGenerationException;
+    }
+
+    /**
+     * @param file to check
+     * @return true if the file was written with Java serialization, by previous versions of the SOS
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isLegacy(File file) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readShort() == JAVA_SERIALIZATION_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the records of a file.
+     *
+     * @param file to read
+     * @param magicNumber expected in the header of the file
+     * @param formatVersion expected in the header of the file
+     * @param reader of the records
+     * @return the length of the valid part of the file (a partially written record at the end is ignored),
+     * or -1 if the file is not valid
+     */
+    static long read(File file, int magicNumber, int formatVersion, RecordReader reader) {
+
+        GUIDs guids = new GUIDs();
+
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+
+            if (in.readInt() != magicNumber || in.readInt() != formatVersion) return -1;
+            validLength = HEADER_LENGTH;
+
+            while (true) {
+                int length = readVarInt(in);
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = record.readByte();
+                if (type == DICT_PREFIX_RECORD) {
+                    guids.prefixes.add(record.readUTF());
+                } else {
+                    reader.read(type, record, guids);
+                }
+
+                validLength += varIntLength(length) + length;
+            }
+
+        } catch (EOFException e) {
+            // End of the file, possibly with a partially written record
+            return validLength;
+        } catch (IOException | GUIDGenerationException | IndexOutOfBoundsException e) {
+            return validLength > 0 ? validLength : -1;
+        }
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int varIntLength(int value) {
+
+        int length = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * @return the algorithm/base prefix of a hex-encoded multihash (e.g. SHA256_16), or null if the multihash is not hex-encoded
+     */
+    private static String prefix(String multihash) {
+
+        int separator = multihash.lastIndexOf('_');
+        if (separator <= 0) return null;
+
+        String prefix = multihash.substring(0, separator);
+        if (!prefix.endsWith(HEX_BASE)) return null;
+
+        int digits = multihash.length() - separator - 1;
+        if (digits == 0 || digits % 2 != 0) return null;
+
+        for (int i = separator + 1; i < multihash.length(); i++) {
+            char c = multihash.charAt(i);
+            // Lower case only, so that the multihash is recreated exactly
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return null;
+        }
+
+        return prefix;
+    }
+
+    /**
+     * GUID prefixes defined so far in a file.
+     */
+    static class GUIDs {
+
+        private final List<String> prefixes = new ArrayList<>();
+
+        IGUID read(DataInput in) throws IOException, GUIDGenerationException {
+
+            int prefixId = readVarInt(in);
+            if (prefixId == RAW_GUID) {
+                return GUIDFactory.recreateGUID(in.readUTF());
+            }
+
+            String prefix = prefixes.get(prefixId - 1);
+            byte[] digest = new byte[readVarInt(in)];
+            in.readFully(digest);
+
+            char[] multihash = new char[prefix.length() + 1 + digest.length * 2];
+            prefix.getChars(0, prefix.length(), multihash, 0);
+            int pos = prefix.length();
+            multihash[pos++] = '_';
+            for (byte b : digest) {
+                multihash[pos++] = HEX_DIGITS[(b >> 4) & 0x0f];
+                multihash[pos++] = HEX_DIGITS[b & 0x0f];
+            }
+
+            return GUIDFactory.recreateGUID(new String(multihash));
+        }
+    }
+
+    /**
+     * Appends records to a file.
+     * Records are buffered until flush() is called or the buffer is full, so that changes are committed in groups.
+     * Subclasses must be thread-safe, by synchronizing the methods writing records.
+     */
+    abstract static class Writer implements Closeable {
+
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final Map<String, Integer> prefixIds = new HashMap<>();
+
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+        protected final DataOutputStream record = new DataOutputStream(recordBytes);
+        private int records;
+
+        /**
+         * @param file to write. Any existing content is discarded.
+         * @param magicNumber of the format
+         * @param formatVersion of the format
+         * @throws IOException if the file cannot be written
+         */
+        Writer(File file, int magicNumber, int formatVersion) throws IOException {
+
+            this.file = new FileOutputStream(file, false);
+            out = new DataOutputStream(new BufferedOutputStream(this.file, BUFFER_SIZE));
+            out.writeInt(magicNumber);
+            out.writeInt(formatVersion);
+            out.flush();
+        }
+
+        /**
+         * @return number of records (including dictionary entries) written so far
+         */
+        synchronized int getRecords() {
+            return records;
+        }
+
+        /**
+         * Write the buffered records and force them to the storage device.
+         * Only the write holds the monitor of the writer: records can be written while the file is forced to the device,
+         * and they are forced by the next flush. The writer must not be closed concurrently.
+         *
+         * @throws IOException if the records could not be written
+         */
+        void flush() throws IOException {
+
+            synchronized (this) {
+                out.flush();
+            }
+
+            file.getFD().sync();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * Define the prefix of the GUID, if this is its first use in the file.
+         * Must be called before the record using the GUID is started.
+         */
+        protected void defineGUIDPrefix(IGUID guid) throws IOException {
+
+            String prefix = prefix(guid.toMultiHash());
+            if (prefix != null && !prefixIds.containsKey(prefix)) {
+                record.writeByte(DICT_PREFIX_RECORD);
+                record.writeUTF(prefix);
+                endRecord();
+
+                prefixIds.put(prefix, prefixIds.size() + 1); // ids start after RAW_GUID
+            }
+        }
+
+        protected void writeGUID(IGUID guid) throws IOException {
+
+            String multihash = guid.toMultiHash();
+            String prefix = prefix(multihash);
+
+            if (prefix == null) {
+                writeVarInt(record, RAW_GUID);
+                record.writeUTF(multihash);
+                return;
+            }
+
+            writeVarInt(record, prefixIds.get(prefix));
+
+            int start = prefix.length() + 1;
+            int digestLength = (multihash.length() - start) / 2;
+            writeVarInt(record, digestLength);
+            for (int i = 0; i < digestLength; i++) {
+                int pos = start + 2 * i;
+                record.writeByte((Character.digit(multihash.charAt(pos), 16) << 4) | Character.digit(multihash.charAt(pos + 1), 16));
+            }
+        }
+
+        protected void endRecord() throws IOException {
+
+            record.flush();
+            writeVarInt(out, recordBytes.size());
+            recordBytes.writeTo(out);
+            recordBytes.reset();
+
+            records++;
+        }
+    }
+}
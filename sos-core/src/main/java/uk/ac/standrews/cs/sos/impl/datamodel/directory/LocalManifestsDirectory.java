@@ -25,7 +25,9 @@ import uk.ac.standrews.cs.castore.exceptions.PersistenceException;
 import uk.ac.standrews.cs.castore.exceptions.RenameException;
 import uk.ac.standrews.cs.castore.interfaces.IDirectory;
 import uk.ac.standrews.cs.castore.interfaces.IFile;
+import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
@@ -41,10 +43,10 @@ import uk.ac.standrews.cs.sos.utils.FileUtils;
 import uk.ac.standrews.cs.sos.utils.JSONHelper;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * IDirectory for the manifests stored locally to this node
@@ -54,6 +56,7 @@ import java.util.Set;
 public class LocalManifestsDirectory extends AbstractManifestsDirectory {
 
     private static final String BACKUP_EXTENSION = ".bak";
+    private static final String TEMP_SUFFIX = "-TEMP"; // See FileUtils.CreateTempFile
 
     final private LocalStorage localStorage;
 
@@ -117,6 +120,24 @@ public class LocalManifestsDirectory extends AbstractManifestsDirectory {
     @Override
     public void flush() {}
 
+    /**
+     * Stream all the manifests stored locally. The manifests are read in parallel, as the stream is consumed.
+     * Files that are not manifests (e.g. backups and temporary files) or that cannot be read are skipped.
+     *
+     * @return parallel stream of the manifests
+     * @throws DataStorageException if the manifests directory cannot be accessed
+     */
+    public Stream<Manifest> manifests() throws DataStorageException {
+
+        String[] filenames = new File(localStorage.getManifestsDirectory().getPathname()).list();
+
+        return Arrays.stream(filenames != null ? filenames : new String[0])
+                .parallel()
+                .filter(filename -> !filename.endsWith(BACKUP_EXTENSION) && !filename.endsWith(TEMP_SUFFIX))
+                .map(this::manifestFromFilename)
+                .filter(Objects::nonNull);
+    }
+
     public Set<IGUID> getManifests(Set<IGUID> input, List<ManifestParam> params) {
 
         Set<IGUID> matchedManifestRefs = new LinkedHashSet<>();
@@ -152,6 +173,18 @@ public class LocalManifestsDirectory extends AbstractManifestsDirectory {
         return matchedManifestRefs;
     }
 
+    private Manifest manifestFromFilename(String filename) {
+
+        try {
+            IGUID guid = GUIDFactory.recreateGUID(filename);
+            return getManifestFromGUID(guid);
+
+        } catch (GUIDGenerationException | ManifestNotFoundException e) {
+            SOS_LOG.log(LEVEL.WARN, "Unable to read manifest from file " + filename);
+            return null;
+        }
+    }
+
     private Manifest getManifestFromGUID(IGUID guid) throws ManifestNotFoundException {
         IFile manifestFile = getManifestFile(guid);
 
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.directory;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.sos.impl.datamodel.locations.LocationFactory;
+import uk.ac.standrews.cs.sos.impl.datamodel.locations.SOSLocation;
+import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.*;
+import uk.ac.standrews.cs.sos.model.Location;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static uk.ac.standrews.cs.sos.impl.datamodel.directory.BinaryIndexFormat.readVarInt;
+import static uk.ac.standrews.cs.sos.impl.datamodel.directory.BinaryIndexFormat.writeVarInt;
+
+/**
+ * Binary format of the locations index, used both for its checkpoints and for its write-ahead log (see BinaryIndexFormat).
+ *
+ * A checkpoint is simply a log with one ADD record per location.
+ * Bundle types and node GUIDs are dictionary-encoded, like the GUID prefixes.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class LocationsIndexFormat {
+
+    private static final int MAGIC_NUMBER = 0x534f534c;
+    private static final int FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = BinaryIndexFormat.HEADER_LENGTH;
+
+    private static final byte DICT_TYPE_RECORD = 2;
+    private static final byte DICT_NODE_RECORD = 3;
+    private static final byte ADD_SOS_RECORD = 4;
+    private static final byte ADD_URI_RECORD = 5;
+    private static final byte DELETE_RECORD = 6;
+    private static final byte CLEAR_RECORD = 7;
+
+    private LocationsIndexFormat() {}
+
+    /**
+     * Operations replayed when reading a file of the index.
+     */
+    interface Replayer {
+
+        void add(IGUID guid, LocationBundle locationBundle);
+
+        void delete(IGUID node, IGUID guid);
+
+        void clear();
+    }
+
+    /**
+     * @param file to check
+     * @return true if the file was written with Java serialization, by previous versions of the index
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isLegacy(File file) throws IOException {
+
+        return BinaryIndexFormat.isLegacy(file);
+    }
+
+    /**
+     * Replay the records of a file.
+     *
+     * @param file to read
+     * @param replayer of the records
+     * @return the length of the valid part of the file (a partially written record at the end is ignored),
+     * or -1 if the file is not valid
+     */
+    static long read(File file, Replayer replayer) {
+
+        Dictionaries dictionaries = new Dictionaries();
+        return BinaryIndexFormat.read(file, MAGIC_NUMBER, FORMAT_VERSION,
+                (type, in, guids) -> readRecord(type, in, guids, dictionaries, replayer));
+    }
+
+    private static void readRecord(byte type, DataInputStream in, BinaryIndexFormat.GUIDs guids, Dictionaries dictionaries, Replayer replayer) throws IOException, GUIDGenerationException {
+
+        switch (type) {
+            case DICT_TYPE_RECORD:
+                dictionaries.types.add(in.readUTF());
+                break;
+            case DICT_NODE_RECORD:
+                dictionaries.nodes.add(guids.read(in));
+                break;
+            case ADD_SOS_RECORD: {
+                IGUID guid = guids.read(in);
+                String bundleType = dictionaries.types.get(readVarInt(in));
+                IGUID node = dictionaries.nodes.get(readVarInt(in));
+                IGUID entity = in.readBoolean() ? guid : guids.read(in);
+
+                replayer.add(guid, makeLocationBundle(bundleType, new SOSLocation(node, entity)));
+                break;
+            }
+            case ADD_URI_RECORD: {
+                IGUID guid = guids.read(in);
+                String bundleType = dictionaries.types.get(readVarInt(in));
+                Location location = LocationFactory.makeLocation(in.readUTF());
+
+                replayer.add(guid, makeLocationBundle(bundleType, location));
+                break;
+            }
+            case DELETE_RECORD: {
+                IGUID node = dictionaries.nodes.get(readVarInt(in));
+                IGUID guid = guids.read(in);
+
+                replayer.delete(node, guid);
+                break;
+            }
+            case CLEAR_RECORD:
+                replayer.clear();
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static LocationBundle makeLocationBundle(String type, Location location) {
+
+        if (type.equals(BundleTypes.CACHE.toString())) {
+            return new CacheLocationBundle(location);
+        } else if (type.equals(BundleTypes.EXTERNAL.toString())) {
+            return new ExternalLocationBundle(location);
+        } else if (type.equals(BundleTypes.PERSISTENT.toString())) {
+            return new PersistLocationBundle(location);
+        } else {
+            return new LocationBundle(new BundleType(type), location);
+        }
+    }
+
+    /**
+     * Appends records to a file of the index.
+     * The writer is thread-safe. Records are buffered until flush() is called or the buffer is full.
+     */
+    static class Writer extends BinaryIndexFormat.Writer {
+
+        private final Dictionaries dictionaries = new Dictionaries();
+
+        /**
+         * @param file to write. Any existing content is discarded.
+         * @throws IOException if the file cannot be written
+         */
+        Writer(File file) throws IOException {
+            super(file, MAGIC_NUMBER, FORMAT_VERSION);
+        }
+
+        synchronized void add(IGUID guid, LocationBundle locationBundle) throws IOException {
+
+            int typeId = typeId(locationBundle.getType().toString());
+            Location location = locationBundle.getLocation();
+
+            if (location instanceof SOSLocation) {
+                SOSLocation sosLocation = (SOSLocation) location;
+                int nodeId = nodeId(sosLocation.getMachineID());
+                boolean sameEntity = sosLocation.getEntityID().equals(guid);
+                defineGUIDPrefix(guid);
+                if (!sameEntity) defineGUIDPrefix(sosLocation.getEntityID());
+
+                record.writeByte(ADD_SOS_RECORD);
+                writeGUID(guid);
+                writeVarInt(record, typeId);
+                writeVarInt(record, nodeId);
+                record.writeBoolean(sameEntity);
+                if (!sameEntity) writeGUID(sosLocation.getEntityID());
+
+            } else {
+                defineGUIDPrefix(guid);
+
+                record.writeByte(ADD_URI_RECORD);
+                writeGUID(guid);
+                writeVarInt(record, typeId);
+                record.writeUTF(location.toString());
+            }
+
+            endRecord();
+        }
+
+        synchronized void delete(IGUID node, IGUID guid) throws IOException {
+
+            int nodeId = nodeId(node);
+            defineGUIDPrefix(guid);
+
+            record.writeByte(DELETE_RECORD);
+            writeVarInt(record, nodeId);
+            writeGUID(guid);
+
+            endRecord();
+        }
+
+        synchronized void clear() throws IOException {
+
+            record.writeByte(CLEAR_RECORD);
+            endRecord();
+        }
+
+        private int typeId(String type) throws IOException {
+
+            Integer id = dictionaries.typeIds.get(type);
+            if (id == null) {
+                record.writeByte(DICT_TYPE_RECORD);
+                record.writeUTF(type);
+                endRecord();
+
+                id = dictionaries.types.size();
+                dictionaries.types.add(type);
+                dictionaries.typeIds.put(type, id);
+            }
+
+            return id;
+        }
+
+        private int nodeId(IGUID node) throws IOException {
+
+            Integer id = dictionaries.nodeIds.get(node);
+            if (id == null) {
+                defineGUIDPrefix(node);
+
+                record.writeByte(DICT_NODE_RECORD);
+                writeGUID(node);
+                endRecord();
+
+                id = dictionaries.nodes.size();
+                dictionaries.nodes.add(node);
+                dictionaries.nodeIds.put(node, id);
+            }
+
+            return id;
+        }
+    }
+
+    private static class Dictionaries {
+
+        private final List<String> types = new ArrayList<>();
+        private final List<IGUID> nodes = new ArrayList<>();
+
+        // Used by the writer only
+        private final Map<String, Integer> typeIds = new HashMap<>();
+        private final Map<IGUID, Integer> nodeIds = new HashMap<>();
+    }
+}
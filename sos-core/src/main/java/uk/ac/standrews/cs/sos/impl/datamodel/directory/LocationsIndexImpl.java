@@ -20,66 +20,146 @@ import uk.ac.standrews.cs.castore.interfaces.IFile;
 import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.SOSLocation;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.BundleTypes;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.LocationBundle;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
-import uk.ac.standrews.cs.sos.impl.utils.LRU_GUID;
+import uk.ac.standrews.cs.sos.impl.utils.CompactGUID;
+import uk.ac.standrews.cs.sos.impl.utils.LRUCache;
 import uk.ac.standrews.cs.sos.interfaces.manifests.LocationsIndex;
 import uk.ac.standrews.cs.sos.utils.JSONHelper;
-import uk.ac.standrews.cs.sos.utils.Persistence;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * The index is kept in memory and, once loaded from disk with load(), persisted incrementally:
+ * every change is appended to a write-ahead log (see LocationsIndexFormat) and flush() only writes the pending records.
+ * Once the log has CHECKPOINT_THRESHOLD records, flush() compacts it into a new checkpoint of the index.
+ *
+ * The queues of locations are never modified once in the index (they are replaced instead),
+ * so that they can be read without locking. The GUIDs of the entities are stored as CompactGUIDs.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
-public class LocationsIndexImpl implements LocationsIndex {
+public class LocationsIndexImpl implements LocationsIndex, Serializable {
+
+    static final int CHECKPOINT_THRESHOLD = 8192;
+
+    private transient LRUCache<CompactGUID, PriorityQueue<LocationBundle>> index;
 
-    private transient HashMap<IGUID, PriorityQueue<LocationBundle>> index;
-    private transient LRU_GUID lru;
+    // Files of the index. Null if the index is not persisted incrementally
+    private transient File checkpointFile;
+    private transient File logFile;
+    private transient LocationsIndexFormat.Writer log;
+    private transient Object logLock;
 
     private static final long serialVersionUID = 1L;
     public LocationsIndexImpl() {
-        index = new HashMap<>();
-        lru = new LRU_GUID();
+        index = new LRUCache<>();
+        logLock = new Object();
     }
 
-    @Override
-    public void addLocation(IGUID guid, LocationBundle locationBundle) {
+    /**
+     * Load the index from its checkpoint and log, replaying the changes logged since the checkpoint.
+     * A checkpoint written with Java serialization, by previous versions of the SOS, is migrated to the binary format.
+     *
+     * @param checkpointFile where the compacted index is stored
+     * @param logFile where the changes to the index are logged
+     * @return the index, persisted incrementally to the given files
+     * @throws IOException if the files cannot be read or written
+     */
+    public static LocationsIndexImpl load(File checkpointFile, File logFile) throws IOException {
+
+        LocationsIndexImpl locationsIndex = null;
+        boolean compact = false;
+
+        if (checkpointFile.exists() && checkpointFile.length() > 0) {
+
+            if (LocationsIndexFormat.isLegacy(checkpointFile)) {
+                locationsIndex = loadLegacy(checkpointFile);
+                compact = true;
 
-        IGUID guidToRemove = lru.applyLRU(guid);
-        if (guidToRemove != null && !guidToRemove.isInvalid()) {
-            index.remove(guidToRemove);
+            } else {
+                locationsIndex = new LocationsIndexImpl();
+                if (LocationsIndexFormat.read(checkpointFile, locationsIndex.replayer()) < 0) {
+                    SOS_LOG.log(LEVEL.WARN, "LocationsIndex - the checkpoint of the index could not be read and will be discarded");
+                    locationsIndex = new LocationsIndexImpl();
+                }
+            }
         }
 
-        if (index.containsKey(guid)) {
-            if (!index.get(guid).contains(locationBundle)) {
-                index.get(guid).add(locationBundle);
+        if (locationsIndex == null) {
+            locationsIndex = new LocationsIndexImpl();
+        }
+
+        // A previous log is left if the node stopped while writing a checkpoint
+        File previousLogFile = previousLog(logFile);
+        if (previousLogFile.exists()) {
+            LocationsIndexFormat.read(previousLogFile, locationsIndex.replayer());
+            compact = true;
+        }
+
+        // Any partially written record at the end of the log is dropped when the log is compacted
+        if (logFile.exists() && logFile.length() > LocationsIndexFormat.HEADER_LENGTH) {
+            long validLength = LocationsIndexFormat.read(logFile, locationsIndex.replayer());
+            if (validLength < 0) {
+                SOS_LOG.log(LEVEL.WARN, "LocationsIndex - the log of the index could not be read and will be discarded");
             }
+            compact = true;
+        }
+
+        locationsIndex.checkpointFile = checkpointFile;
+        locationsIndex.logFile = logFile;
+
+        if (compact) {
+            locationsIndex.checkpoint();
         } else {
-            PriorityQueue<LocationBundle> bundles = new PriorityQueue<>(comparator());
-            bundles.add(locationBundle);
-            index.put(guid, bundles);
+            locationsIndex.log = new LocationsIndexFormat.Writer(logFile);
         }
+
+        return locationsIndex;
     }
 
     @Override
-    public Queue<LocationBundle> findLocations(IGUID guid) {
+    public void addLocation(IGUID guid, LocationBundle locationBundle) {
 
-        lru.applyReadLRU(guid);
+        index.compute(CompactGUID.of(guid), (key, bundles) -> {
+
+            if (bundles != null && bundles.contains(locationBundle)) {
+                return bundles;
+            }
 
-        if (index.containsKey(guid)) {
-            return index.get(guid);
+            PriorityQueue<LocationBundle> updated = new PriorityQueue<>(comparator());
+            if (bundles != null) {
+                updated.addAll(bundles);
+            }
+            updated.add(locationBundle);
+
+            logAdd(guid, locationBundle);
+            return updated;
+        });
+    }
+
+    @Override
+    public Queue<LocationBundle> findLocations(IGUID guid) {
+
+        PriorityQueue<LocationBundle> bundles = index.get(CompactGUID.of(guid));
+        if (bundles != null) {
+            return bundles;
         }
 
         return new PriorityQueue<>();
     }
 
+    public LRUCache<CompactGUID, PriorityQueue<LocationBundle>> getLRU() {
+        return index;
+    }
+
     /**
      * Order priority:
      * local node data first (no matter if cache, persistent or external)
@@ -154,19 +234,96 @@ public class LocationsIndexImpl implements LocationsIndex {
         return localNodeGUID.equals(nodeGUID);
     }
 
+    /**
+     * Write a checkpoint of the whole index to the given file.
+     * Use flush() to persist an index loaded with load().
+     *
+     * @param file where to write the index
+     * @throws IOException if the index could not be written
+     */
     @Override
     public void persist(IFile file) throws IOException {
 
-        Persistence.persist(this, file);
+        writeCheckpoint(file.toFile());
+    }
+
+    /**
+     * Write the changes logged since the last flush and compact the log into a new checkpoint, if the log is large enough.
+     *
+     * @throws IOException if the index could not be written
+     */
+    @Override
+    public void flush() throws IOException {
+
+        if (log == null) return;
+
+        int records;
+        synchronized (logLock) {
+            log.flush();
+            records = log.getRecords();
+        }
+
+        if (records >= CHECKPOINT_THRESHOLD) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Write a new checkpoint of the index and start a new log.
+     * Changes made while the checkpoint is written are logged in the new log.
+     *
+     * @throws IOException if the checkpoint could not be written
+     */
+    public synchronized void checkpoint() throws IOException {
+
+        if (logFile == null) return;
+
+        File previousLogFile = previousLog(logFile);
+        if (previousLogFile.exists()) {
+            // Left by a checkpoint that did not complete. Its changes are in memory, so they are saved first
+            writeCheckpointAtomically();
+            Files.delete(previousLogFile.toPath());
+        }
+
+        // Keep the previous log until the checkpoint is complete, so that no changes are lost if the node stops
+        synchronized (logLock) {
+            if (log != null) log.close();
+            if (logFile.exists()) {
+                Files.move(logFile.toPath(), previousLogFile.toPath());
+            }
+            log = new LocationsIndexFormat.Writer(logFile);
+        }
+
+        writeCheckpointAtomically();
+        Files.deleteIfExists(previousLogFile.toPath());
+    }
+
+    /**
+     * Flush the index and close its log. The index is cleared from memory, but not from disk.
+     *
+     * @throws IOException if the index could not be written
+     */
+    @Override
+    public void close() throws IOException {
+
+        synchronized (logLock) {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        }
+
+        index.clear();
     }
 
     @Override
     public void deleteLocation(IGUID node, IGUID guid) {
 
-        if (index.containsKey(guid)) {
-            PriorityQueue<LocationBundle> locationBundles = index.get(guid);
+        index.compute(CompactGUID.of(guid), (key, locationBundles) -> {
+            if (locationBundles == null) return null;
 
-            Iterator<LocationBundle> iterator = locationBundles.iterator();
+            PriorityQueue<LocationBundle> updated = new PriorityQueue<>(locationBundles);
+            Iterator<LocationBundle> iterator = updated.iterator();
             while(iterator.hasNext()) {
                 LocationBundle bundle = iterator.next();
 
@@ -175,62 +332,128 @@ public class LocationsIndexImpl implements LocationsIndex {
 
                     if (location.getMachineID().equals(node) && location.getEntityID().equals(guid)) {
                         iterator.remove();
-                        break;
+
+                        logDelete(node, guid);
+                        return updated;
                     }
                 }
 
             }
-        }
+
+            return locationBundles;
+        });
     }
 
     @Override
     public void clear() {
 
         index.clear();
-        lru.clear();
+
+        synchronized (logLock) {
+            if (log == null) return;
+
+            try {
+                log.clear();
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.ERROR, "LocationsIndex - unable to log the clearing of the index");
+            }
+        }
     }
 
-    // This method defines how the cache is serialised
-    private void writeObject(ObjectOutputStream out) throws IOException {
-        out.defaultWriteObject();
+    // Called while holding the lock of the entry in the LRU cache, so that the log follows the order of the changes
+    private void logAdd(IGUID guid, LocationBundle locationBundle) {
+
+        synchronized (logLock) {
+            if (log == null) return;
+
+            try {
+                log.add(guid, locationBundle);
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.ERROR, "LocationsIndex - unable to log location for " + guid.toShortString());
+            }
+        }
+    }
 
-        int index_size = index.size();
-        out.writeInt(index_size);
-        if (index_size > 0) {
+    private void logDelete(IGUID node, IGUID guid) {
+
+        synchronized (logLock) {
+            if (log == null) return;
+
+            try {
+                log.delete(node, guid);
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.ERROR, "LocationsIndex - unable to log deleted location for " + guid.toShortString());
+            }
+        }
+    }
+
+    private void writeCheckpointAtomically() throws IOException {
+
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        writeCheckpoint(temp);
+        Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeCheckpoint(File file) throws IOException {
+
+        try (LocationsIndexFormat.Writer writer = new LocationsIndexFormat.Writer(file)) {
 
             // Store entries as ordered in the LRU
-            ConcurrentLinkedQueue<IGUID> lruQueue = new ConcurrentLinkedQueue<>(lru.getQueue());
-            IGUID key;
-            while ((key = lruQueue.poll()) != null) {
-
-                PriorityQueue<LocationBundle> values = index.get(key);
-                if (values != null) {
-                    int numberOfLocations = values.size();
-
-                    out.writeInt(numberOfLocations);
-                    if (numberOfLocations > 0) {
-                        out.writeUTF(key.toMultiHash());
-
-                        for (LocationBundle bundle : findLocations(key)) {
-                            if (bundle != null && bundle.toString() != null) {
-                                out.writeUTF(bundle.toString());
-                            }
-                        }
-                    }
+            for (CompactGUID key : index.keys()) {
+
+                PriorityQueue<LocationBundle> values = index.peek(key);
+                if (values == null) continue; // Entry evicted while writing
+
+                IGUID guid = key.toGUID();
+                for (LocationBundle bundle : values) {
+                    writer.add(guid, bundle);
                 }
             }
+        }
+    }
+
+    // Replays the records of the index files, without logging them again
+    private LocationsIndexFormat.Replayer replayer() {
+
+        return new LocationsIndexFormat.Replayer() {
+            @Override
+            public void add(IGUID guid, LocationBundle locationBundle) {
+                addLocation(guid, locationBundle);
+            }
+
+            @Override
+            public void delete(IGUID node, IGUID guid) {
+                deleteLocation(node, guid);
+            }
+
+            @Override
+            public void clear() {
+                index.clear();
+            }
+        };
+    }
+
+    private static File previousLog(File logFile) {
+        return new File(logFile.getPath() + ".old");
+    }
+
+    private static LocationsIndexImpl loadLegacy(File file) throws IOException {
 
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (LocationsIndexImpl) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unable to migrate the locations index", e);
         }
     }
 
-    // This method defines how the cache is de-serialised
+    // Reads an index serialised by previous versions of the SOS, so that it can be migrated to the binary format
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
-        lru = new LRU_GUID();
+        index = new LRUCache<>();
+        logLock = new Object();
 
         int indexSize = in.readInt();
-        index = new HashMap<>();
         for(int i = 0; i < indexSize; i++) {
             try {
                 int numberOfLocations = in.readInt();
@@ -239,7 +462,6 @@ public class LocationsIndexImpl implements LocationsIndex {
                 IGUID key = GUIDFactory.recreateGUID(in.readUTF());
 
                 for (int j = 0; j < numberOfLocations; j++) {
-                    // TODO - store it in a more compact format
                     LocationBundle bundle = JSONHelper.jsonObjMapper().readValue(in.readUTF(), LocationBundle.class);
                     addLocation(key, bundle);
                 }
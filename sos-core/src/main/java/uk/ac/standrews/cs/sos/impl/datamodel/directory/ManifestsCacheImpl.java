@@ -18,13 +18,15 @@ package uk.ac.standrews.cs.sos.impl.datamodel.directory;
 
 import uk.ac.standrews.cs.castore.interfaces.IDirectory;
 import uk.ac.standrews.cs.castore.interfaces.IFile;
+import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
 import uk.ac.standrews.cs.sos.exceptions.IgnoreException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
-import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
+import uk.ac.standrews.cs.sos.impl.manifest.ManifestWeigher;
 import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
-import uk.ac.standrews.cs.sos.impl.utils.LRU_GUID;
+import uk.ac.standrews.cs.sos.impl.utils.LRUCache;
 import uk.ac.standrews.cs.sos.interfaces.manifests.ManifestsCache;
 import uk.ac.standrews.cs.sos.model.Atom;
 import uk.ac.standrews.cs.sos.model.Manifest;
@@ -37,62 +39,63 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
+ * In-memory LRU cache of manifests.
+ *
+ * By default, the cache is bounded by the estimated memory used by the manifests (see ManifestWeigher),
+ * since manifests such as compounds and contexts can be orders of magnitude larger than atoms.
+ *
+ * Only the GUIDs of the cached manifests are serialised. The manifests themselves are reloaded from disk (see load method).
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class ManifestsCacheImpl extends AbstractManifestsDirectory implements ManifestsCache, Serializable {
 
-    private transient HashMap<IGUID, Manifest> cache;
-    private transient LRU_GUID lru;
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private transient LRUCache<IGUID, Manifest> cache;
+    // True if the cache is bounded by bytes, false if bounded by number of manifests
+    private transient boolean weighted;
+
+    // GUIDs read on de-serialisation, from the least to the most recently used
+    private transient List<IGUID> persistedGUIDs;
+
+    // Version 2: the bound of the cache (weighted flag and max weight) is serialised before the GUIDs.
+    // Caches persisted with version 1 cannot be read and are discarded on load
+    private static final long serialVersionUID = 2L;
 
-    private static final long serialVersionUID = 1L;
     public ManifestsCacheImpl() {
-        cache = new HashMap<>();
-        lru = new LRU_GUID();
+        this(DEFAULT_MAX_BYTES, true);
     }
 
+    /**
+     * @param size maximum number of manifests in the cache
+     */
     public ManifestsCacheImpl(int size) {
-        cache = new HashMap<>();
-        lru = new LRU_GUID(size);
+        this(size, false);
     }
 
-    @Override
-    public synchronized void addManifest(Manifest manifest) {
-
-        IGUID guid = manifest.guid();
-
-        IGUID guidToRemove = lru.applyLRU(guid);
-        if (!guidToRemove.isInvalid()) {
-            cache.remove(guidToRemove);
-        }
-
-        if (manifest.getType().equals(ManifestType.ATOM)) {
-
-            // Check if there is already an atom in the cache.
-            try {
-                Atom retrievedManifest = (Atom) findManifest(guid);
-                manifest = mergeManifests(guid, (Atom) manifest, retrievedManifest);
-
-            } catch (ManifestNotFoundException e) {
-                // DO NOTHING
-            }
-        } else if (manifest.getType().equals(ManifestType.ATOM_PROTECTED)) {
+    private ManifestsCacheImpl(long max, boolean weighted) {
+        this.cache = makeCache(max, weighted);
+        this.weighted = weighted;
+    }
 
-            // Check if there is already an atom in the cache.
-            try {
-                SecureAtom retrievedManifest = (SecureAtom) findManifest(guid);
-                manifest = mergeManifests(guid, (SecureAtom) manifest, retrievedManifest);
+    /**
+     * @param maxBytes maximum number of bytes (estimated) used by the manifests in the cache
+     * @return a cache bounded by memory
+     */
+    public static ManifestsCacheImpl withMemoryBudget(long maxBytes) {
+        return new ManifestsCacheImpl(maxBytes, true);
+    }
 
-            } catch (ManifestNotFoundException e) {
-                // DO NOTHING
-            }
-        }
+    @Override
+    public void addManifest(Manifest manifest) {
 
-        cache.put(guid, manifest);
+        // The check for an existing atom and the merge are done atomically
+        cache.compute(manifest.guid(), (guid, retrievedManifest) -> merge(guid, manifest, retrievedManifest));
     }
 
     @Override
@@ -102,22 +105,18 @@ public class ManifestsCacheImpl extends AbstractManifestsDirectory implements Ma
             throw new ManifestNotFoundException("Cache has not been initialised");
         }
 
-        if (!cache.containsKey(guid)) {
+        Manifest manifest = cache.get(guid);
+        if (manifest == null) {
             throw new ManifestNotFoundException("Unable to find manifest for GUID: " + guid.toShortString() + " in the cache");
         }
 
-        lru.applyReadLRU(guid);
-
-        return cache.get(guid);
+        return manifest;
     }
 
     @Override
     public void delete(IGUID guid) throws ManifestNotFoundException {
 
-        if (cache.containsKey(guid)) {
-            cache.remove(guid);
-            lru.remove(guid);
-        } else {
+        if (cache.remove(guid) == null) {
             throw new ManifestNotFoundException("Manifest with GUID "  + guid.toMultiHash() + " was not found and could not be deleted.");
         }
     }
@@ -128,42 +127,95 @@ public class ManifestsCacheImpl extends AbstractManifestsDirectory implements Ma
     }
 
     @Override
-    public LRU_GUID getLRU() {
-        return lru;
+    public LRUCache<IGUID, Manifest> getLRU() {
+        return cache;
+    }
+
+    @Override
+    public long getOccupancy() {
+        return cache.getWeight();
+    }
+
+    @Override
+    public long getCapacity() {
+        return cache.getMaxWeight();
+    }
+
+    @Override
+    public boolean isBoundedByMemory() {
+        return weighted;
     }
 
     @Override
     public void clear() {
 
         cache.clear();
-        lru.clear();
     }
 
     public static ManifestsCache load(LocalStorage storage, IFile file, IDirectory manifestsDir) throws IOException, ClassNotFoundException, IgnoreException {
 
-        ManifestsCache persistedCache = (ManifestsCache) Persistence.load(file);
+        return load(storage, file, manifestsDir, 0);
+    }
+
+    /**
+     * Load the cache and bound it by the given memory budget, which might differ from the persisted one.
+     *
+     * @param storage local storage
+     * @param file where the cache is persisted
+     * @param manifestsDir where the manifests are stored
+     * @param maxBytes memory budget for the cache. If not positive, the persisted bound is used
+     * @return the loaded cache
+     */
+    public static ManifestsCache load(LocalStorage storage, IFile file, IDirectory manifestsDir, long maxBytes) throws IOException, ClassNotFoundException, IgnoreException {
+
+        ManifestsCacheImpl persistedCache = (ManifestsCacheImpl) Persistence.load(file);
 
         if (persistedCache == null) throw new ClassNotFoundException();
-        if (persistedCache.getLRU() == null) return persistedCache;
+        if (maxBytes > 0) {
+            persistedCache.cache = makeCache(maxBytes, true);
+            persistedCache.weighted = true;
+        }
+        if (persistedCache.persistedGUIDs == null) return persistedCache;
 
         // Reload manifests this way rather than through serialization.
-        // Make a copy of the queue, so that the LRU queue is not changed by the poll() method
-        ConcurrentLinkedQueue<IGUID> lruQueue = new  ConcurrentLinkedQueue<>(persistedCache.getLRU().getQueue());
-        IGUID guid;
-        while ((guid = lruQueue.poll()) != null) {
+        // The GUIDs are ordered from the least to the most recently used, so the LRU order is preserved
+        for (IGUID guid : persistedCache.persistedGUIDs) {
             Manifest manifest = loadManifest(storage, manifestsDir, guid);
             if (manifest != null) {
-                try {
-                    persistedCache.addManifest(manifest);
-                } catch (ManifestPersistException e) {
-                    throw new IOException("Unable to load manifest correctly " + manifest);
-                }
+                persistedCache.addManifest(manifest);
             }
         }
+        persistedCache.persistedGUIDs = null;
 
         return persistedCache;
     }
 
+    private Manifest merge(IGUID guid, Manifest manifest, Manifest retrievedManifest) {
+
+        if (retrievedManifest == null) {
+            return manifest;
+        }
+
+        // Check if there is already an atom in the cache.
+        if (manifest.getType().equals(ManifestType.ATOM) && retrievedManifest.getType().equals(ManifestType.ATOM)) {
+            return mergeManifests(guid, (Atom) manifest, (Atom) retrievedManifest);
+
+        } else if (manifest.getType().equals(ManifestType.ATOM_PROTECTED) && retrievedManifest.getType().equals(ManifestType.ATOM_PROTECTED)) {
+            return mergeManifests(guid, (SecureAtom) manifest, (SecureAtom) retrievedManifest);
+        }
+
+        return manifest;
+    }
+
+    private static LRUCache<IGUID, Manifest> makeCache(long max, boolean weighted) {
+
+        if (weighted) {
+            return new LRUCache<>(max, ManifestWeigher::weigh);
+        } else {
+            return new LRUCache<>((int) max);
+        }
+    }
+
     private static Manifest loadManifest(LocalStorage storage, IDirectory manifestsDir, IGUID guid) {
         try {
             IFile fileRef = FileUtils.CreateFile(storage, manifestsDir, guid.toMultiHash());
@@ -178,14 +230,30 @@ public class ManifestsCacheImpl extends AbstractManifestsDirectory implements Ma
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
 
-        out.writeObject(lru);
+        List<IGUID> guids = cache.keys();
+        out.writeBoolean(weighted);
+        out.writeLong(cache.getMaxWeight());
+        out.writeInt(guids.size());
+        for (IGUID guid : guids) {
+            out.writeUTF(guid.toMultiHash());
+        }
     }
 
     // This method defines how the cache is de-serialised
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
-        lru = (LRU_GUID) in.readObject();
-        cache = new HashMap<>();
+        weighted = in.readBoolean();
+        cache = makeCache(in.readLong(), weighted);
+
+        int numberOfGUIDs = in.readInt();
+        persistedGUIDs = new ArrayList<>(numberOfGUIDs);
+        for (int i = 0; i < numberOfGUIDs; i++) {
+            try {
+                persistedGUIDs.add(GUIDFactory.recreateGUID(in.readUTF()));
+            } catch (GUIDGenerationException e) {
+                throw new IOException("Unable to recreate GUID for cached manifest", e);
+            }
+        }
     }
 }
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.directory;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.sos.model.ManifestType;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static uk.ac.standrews.cs.sos.impl.datamodel.directory.BinaryIndexFormat.readVarInt;
+import static uk.ac.standrews.cs.sos.impl.datamodel.directory.BinaryIndexFormat.writeVarInt;
+
+/**
+ * Binary format of the manifests index, used both for its checkpoints and for its write-ahead log (see BinaryIndexFormat).
+ *
+ * Every file starts with a GENERATION record. A checkpoint and the log that follows it have the same generation,
+ * so that a log already compacted into a checkpoint (e.g. if the node stopped while the checkpoint was being completed)
+ * is never replayed again.
+ *
+ * The log has one record per operation on the index (track, advanceTip, setHead, delete, clear), which are replayed
+ * in order. A checkpoint has one record per tracked manifest and one record per asset, with its versions, tips and head.
+ * Manifest types are dictionary-encoded, like the GUID prefixes.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class ManifestsIndexFormat {
+
+    private static final int MAGIC_NUMBER = 0x534f534d;
+    private static final int FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = BinaryIndexFormat.HEADER_LENGTH;
+
+    private static final byte DICT_TYPE_RECORD = 2;
+    private static final byte GENERATION_RECORD = 10;
+
+    // Operations
+    private static final byte TRACK_RECORD = 3;
+    private static final byte ADVANCE_TIP_RECORD = 4;
+    private static final byte SET_HEAD_RECORD = 5;
+    private static final byte DELETE_RECORD = 6;
+    private static final byte DELETE_VERSIONABLE_RECORD = 7;
+    private static final byte CLEAR_RECORD = 8;
+
+    // State of an asset, in checkpoints
+    private static final byte ASSET_RECORD = 9;
+
+    private ManifestsIndexFormat() {}
+
+    /**
+     * Operations replayed when reading a file of the index.
+     */
+    interface Replayer {
+
+        void track(ManifestType type, IGUID guid);
+
+        void advanceTip(IGUID invariant, IGUID version, Set<IGUID> previous);
+
+        void setHead(IGUID invariant, IGUID version);
+
+        /**
+         * @param type of the deleted manifest
+         * @param guid of the deleted manifest
+         * @param invariant of the deleted manifest, or null if the manifest is not versionable
+         * @param previous versions of the deleted manifest, or null if the manifest is not versionable
+         */
+        void delete(ManifestType type, IGUID guid, IGUID invariant, Set<IGUID> previous);
+
+        void clear();
+
+        /**
+         * @param invariant of the asset
+         * @param versions of the asset
+         * @param tips of the asset, or null if the asset has no tips
+         * @param head of the asset, or null if the asset has no head
+         */
+        void asset(IGUID invariant, Set<IGUID> versions, Set<IGUID> tips, IGUID head);
+    }
+
+    /**
+     * @param file to check
+     * @return true if the file was written with Java serialization, by previous versions of the index
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isLegacy(File file) throws IOException {
+
+        return BinaryIndexFormat.isLegacy(file);
+    }
+
+    /**
+     * @param file to read
+     * @return the generation of the file, or -1 if the file is not valid
+     */
+    static long generation(File file) {
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC_NUMBER || in.readInt() != FORMAT_VERSION) return -1;
+
+            readVarInt(in); // Length of the record
+            if (in.readByte() != GENERATION_RECORD) return -1;
+
+            return in.readLong();
+
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Replay the records of a file.
+     *
+     * @param file to read
+     * @param replayer of the records
+     * @return the length of the valid part of the file (a partially written record at the end is ignored),
+     * or -1 if the file is not valid
+     */
+    static long read(File file, Replayer replayer) {
+
+        List<ManifestType> types = new ArrayList<>();
+        return BinaryIndexFormat.read(file, MAGIC_NUMBER, FORMAT_VERSION,
+                (type, in, guids) -> readRecord(type, in, guids, types, replayer));
+    }
+
+    private static void readRecord(byte type, DataInputStream in, BinaryIndexFormat.GUIDs guids, List<ManifestType> types, Replayer replayer) throws IOException, GUIDGenerationException {
+
+        switch (type) {
+            case GENERATION_RECORD:
+                // See generation(File)
+                break;
+            case DICT_TYPE_RECORD:
+                try {
+                    types.add(ManifestType.get(in.readUTF()));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Unknown manifest type", e);
+                }
+                break;
+            case TRACK_RECORD: {
+                ManifestType manifestType = types.get(readVarInt(in));
+                replayer.track(manifestType, guids.read(in));
+                break;
+            }
+            case ADVANCE_TIP_RECORD: {
+                IGUID invariant = guids.read(in);
+                IGUID version = guids.read(in);
+                replayer.advanceTip(invariant, version, readGUIDs(in, guids));
+                break;
+            }
+            case SET_HEAD_RECORD: {
+                IGUID invariant = guids.read(in);
+                replayer.setHead(invariant, guids.read(in));
+                break;
+            }
+            case DELETE_RECORD: {
+                ManifestType manifestType = types.get(readVarInt(in));
+                replayer.delete(manifestType, guids.read(in), null, null);
+                break;
+            }
+            case DELETE_VERSIONABLE_RECORD: {
+                ManifestType manifestType = types.get(readVarInt(in));
+                IGUID guid = guids.read(in);
+                IGUID invariant = guids.read(in);
+                replayer.delete(manifestType, guid, invariant, readGUIDs(in, guids));
+                break;
+            }
+            case CLEAR_RECORD:
+                replayer.clear();
+                break;
+            case ASSET_RECORD: {
+                IGUID invariant = guids.read(in);
+                Set<IGUID> versions = readGUIDs(in, guids);
+                Set<IGUID> tips = in.readBoolean() ? readGUIDs(in, guids) : null;
+                IGUID head = in.readBoolean() ? guids.read(in) : null;
+                replayer.asset(invariant, versions, tips, head);
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static Set<IGUID> readGUIDs(DataInputStream in, BinaryIndexFormat.GUIDs guids) throws IOException, GUIDGenerationException {
+
+        int size = readVarInt(in);
+        Set<IGUID> set = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            set.add(guids.read(in));
+        }
+
+        return set;
+    }
+
+    /**
+     * Appends records to a file of the index.
+     * The writer is thread-safe. Records are buffered until flush() is called or the buffer is full.
+     */
+    static class Writer extends BinaryIndexFormat.Writer {
+
+        private final Map<ManifestType, Integer> typeIds = new EnumMap<>(ManifestType.class);
+
+        /**
+         * @param file to write. Any existing content is discarded.
+         * @param generation of the file
+         * @throws IOException if the file cannot be written
+         */
+        Writer(File file, long generation) throws IOException {
+            super(file, MAGIC_NUMBER, FORMAT_VERSION);
+
+            record.writeByte(GENERATION_RECORD);
+            record.writeLong(generation);
+            endRecord();
+            flush();
+        }
+
+        synchronized void track(ManifestType type, IGUID guid) throws IOException {
+
+            int typeId = typeId(type);
+            defineGUIDPrefix(guid);
+
+            record.writeByte(TRACK_RECORD);
+            writeVarInt(record, typeId);
+            writeGUID(guid);
+
+            endRecord();
+        }
+
+        synchronized void advanceTip(IGUID invariant, IGUID version, Set<IGUID> previous) throws IOException {
+
+            defineGUIDPrefix(invariant);
+            defineGUIDPrefix(version);
+            defineGUIDPrefixes(previous);
+
+            record.writeByte(ADVANCE_TIP_RECORD);
+            writeGUID(invariant);
+            writeGUID(version);
+            writeGUIDs(previous);
+
+            endRecord();
+        }
+
+        synchronized void setHead(IGUID invariant, IGUID version) throws IOException {
+
+            defineGUIDPrefix(invariant);
+            defineGUIDPrefix(version);
+
+            record.writeByte(SET_HEAD_RECORD);
+            writeGUID(invariant);
+            writeGUID(version);
+
+            endRecord();
+        }
+
+        synchronized void delete(ManifestType type, IGUID guid, IGUID invariant, Set<IGUID> previous) throws IOException {
+
+            int typeId = typeId(type);
+            defineGUIDPrefix(guid);
+
+            if (invariant == null) {
+                record.writeByte(DELETE_RECORD);
+                writeVarInt(record, typeId);
+                writeGUID(guid);
+
+            } else {
+                defineGUIDPrefix(invariant);
+                defineGUIDPrefixes(previous);
+
+                record.writeByte(DELETE_VERSIONABLE_RECORD);
+                writeVarInt(record, typeId);
+                writeGUID(guid);
+                writeGUID(invariant);
+                writeGUIDs(previous);
+            }
+
+            endRecord();
+        }
+
+        synchronized void clear() throws IOException {
+
+            record.writeByte(CLEAR_RECORD);
+            endRecord();
+        }
+
+        synchronized void asset(IGUID invariant, Set<IGUID> versions, Set<IGUID> tips, IGUID head) throws IOException {
+
+            defineGUIDPrefix(invariant);
+            defineGUIDPrefixes(versions);
+            defineGUIDPrefixes(tips);
+            if (head != null) defineGUIDPrefix(head);
+
+            record.writeByte(ASSET_RECORD);
+            writeGUID(invariant);
+            writeGUIDs(versions);
+
+            record.writeBoolean(tips != null);
+            if (tips != null) writeGUIDs(tips);
+
+            record.writeBoolean(head != null);
+            if (head != null) writeGUID(head);
+
+            endRecord();
+        }
+
+        private int typeId(ManifestType type) throws IOException {
+
+            Integer id = typeIds.get(type);
+            if (id == null) {
+                record.writeByte(DICT_TYPE_RECORD);
+                record.writeUTF(type.toString());
+                endRecord();
+
+                id = typeIds.size();
+                typeIds.put(type, id);
+            }
+
+            return id;
+        }
+
+        private void defineGUIDPrefixes(Set<IGUID> guids) throws IOException {
+
+            if (guids == null) return;
+
+            for (IGUID guid : guids) {
+                defineGUIDPrefix(guid);
+            }
+        }
+
+        // A null set is written as an empty one
+        private void writeGUIDs(Set<IGUID> guids) throws IOException {
+
+            if (guids == null) {
+                writeVarInt(record, 0);
+                return;
+            }
+
+            writeVarInt(record, guids.size());
+            for (IGUID guid : guids) {
+                writeGUID(guid);
+            }
+        }
+    }
+}
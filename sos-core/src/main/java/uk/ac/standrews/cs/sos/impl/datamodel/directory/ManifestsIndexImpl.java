@@ -22,321 +22,714 @@ import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.exceptions.manifest.HEADNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.TIPNotFoundException;
+import uk.ac.standrews.cs.sos.impl.utils.CompactGUID;
+import uk.ac.standrews.cs.sos.impl.utils.GUIDIntMap;
+import uk.ac.standrews.cs.sos.impl.utils.GUIDSetMap;
 import uk.ac.standrews.cs.sos.interfaces.manifests.ManifestsIndex;
 import uk.ac.standrews.cs.sos.model.Manifest;
 import uk.ac.standrews.cs.sos.model.ManifestType;
 import uk.ac.standrews.cs.sos.model.Versionable;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
+ * The index is kept in memory and, once loaded from disk with load(), persisted incrementally:
+ * every operation is appended to a write-ahead log (see ManifestsIndexFormat) and flush() commits the pending records
+ * as a group. Once the log has as many records as the last checkpoint (and at least CHECKPOINT_THRESHOLD records),
+ * flush() compacts it into a new checkpoint of the index. The cost of writing checkpoints is therefore proportional
+ * to the number of changes, not to the size of the index. However, the whole index is written while holding its lock,
+ * so operations on the index wait for the checkpoint to be written.
+ *
+ * The GUIDs are stored in memory as CompactGUIDs, in primitive maps (see GUIDIntMap and GUIDSetMap),
+ * and are converted back to IGUIDs only when returned.
+ *
  * TODO - set max size of indexes
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class ManifestsIndexImpl implements ManifestsIndex, Serializable {
 
+    static final int CHECKPOINT_THRESHOLD = 8192;
+
     // [type --> guid/invariant]
     // invariant for versionable manifests
     // guid for all others
-    private transient HashMap<ManifestType, Set<IGUID>> typeToManifest;
+    // The values are the order in which the manifests were tracked
+    private transient EnumMap<ManifestType, GUIDIntMap> typeToManifest;
+    private transient int tracked;
 
     // [invariant --> [versionable]]
-    private transient HashMap<IGUID, Set<IGUID>> assetsToVersions;
+    private transient GUIDSetMap assetsToVersions;
 
     // [invariant --> [versionable/tip]]
-    private transient HashMap<IGUID, Set<IGUID>> tips;
+    private transient GUIDSetMap tips;
 
     // [invariant --> versionable/head]
-    private transient HashMap<IGUID, IGUID> heads;
+    // The set of an invariant contains the head only
+    private transient GUIDSetMap heads;
+
+    // Files of the index. Null if the index is not persisted incrementally
+    private transient File checkpointFile;
+    private transient File logFile;
+    private transient ManifestsIndexFormat.Writer log;
+    private transient long generation;
+    private transient int checkpointRecords;
+    // Number of records replayed while loading the index, other than the dictionary ones
+    private transient int replayed;
+
+    // Held while flushing and writing checkpoints, before the lock of the index
+    private transient Object flushLock;
 
     private static final long serialVersionUID = 1L;
     public ManifestsIndexImpl() {
 
-        tips = new HashMap<>();
-        heads = new HashMap<>();
-        assetsToVersions = new HashMap<>();
-        typeToManifest = new HashMap<>();
+        tips = new GUIDSetMap();
+        heads = new GUIDSetMap();
+        assetsToVersions = new GUIDSetMap();
+        typeToManifest = new EnumMap<>(ManifestType.class);
+        flushLock = new Object();
     }
 
-    @Override
-    public void track(Manifest manifest) {
+    /**
+     * Load the index from its checkpoint and log, replaying the operations logged since the checkpoint.
+     * A checkpoint written with Java serialization, by previous versions of the SOS, is migrated to the binary format.
+     *
+     * @param checkpointFile where the compacted index is stored
+     * @param logFile where the operations on the index are logged
+     * @return the index, persisted incrementally to the given files
+     * @throws IOException if the files cannot be read or written. The index should then be rebuilt
+     */
+    public static ManifestsIndexImpl load(File checkpointFile, File logFile) throws IOException {
 
-        ManifestType type = manifest.getType();
+        ManifestsIndexImpl manifestsIndex = new ManifestsIndexImpl();
+        long generation = 0;
+        boolean compact = false;
+
+        if (checkpointFile.exists() && checkpointFile.length() > 0) {
+
+            if (ManifestsIndexFormat.isLegacy(checkpointFile)) {
+                manifestsIndex = loadLegacy(checkpointFile);
+                compact = true;
+
+            } else {
+                generation = ManifestsIndexFormat.generation(checkpointFile);
+                if (generation < 0 || ManifestsIndexFormat.read(checkpointFile, manifestsIndex.replayer()) < 0) {
+                    throw new IOException("The checkpoint of the manifests index could not be read");
+                }
+            }
+        }
 
-        if (!typeToManifest.containsKey(type)) {
-            typeToManifest.put(type, new LinkedHashSet<>());
+        // The log is ignored if it was already compacted into the checkpoint.
+        // Any partially written record at the end of the log is dropped when the log is compacted
+        if (logFile.exists() && ManifestsIndexFormat.generation(logFile) == generation) {
+            int recordsBefore = manifestsIndex.replayed;
+            ManifestsIndexFormat.read(logFile, manifestsIndex.replayer());
+            compact |= manifestsIndex.replayed > recordsBefore;
         }
 
-        if (manifest instanceof Versionable) {
-            Versionable versionable = (Versionable) manifest;
-            typeToManifest.get(type).add(versionable.invariant());
+        manifestsIndex.checkpointFile = checkpointFile;
+        manifestsIndex.logFile = logFile;
+        manifestsIndex.generation = generation;
+
+        if (compact) {
+            manifestsIndex.checkpoint();
         } else {
-            typeToManifest.get(type).add(manifest.guid());
+            manifestsIndex.log = new ManifestsIndexFormat.Writer(logFile, generation);
         }
 
+        return manifestsIndex;
     }
 
     @Override
-    public Set<IGUID> getManifests(ManifestType type) {
+    public synchronized void track(Manifest manifest) {
+
+        ManifestType type = manifest.getType();
+        IGUID guid = manifest instanceof Versionable ? ((Versionable) manifest).invariant() : manifest.guid();
+
+        track(type, guid);
+        logOperation(writer -> writer.track(type, guid), "track", guid);
+    }
+
+    @Override
+    public synchronized Set<IGUID> getManifests(ManifestType type) {
 
         if (typeToManifest.containsKey(type)) {
-            return typeToManifest.get(type);
+            return toGUIDs(inTrackingOrder(typeToManifest.get(type)));
         } else {
             return new LinkedHashSet<>();
         }
     }
 
     @Override
-    public Set<IGUID> getVersions(IGUID invariant) {
+    public synchronized Set<IGUID> getVersions(IGUID invariant) {
 
-        if (assetsToVersions.containsKey(invariant)) {
-            return assetsToVersions.get(invariant);
+        List<CompactGUID> versions = assetsToVersions.get(CompactGUID.of(invariant));
+        if (versions != null) {
+            return toGUIDs(versions);
         } else {
             return new LinkedHashSet<>();
         }
     }
 
     @Override
-    public Set<IGUID> getTips(IGUID invariant) throws TIPNotFoundException {
+    public synchronized Set<IGUID> getTips(IGUID invariant) throws TIPNotFoundException {
 
-        if (tips.containsKey(invariant)) {
-            return tips.get(invariant);
+        List<CompactGUID> assetTips = tips.get(CompactGUID.of(invariant));
+        if (assetTips != null) {
+            return toGUIDs(assetTips);
         }
 
         throw new TIPNotFoundException();
     }
 
     @Override
-    public IGUID getHead(IGUID invariant) throws HEADNotFoundException {
+    public synchronized IGUID getHead(IGUID invariant) throws HEADNotFoundException {
 
-        if (heads.containsKey(invariant)) {
-            return heads.get(invariant);
+        CompactGUID head = heads.first(CompactGUID.of(invariant));
+        if (head != null) {
+            return head.toGUID();
         }
 
         throw new HEADNotFoundException();
     }
 
     @Override
-    public void setHead(Versionable versionable) {
+    public synchronized void setHead(Versionable versionable) {
 
         IGUID invariant = versionable.invariant();
         IGUID version = versionable.guid();
 
-        heads.put(invariant, version);
-        addVersionInAsset(invariant, version);
+        setHead(invariant, version);
+        logOperation(writer -> writer.setHead(invariant, version), "set head", invariant);
     }
 
     @Override
-    public void advanceTip(Versionable versionable) {
+    public synchronized void advanceTip(Versionable versionable) {
 
-        Set<IGUID> previousVersions = versionable.previous();
-
-        IGUID guid = versionable.guid();
         IGUID invariant = versionable.invariant();
+        IGUID version = versionable.guid();
+        Set<IGUID> previousVersions = versionable.previous();
 
-        if (previousVersions == null || previousVersions.isEmpty()) {
-            advanceTip(invariant, guid);
-        } else {
-            advanceTip(invariant, versionable.previous(), guid);
-        }
-
-        addVersionInAsset(invariant, guid);
+        advanceTip(invariant, version, previousVersions);
+        logOperation(writer -> writer.advanceTip(invariant, version, previousVersions), "advance tip", invariant);
     }
 
     @Override
-    public void delete(Manifest manifest) {
+    public synchronized void delete(Manifest manifest) {
         // TODO - ad-hoc tests
 
         ManifestType type = manifest.getType();
         IGUID guid = manifest.guid();
+        IGUID invariant = manifest instanceof Versionable ? ((Versionable) manifest).invariant() : null;
+        Set<IGUID> previous = manifest instanceof Versionable ? ((Versionable) manifest).previous() : null;
 
-        // 1. Remove from typeToManifest
-        if (typeToManifest.containsKey(type)) {
+        delete(type, guid, invariant, previous);
+        logOperation(writer -> writer.delete(type, guid, invariant, previous), "delete", guid);
+    }
 
-            if (manifest instanceof Versionable) {
-                Versionable versionable = (Versionable) manifest;
-                typeToManifest.get(type).remove(versionable.invariant());
-            } else {
-                typeToManifest.get(type).remove(guid);
+    /**
+     * Commit the operations logged since the last flush and compact the log into a new checkpoint, if the log is large enough.
+     */
+    @Override
+    public void flush() {
+
+        synchronized (flushLock) {
+
+            ManifestsIndexFormat.Writer writer;
+            synchronized (this) {
+                writer = log;
+            }
+            if (writer == null) return;
+
+            try {
+                // Operations can still be logged while the log is forced to disk (see BinaryIndexFormat.Writer.flush),
+                // but not while a checkpoint is written
+                writer.flush();
+
+                if (writer.getRecords() >= Math.max(CHECKPOINT_THRESHOLD, checkpointRecords)) {
+                    checkpoint();
+                }
+
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.ERROR, "ManifestsIndex - unable to flush the index");
             }
         }
+    }
 
-        if (manifest instanceof Versionable) {
-            Versionable versionable = (Versionable) manifest;
-            IGUID invariant = versionable.invariant();
+    /**
+     * Write a new checkpoint of the index and start a new log.
+     * Operations on the index wait for the checkpoint to be written.
+     *
+     * @throws IOException if the checkpoint could not be written
+     */
+    public void checkpoint() throws IOException {
 
-            // 2. assetsToVersions
-            if (assetsToVersions.containsKey(invariant)) {
-                assetsToVersions.get(invariant).remove(guid);
+        synchronized (flushLock) {
+            synchronized (this) {
+
+                if (logFile == null) return;
+
+                // The old log is ignored from now on, since its generation does not match the one of the checkpoint
+                File temp = new File(checkpointFile.getPath() + ".tmp");
+                checkpointRecords = writeCheckpoint(temp, generation + 1);
+                Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                generation++;
+
+                if (log != null) log.close();
+                log = new ManifestsIndexFormat.Writer(logFile, generation);
             }
+        }
+    }
 
-            Set<IGUID> previous = versionable.previous();
+    /**
+     * Rebuild the index from the given manifests (e.g. all the manifests stored locally).
+     * The manifests are processed in parallel if the stream is parallel.
+     *
+     * The tips of an asset are its versions that are not the previous version of any other version of the asset.
+     * The heads are kept, unless their version no longer exists. New heads are set to one of the tips of the asset.
+     *
+     * @param manifests from which to rebuild the index
+     * @return the number of manifests indexed
+     */
+    @Override
+    public int rebuild(Stream<Manifest> manifests) {
 
-            // 3. tips (FIXME set prev is exists - NOT SO EASY FOR TIPS) - see page 88 of notebook
-            if (tips.containsKey(invariant)) {
-                tips.get(invariant).remove(guid);
+        Rebuild rebuild = manifests.collect(Rebuild::new, Rebuild::add, Rebuild::merge);
+
+        synchronized (flushLock) {
+            synchronized (this) {
+
+                GUIDSetMap previousHeads = heads;
+
+                typeToManifest.clear();
+                tracked = 0;
+                rebuild.typeToManifest.forEach((type, guids) -> guids.forEach(guid -> track(type, guid)));
+
+                assetsToVersions = new GUIDSetMap();
+                tips = new GUIDSetMap();
+                heads = new GUIDSetMap();
+
+                for (Map.Entry<CompactGUID, Set<CompactGUID>> versions : rebuild.assetsToVersions.entrySet()) {
+                    CompactGUID invariant = versions.getKey();
+
+                    Set<CompactGUID> assetTips = new LinkedHashSet<>(versions.getValue());
+                    assetTips.removeAll(rebuild.previousVersions.getOrDefault(invariant, Collections.emptySet()));
+
+                    for (CompactGUID version : versions.getValue()) {
+                        assetsToVersions.add(invariant, version);
+                    }
+                    for (CompactGUID tip : assetTips) {
+                        tips.add(invariant, tip);
+                    }
+
+                    CompactGUID head = previousHeads.first(invariant);
+                    if (head != null && versions.getValue().contains(head)) {
+                        heads.add(invariant, head);
+                    } else if (rebuild.versionedAssets.contains(invariant) && !assetTips.isEmpty()) {
+                        // Contexts have no heads, like when they are added
+                        heads.add(invariant, assetTips.iterator().next());
+                    }
+                }
+            }
+
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                SOS_LOG.log(LEVEL.ERROR, "ManifestsIndex - unable to write the checkpoint of the rebuilt index");
             }
+        }
+
+        SOS_LOG.log(LEVEL.INFO, "ManifestsIndex - rebuilt from " + rebuild.manifests + " manifests");
+        return rebuild.manifests;
+    }
+
+    @Override
+    public synchronized void clear() {
+
+        clearMaps();
+        logOperation(ManifestsIndexFormat.Writer::clear, "clear", null);
+    }
+
+    /**
+     * Commit the pending operations and close the log. The index is cleared from memory, but not from disk.
+     */
+    @Override
+    public void close() {
+
+        synchronized (flushLock) {
+            synchronized (this) {
+
+                if (log != null) {
+                    try {
+                        log.flush();
+                        log.close();
+                    } catch (IOException e) {
+                        SOS_LOG.log(LEVEL.ERROR, "ManifestsIndex - unable to close the log of the index");
+                    }
+                    log = null;
+                }
+
+                clearMaps();
+            }
+        }
+    }
+
+    private void track(ManifestType type, IGUID guid) {
+        track(type, CompactGUID.of(guid));
+    }
+
+    private void track(ManifestType type, CompactGUID guid) {
+
+        GUIDIntMap guids = typeToManifest.computeIfAbsent(type, t -> new GUIDIntMap());
+        if (!guids.containsKey(guid)) {
+            guids.put(guid, tracked++);
+        }
+    }
+
+    private void setHead(IGUID invariant, IGUID version) {
+
+        CompactGUID key = CompactGUID.of(invariant);
+        CompactGUID head = CompactGUID.of(version);
+
+        heads.removeKey(key);
+        heads.add(key, head);
+        assetsToVersions.add(key, head);
+    }
+
+    private void advanceTip(IGUID invariant, IGUID version, Set<IGUID> previousVersions) {
+
+        CompactGUID key = CompactGUID.of(invariant);
+        CompactGUID newVersion = CompactGUID.of(version);
+
+        if (previousVersions == null || previousVersions.isEmpty()) {
+            tips.add(key, newVersion);
+        } else {
+            advanceTip(key, previousVersions, newVersion);
+        }
+
+        // Update the [invariant --> [version]] map
+        assetsToVersions.add(key, newVersion);
+    }
+
+    // The invariant and previous versions are null if the manifest is not versionable
+    private void delete(ManifestType type, IGUID guid, IGUID invariant, Set<IGUID> previous) {
+
+        // 1. Remove from typeToManifest
+        if (typeToManifest.containsKey(type)) {
+            typeToManifest.get(type).remove(CompactGUID.of(invariant != null ? invariant : guid));
+        }
+
+        if (invariant != null) {
+            CompactGUID key = CompactGUID.of(invariant);
+            CompactGUID version = CompactGUID.of(guid);
+
+            // 2. assetsToVersions
+            assetsToVersions.remove(key, version);
+
+            // 3. tips (FIXME set prev is exists - NOT SO EASY FOR TIPS) - see page 88 of notebook
+            tips.remove(key, version);
 
             // 4. heads. Set prev is exists, else delete entry
-            if (heads.containsKey(invariant)) {
+            if (heads.containsKey(key)) {
+                heads.removeKey(key);
                 if (previous != null && !previous.isEmpty()) {
                     IGUID firstPrevious = previous.iterator().next();
-                    heads.put(invariant, firstPrevious);
-                } else {
-                    heads.remove(invariant);
+                    heads.add(key, CompactGUID.of(firstPrevious));
                 }
             }
         }
     }
 
-    @Override
-    public void flush() {
+    private void advanceTip(CompactGUID invariant, Set<IGUID> previousVersions, CompactGUID newVersion) {
 
-    }
+        List<CompactGUID> previous = new ArrayList<>(previousVersions.size());
+        for (IGUID previousVersion : previousVersions) {
+            previous.add(CompactGUID.of(previousVersion));
+        }
 
-    @Override
-    public void rebuild() {
+        boolean replacesTips = tips.containsKey(invariant);
+        for (CompactGUID previousVersion : previous) {
+            replacesTips &= tips.contains(invariant, previousVersion);
+        }
 
-        // TODO - FORCE THE INDEX TO BE REBUILT FROM THE LOCAL DIRECTORY
+        // If the previous versions are not all tips, then we are adding a tip to a new branch
+        tips.add(invariant, newVersion);
+        if (replacesTips) {
+            // Remove the previous tips, which are now replaced by the newVersion
+            for (CompactGUID previousVersion : previous) {
+                tips.remove(invariant, previousVersion);
+            }
+        }
     }
 
-    @Override
-    public void clear() {
+    private void clearMaps() {
 
         tips.clear();
         heads.clear();
         assetsToVersions.clear();
         typeToManifest.clear();
+        tracked = 0;
     }
 
-    private void advanceTip(IGUID invariant, IGUID version) {
+    private static Set<IGUID> toGUIDs(List<CompactGUID> guids) {
 
-        if (!tips.containsKey(invariant)) {
-            tips.put(invariant, new LinkedHashSet<>());
+        Set<IGUID> retval = new LinkedHashSet<>();
+        for (CompactGUID guid : guids) {
+            retval.add(guid.toGUID());
         }
 
-        tips.get(invariant).add(version);
+        return retval;
     }
 
-    private void advanceTip(IGUID invariant, Set<IGUID> previousVersions, IGUID newVersion) {
+    private static List<CompactGUID> inTrackingOrder(GUIDIntMap guids) {
 
-        if (tips.containsKey(invariant) && tips.get(invariant).containsAll(previousVersions)) {
+        CompactGUID[] keys = new CompactGUID[guids.size()];
+        // [tracking order | position in keys]
+        long[] order = new long[guids.size()];
+        int[] position = { 0 };
+        guids.forEach((guid, sequence) -> {
+            keys[position[0]] = guid;
+            order[position[0]] = ((long) sequence << 32) | position[0];
+            position[0]++;
+        });
 
-            advanceTip(invariant, newVersion);
-            tips.get(invariant).removeAll(previousVersions); // Remove the previous tips, which are now replaced by the newVersion
-        } else {
-            // This is the case when we are adding a tip to a new branch.
-            advanceTip(invariant, newVersion);
+        Arrays.sort(order);
+
+        List<CompactGUID> retval = new ArrayList<>(keys.length);
+        for (long entry : order) {
+            retval.add(keys[(int) entry]);
         }
+
+        return retval;
     }
 
-    private void addVersionInAsset(IGUID invariant, IGUID version) {
-        // Update the [invariant --> [version]] map
-        if (!assetsToVersions.containsKey(invariant)) {
-            assetsToVersions.put(invariant, new LinkedHashSet<>());
+    private interface LogOperation {
+        void write(ManifestsIndexFormat.Writer writer) throws IOException;
+    }
+
+    // Called while holding the lock of the index, so that the log follows the order of the operations
+    private void logOperation(LogOperation operation, String name, IGUID guid) {
+
+        if (log == null) return;
+
+        try {
+            operation.write(log);
+        } catch (IOException e) {
+            SOS_LOG.log(LEVEL.ERROR, "ManifestsIndex - unable to log operation " + name + (guid != null ? " for " + guid.toShortString() : ""));
         }
-        assetsToVersions.get(invariant).add(version);
     }
 
-    // This method defines how the cache is serialised
-    private void writeObject(ObjectOutputStream out) throws IOException {
-        out.defaultWriteObject();
+    /**
+     * @return number of records written
+     */
+    private int writeCheckpoint(File file, long generation) throws IOException {
 
-        out.writeInt(tips.size());
-        for(Map.Entry<IGUID, Set<IGUID>> tip : tips.entrySet()) {
-            out.writeUTF(tip.getKey().toMultiHash());
-            out.writeInt(tip.getValue().size());
+        try (ManifestsIndexFormat.Writer writer = new ManifestsIndexFormat.Writer(file, generation)) {
 
-            for(IGUID t:tip.getValue()) {
-                out.writeUTF(t.toMultiHash());
+            for (Map.Entry<ManifestType, GUIDIntMap> entry : typeToManifest.entrySet()) {
+                for (CompactGUID guid : inTrackingOrder(entry.getValue())) {
+                    writer.track(entry.getKey(), guid.toGUID());
+                }
             }
-        }
 
-        out.writeInt(heads.size());
-        for(Map.Entry<IGUID, IGUID> head : heads.entrySet()) {
-            out.writeUTF(head.getKey().toMultiHash());
-            out.writeUTF(head.getValue().toMultiHash());
+            Set<CompactGUID> assets = new LinkedHashSet<>();
+            assetsToVersions.forEachKey(assets::add);
+            tips.forEachKey(assets::add);
+            heads.forEachKey(assets::add);
+            for (CompactGUID invariant : assets) {
+                List<CompactGUID> versions = assetsToVersions.get(invariant);
+                List<CompactGUID> assetTips = tips.get(invariant);
+                CompactGUID head = heads.first(invariant);
+
+                writer.asset(invariant.toGUID(),
+                        versions != null ? toGUIDs(versions) : Collections.emptySet(),
+                        assetTips != null ? toGUIDs(assetTips) : null,
+                        head != null ? head.toGUID() : null);
+            }
+
+            writer.flush();
+            return writer.getRecords();
         }
+    }
 
-        out.writeInt(assetsToVersions.size());
-        for(Map.Entry<IGUID, Set<IGUID>> versions : assetsToVersions.entrySet()) {
-            out.writeUTF(versions.getKey().toMultiHash());
-            out.writeInt(versions.getValue().size()); // Number of versions per invariant
+    // Replays the records of the index files, without logging them again
+    private ManifestsIndexFormat.Replayer replayer() {
 
-            for(IGUID version:versions.getValue()) {
-                out.writeUTF(version.toMultiHash());
+        return new ManifestsIndexFormat.Replayer() {
+            @Override
+            public void track(ManifestType type, IGUID guid) {
+                ManifestsIndexImpl.this.track(type, guid);
+                replayed++;
             }
-        }
 
-        out.writeInt(typeToManifest.size());
-        for(Map.Entry<ManifestType, Set<IGUID>> ti : typeToManifest.entrySet()) {
-            out.writeUTF(ti.getKey().toString());
-            out.writeInt(ti.getValue().size());
+            @Override
+            public void advanceTip(IGUID invariant, IGUID version, Set<IGUID> previous) {
+                ManifestsIndexImpl.this.advanceTip(invariant, version, previous);
+                replayed++;
+            }
+
+            @Override
+            public void setHead(IGUID invariant, IGUID version) {
+                ManifestsIndexImpl.this.setHead(invariant, version);
+                replayed++;
+            }
+
+            @Override
+            public void delete(ManifestType type, IGUID guid, IGUID invariant, Set<IGUID> previous) {
+                ManifestsIndexImpl.this.delete(type, guid, invariant, previous);
+                replayed++;
+            }
+
+            @Override
+            public void clear() {
+                clearMaps();
+                replayed++;
+            }
+
+            @Override
+            public void asset(IGUID invariant, Set<IGUID> versions, Set<IGUID> assetTips, IGUID head) {
+                CompactGUID key = CompactGUID.of(invariant);
+
+                for (IGUID version : versions) {
+                    assetsToVersions.add(key, CompactGUID.of(version));
+                }
+
+                if (assetTips != null) {
+                    tips.addKey(key);
+                    for (IGUID tip : assetTips) {
+                        tips.add(key, CompactGUID.of(tip));
+                    }
+                }
+
+                if (head != null) {
+                    heads.removeKey(key);
+                    heads.add(key, CompactGUID.of(head));
+                }
+                replayed++;
+            }
+        };
+    }
+
+    /**
+     * Collects the state of the index from a (possibly parallel) stream of manifests.
+     */
+    private static class Rebuild {
+
+        private final EnumMap<ManifestType, Set<CompactGUID>> typeToManifest = new EnumMap<>(ManifestType.class);
+        private final HashMap<CompactGUID, Set<CompactGUID>> assetsToVersions = new HashMap<>();
+        // [invariant --> [versions that are the previous of another version]]
+        private final HashMap<CompactGUID, Set<CompactGUID>> previousVersions = new HashMap<>();
+        // Invariants of the assets made of versions (i.e. not contexts)
+        private final Set<CompactGUID> versionedAssets = new HashSet<>();
+        private int manifests;
 
-            for(IGUID invariants:ti.getValue()) {
-                out.writeUTF(invariants.toMultiHash());
+        private void add(Manifest manifest) {
+
+            ManifestType type = manifest.getType();
+            if (type == null) return;
+
+            if (manifest instanceof Versionable) {
+                Versionable versionable = (Versionable) manifest;
+                CompactGUID invariant = CompactGUID.of(versionable.invariant());
+
+                typeToManifest.computeIfAbsent(type, t -> new LinkedHashSet<>()).add(invariant);
+                assetsToVersions.computeIfAbsent(invariant, i -> new LinkedHashSet<>()).add(CompactGUID.of(versionable.guid()));
+
+                Set<IGUID> previous = versionable.previous();
+                if (previous != null && !previous.isEmpty()) {
+                    Set<CompactGUID> assetPreviousVersions = previousVersions.computeIfAbsent(invariant, i -> new HashSet<>());
+                    for (IGUID previousVersion : previous) {
+                        assetPreviousVersions.add(CompactGUID.of(previousVersion));
+                    }
+                }
+
+                if (type == ManifestType.VERSION) {
+                    versionedAssets.add(invariant);
+                }
+
+            } else {
+                typeToManifest.computeIfAbsent(type, t -> new LinkedHashSet<>()).add(CompactGUID.of(manifest.guid()));
             }
+
+            manifests++;
+        }
+
+        private void merge(Rebuild other) {
+
+            other.typeToManifest.forEach((type, guids) -> typeToManifest.computeIfAbsent(type, t -> new LinkedHashSet<>()).addAll(guids));
+            other.assetsToVersions.forEach((invariant, versions) -> assetsToVersions.computeIfAbsent(invariant, i -> new LinkedHashSet<>()).addAll(versions));
+            other.previousVersions.forEach((invariant, versions) -> previousVersions.computeIfAbsent(invariant, i -> new HashSet<>()).addAll(versions));
+            versionedAssets.addAll(other.versionedAssets);
+            manifests += other.manifests;
         }
     }
 
-    // This method defines how the cache is de-serialised
+    private static ManifestsIndexImpl loadLegacy(File file) throws IOException {
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (ManifestsIndexImpl) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unable to migrate the manifests index", e);
+        }
+    }
+
+    // Reads an index serialised by previous versions of the SOS, so that it can be migrated to the binary format
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
+        flushLock = new Object();
+
         try {
-            tips = new HashMap<>();
+            tips = new GUIDSetMap();
             int tipsSize = in.readInt();
             for (int i = 0; i < tipsSize; i++) {
-                IGUID invariant = GUIDFactory.recreateGUID(in.readUTF());
-                tips.put(invariant, new LinkedHashSet<>());
+                CompactGUID invariant = CompactGUID.of(GUIDFactory.recreateGUID(in.readUTF()));
+                tips.addKey(invariant);
 
                 int numberOfTipsPerInvariant = in.readInt();
                 for (int j = 0; j < numberOfTipsPerInvariant; j++) {
                     IGUID version = GUIDFactory.recreateGUID(in.readUTF());
-                    tips.get(invariant).add(version);
+                    tips.add(invariant, CompactGUID.of(version));
                 }
             }
 
-            heads = new HashMap<>();
+            heads = new GUIDSetMap();
             int headsSize = in.readInt();
             for(int i = 0; i < headsSize; i++) {
-                IGUID invariant = GUIDFactory.recreateGUID(in.readUTF());
+                CompactGUID invariant = CompactGUID.of(GUIDFactory.recreateGUID(in.readUTF()));
                 IGUID version = GUIDFactory.recreateGUID(in.readUTF());
-                heads.put(invariant, version);
+                heads.removeKey(invariant);
+                heads.add(invariant, CompactGUID.of(version));
             }
 
-            assetsToVersions = new HashMap<>();
+            assetsToVersions = new GUIDSetMap();
             int assetsToVersionsSize = in.readInt();
             for (int i = 0; i < assetsToVersionsSize; i++) {
-                IGUID invariant = GUIDFactory.recreateGUID(in.readUTF());
-                assetsToVersions.put(invariant, new LinkedHashSet<>());
+                CompactGUID invariant = CompactGUID.of(GUIDFactory.recreateGUID(in.readUTF()));
+                assetsToVersions.addKey(invariant);
 
                 int numberOfVersionsPerInvariant = in.readInt();
                 for (int j = 0; j < numberOfVersionsPerInvariant; j++) {
                     String version = in.readUTF();
-                    assetsToVersions.get(invariant).add(GUIDFactory.recreateGUID(version));
+                    assetsToVersions.add(invariant, CompactGUID.of(GUIDFactory.recreateGUID(version)));
                 }
             }
 
-            typeToManifest = new HashMap<>();
+            typeToManifest = new EnumMap<>(ManifestType.class);
             int typeToInvariantSize = in.readInt();
             for(int i = 0; i < typeToInvariantSize; i++) {
                 ManifestType manifestType = ManifestType.get(in.readUTF());
-                typeToManifest.put(manifestType, new LinkedHashSet<>());
 
                 int numberOfInvariants = in.readInt();
                 for(int j = 0; j < numberOfInvariants; j++) {
                     String invariant = in.readUTF();
-                    typeToManifest.get(manifestType).add(GUIDFactory.recreateGUID(invariant));
+                    // Unknown types are dropped
+                    if (manifestType != null) track(manifestType, GUIDFactory.recreateGUID(invariant));
                 }
             }
 
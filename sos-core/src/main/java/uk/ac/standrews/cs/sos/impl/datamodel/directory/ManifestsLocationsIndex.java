@@ -19,95 +19,105 @@ package uk.ac.standrews.cs.sos.impl.datamodel.directory;
 import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
-import uk.ac.standrews.cs.sos.impl.utils.LRU_GUID;
+import uk.ac.standrews.cs.sos.impl.utils.CompactGUID;
+import uk.ac.standrews.cs.sos.impl.utils.LRUCache;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.*;
 
 /**
  * Maps the GUID for a manifest to a set of node refs that may have it.
  *
+ * The GUIDs are stored as CompactGUIDs and the node refs of a manifest in an array, which is replaced on every change,
+ * so that it can be read without holding the lock of the LRU cache.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class ManifestsLocationsIndex implements Serializable {
 
-    private transient HashMap<IGUID, Set<IGUID>> index;
-    private transient LRU_GUID lru;
+    private static final CompactGUID[] NO_NODES = new CompactGUID[0];
+
+    private transient LRUCache<CompactGUID, CompactGUID[]> index;
 
     private static final long serialVersionUID = 1L;
     public ManifestsLocationsIndex() {
-        index = new HashMap<>();
-        lru = new LRU_GUID();
+        index = new LRUCache<>();
     }
 
     public void addEntry(IGUID manifestGUID, IGUID node) {
 
-        IGUID guidToRemove = lru.applyLRU(manifestGUID);
-        if (!guidToRemove.isInvalid()) {
-            index.remove(guidToRemove);
-        }
+        CompactGUID nodeRef = CompactGUID.of(node);
+        index.compute(CompactGUID.of(manifestGUID), (guid, nodes) -> {
 
-        if (!index.containsKey(manifestGUID)) {
-            index.put(manifestGUID, new HashSet<>());
-        }
+            if (nodes == null) {
+                nodes = NO_NODES;
+            }
+
+            for (CompactGUID n : nodes) {
+                if (n.equals(nodeRef)) return nodes;
+            }
 
-        index.get(manifestGUID).add(node);
+            CompactGUID[] retval = Arrays.copyOf(nodes, nodes.length + 1);
+            retval[nodes.length] = nodeRef;
+            return retval;
+        });
     }
 
     public void evictEntry(IGUID manifestGUID, IGUID node) {
 
-        if (index.containsKey(manifestGUID)) {
-            Set<IGUID> nodes = index.get(manifestGUID);
-            nodes.remove(node);
-
-            if (nodes.isEmpty()) {
-                index.remove(manifestGUID);
-                lru.remove(manifestGUID);
-            }
-        }
+        CompactGUID nodeRef = CompactGUID.of(node);
+        index.compute(CompactGUID.of(manifestGUID), (guid, nodes) -> {
+            if (nodes == null) return null;
 
+            CompactGUID[] retval = Arrays.stream(nodes)
+                    .filter(n -> !n.equals(nodeRef))
+                    .toArray(CompactGUID[]::new);
+            return retval.length == 0 ? null : retval;
+        });
     }
 
     public Set<IGUID> getNodeRefs(IGUID manifestGUID) {
 
-        lru.applyReadLRU(manifestGUID);
+        Set<IGUID> retval = new LinkedHashSet<>();
 
-        if (index.containsKey(manifestGUID)) {
-            return index.get(manifestGUID);
-        } else {
-            return new LinkedHashSet<>();
+        CompactGUID[] nodes = index.get(CompactGUID.of(manifestGUID));
+        if (nodes != null) {
+            for (CompactGUID node : nodes) {
+                retval.add(node.toGUID());
+            }
         }
+
+        return retval;
+    }
+
+    public LRUCache<CompactGUID, CompactGUID[]> getLRU() {
+        return index;
     }
 
     public void clear() {
 
         index.clear();
-        lru.clear();
     }
 
     // This method defines how the cache is serialised
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
 
-        out.writeInt(index.size());
-
         // Store entries as ordered in the LRU
-        ConcurrentLinkedQueue<IGUID> lruQueue = new  ConcurrentLinkedQueue<>(lru.getQueue());
-        IGUID guid;
-        while ((guid = lruQueue.poll()) != null) {
-            Set<IGUID> values = index.get(guid);
+        List<CompactGUID> guids = index.keys();
+        out.writeInt(guids.size());
+
+        for (CompactGUID guid : guids) {
+            CompactGUID[] values = index.peek(guid);
+            if (values == null) values = NO_NODES; // Entry evicted while serialising
 
             out.writeUTF(guid.toMultiHash());
-            out.writeInt(values.size());
+            out.writeInt(values.length);
 
-            for(IGUID value:values) {
+            for(CompactGUID value:values) {
                 out.writeUTF(value.toMultiHash());
             }
         }
@@ -117,10 +127,9 @@ public class ManifestsLocationsIndex implements Serializable {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
-        lru = new LRU_GUID();
+        index = new LRUCache<>();
 
         int indexSize = in.readInt();
-        index = new HashMap<>();
         for(int i = 0; i < indexSize; i++) {
             try {
                 IGUID key = GUIDFactory.recreateGUID(in.readUTF());
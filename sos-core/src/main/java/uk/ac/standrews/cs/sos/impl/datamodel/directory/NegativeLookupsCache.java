@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.directory;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.utils.LRUCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the manifests known to be absent, so that repeated lookups for them
+ * do not have to go to disk and/or to the remote nodes every time.
+ *
+ * An entry is kept for a limited time (TTL) only, since the manifest might be added to the SOS at any time.
+ * Entries are scoped by the lookup that failed (e.g. local lookup, lookup on any MDS node),
+ * since a manifest that is not found locally might still be found on a remote node.
+ *
+ * A lookup records the token() before starting and passes it to recordAbsent(),
+ * so that a manifest added while the lookup was running is not recorded as absent.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class NegativeLookupsCache {
+
+    private final LRUCache<IGUID, Map<String, Long>> absent; // GUID --> [ scope --> expiry time (ns) ]
+    private final long ttl;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of GUIDs in the cache
+     * @param ttl time (ms) for which a GUID is considered absent
+     */
+    public NegativeLookupsCache(int maxSize, long ttl) {
+        this.absent = new LRUCache<>(Math.max(1, maxSize));
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * @return true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * @param guid of the manifest
+     * @param scope of the lookup
+     * @return true if a lookup with the same scope recently failed to find the manifest
+     */
+    public boolean isAbsent(IGUID guid, String scope) {
+
+        if (!isEnabled()) return false;
+
+        Map<String, Long> scopes = absent.get(guid);
+        if (scopes == null) return false;
+
+        Long expiry = scopes.get(scope);
+        return expiry != null && expiry - System.nanoTime() > 0;
+    }
+
+    /**
+     * @return token to be passed to recordAbsent
+     */
+    public long token() {
+        return invalidations.get();
+    }
+
+    /**
+     * Record that the manifest could not be found.
+     * Nothing is recorded if any manifest was added since the token was taken.
+     *
+     * @param guid of the manifest
+     * @param scope of the lookup
+     * @param token taken before the lookup started
+     */
+    public void recordAbsent(IGUID guid, String scope, long token) {
+
+        if (!isEnabled()) return;
+
+        long now = System.nanoTime();
+        absent.compute(guid, (key, scopes) -> {
+
+            // Copy on write, since the map is read outside the lock of the cache
+            Map<String, Long> updated = new HashMap<>();
+            if (scopes != null) {
+                scopes.forEach((s, expiry) -> {
+                    if (expiry - now > 0) updated.put(s, expiry);
+                });
+            }
+            updated.put(scope, now + ttl);
+
+            return updated;
+        });
+
+        // The manifest might have been added in the meanwhile
+        if (token != invalidations.get()) {
+            absent.remove(guid);
+        }
+    }
+
+    /**
+     * The manifest is no longer absent (e.g. it has just been added)
+     *
+     * @param guid of the manifest
+     */
+    public void invalidate(IGUID guid) {
+
+        if (!isEnabled()) return;
+
+        invalidations.incrementAndGet();
+        absent.remove(guid);
+    }
+
+    public void clear() {
+
+        invalidations.incrementAndGet();
+        absent.clear();
+    }
+
+    public LRUCache<IGUID, Map<String, Long>> getLRU() {
+        return absent;
+    }
+}
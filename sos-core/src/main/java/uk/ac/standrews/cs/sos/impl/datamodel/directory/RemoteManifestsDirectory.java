@@ -18,6 +18,7 @@ package uk.ac.standrews.cs.sos.impl.datamodel.directory;
 
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.SettingsConfiguration;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodeNotFoundException;
@@ -25,6 +26,7 @@ import uk.ac.standrews.cs.sos.exceptions.node.NodesCollectionException;
 import uk.ac.standrews.cs.sos.exceptions.protocol.SOSProtocolException;
 import uk.ac.standrews.cs.sos.impl.node.NodesCollectionImpl;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
 import uk.ac.standrews.cs.sos.impl.protocol.TasksQueue;
 import uk.ac.standrews.cs.sos.impl.protocol.tasks.FetchManifest;
@@ -43,10 +45,14 @@ import uk.ac.standrews.cs.sos.services.NodeDiscoveryService;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
 import java.io.IOException;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static uk.ac.standrews.cs.sos.constants.Internals.REPLICATION_FACTOR_MULTIPLIER;
+import static uk.ac.standrews.cs.sos.constants.Internals.TIMEOUT_LIMIT_S;
 import static uk.ac.standrews.cs.sos.impl.services.SOSNodeDiscoveryService.NO_LIMIT;
 
 /**
@@ -84,7 +90,7 @@ public class RemoteManifestsDirectory extends AbstractManifestsDirectory impleme
             NodeType nodeType = getNodeType(manifest);
             if (nodeType == NodeType.UNKNOWN) throw new SOSProtocolException("Unable to tell what node type to talk to");
 
-            NodesCollection replicationNode = nodeDiscoveryService.filterNodesCollection(new NodesCollectionImpl(NodesCollectionType.ANY), nodeType, 1);
+            NodesCollection replicationNode = nodeDiscoveryService.placeReplicas(manifest.guid(), new NodesCollectionImpl(NodesCollectionType.ANY), nodeType, 1);
             boolean sequentialReplication = SOSLocalNode.settings.getServices().getMds().isSequentialReplication();
             ManifestReplication replicationTask = new ManifestReplication(manifest, replicationNode, 1, sequentialReplication, nodeDiscoveryService, manifestsDataService);
             TasksQueue.instance().performAsyncTask(replicationTask);
@@ -108,7 +114,7 @@ public class RemoteManifestsDirectory extends AbstractManifestsDirectory impleme
             NodeType nodeType = getNodeType(manifest);
             if (nodeType == NodeType.UNKNOWN) throw new SOSProtocolException("Unable to tell what node type to talk to");
 
-            NodesCollection replicationNodes = nodeDiscoveryService.filterNodesCollection(nodesCollection, nodeType, replicationFactor * REPLICATION_FACTOR_MULTIPLIER);
+            NodesCollection replicationNodes = nodeDiscoveryService.placeReplicas(manifest.guid(), nodesCollection, nodeType, replicationFactor * REPLICATION_FACTOR_MULTIPLIER);
             boolean sequentialReplication = SOSLocalNode.settings.getServices().getMds().isSequentialReplication();
 
             long start = System.nanoTime();
@@ -164,6 +170,20 @@ public class RemoteManifestsDirectory extends AbstractManifestsDirectory impleme
         // TODO
     }
 
+    /**
+     * Find the manifest in the given nodes.
+     *
+     * The nodes with the lowest latency are asked first, up to NUMBER_OF_REMOTE_TRIALS nodes.
+     * If the parallel lookup is enabled in the MDS settings, the nodes are asked at the same time
+     * (or one after the other, every lookupHedgeDelay ms, until one answers)
+     * and the first verified manifest is returned. The requests to the other nodes are then cancelled.
+     *
+     * @param nodesCollection where to look for the manifest
+     * @param nodeTypeFilter type of nodes to ask
+     * @param guid of the manifest
+     * @return the manifest
+     * @throws ManifestNotFoundException if none of the nodes returned a valid manifest
+     */
     public Manifest findManifest(NodesCollection nodesCollection, NodeType nodeTypeFilter, IGUID guid) throws ManifestNotFoundException {
 
         Set<IGUID> nodesToCheck;
@@ -173,13 +193,19 @@ public class RemoteManifestsDirectory extends AbstractManifestsDirectory impleme
             throw new ManifestNotFoundException("Unable to find manifest because there are no known MDS nodes");
         }
 
-        int trial = 0;
-        for(IGUID nodeToCheck:nodesToCheck) {
+        List<IGUID> candidates = nodeDiscoveryService.rankNodes(guid, nodesToCheck, NUMBER_OF_REMOTE_TRIALS);
 
-            if (trial >= NUMBER_OF_REMOTE_TRIALS) {
-                break;
-            }
-            trial++;
+        SettingsConfiguration.Settings.AdvanceServicesSettings.MDSSettings mdsSettings = SOSLocalNode.settings.getServices().getMds();
+        if (mdsSettings.isParallelLookup() && candidates.size() > 1) {
+            return parallelFindManifest(candidates, guid, mdsSettings.getLookupHedgeDelay());
+        } else {
+            return sequentialFindManifest(candidates, guid);
+        }
+    }
+
+    private Manifest sequentialFindManifest(List<IGUID> nodesToCheck, IGUID guid) throws ManifestNotFoundException {
+
+        for(IGUID nodeToCheck:nodesToCheck) {
 
             try {
                 Node node = nodeDiscoveryService.getNode(nodeToCheck);
@@ -189,7 +215,7 @@ public class RemoteManifestsDirectory extends AbstractManifestsDirectory impleme
                 if (fetchManifest.getState() == TaskState.SUCCESSFUL) {
 
                     Manifest manifest = fetchManifest.getManifest();
-                    if (manifest == null) {
+                    if (!isVerified(manifest, guid)) {
                         continue;
                     }
 
@@ -208,6 +234,96 @@ public class RemoteManifestsDirectory extends AbstractManifestsDirectory impleme
         throw new ManifestNotFoundException("Unable to find manifest in other known MDS nodes");
     }
 
+    private Manifest parallelFindManifest(List<IGUID> nodesToCheck, IGUID guid, int hedgeDelay) throws ManifestNotFoundException {
+
+        CompletableFuture<Manifest> found = new CompletableFuture<>();
+        List<CompletableFuture<Task>> fetches = new ArrayList<>();
+        List<CompletableFuture<Void>> answers = new ArrayList<>();
+
+        try {
+            for(IGUID nodeToCheck:nodesToCheck) {
+
+                if (!fetches.isEmpty() && hedgeDelay > 0) {
+                    // Give the nodes already asked a chance to answer before asking the next one
+                    waitForAnswers(found, answers, hedgeDelay, TimeUnit.MILLISECONDS);
+                }
+
+                if (found.isDone()) {
+                    break;
+                }
+
+                try {
+                    Node node = nodeDiscoveryService.getNode(nodeToCheck);
+
+                    FetchManifest fetchManifest = new FetchManifest(node, guid);
+                    CompletableFuture<Task> fetch = TasksQueue.instance().performAsyncTask(fetchManifest);
+                    fetches.add(fetch);
+                    answers.add(fetch.thenRun(() -> {
+
+                        Manifest manifest = fetchManifest.getManifest();
+                        if (fetchManifest.getState() == TaskState.SUCCESSFUL && isVerified(manifest, guid) && found.complete(manifest)) {
+                            // Update the manifest-node mapping
+                            manifestsDataService.addManifestNodeMapping(manifest.guid(), nodeToCheck);
+                        }
+                    }));
+
+                } catch (NodeNotFoundException | IOException e) {
+                    SOS_LOG.log(LEVEL.WARN, "A problem occurred while attempting to fetch a manifest with GUID " + guid .toMultiHash()+ " from Node with GUID " + nodeToCheck.toMultiHash());
+                }
+            }
+
+            waitForAnswers(found, answers, TIMEOUT_LIMIT_S, TimeUnit.SECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Cancel the requests to the nodes that have not answered yet
+            for(CompletableFuture<Task> fetch:fetches) {
+                fetch.cancel(true);
+            }
+        }
+
+        Manifest manifest = found.getNow(null);
+        if (manifest == null) {
+            throw new ManifestNotFoundException("Unable to find manifest in other known MDS nodes");
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Wait until the manifest is found, all the nodes asked so far have answered, or the timeout expires.
+     */
+    private void waitForAnswers(CompletableFuture<Manifest> found, List<CompletableFuture<Void>> answers, long timeout, TimeUnit unit) throws InterruptedException {
+
+        try {
+            CompletableFuture<Void> allAnswered = CompletableFuture.allOf(answers.toArray(new CompletableFuture[0]));
+            CompletableFuture.anyOf(found, allAnswered).get(timeout, unit);
+        } catch (ExecutionException | TimeoutException e) {
+            // Either a node failed to answer or no node has answered yet
+        }
+    }
+
+    /**
+     * A manifest fetched from a remote node must match the requested GUID.
+     * If the GUID of the manifest is derived from its content, then the content is verified too.
+     * The data of atoms is not verified, as this would require fetching the data.
+     */
+    private static boolean isVerified(Manifest manifest, IGUID guid) {
+
+        if (manifest == null || !guid.equals(manifest.guid())) {
+            return false;
+        }
+
+        switch(manifest.getType()) {
+            case COMPOUND:
+            case VERSION:
+                return manifest.verifyIntegrity();
+            default:
+                return true;
+        }
+    }
+
     public Set<IGUID> getVersions(IGUID invariant) {
 
         try {
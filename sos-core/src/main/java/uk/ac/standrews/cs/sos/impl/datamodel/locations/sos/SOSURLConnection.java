@@ -27,9 +27,6 @@ import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodeNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
-import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
-import uk.ac.standrews.cs.sos.impl.protocol.TasksQueue;
-import uk.ac.standrews.cs.sos.impl.protocol.tasks.FetchAtom;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.services.NodeDiscoveryService;
 import uk.ac.standrews.cs.utilities.Pair;
@@ -89,12 +86,10 @@ public class SOSURLConnection extends URLConnection {
 
                 Node nodeToContact = nodeDiscoveryService.getNode(location.X());
 
-                FetchAtom fetchAtom = new FetchAtom(nodeToContact, location.Y());
-                TasksQueue.instance().performSyncTask(fetchAtom);
-                if (fetchAtom.getState() == TaskState.SUCCESSFUL) {
-                    inputStream = fetchAtom.getBody();
-                } else {
-                    throw new IOException("(1) Unable to get data from the node: " + location.X().toMultiHash());
+                try {
+                    inputStream = SegmentedAtomInputStream.open(nodeToContact, location.Y());
+                } catch (IOException e) {
+                    throw new IOException("(1) Unable to get data from the node: " + location.X().toMultiHash(), e);
                 }
 
             } else {
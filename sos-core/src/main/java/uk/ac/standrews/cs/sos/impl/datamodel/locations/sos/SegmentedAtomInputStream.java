@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.locations.sos;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.impl.protocol.Task;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TasksQueue;
+import uk.ac.standrews.cs.sos.impl.protocol.tasks.FetchAtom;
+import uk.ac.standrews.cs.sos.model.Node;
+import uk.ac.standrews.cs.sos.network.ByteRange;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+import static uk.ac.standrews.cs.sos.constants.Internals.TIMEOUT_LIMIT_S;
+
+/**
+ * Stream of the data of an atom stored in a remote node, downloaded in segments.
+ *
+ * The first segment is fetched when the stream is opened. If the node does not support ranges or the atom fits in
+ * one segment, the stream is simply the body of the response. Otherwise, the following segments are fetched in
+ * parallel (PARALLEL_SEGMENTS at most) while the stream is read, and they are returned in order.
+ *
+ * A segment that fails or is cut short is fetched again from its first missing byte, so a download is resumed
+ * rather than restarted, up to MAX_ATTEMPTS times per segment. A segment served with a Content-Range that does not
+ * start at the first byte of the segment, or for data of a different length, is discarded and fetched again.
+ *
+ * Segments are fetched by the SEGMENT pool of the tasks queue (see FetchAtom), so the stream can be read by FETCH
+ * threads without waiting on tasks of their own pool.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class SegmentedAtomInputStream extends InputStream {
+
+    static final int SEGMENT_SIZE = 4 * 1024 * 1024; // 4MB
+    static final int PARALLEL_SEGMENTS = 4;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Node node;
+    private final IGUID guid;
+    private final long size;
+
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private long nextOffset;
+
+    private InputStream current;
+    private boolean closed;
+
+    private SegmentedAtomInputStream(Node node, IGUID guid, long size, InputStream first, long nextOffset) throws IOException {
+
+        this.node = node;
+        this.guid = guid;
+        this.size = size;
+        this.current = first;
+        this.nextOffset = nextOffset;
+
+        schedule();
+    }
+
+    /**
+     * Open a stream to the data of the atom.
+     *
+     * @param node storing the atom
+     * @param guid of the atom
+     * @return the stream
+     * @throws IOException if the first segment of the atom could not be fetched
+     */
+    static InputStream open(Node node, IGUID guid) throws IOException {
+
+        FetchAtom fetchAtom = new FetchAtom(node, guid, new ByteRange(0, SEGMENT_SIZE - 1));
+        TasksQueue.instance().performSyncTask(fetchAtom);
+        if (fetchAtom.getState() != TaskState.SUCCESSFUL) {
+            fetchAtom.discard();
+            throw new IOException("Unable to get data " + guid.toMultiHash() + " from the node: " + node.guid().toMultiHash());
+        }
+
+        ByteRange range = fetchAtom.getRange();
+        long size = fetchAtom.getTotalLength();
+        if (range == null || size < 0 || range.getLast() + 1 >= size) {
+            return fetchAtom.getBody();
+        }
+
+        if (range.getFirst() != 0) {
+            fetchAtom.discard();
+            throw new IOException("Unable to get data " + guid.toMultiHash() + " from the node: " + node.guid().toMultiHash() + " - Content-Range " + range.toRangeHeader() + " does not start at 0");
+        }
+
+        return new SegmentedAtomInputStream(node, guid, size, fetchAtom.getBody(), range.getLast() + 1);
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (closed) throw new IOException("Stream closed");
+        if (len == 0) return 0;
+
+        while (true) {
+            int read = current.read(b, off, len);
+            if (read != -1) return read;
+
+            if (!nextSegment()) return -1;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) return;
+        closed = true;
+
+        for (Segment segment : pending) {
+            segment.future.cancel(true);
+            segment.fetchAtom.discard();
+        }
+        pending.clear();
+
+        current.close();
+    }
+
+    private boolean nextSegment() throws IOException {
+
+        Segment segment = pending.poll();
+        if (segment == null) return false;
+
+        current.close();
+        current = await(segment);
+        schedule();
+
+        return true;
+    }
+
+    /**
+     * Keep PARALLEL_SEGMENTS segments in flight, while there is data left to fetch.
+     */
+    private void schedule() throws IOException {
+
+        while (pending.size() < PARALLEL_SEGMENTS && nextOffset < size) {
+            ByteRange range = new ByteRange(nextOffset, Math.min(nextOffset + SEGMENT_SIZE, size) - 1);
+            pending.add(new Segment(range));
+            nextOffset = range.getLast() + 1;
+        }
+    }
+
+    private InputStream await(Segment segment) throws IOException {
+
+        for (int attempt = 1; ; attempt++) {
+
+            try {
+                segment.future.get(TIMEOUT_LIMIT_S, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                segment.future.cancel(true);
+                segment.fetchAtom.discard();
+                throw new InterruptedIOException("Interrupted while fetching " + segment.fetchAtom);
+            } catch (ExecutionException | CancellationException | TimeoutException e) {
+                segment.future.cancel(true);
+            }
+
+            FetchAtom fetchAtom = segment.fetchAtom;
+            ByteRange served = fetchAtom.getRange();
+            if (fetchAtom.getState() == TaskState.SUCCESSFUL && served != null) {
+
+                if (!matches(segment, served, fetchAtom.getTotalLength())) {
+                    SOS_LOG.log(LEVEL.WARN, "Content-Range " + served.toRangeHeader() + " of " + fetchAtom.getTotalLength() +
+                            " bytes does not match the segment " + segment.range.toRangeHeader() + " of " + size + " bytes");
+
+                } else {
+
+                    if (served.getLast() < segment.range.getLast()) {
+                        // The node returned part of the segment only: the rest is fetched next
+                        pending.addFirst(new Segment(new ByteRange(served.getLast() + 1, segment.range.getLast())));
+                    }
+
+                    return fetchAtom.getBody();
+                }
+            }
+
+            // Failed attempt: the body is closed, even if the task sets it after being cancelled
+            fetchAtom.discard();
+
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IOException("Unable to get data " + guid.toMultiHash() + " (" + segment.range.toRangeHeader() + ") from the node: " + node.guid().toMultiHash());
+            }
+
+            SOS_LOG.log(LEVEL.WARN, "Unable to fetch " + fetchAtom + ". Attempt " + attempt + " of " + MAX_ATTEMPTS);
+            segment = new Segment(segment.range);
+        }
+    }
+
+    /**
+     * @return true if the served range starts at the first byte of the segment, ends within it and belongs to data of
+     * the expected size
+     */
+    private boolean matches(Segment segment, ByteRange served, long totalLength) {
+
+        return served.getFirst() == segment.range.getFirst() &&
+                served.getLast() >= served.getFirst() &&
+                served.getLast() <= segment.range.getLast() &&
+                totalLength == size;
+    }
+
+    private class Segment {
+
+        private final ByteRange range;
+        private final FetchAtom fetchAtom;
+        private final CompletableFuture<Task> future;
+
+        Segment(ByteRange range) throws IOException {
+            this.range = range;
+            this.fetchAtom = new FetchAtom(node, guid, range);
+            this.future = TasksQueue.instance().performAsyncTask(fetchAtom);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.manifest;
+
+import uk.ac.standrews.cs.sos.model.*;
+
+/**
+ * Cheap estimate of the memory (in bytes) used by a manifest.
+ *
+ * The estimate is based on the structure of the manifest only (number of contents, locations, keys, etc.)
+ * and does not serialise the manifest, unlike Manifest.size().
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ManifestWeigher {
+
+    // Rough sizes of the objects making a manifest
+    private static final long MANIFEST_WEIGHT = 64;
+    private static final long GUID_WEIGHT = 96; // object + hash bytes + algorithm
+    private static final long LOCATION_WEIGHT = 192; // bundle + location + URI
+    private static final long CONTENT_WEIGHT = 48; // content object, excluding GUID and label
+    private static final long PROPERTY_WEIGHT = 160; // property object, name and value
+    private static final long SIGNATURE_WEIGHT = 700; // base64 signature
+    private static final long ENCRYPTED_KEY_WEIGHT = 700; // base64 encrypted symmetric key
+    private static final long JSON_WEIGHT = 1024; // predicates and policies, which are stored as JSON trees
+    private static final long KEYS_WEIGHT = 2048; // public keys and certificates of nodes, users and roles
+
+    private ManifestWeigher() {}
+
+    /**
+     * @param manifest to weigh
+     * @return estimated number of bytes used by the manifest in memory
+     */
+    public static long weigh(Manifest manifest) {
+
+        long weight = MANIFEST_WEIGHT + GUID_WEIGHT;
+
+        ManifestType type = manifest.getType();
+        if (type == null) return weight;
+
+        switch(type) {
+            case ATOM:
+            case ATOM_PROTECTED:
+                weight += ((Atom) manifest).getLocations().size() * LOCATION_WEIGHT;
+                break;
+            case COMPOUND:
+            case COMPOUND_PROTECTED:
+                for (Content content : ((Compound) manifest).getContents()) {
+                    String label = content.getLabel();
+                    weight += CONTENT_WEIGHT + GUID_WEIGHT + (label != null ? 2 * label.length() : 0);
+                }
+                break;
+            case VERSION:
+                Version version = (Version) manifest;
+                weight += 3 * GUID_WEIGHT; // invariant, content, metadata
+                weight += version.previous() != null ? version.previous().size() * GUID_WEIGHT : 0;
+                break;
+            case METADATA:
+            case METADATA_PROTECTED:
+                weight += ((Metadata) manifest).getAllPropertyNames().length * PROPERTY_WEIGHT;
+                break;
+            case CONTEXT:
+                Context context = (Context) manifest;
+                weight += 4 * GUID_WEIGHT; // invariant, previous, content, predicate
+                weight += context.policies() != null ? context.policies().size() * GUID_WEIGHT : 0;
+                weight += context.getName() != null ? 2 * context.getName().length() : 0;
+                break;
+            case PREDICATE:
+            case POLICY:
+                weight += JSON_WEIGHT;
+                break;
+            case NODE:
+            case USER:
+            case ROLE:
+                weight += KEYS_WEIGHT;
+                break;
+        }
+
+        if (manifest instanceof SignedManifest) {
+            weight += SIGNATURE_WEIGHT;
+        }
+
+        if (manifest instanceof SecureManifest && ((SecureManifest) manifest).keysRoles() != null) {
+            weight += ((SecureManifest) manifest).keysRoles().size() * (GUID_WEIGHT + ENCRYPTED_KEY_WEIGHT);
+        }
+
+        return weight;
+    }
+}
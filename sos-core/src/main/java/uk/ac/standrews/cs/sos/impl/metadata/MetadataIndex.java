@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.metadata;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.model.Metadata;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory secondary index of the metadata known to this node.
+ *
+ * For each metadata manifest, the index keeps its properties, so that properties can be read without loading and
+ * parsing the manifest again. Properties are also indexed by their value:
+ * - STRING values are hash indexed (property, value) -> metadata
+ * - LONG and DOUBLE values are kept in ordered maps per property, so that ranges of values can be looked up
+ * Encrypted properties are not indexed by value.
+ *
+ * Versions are linked to their metadata, so that a property of a version can be read with a single lookup
+ * and the lookups by value can return versions. Since manifests are immutable, entries are never invalidated,
+ * but they are removed when their manifests are deleted.
+ *
+ * All methods are thread-safe and adding the same metadata or version more than once has no effect.
+ * Updates are serialised, while lookups do not lock.
+ * The index is not persisted, but rebuilt in the background from the manifests stored locally when the node starts.
+ * Metadata and versions that are not indexed yet can be added at any time (@see SOSMetadataService).
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class MetadataIndex {
+
+    private final Map<IGUID, Map<String, Property>> properties = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, Set<IGUID>>> stringValues = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Long, Set<IGUID>>> longValues = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Double, Set<IGUID>>> doubleValues = new ConcurrentHashMap<>();
+
+    private final Map<IGUID, IGUID> versionToMetadata = new ConcurrentHashMap<>();
+    private final Map<IGUID, Set<IGUID>> metadataToVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Index the properties of the metadata.
+     *
+     * @param metadata to index
+     */
+    public synchronized void addMetadata(Metadata metadata) {
+
+        IGUID guid = metadata.guid();
+        if (properties.containsKey(guid)) return;
+
+        Map<String, Property> metadataProperties = new HashMap<>();
+        for (String name : metadata.getAllPropertyNames()) {
+            Property property = metadata.getProperty(name);
+            if (property != null) {
+                metadataProperties.put(name, property);
+            }
+        }
+
+        // The values are indexed first, so that the metadata is visible as indexed only once fully indexed
+        for (Property property : metadataProperties.values()) {
+            indexValue(guid, property);
+        }
+
+        properties.putIfAbsent(guid, Collections.unmodifiableMap(metadataProperties));
+    }
+
+    /**
+     * Link a version to its metadata.
+     *
+     * @param version guid of the version
+     * @param metadata guid of the metadata of the version
+     */
+    public synchronized void addVersion(IGUID version, IGUID metadata) {
+
+        if (versionToMetadata.putIfAbsent(version, metadata) == null) {
+            metadataToVersions.computeIfAbsent(metadata, m -> ConcurrentHashMap.newKeySet()).add(version);
+        }
+    }
+
+    /**
+     * Remove the metadata and its values from the index.
+     * The versions linked to the metadata are not removed, so they are found again if the metadata is indexed again.
+     *
+     * @param metadata guid of the metadata to remove
+     */
+    public synchronized void removeMetadata(IGUID metadata) {
+
+        Map<String, Property> metadataProperties = properties.remove(metadata);
+        if (metadataProperties == null) return;
+
+        for (Property property : metadataProperties.values()) {
+            unindexValue(metadata, property);
+        }
+    }
+
+    /**
+     * Unlink a version from its metadata.
+     *
+     * @param version guid of the version to remove
+     */
+    public synchronized void removeVersion(IGUID version) {
+
+        IGUID metadata = versionToMetadata.remove(version);
+        if (metadata == null) return;
+
+        Set<IGUID> versions = metadataToVersions.get(metadata);
+        if (versions != null) {
+            versions.remove(version);
+            if (versions.isEmpty()) metadataToVersions.remove(metadata);
+        }
+    }
+
+    public synchronized void clear() {
+
+        properties.clear();
+        stringValues.clear();
+        longValues.clear();
+        doubleValues.clear();
+        versionToMetadata.clear();
+        metadataToVersions.clear();
+    }
+
+    public boolean isMetadataIndexed(IGUID metadata) {
+        return properties.containsKey(metadata);
+    }
+
+    /**
+     * @param version guid of the version
+     * @return the guid of the metadata of the version, or null if the version is not indexed
+     */
+    public IGUID getMetadata(IGUID version) {
+        return versionToMetadata.get(version);
+    }
+
+    /**
+     * @param metadata guid of the metadata
+     * @param property name of the property
+     * @return the property, or null if the metadata is not indexed or has no such property
+     */
+    public Property getProperty(IGUID metadata, String property) {
+
+        Map<String, Property> metadataProperties = properties.get(metadata);
+        return metadataProperties != null ? metadataProperties.get(property) : null;
+    }
+
+    /**
+     * @param property name of the property
+     * @param value of the property
+     * @return the metadata with the given STRING value for the property
+     */
+    public Set<IGUID> findMetadata(String property, String value) {
+
+        Map<String, Set<IGUID>> values = stringValues.get(property);
+        if (values == null) return Collections.emptySet();
+
+        Set<IGUID> metadata = values.get(value);
+        return metadata != null ? Collections.unmodifiableSet(metadata) : Collections.emptySet();
+    }
+
+    /**
+     * @param property name of the property
+     * @param from lowest value (inclusive)
+     * @param to highest value (inclusive)
+     * @return the metadata with a LONG value for the property within the range
+     */
+    public Set<IGUID> findMetadata(String property, long from, long to) {
+        return union(longValues.get(property), from, to);
+    }
+
+    /**
+     * @param property name of the property
+     * @param from lowest value (inclusive)
+     * @param to highest value (inclusive)
+     * @return the metadata with a DOUBLE value for the property within the range
+     */
+    public Set<IGUID> findMetadata(String property, double from, double to) {
+        return union(doubleValues.get(property), from, to);
+    }
+
+    /**
+     * @param metadata guids of the metadata
+     * @return the indexed versions with any of the given metadata
+     */
+    public Set<IGUID> findVersions(Set<IGUID> metadata) {
+
+        Set<IGUID> versions = new LinkedHashSet<>();
+        for (IGUID guid : metadata) {
+            Set<IGUID> metadataVersions = metadataToVersions.get(guid);
+            if (metadataVersions != null) {
+                versions.addAll(metadataVersions);
+            }
+        }
+
+        return versions;
+    }
+
+    /**
+     * @return the number of metadata manifests indexed
+     */
+    public int size() {
+        return properties.size();
+    }
+
+    private void indexValue(IGUID guid, Property property) {
+
+        if (property.isEncrypted()) return;
+
+        String key = property.getKey();
+        switch(property.getType()) {
+            case STRING:
+                if (property.getValue_s() != null) {
+                    stringValues.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(property.getValue_s(), v -> ConcurrentHashMap.newKeySet())
+                            .add(guid);
+                }
+                break;
+            case LONG:
+                longValues.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>())
+                        .computeIfAbsent(property.getValue_l(), v -> ConcurrentHashMap.newKeySet())
+                        .add(guid);
+                break;
+            case DOUBLE:
+                doubleValues.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>())
+                        .computeIfAbsent(property.getValue_d(), v -> ConcurrentHashMap.newKeySet())
+                        .add(guid);
+                break;
+            default:
+                // Other types are not indexed by value
+        }
+    }
+
+    private void unindexValue(IGUID guid, Property property) {
+
+        if (property.isEncrypted()) return;
+
+        String key = property.getKey();
+        switch(property.getType()) {
+            case STRING:
+                if (property.getValue_s() != null) {
+                    unindex(stringValues.get(key), property.getValue_s(), guid);
+                }
+                break;
+            case LONG:
+                unindex(longValues.get(key), property.getValue_l(), guid);
+                break;
+            case DOUBLE:
+                unindex(doubleValues.get(key), property.getValue_d(), guid);
+                break;
+            default:
+                // Other types are not indexed by value
+        }
+    }
+
+    private static <T> void unindex(Map<T, Set<IGUID>> values, T value, IGUID guid) {
+
+        if (values == null) return;
+
+        Set<IGUID> guids = values.get(value);
+        if (guids != null) {
+            guids.remove(guid);
+            if (guids.isEmpty()) values.remove(value);
+        }
+    }
+
+    private static <T extends Comparable<T>> Set<IGUID> union(NavigableMap<T, Set<IGUID>> values, T from, T to) {
+
+        if (values == null || from.compareTo(to) > 0) return Collections.emptySet();
+
+        Set<IGUID> metadata = new LinkedHashSet<>();
+        for (Set<IGUID> guids : values.subMap(from, true, to, true).values()) {
+            metadata.addAll(guids);
+        }
+
+        return metadata;
+    }
+}
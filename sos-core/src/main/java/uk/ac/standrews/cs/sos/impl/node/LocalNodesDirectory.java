@@ -20,19 +20,22 @@ import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.sos.exceptions.db.DatabaseConnectionException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodesDirectoryException;
 import uk.ac.standrews.cs.sos.interfaces.database.NodesDatabase;
-import uk.ac.standrews.cs.sos.model.Manifest;
+import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
 import uk.ac.standrews.cs.sos.model.Node;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
-import static java.util.stream.Collectors.toList;
 import static uk.ac.standrews.cs.sos.impl.services.SOSNodeDiscoveryService.NO_LIMIT;
 
 /**
  * The nodes directory which keeps track of the known nodes at this given node
  *
+ * Nodes are indexed by GUID and by role, so that lookups do not depend on the number of known nodes
+ * and selecting k nodes with a given role only visits (about) k nodes.
+ * Reads are lock-free. Writes are serialised, so that the role indices are consistent with the nodes.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class LocalNodesDirectory {
@@ -40,13 +43,19 @@ public class LocalNodesDirectory {
     private Node localNode;
     private NodesDatabase nodesDatabase;
 
-    private final Set<Node> knownNodes;
+    private final Map<IGUID, Node> knownNodes;
+    private final Map<NodeType, Set<IGUID>> nodesByRole;
 
     public LocalNodesDirectory(Node localNode, NodesDatabase nodesDatabase) throws NodesDirectoryException {
         this.localNode = localNode;
         this.nodesDatabase = nodesDatabase;
 
-        this.knownNodes = new HashSet<>(); // Order not preserved
+        this.knownNodes = new ConcurrentHashMap<>(); // Order not preserved
+        this.nodesByRole = new EnumMap<>(NodeType.class);
+        for (NodeType type : NodeType.values()) {
+            nodesByRole.put(type, ConcurrentHashMap.newKeySet());
+        }
+
         loadNodesFromDB();
     }
 
@@ -60,8 +69,16 @@ public class LocalNodesDirectory {
 
         synchronized (knownNodes) {
             SOSNode clone = new SOSNode(node);
-            knownNodes.remove(node);
-            knownNodes.add(clone);
+            knownNodes.put(clone.guid(), clone);
+
+            // The roles of the node might have changed
+            for (Map.Entry<NodeType, Set<IGUID>> role : nodesByRole.entrySet()) {
+                if (hasRole(clone, role.getKey())) {
+                    role.getValue().add(clone.guid());
+                } else {
+                    role.getValue().remove(clone.guid());
+                }
+            }
         }
 
     }
@@ -73,11 +90,8 @@ public class LocalNodesDirectory {
      * @return matching node
      */
     public Node getNode(IGUID guid) {
-        Optional<Node> node = knownNodes.stream()
-                .filter(n -> n.guid().equals(guid))
-                .findFirst();
 
-        return node.orElse(null);
+        return knownNodes.get(guid);
     }
 
     /**
@@ -89,24 +103,75 @@ public class LocalNodesDirectory {
      */
     public Set<IGUID> getNodes(Predicate<Node> predicate, int limit) {
 
-        Stream<IGUID> nodesStream = knownNodes.stream()
-                .filter(predicate)
-                .map(Manifest::guid);
+        Set<IGUID> retval = new LinkedHashSet<>();
+        for (Node node : knownNodes.values()) {
+            if (limit > NO_LIMIT && retval.size() >= limit) break;
+
+            if (!isLocalNode(node.guid()) && predicate.test(node)) {
+                retval.add(node.guid());
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * Get the nodes with the given role and within the given limit.
+     * Only the nodes returned are visited, so this is cheaper than getNodes(predicate, limit).
+     *
+     * @param type role of the nodes
+     * @param limit max number of nodes to return, ignore if limit <= 0
+     * @return set of nodes
+     */
+    public Set<IGUID> getNodes(NodeType type, int limit) {
+
+        Set<IGUID> retval = new LinkedHashSet<>();
+        for (IGUID guid : nodesByRole.get(type)) {
+            if (limit > NO_LIMIT && retval.size() >= limit) break;
 
-        if (getLocalNode() != null) {
-            nodesStream = nodesStream.filter(n -> !n.equals(getLocalNode().guid()));
+            if (!isLocalNode(guid)) {
+                retval.add(guid);
+            }
         }
 
-        nodesStream = nodesStream.distinct();
+        return retval;
+    }
+
+    /**
+     * Get all the known nodes, except the local one, within the given limit.
+     *
+     * @param limit max number of nodes to return, ignore if limit <= 0
+     * @return set of nodes
+     */
+    public Set<IGUID> getNodes(int limit) {
+
+        Set<IGUID> retval = new LinkedHashSet<>();
+        for (IGUID guid : knownNodes.keySet()) {
+            if (limit > NO_LIMIT && retval.size() >= limit) break;
 
-        if (limit > NO_LIMIT) {
-            nodesStream = nodesStream.limit(limit);
+            if (!isLocalNode(guid)) {
+                retval.add(guid);
+            }
         }
 
-        List<IGUID> nodes = nodesStream.collect(toList());
-        Collections.shuffle(nodes); // Naive load balancing
+        return retval;
+    }
 
-        return new HashSet<>(nodes);
+    /**
+     * @param guid of the node
+     * @param type role to check
+     * @return true if the node is known and has the given role
+     */
+    public boolean hasRole(IGUID guid, NodeType type) {
+
+        return nodesByRole.get(type).contains(guid);
+    }
+
+    /**
+     * @return the number of known nodes, including the local node if known
+     */
+    public int size() {
+        return knownNodes.size();
     }
 
     /**
@@ -125,7 +190,7 @@ public class LocalNodesDirectory {
      */
     public void persistNodesTable() throws NodesDirectoryException {
         try {
-            for (Node knownNode : knownNodes) {
+            for (Node knownNode : knownNodes.values()) {
                 nodesDatabase.addNode(knownNode);
             }
         } catch (DatabaseConnectionException e) {
@@ -135,7 +200,12 @@ public class LocalNodesDirectory {
 
     public void clear() {
 
-        knownNodes.clear();
+        synchronized (knownNodes) {
+            knownNodes.clear();
+            for (Set<IGUID> nodes : nodesByRole.values()) {
+                nodes.clear();
+            }
+        }
     }
 
     /**
@@ -146,9 +216,39 @@ public class LocalNodesDirectory {
     private void loadNodesFromDB() throws NodesDirectoryException {
         try {
             Set<SOSNode> nodes = nodesDatabase.getNodes();
-            knownNodes.addAll(nodes);
+            for (SOSNode node : nodes) {
+                addNode(node);
+            }
         } catch (DatabaseConnectionException e) {
             throw new NodesDirectoryException(e);
         }
     }
+
+    private boolean isLocalNode(IGUID guid) {
+
+        Node localNode = getLocalNode();
+        return localNode != null && localNode.guid().equals(guid);
+    }
+
+    private static boolean hasRole(Node node, NodeType type) {
+
+        switch(type) {
+            case AGENT:
+                return node.isAgent();
+            case STORAGE:
+                return node.isStorage();
+            case MDS:
+                return node.isMDS();
+            case NDS:
+                return node.isNDS();
+            case MMS:
+                return node.isMMS();
+            case CMS:
+                return node.isCMS();
+            case RMS:
+                return node.isRMS();
+            default:
+                return false;
+        }
+    }
 }
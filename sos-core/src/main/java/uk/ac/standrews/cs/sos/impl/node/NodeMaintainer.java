@@ -59,9 +59,9 @@ public class NodeMaintainer implements Runnable {
 
         flush();
 
-        boolean cleanCache = checkCache();
-        if (cleanCache) {
-            cleanCache();
+        long excess = checkCache();
+        if (excess > 0) {
+            cleanCache(excess);
         }
 
     }
@@ -80,33 +80,39 @@ public class NodeMaintainer implements Runnable {
     }
 
     /**
+     * A maxSize that is not positive means that the data directory is not bounded.
      *
-     * @return true if garbage collection condition is satisfied
+     * @return the number of bytes by which the data directory exceeds its maximum size (garbage collection condition)
      */
-    private boolean checkCache() {
+    private long checkCache() {
+
+        if (maxSize <= 0) return 0;
 
         try {
             IDirectory datDir = localStorage.getAtomsDirectory();
             long dataSize = datDir.getSize();
             SOS_LOG.log(LEVEL.INFO, "Cache Flusher: Data Directory size is: " + dataSize);
 
-            return dataSize > maxSize;
+            return dataSize - maxSize;
         } catch (DataStorageException e) {
             e.printStackTrace();
         }
 
-        return false;
+        return 0;
     }
 
-    private void cleanCache() {
-        SOS_LOG.log(LEVEL.INFO, "Cache Flusher: Work in progress");
-
-
-        // Remove files that are replicated in at least N places?
+    /**
+     * Only the atoms cached from other nodes are evicted, least recently used first.
+     * Other atoms might not be stored anywhere else and are never removed here.
+     *
+     * @param excess number of bytes to free
+     */
+    private void cleanCache(long excess) {
+        SOS_LOG.log(LEVEL.INFO, "Cache Flusher: freeing " + excess + " bytes");
 
-        // OLD NOTES
-        // Remove unnecessary files - least used files or bigger files
-        // Check caches and indices
-        // satisfied that data is replicated
+        long freed = storageService.cleanCache(excess);
+        if (freed < excess) {
+            SOS_LOG.log(LEVEL.WARN, "Cache Flusher: Data Directory is still " + (excess - freed) + " bytes over its maximum size");
+        }
     }
 }
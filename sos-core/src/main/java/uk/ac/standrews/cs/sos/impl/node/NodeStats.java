@@ -29,12 +29,19 @@ public class NodeStats {
 
     private IGUID node;
     private Queue<Pair<Long, DataPoint >> measurements;
-    private double averageAvailability;
+    private volatile double averageAvailability;
+    private volatile long latency; // Moving average of the latency (ns) of the node, when available
+    private volatile boolean available; // Whether the node was available at the last measure
+
+    // Weight of the latest measure in the moving average of the latency
+    private static final double LATENCY_WEIGHT = 0.3;
 
     public NodeStats(IGUID node) {
         this.node = node;
         this.measurements = new LinkedList<>();
         this.averageAvailability = 0.0;
+        this.latency = Long.MAX_VALUE;
+        this.available = true;
     }
 
     public void addMeasure(Long timestamp, boolean available, Long latency) {
@@ -51,6 +58,11 @@ public class NodeStats {
         dataPoint.latency = latency;
         dataPoint.progressiveAvgAvailability = averageAvailability;
         measurements.add(new Pair<>(timestamp, dataPoint));
+        this.available = available;
+
+        if (available && latency != null) {
+            this.latency = this.latency == Long.MAX_VALUE ? latency : (long) (LATENCY_WEIGHT * latency + (1 - LATENCY_WEIGHT) * this.latency);
+        }
     }
 
     public Queue<Pair<Long, DataPoint>> getMeasurements() {
@@ -61,6 +73,20 @@ public class NodeStats {
         return averageAvailability;
     }
 
+    /**
+     * @return moving average of the latency of the node in nanoseconds, or Long.MAX_VALUE if the node was never reached
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return true if the node was available at the last measure, or if it was never measured
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
     public static class DataPoint {
 
         Boolean available;
@@ -333,7 +333,7 @@ public class SOSLocalNode extends SOSNode implements LocalNode {
     private void initRequestManager() {
 
         // Pass the private key to the request manager, so that requests can be signed by the node
-        RequestsManager.init(d_privateKey);
+        RequestsManager.init(d_privateKey, SOSLocalNode.settings.getGlobal().getNetwork());
     }
 
     private void initDB() throws SOSException {
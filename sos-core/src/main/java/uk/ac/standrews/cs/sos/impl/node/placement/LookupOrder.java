@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.node.placement;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.node.NodeStats;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Order in which nodes are asked for an entity.
+ *
+ * The order is the one of the placement strategy, so that lookups go first to the nodes most likely to hold the entity.
+ * Latency only adds a bounded penalty: a node much slower than the others (more than SLOW_LATENCY_FACTOR times the
+ * median latency of the measured nodes) is moved down by SLOW_NODE_PENALTY positions at most.
+ * Nodes that were never reached are not penalised, and unavailable nodes still come after all the available ones.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LookupOrder {
+
+    static final int SLOW_LATENCY_FACTOR = 2;
+    static final int SLOW_NODE_PENALTY = 1;
+
+    private LookupOrder() {}
+
+    /**
+     * @param ranked nodes as ranked by the placement strategy
+     * @param nodeStats gives the stats of a node, or null if none are known
+     * @param limit max number of nodes to return. All nodes are returned if limit is not positive
+     * @return the nodes in the order in which they should be asked
+     */
+    public static List<IGUID> order(List<IGUID> ranked, Function<IGUID, NodeStats> nodeStats, int limit) {
+
+        long slowLatency = slowLatency(ranked, nodeStats);
+
+        List<Positioned> positioned = new ArrayList<>(ranked.size());
+        for(int i = 0; i < ranked.size(); i++) {
+            IGUID node = ranked.get(i);
+            NodeStats stats = nodeStats.apply(node);
+
+            boolean available = PlacementStrategyFactory.isAvailable(stats);
+            boolean slow = available && PlacementStrategyFactory.latencyOf(stats) != Long.MAX_VALUE &&
+                    PlacementStrategyFactory.latencyOf(stats) > slowLatency;
+
+            // A slow node goes right after the node SLOW_NODE_PENALTY positions below it
+            double position = slow ? i + SLOW_NODE_PENALTY + 0.5 : i;
+            positioned.add(new Positioned(node, available, position));
+        }
+
+        positioned.sort(Comparator.comparing((Positioned p) -> !p.available).thenComparingDouble(p -> p.position));
+
+        int size = limit > 0 ? Math.min(limit, positioned.size()) : positioned.size();
+        List<IGUID> ordered = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            ordered.add(positioned.get(i).node);
+        }
+
+        return ordered;
+    }
+
+    /**
+     * @return the latency above which an available node is slow, or Long.MAX_VALUE if no node was measured
+     */
+    private static long slowLatency(List<IGUID> nodes, Function<IGUID, NodeStats> nodeStats) {
+
+        List<Long> latencies = new ArrayList<>();
+        for(IGUID node : nodes) {
+            NodeStats stats = nodeStats.apply(node);
+            long latency = PlacementStrategyFactory.latencyOf(stats);
+            if (PlacementStrategyFactory.isAvailable(stats) && latency != Long.MAX_VALUE) {
+                latencies.add(latency);
+            }
+        }
+
+        if (latencies.isEmpty()) return Long.MAX_VALUE;
+
+        latencies.sort(null);
+        long median = latencies.get(latencies.size() / 2);
+
+        return median > Long.MAX_VALUE / SLOW_LATENCY_FACTOR ? Long.MAX_VALUE : median * SLOW_LATENCY_FACTOR;
+    }
+
+    private static class Positioned {
+
+        final IGUID node;
+        final boolean available;
+        final double position;
+
+        Positioned(IGUID node, boolean available, double position) {
+            this.node = node;
+            this.available = available;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.node.placement;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.SettingsConfiguration;
+import uk.ac.standrews.cs.sos.impl.node.NodeStats;
+import uk.ac.standrews.cs.sos.interfaces.node.PlacementStrategy;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.util.function.Function;
+
+/**
+ * Creates the placement strategy specified in the NDS settings of the node.
+ *
+ * Supported strategies: rendezvous (default), power_of_two.
+ * Either strategy can be spread across availability zones.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class PlacementStrategyFactory {
+
+    public static final String RENDEZVOUS = "rendezvous";
+    public static final String POWER_OF_TWO = "power_of_two";
+
+    private PlacementStrategyFactory() {}
+
+    /**
+     * @param settings of the NDS
+     * @param nodeStats gives the stats of a node, or null if none are known
+     * @param zones gives the availability zone of a node
+     * @return the placement strategy
+     */
+    public static PlacementStrategy makePlacementStrategy(SettingsConfiguration.Settings.AdvanceServicesSettings.NDSSettings settings,
+                                                          Function<IGUID, NodeStats> nodeStats, Function<IGUID, String> zones) {
+
+        String placement = settings.getPlacement() != null ? settings.getPlacement().toLowerCase() : RENDEZVOUS;
+
+        PlacementStrategy placementStrategy;
+        switch(placement) {
+            case POWER_OF_TWO:
+                placementStrategy = new PowerOfTwoChoicesPlacement(nodeStats);
+                break;
+            case RENDEZVOUS:
+                placementStrategy = new RendezvousPlacement(nodeStats);
+                break;
+            default:
+                SOS_LOG.log(LEVEL.WARN, "Placement strategy " + placement + " is unknown. Using " + RENDEZVOUS + " instead");
+                placementStrategy = new RendezvousPlacement(nodeStats);
+        }
+
+        if (settings.isZoneSpread()) {
+            placementStrategy = new ZoneSpreadPlacement(placementStrategy, zones, nodeStats);
+        }
+
+        return placementStrategy;
+    }
+
+    // Nodes that were never pinged are assumed to be available, but slower than any measured node
+
+    static boolean isAvailable(NodeStats nodeStats) {
+        return nodeStats == null || nodeStats.isAvailable();
+    }
+
+    static long latencyOf(NodeStats nodeStats) {
+        return nodeStats == null ? Long.MAX_VALUE : nodeStats.getLatency();
+    }
+
+    static double availabilityOf(NodeStats nodeStats) {
+        return nodeStats == null ? 0.0 : nodeStats.getAverageAvailability();
+    }
+}
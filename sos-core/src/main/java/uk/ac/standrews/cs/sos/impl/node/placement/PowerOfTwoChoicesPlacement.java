@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.node.placement;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.node.NodeStats;
+import uk.ac.standrews.cs.sos.interfaces.node.PlacementStrategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Power of two choices.
+ *
+ * Each node is chosen by picking two random candidates and keeping the better of the two,
+ * i.e. the one with the lowest latency or, for the same latency, the highest availability.
+ * This spreads the load across the nodes while steering it away from slow ones,
+ * without the herding that always choosing the fastest node would cause.
+ *
+ * Nodes that were unavailable at the last ping are only chosen once all the available ones have been chosen.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class PowerOfTwoChoicesPlacement implements PlacementStrategy {
+
+    private final Function<IGUID, NodeStats> nodeStats;
+
+    /**
+     * @param nodeStats gives the stats of a node, or null if none are known
+     */
+    public PowerOfTwoChoicesPlacement(Function<IGUID, NodeStats> nodeStats) {
+        this.nodeStats = nodeStats;
+    }
+
+    @Override
+    public List<IGUID> rank(IGUID guid, Collection<IGUID> candidates, int limit) {
+
+        List<IGUID> available = new ArrayList<>();
+        List<IGUID> unavailable = new ArrayList<>();
+        for(IGUID candidate : candidates) {
+            if (PlacementStrategyFactory.isAvailable(nodeStats.apply(candidate))) {
+                available.add(candidate);
+            } else {
+                unavailable.add(candidate);
+            }
+        }
+
+        int size = limit > 0 ? Math.min(limit, candidates.size()) : candidates.size();
+        List<IGUID> ranked = new ArrayList<>(size);
+
+        Random random = ThreadLocalRandom.current();
+        choose(available, ranked, size, random);
+        choose(unavailable, ranked, size, random);
+
+        return ranked;
+    }
+
+    private void choose(List<IGUID> candidates, List<IGUID> ranked, int size, Random random) {
+
+        while(ranked.size() < size && !candidates.isEmpty()) {
+
+            int chosen;
+            if (candidates.size() == 1) {
+                chosen = 0;
+            } else {
+                int first = random.nextInt(candidates.size());
+                int second = random.nextInt(candidates.size() - 1);
+                if (second >= first) second++;
+
+                chosen = isBetter(candidates.get(second), candidates.get(first)) ? second : first;
+            }
+
+            ranked.add(candidates.get(chosen));
+
+            // Remove the chosen node in O(1) by moving the last candidate in its place
+            int last = candidates.size() - 1;
+            candidates.set(chosen, candidates.get(last));
+            candidates.remove(last);
+        }
+    }
+
+    private boolean isBetter(IGUID node, IGUID other) {
+
+        NodeStats stats = nodeStats.apply(node);
+        NodeStats otherStats = nodeStats.apply(other);
+
+        long latency = PlacementStrategyFactory.latencyOf(stats);
+        long otherLatency = PlacementStrategyFactory.latencyOf(otherStats);
+        if (latency != otherLatency) {
+            return latency < otherLatency;
+        }
+
+        return PlacementStrategyFactory.availabilityOf(stats) > PlacementStrategyFactory.availabilityOf(otherStats);
+    }
+}
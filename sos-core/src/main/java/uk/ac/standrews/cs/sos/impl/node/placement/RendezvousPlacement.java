@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.node.placement;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.node.NodeStats;
+import uk.ac.standrews.cs.sos.interfaces.node.PlacementStrategy;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Rendezvous (highest random weight) hashing.
+ *
+ * Every candidate node gets a pseudo-random score for the given GUID and the nodes with the highest scores are chosen.
+ * The ranking is deterministic, so any node can work out where an entity was placed without asking other nodes,
+ * and adding or removing a node only moves the entities for which that node is among the chosen ones.
+ *
+ * Nodes that were unavailable at the last ping are ranked after all the available ones.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class RendezvousPlacement implements PlacementStrategy {
+
+    private final Function<IGUID, NodeStats> nodeStats;
+
+    /**
+     * @param nodeStats gives the stats of a node, or null if none are known
+     */
+    public RendezvousPlacement(Function<IGUID, NodeStats> nodeStats) {
+        this.nodeStats = nodeStats;
+    }
+
+    @Override
+    public List<IGUID> rank(IGUID guid, Collection<IGUID> candidates, int limit) {
+
+        int guidHash = guid.toMultiHash().hashCode();
+
+        List<Scored> scored = new ArrayList<>(candidates.size());
+        for(IGUID candidate : candidates) {
+            boolean available = PlacementStrategyFactory.isAvailable(nodeStats.apply(candidate));
+            scored.add(new Scored(candidate, available, score(guidHash, candidate.toMultiHash().hashCode())));
+        }
+
+        scored.sort(Comparator.comparing((Scored s) -> !s.available).thenComparing(s -> s.score, Comparator.reverseOrder()));
+
+        int size = limit > 0 ? Math.min(limit, scored.size()) : scored.size();
+        List<IGUID> ranked = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            ranked.add(scored.get(i).node);
+        }
+
+        return ranked;
+    }
+
+    /**
+     * The hashes of the GUIDs are based on their multihash strings, so that all nodes agree on the scores.
+     */
+    static long score(int guidHash, int nodeHash) {
+
+        // Finaliser of MurmurHash3, so that similar inputs get unrelated scores
+        long h = ((long) guidHash << 32) | (nodeHash & 0xFFFFFFFFL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    private static class Scored {
+
+        final IGUID node;
+        final boolean available;
+        final long score;
+
+        Scored(IGUID node, boolean available, long score) {
+            this.node = node;
+            this.available = available;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.node.placement;
+
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.node.NodeStats;
+import uk.ac.standrews.cs.sos.interfaces.node.PlacementStrategy;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Spreads the nodes chosen by another strategy across availability zones.
+ *
+ * The zones are visited round-robin, in the order in which the other strategy ranks their best node,
+ * so that the n-th replica of an entity shares its zone with another replica only if there are fewer than n zones.
+ * Only the available nodes are spread, so that an unavailable node does not take the turn of its zone.
+ * Nodes that were unavailable at the last ping follow, in the order of the other strategy.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ZoneSpreadPlacement implements PlacementStrategy {
+
+    private final PlacementStrategy placementStrategy;
+    private final Function<IGUID, String> zones;
+    private final Function<IGUID, NodeStats> nodeStats;
+
+    /**
+     * @param placementStrategy used to rank the nodes within each zone
+     * @param zones gives the zone of a node
+     * @param nodeStats gives the stats of a node, or null if none are known
+     */
+    public ZoneSpreadPlacement(PlacementStrategy placementStrategy, Function<IGUID, String> zones, Function<IGUID, NodeStats> nodeStats) {
+        this.placementStrategy = placementStrategy;
+        this.zones = zones;
+        this.nodeStats = nodeStats;
+    }
+
+    @Override
+    public List<IGUID> rank(IGUID guid, Collection<IGUID> candidates, int limit) {
+
+        List<IGUID> ranked = placementStrategy.rank(guid, candidates, 0);
+
+        Map<String, Deque<IGUID>> nodesByZone = new LinkedHashMap<>();
+        List<IGUID> unavailable = new ArrayList<>();
+        for(IGUID node : ranked) {
+            if (PlacementStrategyFactory.isAvailable(nodeStats.apply(node))) {
+                nodesByZone.computeIfAbsent(zones.apply(node), z -> new ArrayDeque<>()).add(node);
+            } else {
+                unavailable.add(node);
+            }
+        }
+
+        int size = limit > 0 ? Math.min(limit, ranked.size()) : ranked.size();
+        int availableSize = Math.min(size, ranked.size() - unavailable.size());
+        List<IGUID> spread = new ArrayList<>(size);
+        while(spread.size() < availableSize) {
+
+            Iterator<Deque<IGUID>> iterator = nodesByZone.values().iterator();
+            while(iterator.hasNext() && spread.size() < size) {
+                Deque<IGUID> zone = iterator.next();
+                spread.add(zone.poll());
+
+                if (zone.isEmpty()) iterator.remove();
+            }
+        }
+
+        for(int i = 0; spread.size() < size; i++) {
+            spread.add(unavailable.get(i));
+        }
+
+        return spread;
+    }
+}
@@ -183,6 +183,13 @@ public class SOSURL {
         return makeURL(url);
     }
 
+    public static URL STORAGE_ATOMS_CHALLENGE(Node node) throws SOSURLException {
+        String url = buildURLBase(node) +
+                "storage/atoms/challenge";
+
+        return makeURL(url);
+    }
+
     public static URL STORAGE_DELETE_ATOM(Node node, IGUID guid) throws SOSURLException {
         String url = buildURLBase(node) +
                 "storage/atom/guid/" + guid.toMultiHash();
@@ -197,6 +204,13 @@ public class SOSURL {
         return makeURL(url);
     }
 
+    public static URL MDS_MANIFESTS_CHALLENGE(Node node) throws SOSURLException {
+        String url = buildURLBase(node) +
+                "mds/manifests/challenge";
+
+        return makeURL(url);
+    }
+
     public static URL USRO_GET_ROLES(Node node, IGUID user) throws SOSURLException {
         String url = buildURLBase(node) +
                 "usro/user/" + user.toMultiHash() + "/roles";
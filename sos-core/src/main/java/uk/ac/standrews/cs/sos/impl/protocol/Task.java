@@ -40,9 +40,18 @@ import java.security.SecureRandom;
 public abstract class Task implements Runnable {
 
     private final long id;
-    private TaskState state;
+    private final TaskType type;
+    private volatile TaskState state;
 
     public Task() {
+        this(TaskType.OTHER);
+    }
+
+    /**
+     * @param type of the task, used to decide which pool of threads will run it
+     */
+    public Task(TaskType type) {
+        this.type = type;
         state = TaskState.INITIALIZED;
         id = new SecureRandom().nextLong();
     }
@@ -88,6 +97,10 @@ public abstract class Task implements Runnable {
         return id;
     }
 
+    public TaskType getType() {
+        return type;
+    }
+
     public void setState(TaskState state) {
 
         // Once in ERROR or UNSUCCESSFUL state, this cannot change anymore
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.protocol;
+
+/**
+ * The type of a task determines the pool of threads that will run it.
+ * This way, slow tasks of one type (e.g. fetching manifests from unreachable nodes) do not delay tasks of other types.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public enum TaskType {
+
+    REPLICATION,
+    FETCH, // Fetch data, manifests, node info, etc.
+    SEGMENT, // Fetch ranges of data. Segments are awaited by readers that may run on the FETCH threads
+    PING,
+    DELETION,
+    OTHER
+}
@@ -19,125 +19,366 @@ package uk.ac.standrews.cs.sos.impl.protocol;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.SettingsConfiguration;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.instrument.InstrumentFactory;
+import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
-import java.util.LinkedHashSet;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static uk.ac.standrews.cs.sos.constants.Internals.TIMEOUT_LIMIT_S;
 
 /**
  * Singleton pattern used for this class.
  *
+ * Tasks are run by a separate pool of threads for each type of task (see TaskType),
+ * so that slow tasks of one type (e.g. fetching from unreachable nodes) do not delay tasks of other types.
+ * Each pool has a bounded queue. When a queue is full, the task is run by the overflow pool, which has no queue and a
+ * bounded number of threads. If the overflow pool is busy too, the task is rejected and its state is set to ERROR.
+ * Tasks are never run by the thread submitting them, as that might be a thread of the same pool.
+ *
+ * A task submitted from a thread of the pool for its own type (e.g. a FETCH task fetching further data) is run by the
+ * overflow pool too, if possible, rather than being queued. Otherwise, a pool whose threads all wait for tasks queued
+ * behind them would wait until the tasks time out.
+ *
+ * Submitting a task does not hold any global lock. Sync tasks wait for their own task only.
+ *
+ * For each completed task, the depth of the queue, the time waited in the queue and the time spent running are
+ * measured via the InstrumentFactory.
+ *
  * TODO - ability to persist tasks -- tasks must be "describable"
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class TasksQueue {
 
-    private ExecutorService service;
-    private ScheduledExecutorService canceller; // Will schedule jobs to delete
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final long KEEP_ALIVE_S = 60;
+    private static final int OVERFLOW_THREADS = 64;
+
+    // Type of the pool of the current thread, if the thread belongs to one of the pools of a queue
+    private static final ThreadLocal<TaskType> POOL_TYPE = new ThreadLocal<>();
+
+    private final Map<TaskType, ThreadPoolExecutor> pools;
+    private final ThreadPoolExecutor overflow;
+    private final ScheduledThreadPoolExecutor canceller; // Will schedule jobs to delete
     private final Set<Task> submittedToService;
 
-    private boolean fallbackToSyncTasks;
+    private final boolean fallbackToSyncTasks;
 
-    private static TasksQueue instance;
+    private static volatile TasksQueue instance;
     private TasksQueue() {
         SettingsConfiguration.Settings.GlobalSettings.TasksSettings settings = SOSLocalNode.settings.getGlobal().getTasks();
         fallbackToSyncTasks = settings.isFallbackToSyncTasks();
 
-        int numberOfThreads = settings.getThread().getPs();
-        this.service = Executors.newFixedThreadPool(numberOfThreads);
-        this.canceller = Executors.newSingleThreadScheduledExecutor();
+        int queueCapacity = settings.getQueueCapacity() > 0 ? settings.getQueueCapacity() : DEFAULT_QUEUE_CAPACITY;
 
-        this.submittedToService = new LinkedHashSet<>();
+        this.overflow = new ThreadPoolExecutor(0, OVERFLOW_THREADS, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory("overflow", null));
+
+        this.pools = new EnumMap<>(TaskType.class);
+        for (TaskType type : TaskType.values()) {
+            int numberOfThreads = numberOfThreads(settings, type);
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), threadFactory(type.name().toLowerCase(), type), this::overflow);
+            pool.allowCoreThreadTimeOut(true);
+            pools.put(type, pool);
+        }
+
+        this.canceller = new ScheduledThreadPoolExecutor(1, threadFactory("canceller", null));
+        this.canceller.setRemoveOnCancelPolicy(true);
+
+        this.submittedToService = ConcurrentHashMap.newKeySet();
         // TODO - load tasks from db
         // for each task, submit it to the executorService
     }
 
-    public synchronized static TasksQueue instance() {
-        if (instance == null) {
-            instance = new TasksQueue();
+    public static TasksQueue instance() {
+
+        TasksQueue tasksQueue = instance;
+        if (tasksQueue == null) {
+            synchronized (TasksQueue.class) {
+                if (instance == null) {
+                    instance = new TasksQueue();
+                }
+                tasksQueue = instance;
+            }
         }
 
-        return instance;
+        return tasksQueue;
     }
 
-    public synchronized void shutdown() {
+    public void shutdown() {
 
-        service.shutdownNow();
+        for (ThreadPoolExecutor pool : pools.values()) {
+            pool.shutdownNow();
+        }
+        overflow.shutdownNow();
         canceller.shutdownNow();
+        submittedToService.clear();
 
-        instance = null;
+        synchronized (TasksQueue.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
     }
 
-    public synchronized void performSyncTask(final Task task) {
+    /**
+     * Run the task and wait for it to finish, for TIMEOUT_LIMIT_S seconds at most.
+     * If the task does not finish in time, it is cancelled and its state is set to ERROR.
+     *
+     * @param task to run
+     */
+    public void performSyncTask(final Task task) {
 
-        if (task.getState() != TaskState.INITIALIZED) {
-            SOS_LOG.log(LEVEL.ERROR, "TasksQueue :: You cannot resubmit " + task);
-            return;
+        TaskFuture future = submit(task);
+        if (future == null) return;
 
+        try {
+            future.get(TIMEOUT_LIMIT_S, TimeUnit.SECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(future);
+            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Interrupted while waiting for " + task);
+
+        } catch (ExecutionException | CancellationException | TimeoutException e) {
+            cancel(future);
+            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Timeout " + task);
         }
 
-        boolean added = submittedToService.add(task);
-        if (!added) {
-            SOS_LOG.log(LEVEL.ERROR, "TasksQueue :: You cannot resubmit " + task);
+        SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Task finished " + task);
+    }
+
+    /**
+     * Submit the task and return immediately.
+     * If the task does not finish within TIMEOUT_LIMIT_S seconds, it is cancelled and its state is set to ERROR.
+     *
+     * The returned future is completed with the task once it is finished (whatever its final state)
+     * and can be used to wait for multiple tasks. Cancelling the future cancels the task.
+     *
+     * @param task to run
+     * @return future completed when the task is finished
+     */
+    public CompletableFuture<Task> performAsyncTask(Task task) {
+
+        if (fallbackToSyncTasks) {
+
+            performSyncTask(task);
+            return CompletableFuture.completedFuture(task);
 
         } else {
 
-            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Submitting task " + task);
-            persist(task);
+            TaskFuture future = submit(task);
+            if (future == null) return CompletableFuture.completedFuture(task);
 
-            Future future = service.submit(task);
-            try {
-                future.get(TIMEOUT_LIMIT_S, TimeUnit.SECONDS);
-            } catch (InterruptedException | ExecutionException | TimeoutException e) {
-                task.setState(TaskState.ERROR);
-                SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Timeout " + task);
-            }
-            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Task finished " + task);
+            future.setTimeout(canceller.schedule(() -> {
+                if (cancel(future)) {
+                    SOS_LOG.log(LEVEL.WARN, "TasksQueue :: Cancelled task " + task);
+                }
+            }, TIMEOUT_LIMIT_S, TimeUnit.SECONDS));
+
+            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Task submitted " + task);
+
+            CompletableFuture<Task> completion = future.completion;
+            completion.whenComplete((t, throwable) -> {
+                if (completion.isCancelled()) {
+                    cancel(future);
+                }
+            });
+
+            return completion;
         }
+    }
 
+    /**
+     * @param type of tasks
+     * @return the number of tasks of the given type waiting to be run
+     */
+    public int queueDepth(TaskType type) {
+        return pools.get(type).getQueue().size();
     }
 
-    public synchronized void performAsyncTask(Task task) {
+    /**
+     * @return the number of tasks submitted and not completed yet
+     */
+    public int pending() {
+        return submittedToService.size();
+    }
 
-        if (fallbackToSyncTasks) {
+    private TaskFuture submit(Task task) {
 
-            performSyncTask(task);
+        if (task.getState() != TaskState.INITIALIZED) {
+            SOS_LOG.log(LEVEL.ERROR, "TasksQueue :: You cannot resubmit " + task);
+            return null;
+        }
 
-        } else {
+        boolean added = submittedToService.add(task);
+        if (!added) {
+            SOS_LOG.log(LEVEL.ERROR, "TasksQueue :: You cannot resubmit " + task);
+            return null;
+        }
 
-            if (task.getState() != TaskState.INITIALIZED) {
-                SOS_LOG.log(LEVEL.ERROR, "TasksQueue :: You cannot resubmit " + task);
-                return;
-            }
+        SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Submitting task " + task);
+        persist(task);
+
+        ThreadPoolExecutor pool = pools.get(task.getType());
+        TaskFuture future = new TaskFuture(task, pool);
+        try {
+            execute(pool, future);
+        } catch (RejectedExecutionException e) {
+            // The pool has been shutdown or both the pool and the overflow pool are saturated
+            SOS_LOG.log(LEVEL.WARN, "TasksQueue :: Rejected task " + task);
+            cancel(future);
+        }
 
-            boolean added = submittedToService.add(task);
-            if (!added) {
-                SOS_LOG.log(LEVEL.ERROR, "TasksQueue :: You cannot resubmit " + task);
+        return future;
+    }
+
+    private void execute(ThreadPoolExecutor pool, TaskFuture future) {
+
+        if (POOL_TYPE.get() == future.task.getType()) {
+            try {
+                overflow.execute(future);
                 return;
+            } catch (RejectedExecutionException e) {
+                // The overflow pool is busy, so the task is queued as usual
             }
+        }
+
+        pool.execute(future);
+    }
+
+    /**
+     * Rejection policy of the pools: the task is run by the overflow pool, rather than by the submitting thread.
+     */
+    private void overflow(Runnable runnable, ThreadPoolExecutor pool) {
 
-            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Submitting task " + task);
-            persist(task);
+        if (pool.isShutdown()) {
+            throw new RejectedExecutionException("The pool has been shutdown");
+        }
 
-            final Future future = service.submit(task);
-            canceller.schedule(() -> {
-                future.cancel(true);
-                task.setState(TaskState.ERROR);
-                submittedToService.remove(task);
+        overflow.execute(runnable);
+    }
 
-                SOS_LOG.log(LEVEL.WARN, "TasksQueue :: Cancelled task " + task);
-            }, TIMEOUT_LIMIT_S, TimeUnit.SECONDS);
+    private boolean cancel(TaskFuture future) {
 
-            SOS_LOG.log(LEVEL.INFO, "TasksQueue :: Task submitted " + task);
+        boolean cancelled = future.cancel(true);
+        if (cancelled) {
+            future.task.setState(TaskState.ERROR);
         }
+
+        return cancelled;
     }
 
     private void persist(Task task) {
         // TODO - add task to db
         SOS_LOG.log(LEVEL.INFO, "TasksQueue :: WIP - task should be persisted " + task);
     }
-}
\ No newline at end of file
+
+    private static int numberOfThreads(SettingsConfiguration.Settings.GlobalSettings.TasksSettings settings, TaskType type) {
+
+        SettingsConfiguration.Settings.ThreadSettings threadSettings;
+        switch(type) {
+            case REPLICATION:
+                threadSettings = settings.getReplicationThread();
+                break;
+            case FETCH:
+            case SEGMENT:
+                threadSettings = settings.getFetchThread();
+                break;
+            case PING:
+                threadSettings = settings.getPingThread();
+                break;
+            case DELETION:
+                threadSettings = settings.getDeletionThread();
+                break;
+            default:
+                threadSettings = null;
+        }
+
+        if (threadSettings == null) {
+            threadSettings = settings.getThread();
+        }
+
+        return threadSettings != null && threadSettings.getPs() > 0 ? threadSettings.getPs() : 1;
+    }
+
+    /**
+     * @param name of the pool
+     * @param type of the tasks run by the pool, or null if the pool is not dedicated to a type of tasks
+     */
+    private static ThreadFactory threadFactory(String name, TaskType type) {
+
+        String prefix = "sos-tasks-" + name + "-";
+        AtomicInteger counter = new AtomicInteger();
+
+        return runnable -> {
+            Runnable poolRunnable = type == null ? runnable : () -> {
+                POOL_TYPE.set(type);
+                runnable.run();
+            };
+
+            Thread thread = new Thread(poolRunnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Wraps a task, so that it is cleaned up and measured once completed, whether successfully, with an error or cancelled.
+     */
+    private class TaskFuture extends FutureTask<Object> {
+
+        private final Task task;
+        private final ThreadPoolExecutor pool;
+
+        private final long submittedAt;
+        private volatile long startedAt;
+        private volatile ScheduledFuture<?> timeout;
+
+        private final CompletableFuture<Task> completion = new CompletableFuture<>();
+
+        TaskFuture(Task task, ThreadPoolExecutor pool) {
+            super(task, null);
+
+            this.task = task;
+            this.pool = pool;
+            this.submittedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            startedAt = System.nanoTime();
+            super.run();
+        }
+
+        void setTimeout(ScheduledFuture<?> timeout) {
+            this.timeout = timeout;
+
+            // The task might have completed before the timeout was set
+            if (isDone()) timeout.cancel(false);
+        }
+
+        @Override
+        protected void done() {
+
+            submittedToService.remove(task);
+
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) timeout.cancel(false);
+
+            long now = System.nanoTime();
+            long waited = (startedAt > 0 ? startedAt : now) - submittedAt;
+            long running = startedAt > 0 ? now - startedAt : 0;
+            InstrumentFactory.instance().measure(StatsTYPE.tasks, StatsTYPE.none, task.getType().name(), pool.getQueue().size(), waited, running);
+
+            completion.complete(task);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.protocol.json;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Challenge for multiple entities, sent to a node in a single request.
+ * The node answers with the result of the same challenge string for each entity that it holds.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ChallengePackage {
+
+    // Max number of entities challenged in a single request
+    public static final int MAX_ENTITIES = 512;
+
+    private String challenge;
+    private List<String> guids;
+
+    public ChallengePackage() {}
+
+    public ChallengePackage(String challenge, Collection<IGUID> entities) {
+        this.challenge = challenge;
+        this.guids = new ArrayList<>(entities.size());
+        for(IGUID entity : entities) {
+            guids.add(entity.toMultiHash());
+        }
+    }
+
+    public String getChallenge() {
+        return challenge;
+    }
+
+    public void setChallenge(String challenge) {
+        this.challenge = challenge;
+    }
+
+    public List<String> getGuids() {
+        return guids;
+    }
+
+    public void setGuids(List<String> guids) {
+        this.guids = guids;
+    }
+
+    @JsonIgnore
+    public Set<IGUID> getGUIDObjs() throws GUIDGenerationException {
+
+        Set<IGUID> retval = new LinkedHashSet<>();
+        if (guids != null) {
+            for(String guid : guids) {
+                retval.add(GUIDFactory.recreateGUID(guid));
+            }
+        }
+
+        return retval;
+    }
+}
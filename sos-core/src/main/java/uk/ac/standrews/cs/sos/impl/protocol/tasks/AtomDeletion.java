@@ -22,6 +22,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.network.ErrorResponseImpl;
@@ -42,6 +43,8 @@ public class AtomDeletion extends Task {
     private IGUID guid;
 
     public AtomDeletion(Node node, IGUID guid) {
+        super(TaskType.DELETION);
+
         this.node = node;
         this.guid = guid;
     }
@@ -29,6 +29,7 @@ import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.impl.protocol.json.DataPackage;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Atom;
@@ -102,7 +103,7 @@ public class AtomReplication extends Task {
     public AtomReplication(IGUID guid, Data data, NodesCollection nodesCollection, int replicationFactor,
                            StorageService storageService, NodeDiscoveryService nodeDiscoveryService,
                            boolean delegateReplication, boolean dataIsAlreadyProtected, boolean sequential) throws SOSProtocolException {
-        super();
+        super(TaskType.REPLICATION);
 
         if (storageService == null || nodeDiscoveryService == null) {
             setState(TaskState.ERROR);
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.protocol.tasks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
+import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
+import uk.ac.standrews.cs.sos.impl.protocol.Task;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
+import uk.ac.standrews.cs.sos.impl.protocol.json.ChallengePackage;
+import uk.ac.standrews.cs.sos.interfaces.network.Response;
+import uk.ac.standrews.cs.sos.model.Node;
+import uk.ac.standrews.cs.sos.network.*;
+import uk.ac.standrews.cs.sos.utils.IO;
+import uk.ac.standrews.cs.sos.utils.JSONHelper;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static uk.ac.standrews.cs.sos.impl.protocol.json.TaskJSONFields.*;
+
+/**
+ * Challenge a node for multiple entities at once, using the same challenge string for all of them.
+ * See EntityChallenge.
+ *
+ * This task only collects the answers of the node. It is up to the caller to verify them against the expected results,
+ * which can then be computed once for all the challenged nodes.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class EntitiesChallenge extends Task {
+
+    private final Node challengedNode;
+    private final Collection<IGUID> entities;
+    private final String challenge;
+    private final boolean isData;
+
+    private Map<IGUID, IGUID> results;
+
+    /**
+     * @param challengedNode node to challenge
+     * @param entities to challenge. At most ChallengePackage.MAX_ENTITIES
+     * @param challenge string
+     * @param isData true if the data of atoms is challenged, false if manifests are challenged
+     */
+    public EntitiesChallenge(Node challengedNode, Collection<IGUID> entities, String challenge, boolean isData) {
+        super(TaskType.FETCH);
+
+        this.challengedNode = challengedNode;
+        this.entities = entities;
+        this.challenge = challenge;
+        this.isData = isData;
+        this.results = new HashMap<>();
+    }
+
+    @Override
+    public void performAction() {
+
+        try {
+            URL url = isData ? SOSURL.STORAGE_ATOMS_CHALLENGE(challengedNode) : SOSURL.MDS_MANIFESTS_CHALLENGE(challengedNode);
+            SyncRequest request = new SyncRequest(challengedNode.getSignatureCertificate(), HTTPMethod.POST, url, ResponseType.JSON);
+            request.setJSONBody(JSONHelper.jsonObjMapper().writeValueAsString(new ChallengePackage(challenge, entities)));
+
+            Response response = RequestsManager.getInstance().playSyncRequest(request);
+            if (response instanceof ErrorResponseImpl || response.getCode() != HTTPStatus.OK) {
+                throw new IOException("Node " + challengedNode.guid().toShortString() + " did not answer the challenge");
+            }
+
+            try (InputStream inputStream = response.getBody()) {
+                results = readResults(IO.InputStreamToString(inputStream));
+            }
+
+            setState(TaskState.SUCCESSFUL);
+
+        } catch (SOSURLException | IOException e) {
+            setState(TaskState.ERROR);
+            SOS_LOG.log(LEVEL.ERROR, "Unable to challenge node " + challengedNode.guid().toShortString() + " for " + entities.size() + " entities");
+        }
+    }
+
+    @Override
+    public String serialize() {
+
+        ObjectNode node = JSONHelper.jsonObjMapper().createObjectNode();
+        node.put(TASK_TYPE, "EntitiesChallenge");
+        node.put(TASK_CHALLENGED_NODE, challengedNode.toString());
+
+        return node.toString();
+    }
+
+    @Override
+    public Task deserialize(String json) throws IOException {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "EntitiesChallenge. Node " + challengedNode.guid().toShortString() + " - Entities " + entities.size();
+    }
+
+    public Node getChallengedNode() {
+        return challengedNode;
+    }
+
+    /**
+     * @return the answers of the node, for the entities that it holds
+     */
+    public Map<IGUID, IGUID> getResults() {
+        return results;
+    }
+
+    private Map<IGUID, IGUID> readResults(String json) throws IOException {
+
+        Map<IGUID, IGUID> retval = new HashMap<>();
+
+        JsonNode node = JSONHelper.jsonObjMapper().readTree(json);
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while(fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+
+            try {
+                retval.put(GUIDFactory.recreateGUID(field.getKey()), GUIDFactory.recreateGUID(field.getValue().asText()));
+            } catch (GUIDGenerationException e) {
+                SOS_LOG.log(LEVEL.WARN, "Invalid challenge result from node " + challengedNode.guid().toShortString());
+            }
+        }
+
+        return retval;
+    }
+}
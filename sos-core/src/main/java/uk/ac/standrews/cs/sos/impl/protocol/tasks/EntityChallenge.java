@@ -26,6 +26,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.network.*;
@@ -66,31 +67,54 @@ public class EntityChallenge extends Task {
     private boolean challengePassed;
 
     public EntityChallenge(IGUID entity, Data challengedData, Node challengedNode, boolean isData) throws GUIDGenerationException, IOException {
-        super();
+        super(TaskType.FETCH);
 
         this.entity = entity;
         this.challengedNode = challengedNode;
         this.isData = isData;
 
         // Calculate the result of the challenge in advance
-        // How to generate a random alpha-numeric string?
-        // http://stackoverflow.com/a/41156/2467938
+        this.challenge = makeChallenge();
+        try (InputStream data = challengedData.getInputStream()) {
+            this.challengedEntity = challengeResult(data, challenge);
+        }
+
+    }
+
+    /**
+     * How to generate a random alpha-numeric string?
+     * http://stackoverflow.com/a/41156/2467938
+     *
+     * @return a random challenge string
+     */
+    public static String makeChallenge() {
+
         SecureRandom random = new SecureRandom();
-        this.challenge = new BigInteger(CHALLENGE_SUFFIX_LENGTH_BITS, random).toString(CHALLENGE_SUFFIX_BASE);
+        return new BigInteger(CHALLENGE_SUFFIX_LENGTH_BITS, random).toString(CHALLENGE_SUFFIX_BASE);
+    }
+
+    /**
+     * The result of the challenge is the GUID of the data of the entity followed by the challenge string.
+     *
+     * @param data of the challenged entity
+     * @param challenge string
+     * @return the expected result of the challenge
+     * @throws GUIDGenerationException if the GUID could not be generated
+     * @throws IOException if the data could not be read
+     */
+    public static IGUID challengeResult(InputStream data, String challenge) throws GUIDGenerationException, IOException {
 
         List<InputStream> streams = new LinkedList<>();
-        try (InputStream data = challengedData.getInputStream();
-            InputStream challengeStream = new ByteArrayInputStream(challenge.getBytes())) {
+        try (InputStream challengeStream = new ByteArrayInputStream(challenge.getBytes())) {
 
             streams.add(data);
             streams.add(challengeStream);
 
             try (InputStream stream = new SequenceInputStream(Collections.enumeration(streams))) {
 
-                this.challengedEntity = GUIDFactory.generateGUID(GUID_ALGORITHM, stream);
+                return GUIDFactory.generateGUID(GUID_ALGORITHM, stream);
             }
         }
-
     }
 
     @Override
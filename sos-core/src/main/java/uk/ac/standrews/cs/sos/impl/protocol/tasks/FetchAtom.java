@@ -16,6 +16,7 @@
  */
 package uk.ac.standrews.cs.sos.impl.protocol.tasks;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.NullInputStream;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.logger.LEVEL;
@@ -23,11 +24,13 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.network.*;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -35,16 +38,38 @@ import java.net.URL;
 /**
  * Fetch data that matches the entityId from a specified node
  *
+ * A range of the data can be requested. The range is requested only if the data of the node is still the one with
+ * the given entityId (If-Range), so that a segment of some other data is never returned.
+ * If the node does not support ranges, the whole data is returned with the OK status: check getRange() to know
+ * what part of the data is returned by getBody().
+ * The body of a range is buffered, so ranges should be small enough to fit in memory (e.g. segments of a download).
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class FetchAtom extends Task {
 
     private Node node;
     private IGUID entityId;
+    private ByteRange range;
     private InputStream body;
+    private boolean discarded;
+    private long totalLength = -1;
 
     public FetchAtom(Node node, IGUID entityId) throws IOException {
-        super();
+        this(node, entityId, null);
+    }
+
+    /**
+     * A range is fetched by the SEGMENT threads, so that a FETCH thread reading the data in segments does not wait on
+     * tasks queued behind itself.
+     *
+     * @param node to fetch the data from
+     * @param entityId of the atom
+     * @param range of the data to fetch, or null to fetch all the data
+     * @throws IOException if the node is not a storage node or the GUID is invalid
+     */
+    public FetchAtom(Node node, IGUID entityId, ByteRange range) throws IOException {
+        super(range != null ? TaskType.SEGMENT : TaskType.FETCH);
 
         if (!node.isStorage()) {
             setState(TaskState.ERROR);
@@ -58,6 +83,7 @@ public class FetchAtom extends Task {
 
         this.node = node;
         this.entityId = entityId;
+        this.range = range;
         this.body = new NullInputStream(0);
     }
 
@@ -69,21 +95,51 @@ public class FetchAtom extends Task {
         try {
             URL url = SOSURL.STORAGE_GET_ATOM(node, entityId);
             SyncRequest request = new SyncRequest(node.getSignatureCertificate(), HTTPMethod.GET, url);
+            if (range != null) {
+                request.setHeader(ByteRange.RANGE_HEADER, range.toRangeHeader());
+                request.setHeader(ByteRange.IF_RANGE_HEADER, "\"" + entityId.toMultiHash() + "\"");
+            }
+
             Response response = RequestsManager.getInstance().playSyncRequest(request);
             if (response instanceof ErrorResponseImpl) {
                 setState(TaskState.ERROR);
                 throw new IOException();
             }
 
-            if (response.getCode() == HTTPStatus.OK) {
+            int code = response.getCode();
+            if (code == HTTPStatus.OK) {
+                range = null;
+                totalLength = response.getContentLength();
                 setState(TaskState.SUCCESSFUL);
                 SOS_LOG.log(LEVEL.INFO, "Data fetched successfully from node " + node.guid());
+
+            } else if (code == HTTPStatus.PARTIAL_CONTENT && range != null) {
+                String contentRange = response.getHeader(ByteRange.CONTENT_RANGE_HEADER);
+                ByteRange served = ByteRange.parseContentRangeHeader(contentRange);
+                if (served != null && served.getFirst() == range.getFirst() && served.getLast() <= range.getLast()) {
+                    // Ranges are usually fetched in parallel, so the segment is read by the thread running this task
+                    byte[] bytes;
+                    try (InputStream in = response.getBody()) {
+                        bytes = IOUtils.toByteArray(in, served.length());
+                    }
+                    setBody(new ByteArrayInputStream(bytes));
+                    range = served;
+                    totalLength = ByteRange.parseContentRangeSize(contentRange);
+                    setState(TaskState.SUCCESSFUL);
+                    SOS_LOG.log(LEVEL.INFO, "Data range " + range.toRangeHeader() + " fetched successfully from node " + node.guid());
+                    return;
+                } else {
+                    // Multipart or unexpected ranges are not handled
+                    setState(TaskState.UNSUCCESSFUL);
+                    SOS_LOG.log(LEVEL.WARN, "Data range was not fetched successfully from node " + node.guid() + " - Content-Range: " + contentRange);
+                }
+
             } else {
                 setState(TaskState.UNSUCCESSFUL);
                 SOS_LOG.log(LEVEL.WARN, "Data was not fetched successfully from node " + node.guid());
             }
 
-            body = response.getBody();
+            setBody(response.getBody());
         } catch(IOException | SOSURLException e) {
             setState(TaskState.ERROR);
             SOS_LOG.log(LEVEL.ERROR, "Data not fetched successfully from node " + node.guid() + " - Exception: " + e.getMessage());
@@ -100,12 +156,45 @@ public class FetchAtom extends Task {
         return null;
     }
 
-    public InputStream getBody() {
+    public synchronized InputStream getBody() {
         return body;
     }
 
+    /**
+     * Close the body, now or as soon as it is received, as it will not be read.
+     * Use this method whenever the body is not returned to a reader (e.g. the task failed, timed out or was cancelled),
+     * so that the connection of the response is released.
+     */
+    public synchronized void discard() {
+
+        discarded = true;
+        IOUtils.closeQuietly(body);
+    }
+
+    private synchronized void setBody(InputStream body) {
+
+        this.body = body;
+        if (discarded) {
+            IOUtils.closeQuietly(body);
+        }
+    }
+
+    /**
+     * @return the range of the data returned by getBody(), or null if the body is the whole data
+     */
+    public ByteRange getRange() {
+        return range;
+    }
+
+    /**
+     * @return the size of the whole data, or -1 if unknown
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
     @Override
     public String toString() {
-        return "FetchAtom for guid " + entityId + " from node " + node.guid();
+        return "FetchAtom for guid " + entityId + (range != null ? " (" + range.toRangeHeader() + ")" : "") + " from node " + node.guid();
     }
 }
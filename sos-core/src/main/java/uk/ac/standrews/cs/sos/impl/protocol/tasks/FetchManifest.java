@@ -23,6 +23,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Manifest;
 import uk.ac.standrews.cs.sos.model.Node;
@@ -45,7 +46,7 @@ public class FetchManifest extends Task {
     private Manifest manifest;
 
     public FetchManifest(Node node, IGUID manifestId) throws IOException {
-        super();
+        super(TaskType.FETCH);
 
         if (manifestId == null || manifestId.isInvalid()) {
             setState(TaskState.ERROR);
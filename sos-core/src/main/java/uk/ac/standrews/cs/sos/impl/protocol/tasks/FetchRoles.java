@@ -22,6 +22,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.model.Role;
@@ -46,7 +47,7 @@ public class FetchRoles extends Task {
     private Set<Role> roles;
 
     public FetchRoles(Node node, IGUID userid) throws IOException {
-        super();
+        super(TaskType.FETCH);
 
         if (!node.isRMS()) {
             setState(TaskState.ERROR);
@@ -26,6 +26,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.network.*;
@@ -49,7 +50,7 @@ public class FetchVersions extends Task {
     private Set<IGUID> versions;
 
     public FetchVersions(Node node, IGUID invariant) throws IOException {
-        super();
+        super(TaskType.FETCH);
 
         if (!node.isMDS()) {
             setState(TaskState.ERROR);
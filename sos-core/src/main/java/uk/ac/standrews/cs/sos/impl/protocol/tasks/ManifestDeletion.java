@@ -24,6 +24,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Context;
 import uk.ac.standrews.cs.sos.model.Manifest;
@@ -51,6 +52,8 @@ public class ManifestDeletion extends Task {
     private Manifest manifest;
 
     public ManifestDeletion(NodeDiscoveryService nodeDiscoveryService, NodesCollection nodesCollection, Manifest manifest) {
+        super(TaskType.DELETION);
+
         this.nodeDiscoveryService = nodeDiscoveryService;
         this.nodesCollection = nodesCollection;
         this.manifest = manifest;
@@ -26,6 +26,7 @@ import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.*;
 import uk.ac.standrews.cs.sos.network.*;
@@ -63,7 +64,7 @@ public class ManifestReplication extends Task {
     // TODO - replication by delegation. See DataReplication!
     public ManifestReplication(Manifest manifest, NodesCollection nodesCollection, int replicationFactor, boolean sequential,
                                NodeDiscoveryService nodeDiscoveryService, ManifestsDataService manifestsDataService) throws SOSProtocolException {
-        super();
+        super(TaskType.REPLICATION);
 
         if (manifestsDataService == null || nodeDiscoveryService == null) {
             setState(TaskState.ERROR);
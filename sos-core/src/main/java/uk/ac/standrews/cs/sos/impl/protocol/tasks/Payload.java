@@ -21,6 +21,7 @@ import uk.ac.standrews.cs.sos.exceptions.protocol.SOSURLException;
 import uk.ac.standrews.cs.sos.impl.protocol.SOSURL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.network.*;
@@ -50,7 +51,7 @@ public class Payload extends Task {
      * @param sign if true the request will be signed if possible. if false, the request will never be signed.
      */
     public Payload(Node node, InputStream payload, boolean sign) {
-        super();
+        super(TaskType.PING);
 
         this.node = node;
         this.payload = payload;
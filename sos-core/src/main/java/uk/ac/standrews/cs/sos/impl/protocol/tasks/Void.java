@@ -19,6 +19,7 @@ package uk.ac.standrews.cs.sos.impl.protocol.tasks;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.impl.protocol.Task;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
+import uk.ac.standrews.cs.sos.impl.protocol.TaskType;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
 import java.io.IOException;
@@ -38,6 +39,12 @@ public class Void extends Task {
     }
 
     public Void(int sleepTime) {
+        this(sleepTime, TaskType.OTHER);
+    }
+
+    public Void(int sleepTime, TaskType type) {
+        super(type);
+
         this.sleepTime = sleepTime;
     }
 
@@ -49,6 +56,7 @@ public class Void extends Task {
             Thread.sleep(sleepTime);
         } catch (InterruptedException e) {
             setState(TaskState.ERROR);
+            return;
         }
 
         setState(TaskState.SUCCESSFUL);
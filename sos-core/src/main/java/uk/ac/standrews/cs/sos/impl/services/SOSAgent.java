@@ -17,8 +17,10 @@
 package uk.ac.standrews.cs.sos.impl.services;
 
 import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.data.EmptyData;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.exceptions.DataNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.ServiceException;
 import uk.ac.standrews.cs.sos.exceptions.crypto.SignatureException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.AtomNotFoundException;
@@ -29,7 +31,6 @@ import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.exceptions.userrole.RoleNotFoundException;
-import uk.ac.standrews.cs.sos.impl.datamodel.ContentImpl;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.CompoundBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.VersionBuilder;
@@ -41,9 +42,7 @@ import uk.ac.standrews.cs.sos.model.*;
 import uk.ac.standrews.cs.sos.services.*;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
-import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Implementation class for the SeaOfStuff interface.
@@ -94,18 +93,14 @@ public class SOSAgent implements Agent {
         }
     }
 
-    // NOTE: This is WIP and should be tested
+    @Override
     public Compound addChunkedData(CompoundBuilder compoundBuilder) throws ServiceException {
 
         if (compoundBuilder.getType() != CompoundType.DATA) throw new ServiceException(ServiceException.SERVICE.AGENT, "CompoundBuilder must be set with Type: DATA");
 
         try {
-            List<Atom> atoms = storageService.addAtom(compoundBuilder);
-
-            Set<Content> contents = atoms.stream() // return list of GUIDs for chunks in order
-                    .map(a -> new ContentImpl(a.guid()))
-                    .collect(Collectors.toSet());
-            compoundBuilder.setContents(contents);
+            // The contents of the compound builder are set to the chunks
+            storageService.addAtom(compoundBuilder);
 
             return addCompound(compoundBuilder);
         } catch (DataStorageException | ManifestPersistException e) {
@@ -150,6 +145,7 @@ public class SOSAgent implements Agent {
 
             Version manifest = ManifestFactory.createVersionManifest(content, invariant, prevs, metadata, role);
             addManifest(manifest);
+            metadataService.linkVersion(manifest);
 
             // Make the added manifest the HEAD by default
             manifestsDataService.setHead(manifest);
@@ -190,8 +186,18 @@ public class SOSAgent implements Agent {
 
         try {
             IGUID content = version.content();
-            return storageService.getAtomContent(content);
-        } catch (AtomNotFoundException e) {
+
+            // The content is resolved as a compound only if it is not an atom
+            Data data = storageService.getAtomContent(content);
+            if (data instanceof EmptyData) {
+                Manifest contentManifest = manifestsDataService.getManifest(content);
+                if (isChunkedData(contentManifest)) {
+                    return storageService.getCompoundContent((Compound) contentManifest);
+                }
+            }
+
+            return data;
+        } catch (AtomNotFoundException | ManifestNotFoundException | DataNotFoundException e) {
             throw new ServiceException(ServiceException.SERVICE.AGENT, e);
         }
     }
@@ -207,19 +213,46 @@ public class SOSAgent implements Agent {
                 contentGUID = ((Version) manifest).content();
 
                 Manifest contentManifest = manifestsDataService.getManifest(contentGUID);
+                if (isChunkedData(contentManifest)) {
+                    return storageService.getCompoundContent((Compound) contentManifest);
+                }
+
                 if (!contentManifest.getType().equals(ManifestType.ATOM)) {
                     throw new ServiceException(ServiceException.SERVICE.AGENT, "Unable to find atom data");
                 }
+
+            } else if (isChunkedData(manifest)) {
+                return storageService.getCompoundContent((Compound) manifest);
             }
 
             return storageService.getAtomContent(contentGUID);
 
-        } catch (AtomNotFoundException | ManifestNotFoundException e) {
+        } catch (AtomNotFoundException | ManifestNotFoundException | DataNotFoundException e) {
             throw new ServiceException(ServiceException.SERVICE.AGENT, "Unable to find manifest for data", e);
         }
 
     }
 
+    @Override
+    public boolean mayContainText(IGUID guid, String text) {
+
+        try {
+            IGUID contentGUID = guid;
+
+            Manifest manifest = manifestsDataService.getManifest(guid);
+            if (manifest.getType().equals(ManifestType.VERSION)) {
+                contentGUID = ((Version) manifest).content();
+                manifest = manifestsDataService.getManifest(contentGUID);
+            }
+
+            // Chunks are indexed separately, so only the text of single atoms can be looked up
+            return !manifest.getType().equals(ManifestType.ATOM) || storageService.mayContainText(contentGUID, text);
+
+        } catch (ManifestNotFoundException e) {
+            return true;
+        }
+    }
+
     /**
      * Return an InputStream for the given Atom.
      * The caller should ensure that the stream is closed.
@@ -279,10 +312,11 @@ public class SOSAgent implements Agent {
     @Override
     public Property getMetaProperty(IGUID guid, String property) throws ServiceException {
 
-        Version version = (Version) getManifest(guid);
-
-        Metadata metadata = getMetadata(version.getMetadata());
-        return metadata.getProperty(property);
+        try {
+            return metadataService.getProperty(guid, property);
+        } catch (MetadataNotFoundException e) {
+            throw new ServiceException(ServiceException.SERVICE.AGENT, e);
+        }
     }
 
     @Override
@@ -345,6 +379,11 @@ public class SOSAgent implements Agent {
         manifestsDataService.addManifest(manifest);
     }
 
+    private boolean isChunkedData(Manifest manifest) {
+
+        return manifest.getType().equals(ManifestType.COMPOUND) && ((Compound) manifest).getCompoundType() == CompoundType.DATA;
+    }
+
     private Metadata getMetadata(IGUID guid) throws ServiceException {
 
         try {
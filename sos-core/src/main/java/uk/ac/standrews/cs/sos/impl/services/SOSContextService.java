@@ -30,9 +30,11 @@ import uk.ac.standrews.cs.sos.exceptions.context.PolicyException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.*;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.context.CommonUtilities;
+import uk.ac.standrews.cs.sos.impl.context.ReplicasAuditor;
 import uk.ac.standrews.cs.sos.impl.context.ContextBuilder;
 import uk.ac.standrews.cs.sos.impl.context.ContextManifest;
 import uk.ac.standrews.cs.sos.impl.context.ContextStats;
+import uk.ac.standrews.cs.sos.impl.context.ContextsEngine;
 import uk.ac.standrews.cs.sos.impl.context.directory.ContextVersionInfo;
 import uk.ac.standrews.cs.sos.impl.context.directory.ContextsContentsDirectoryFactory;
 import uk.ac.standrews.cs.sos.impl.context.directory.ContextsContentsDirectoryType;
@@ -43,9 +45,11 @@ import uk.ac.standrews.cs.sos.impl.datamodel.ContentImpl;
 import uk.ac.standrews.cs.sos.impl.manifest.ManifestParam;
 import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.impl.utils.TimerWheel;
 import uk.ac.standrews.cs.sos.instrument.InstrumentFactory;
 import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
 import uk.ac.standrews.cs.sos.interfaces.context.ContextsContentsDirectory;
+import uk.ac.standrews.cs.sos.interfaces.manifests.HeadListener;
 import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
 import uk.ac.standrews.cs.sos.model.*;
 import uk.ac.standrews.cs.sos.services.ContextService;
@@ -61,6 +65,8 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static uk.ac.standrews.cs.sos.constants.Internals.CMS_INDEX_FILE;
 
@@ -79,7 +85,7 @@ public class SOSContextService implements ContextService {
 
     // DATA STRUCTURES
     private ContextsContentsDirectory contextsContentsDirectory;
-    private HashMap<IGUID, ComputationalUnit> cachedComputationalUnits;
+    private ConcurrentHashMap<IGUID, ComputationalUnit> cachedComputationalUnits;
 
     // This executor service will be used to schedule any background tasks
     private static final int CMS_SCHEDULER_PS = 4;
@@ -88,12 +94,29 @@ public class SOSContextService implements ContextService {
     private Queue<Pair<Long, Long>> applyPolicyThreadSessionStatistics;
     private Queue<Pair<Long, Long>> checkPolicyThreadSessionStatistics;
 
+    // Incremental predicates.
+    // The predicates are run only for the assets whose head changed or whose result expired (see the maxAge of the context)
+    private static final long INCREMENTAL_PREDICATES_DELAY_MS = 100; // Head changes happening in bursts are processed in one pass
+    private static final int MAX_AGE_WHEEL_BUCKETS = 3600; // One bucket per second
+    private boolean incrementalPredicates;
+    private HeadListener headListener;
+    // ( context invariant -> [ asset invariants to process ] )
+    private ConcurrentHashMap<IGUID, Set<IGUID>> dirtyAssets;
+    // Fires [ context invariant, asset invariant ] when the result of the predicate for the asset expires
+    private TimerWheel<Pair<IGUID, IGUID>> maxAgeWheel;
+    private AtomicBoolean incrementalPassScheduled;
+    // Passes of the predicate of the same context are run one at a time, so that they do not fork the context
+    private ConcurrentHashMap<IGUID, Semaphore> contextLocks;
+
+    // Runs the predicates and policies of the contexts in parallel
+    private ContextsEngine engine;
+
     /////////////////////////////////////////////////////////////////////////////
     // Data structures used solely for statistical purposes
     private boolean trackPolicies;
 
     // List of all the heads processed by policies.
-    private ArrayList<IGUID> versionsProcessed;
+    private List<IGUID> versionsProcessed;
     // ( context -> [ timestamp, [indices of contents] ] )
     private ConcurrentHashMap<IGUID, Deque<Pair<Long, ArrayList<Integer> > > > validPoliciesPerContext;
     /////////////////////////////////////////////////////////////////////////////
@@ -115,17 +138,26 @@ public class SOSContextService implements ContextService {
 
             SOSReflection.init(localStorage);
             contextsContentsDirectory = new ContextsContentsDirectoryFactory().makeContextsContentsDirectory(ContextsContentsDirectoryType.IN_MEMORY, localStorage);
-            cachedComputationalUnits = new LinkedHashMap<>();
+            cachedComputationalUnits = new ConcurrentHashMap<>();
 
             predicateThreadSessionStatistics = new LinkedList<>();
             applyPolicyThreadSessionStatistics = new LinkedList<>();
             checkPolicyThreadSessionStatistics = new LinkedList<>();
 
+            dirtyAssets = new ConcurrentHashMap<>();
+            maxAgeWheel = new TimerWheel<>(MAX_AGE_WHEEL_BUCKETS, Instant.now().getEpochSecond());
+            incrementalPassScheduled = new AtomicBoolean(false);
+            contextLocks = new ConcurrentHashMap<>();
+            engine = new ContextsEngine(SOSLocalNode.settings.getServices().getCms().getParallelism());
+
             // Run background CRON Jobs if and only if this is set in the node settings file
             if (SOSLocalNode.settings.getServices().getCms().isAutomatic()) {
 
                 service = new ScheduledThreadPoolExecutor(CMS_SCHEDULER_PS);
                 runPredicatesPeriodic();
+                if (SOSLocalNode.settings.getServices().getCms().isIncrementalPredicates()) {
+                    runPredicatesIncremental();
+                }
                 runPoliciesPeriodic();
                 checkPoliciesPeriodic();
                 spawnContextsOverDomainPeriodic();
@@ -442,10 +474,18 @@ public class SOSContextService implements ContextService {
         if (service != null) {
             service.shutdown();
         }
+        engine.shutdown();
+
+        if (headListener != null) {
+            manifestsDataService.removeHeadListener(headListener);
+            headListener = null;
+        }
+        dirtyAssets.clear();
+        maxAgeWheel.clear();
 
         // RESET IN-MEMORY DATA STRUCTURES
         contextsContentsDirectory.clear();
-        cachedComputationalUnits = new LinkedHashMap<>();
+        cachedComputationalUnits = new ConcurrentHashMap<>();
         predicateThreadSessionStatistics = new LinkedList<>();
         applyPolicyThreadSessionStatistics = new LinkedList<>();
         checkPolicyThreadSessionStatistics = new LinkedList<>();
@@ -511,14 +551,12 @@ public class SOSContextService implements ContextService {
     private int runContextPredicateNow(Context context) {
         SOS_LOG.log(LEVEL.INFO, "Running ACTIVELY predicate for context " + context.getName());
 
-        int counter = 0;
         long start = System.currentTimeMillis();
 
-        try {
-            counter = runPredicate(context, new ContextStats.Predicate());
-        } catch (ContextException e) {
-            SOS_LOG.log(LEVEL.ERROR, "Unable to run predicates for context " + context.getUniqueName() + " properly");
-        }
+        long prepStart = System.nanoTime();
+        Map<IGUID, Map<IGUID, IGUID>> headsPerContext = new LinkedHashMap<>();
+        headsPerContext.put(context.invariant(), getHeads(manifestsDataService.getManifests(ManifestType.VERSION)));
+        int counter = runPredicates(headsPerContext, System.nanoTime() - prepStart, false);
 
         long end = System.currentTimeMillis();
         predicateThreadSessionStatistics.add(new Pair<>(start, end));
@@ -557,84 +595,272 @@ public class SOSContextService implements ContextService {
     @Override
     public int runPredicates() {
 
-        int counter = 0;
+        // The heads are collected once for all the contexts
+        long start = System.nanoTime();
+        Map<IGUID, IGUID> heads = getHeads(manifestsDataService.getManifests(ManifestType.VERSION));
+        long prepTime = System.nanoTime() - start;
 
+        Map<IGUID, Map<IGUID, IGUID>> headsPerContext = new LinkedHashMap<>();
         for (IGUID contextRef : this.getContexts()) {
             try {
                 Context context = getContext(contextRef);
-                SOS_LOG.log(LEVEL.INFO, "Running predicate for context " + context.getUniqueName());
-
-                ContextStats.Predicate predicateStats = new ContextStats.Predicate();
-
-                counter += runPredicate(context, predicateStats);
+                headsPerContext.put(context.invariant(), heads);
 
-                InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_prep, context.getName(), predicateStats.getPred_time_prep().get());
-                InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_check, context.getName(), predicateStats.getPred_time_to_check_if_predicate_has_to_be_run().get());
-                InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_dataset, context.getName(), predicateStats.getPred_time_to_run_predicate_on_current_dataset().get());
-                InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_update_context, context.getName(), predicateStats.getPred_time_to_update_context().get());
-
-                SOS_LOG.log(LEVEL.INFO, "Finished to run predicate for context " + context.getUniqueName());
             } catch (ContextException e) {
                 SOS_LOG.log(LEVEL.ERROR, "Unable to run predicates for context " + contextRef.toShortString() + " properly");
             }
         }
 
-        return counter;
+        return runPredicates(headsPerContext, prepTime, true);
     }
 
-    private int runPredicate(Context context, ContextStats.Predicate predicateStats) throws ContextException {
+    /**
+     * Run INCREMENTAL predicates.
+     *
+     * Every time the head of an asset changes, the asset is marked as dirty for all contexts.
+     * The predicate of a context is then run only against its dirty assets, shortly after the change.
+     * Positive results are scheduled on the max-age wheel and the assets are marked as dirty again when the results expire.
+     *
+     * The periodic predicates (see runPredicatesPeriodic) still run over all the assets, so that nothing is missed
+     * (e.g. the results loaded from disk at startup).
+     */
+    private void runPredicatesIncremental() {
 
-        long start = System.nanoTime();
-        int counter = 0;
+        incrementalPredicates = true;
 
-        Set<Content> contents = new LinkedHashSet<>();
-        Set<Pair<IGUID, ContextVersionInfo>> tempResults = new LinkedHashSet<>();
-        Set<IGUID> assetInvariants = manifestsDataService.getManifests(ManifestType.VERSION);
+        headListener = (invariant, head) -> {
+            for (IGUID contextInvariant:manifestsDataService.getManifests(ManifestType.CONTEXT)) {
+                markDirty(contextInvariant, invariant);
+            }
+            scheduleIncrementalPass();
+        };
+        manifestsDataService.addHeadListener(headListener);
 
-        predicateStats.getPred_time_prep().set(System.nanoTime() - start); // Time before running the context on each asset
+        service.scheduleWithFixedDelay(() -> {
 
-        for (IGUID assetInvariant:assetInvariants) {
+            List<Pair<IGUID, IGUID>> expired = maxAgeWheel.advance(Instant.now().getEpochSecond());
+            for (Pair<IGUID, IGUID> contextAsset:expired) {
+                markDirty(contextAsset.X(), contextAsset.Y());
+            }
+
+            if (!expired.isEmpty()) {
+                scheduleIncrementalPass();
+            }
+
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void markDirty(IGUID contextInvariant, IGUID assetInvariant) {
+
+        // The set is only modified within compute, so that no asset is lost while the set is being drained
+        dirtyAssets.compute(contextInvariant, (k, assets) -> {
+            if (assets == null) {
+                assets = new LinkedHashSet<>();
+            }
+            assets.add(assetInvariant);
+            return assets;
+        });
+    }
+
+    private void scheduleIncrementalPass() {
+
+        if (incrementalPassScheduled.compareAndSet(false, true)) {
 
             try {
-                IGUID head = manifestsDataService.getHead(assetInvariant);
-                boolean predicateResult = runPredicate(context, assetInvariant, head, predicateStats);
+                service.schedule(() -> {
+                    // Changes happening while the pass runs will schedule a new pass
+                    incrementalPassScheduled.set(false);
 
-                if (predicateResult) {
-                    Content content = new ContentImpl(head);
-                    contents.add(content);
+                    long start = System.currentTimeMillis();
+                    runDirtyPredicates();
+                    long end = System.currentTimeMillis();
+                    InstrumentFactory.instance().measure(StatsTYPE.thread, StatsTYPE.predicate, "Thread_Predicate_Incremental", start, end);
 
-                    ContextVersionInfo contentInfo = new ContextVersionInfo();
-                    contentInfo.predicateResult = true;
-                    contentInfo.timestamp = Instant.now();
-                    tempResults.add(new Pair<>(head, contentInfo));
+                }, INCREMENTAL_PREDICATES_DELAY_MS, TimeUnit.MILLISECONDS);
 
-                    if (trackPolicies) {
-                        if (!versionsProcessed.contains(head)) { // Avoid duplicates
-                            versionsProcessed.add(head);
-                        }
-                    }
+            } catch (RejectedExecutionException e) {
+                incrementalPassScheduled.set(false); // The service is shutting down
+            }
+        }
+    }
+
+    /**
+     * Run the predicates of the contexts against their dirty assets only
+     *
+     * @return number of assets processed by all contexts
+     */
+    private int runDirtyPredicates() {
+
+        Map<IGUID, Map<IGUID, IGUID>> headsPerContext = new LinkedHashMap<>();
+        for (IGUID contextInvariant : new ArrayList<>(dirtyAssets.keySet())) {
+
+            Set<IGUID> assets = dirtyAssets.remove(contextInvariant);
+            if (assets == null || assets.isEmpty()) continue;
+
+            headsPerContext.put(contextInvariant, getHeads(assets));
+        }
+
+        return runPredicates(headsPerContext, 0, false);
+    }
+
+    private void scheduleExpiry(Context context, IGUID assetInvariant, Instant timestamp) {
+
+        try {
+            // The result expires once more than maxAge seconds have passed. See predicateHasExpired
+            long deadline = Math.addExact(timestamp.getEpochSecond(), Math.addExact(context.maxAge(), 1));
+            maxAgeWheel.schedule(new Pair<>(context.invariant(), assetInvariant), deadline);
+        } catch (ArithmeticException e) {
+            /* The result never expires */
+        }
+    }
+
+    /**
+     * Run the predicates of the given contexts in parallel, each against the given heads, and wait for them to complete.
+     *
+     * @param headsPerContext [context invariant -> [asset invariant -> head]]
+     * @param prepTime time spent to collect the heads, in nanoseconds
+     * @param instrument true if the stats of each context should be measured
+     * @return number of heads processed by all contexts
+     */
+    private int runPredicates(Map<IGUID, Map<IGUID, IGUID>> headsPerContext, long prepTime, boolean instrument) {
+
+        AtomicInteger counter = new AtomicInteger();
+
+        ContextsEngine.Batch batch = engine.newBatch(headsPerContext.size());
+        for (Map.Entry<IGUID, Map<IGUID, IGUID>> contextHeads : headsPerContext.entrySet()) {
+
+            ContextStats.Predicate predicateStats = new ContextStats.Predicate();
+            predicateStats.getPred_time_prep().set(prepTime); // Time before running the context on each asset
+
+            submitPredicate(batch, contextHeads.getKey(), contextHeads.getValue(), predicateStats, counter, instrument);
+        }
+        batch.await();
+
+        return counter.get();
+    }
+
+    /**
+     * Submit the predicate of the context to the batch, so that it is run against each of the given heads.
+     * The context is updated with the positive results once the predicate has been run against all the heads.
+     *
+     * Passes of the predicate of the same context are run one at a time, so that they do not fork the context.
+     * The lock of the context is acquired here and it is released by the thread updating the context.
+     *
+     * @param batch to which the tasks are submitted
+     * @param contextInvariant of the context. The latest tip of the context is used.
+     * @param heads to process [asset invariant -> head]
+     * @param predicateStats collects the timings of this pass
+     * @param counter of the heads processed
+     * @param instrument true if the stats of the context should be measured
+     */
+    private void submitPredicate(ContextsEngine.Batch batch, IGUID contextInvariant, Map<IGUID, IGUID> heads,
+                                 ContextStats.Predicate predicateStats, AtomicInteger counter, boolean instrument) {
+
+        Semaphore lock = contextLocks.computeIfAbsent(contextInvariant, k -> new Semaphore(1));
+        lock.acquireUninterruptibly();
+
+        // Another pass might have updated the context in the meanwhile
+        Context context = getContextTIPOrNull(contextInvariant);
+        if (context == null) {
+            lock.release();
+            return;
+        }
+        SOS_LOG.log(LEVEL.INFO, "Running predicate for context " + context.getUniqueName());
+
+        // Look up the known results for all the heads at once, rather than once per asset
+        long start = System.nanoTime();
+        Map<IGUID, ContextVersionInfo> knownEntries = contextsContentsDirectory.getEntries(contextInvariant, heads.values());
+        predicateStats.getPred_time_to_check_if_predicate_has_to_be_run().addAndGet(System.nanoTime() - start);
+
+        List<Map.Entry<IGUID, IGUID>> assetHeads = new ArrayList<>(heads.entrySet());
+        boolean[] results = new boolean[assetHeads.size()]; // Each task writes its own result only
+        Set<IGUID> toEvict = ConcurrentHashMap.newKeySet();
+
+        List<Runnable> tasks = new ArrayList<>(assetHeads.size());
+        for (int i = 0; i < assetHeads.size(); i++) {
+            int index = i;
+            tasks.add(() -> {
+                IGUID assetInvariant = assetHeads.get(index).getKey();
+                IGUID head = assetHeads.get(index).getValue();
+                results[index] = runPredicate(context, assetInvariant, head, knownEntries.get(head), toEvict, predicateStats);
+                counter.incrementAndGet();
+            });
+        }
+
+        batch.submit(tasks, () -> {
+            try {
+                applyPredicateResults(context, assetHeads, results, toEvict, predicateStats);
+
+                if (instrument) {
+                    InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_prep, context.getName(), predicateStats.getPred_time_prep().get());
+                    InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_check, context.getName(), predicateStats.getPred_time_to_check_if_predicate_has_to_be_run().get());
+                    InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_dataset, context.getName(), predicateStats.getPred_time_to_run_predicate_on_current_dataset().get());
+                    InstrumentFactory.instance().measure(StatsTYPE.predicate, StatsTYPE.predicate_update_context, context.getName(), predicateStats.getPred_time_to_update_context().get());
                 }
 
-                counter++;
-            } catch (HEADNotFoundException e) {
-                SOS_LOG.log(LEVEL.ERROR, "Unable to find head for invariant: " + assetInvariant.toMultiHash());
+                SOS_LOG.log(LEVEL.INFO, "Finished to run predicate for context " + context.getUniqueName());
+            } catch (ContextException e) {
+                SOS_LOG.log(LEVEL.ERROR, "Unable to run predicates for context " + context.getUniqueName() + " properly");
+            } finally {
+                lock.release();
             }
+        });
+    }
+
+    /**
+     * Update the context with the heads for which the predicate was true and record the results.
+     *
+     * @param context to update
+     * @param assetHeads processed [asset invariant -> head]
+     * @param results of the predicate, in the same order as the heads
+     * @param toEvict previous versions of the assets, whose results must be evicted
+     * @param predicateStats collects the timings of this pass
+     * @throws ContextException if the context could not be updated
+     */
+    private void applyPredicateResults(Context context, List<Map.Entry<IGUID, IGUID>> assetHeads, boolean[] results,
+                                       Set<IGUID> toEvict, ContextStats.Predicate predicateStats) throws ContextException {
+
+        long start = System.nanoTime();
+
+        Set<Content> contents = new LinkedHashSet<>();
+        Map<IGUID, ContextVersionInfo> tempResults = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            if (!results[i]) continue;
+
+            IGUID head = assetHeads.get(i).getValue();
+            Content content = new ContentImpl(head);
+            contents.add(content);
+
+            ContextVersionInfo contentInfo = new ContextVersionInfo();
+            contentInfo.predicateResult = true;
+            contentInfo.timestamp = Instant.now();
+            tempResults.put(head, contentInfo);
 
+            if (incrementalPredicates) {
+                scheduleExpiry(context, assetHeads.get(i).getKey(), contentInfo.timestamp);
+            }
+
+            if (trackPolicies) {
+                synchronized (versionsProcessed) {
+                    if (!versionsProcessed.contains(head)) { // Avoid duplicates
+                        versionsProcessed.add(head);
+                    }
+                }
+            }
         }
 
         // Updating context with new contents
-        start = System.nanoTime();
-
         try {
+            IGUID contextInvariant = context.invariant();
+
             // The context will contain only the new processed assets. To get all assets, we need to go back through the previous versions.
             Compound contextContents = new CompoundManifest(CompoundType.COLLECTION, contents, null);
             ContextBuilder contextBuilder = new ContextBuilder(context.guid(), contextContents, context.domain(false), context.codomain(), context.maxAge());
             updateContext(context, contextBuilder);
 
-            IGUID contextInvariant = context.invariant();
-            for(Pair<IGUID, ContextVersionInfo> info:tempResults) {
-                contextsContentsDirectory.addOrUpdateEntry(contextInvariant, info.X(), info.Y());
-            }
+            // The results of the whole pass are written at once
+            contextsContentsDirectory.evict(contextInvariant, toEvict);
+            contextsContentsDirectory.addOrUpdateEntries(contextInvariant, tempResults);
 
         } catch (ManifestNotMadeException e) {
             SOS_LOG.log(LEVEL.ERROR, "Unable to update context version properly");
@@ -642,8 +868,31 @@ public class SOSContextService implements ContextService {
         }
 
         predicateStats.getPred_time_to_update_context().set(System.nanoTime() - start); // Time after predicate is run and used to process the results
+    }
 
-        return counter;
+    private Context getContextTIPOrNull(IGUID contextInvariant) {
+
+        try {
+            return getContextTIP(contextInvariant);
+        } catch (TIPNotFoundException | ContextNotFoundException e) {
+            SOS_LOG.log(LEVEL.WARN, "Unable to get context tip from invariant ref: " + contextInvariant.toMultiHash());
+            return null;
+        }
+    }
+
+    private Map<IGUID, IGUID> getHeads(Set<IGUID> assetInvariants) {
+
+        Map<IGUID, IGUID> heads = new LinkedHashMap<>(); // [asset invariant -> head]
+        for (IGUID assetInvariant:assetInvariants) {
+
+            try {
+                heads.put(assetInvariant, manifestsDataService.getHead(assetInvariant));
+            } catch (HEADNotFoundException e) {
+                SOS_LOG.log(LEVEL.ERROR, "Unable to find head for invariant: " + assetInvariant.toMultiHash());
+            }
+        }
+
+        return heads;
     }
 
     /**
@@ -657,18 +906,19 @@ public class SOSContextService implements ContextService {
      * @param context for which to run the predicate
      * @param assetInvariant of the asset processed
      * @param versionGUID to evaluate
+     * @param entry known for the version in the contextsContentsDirectory, null if none
+     * @param toEvict collects the previous versions of the asset, whose results must be evicted
      * @return true if the predicate was run and it was true. This is not indicative of the result of the predicate.
      */
-    private boolean runPredicate(Context context, IGUID assetInvariant, IGUID versionGUID, ContextStats.Predicate predicateStats) {
+    private boolean runPredicate(Context context, IGUID assetInvariant, IGUID versionGUID, ContextVersionInfo entry, Set<IGUID> toEvict, ContextStats.Predicate predicateStats) {
 
         long start = System.nanoTime();
         boolean predicateResult = false;
 
-        IGUID contextInvariant = context.invariant();
         // The `contextsContentsDirectory` data structure is needed to run this process faster and avoid unnecessary re-runs.
         // This data structure keeps track of entries and their results (negative results too).
-        boolean alreadyRun = contextsContentsDirectory.entryExists(contextInvariant, versionGUID);
-        boolean maxAgeExpired = alreadyRun && predicateHasExpired(context, versionGUID);
+        boolean alreadyRun = entry != null;
+        boolean maxAgeExpired = alreadyRun && predicateHasExpired(context, entry);
 
         long duration = System.nanoTime() - start;
         predicateStats.getPred_time_to_check_if_predicate_has_to_be_run().addAndGet(duration);
@@ -682,7 +932,7 @@ public class SOSContextService implements ContextService {
             duration = System.nanoTime() - start;
             predicateStats.getPred_time_to_run_predicate_on_current_dataset().addAndGet(duration);
 
-            evictEntriesForInvariant(contextInvariant, assetInvariant, versionGUID);
+            collectEntriesToEvict(assetInvariant, versionGUID, toEvict);
         }
 
         return predicateResult;
@@ -692,12 +942,10 @@ public class SOSContextService implements ContextService {
      * Check if the predicate of a context is still valid a given version or not
      *
      * @param context for which the predicate should be checked
-     * @param versionGUID to evaluate
+     * @param content known for the version evaluated
      * @return true if the predicate is still valid
      */
-    private boolean predicateHasExpired(Context context, IGUID versionGUID) {
-
-        ContextVersionInfo content =  contextsContentsDirectory.getEntry(context.invariant(), versionGUID);
+    private boolean predicateHasExpired(Context context, ContextVersionInfo content) {
 
         long max_age = context.maxAge();
         Instant contentLastRun = content.timestamp;
@@ -736,15 +984,15 @@ public class SOSContextService implements ContextService {
     }
 
     /**
-     * Evicting previous results for this asset.
+     * Collect the previous results for this asset, so that they can be evicted.
      *
      */
-    private void evictEntriesForInvariant(IGUID contextInvariant, IGUID assetInvariant, IGUID versionGUID) {
+    private void collectEntriesToEvict(IGUID assetInvariant, IGUID versionGUID, Set<IGUID> toEvict) {
         Set<IGUID> versions = manifestsDataService.getVersions(assetInvariant);
         for(IGUID version:versions) {
 
             if (!version.equals(versionGUID)) {
-                contextsContentsDirectory.evict(contextInvariant, version);
+                toEvict.add(version);
             }
         }
     }
@@ -791,42 +1039,65 @@ public class SOSContextService implements ContextService {
     @Override
     public void runPolicies() {
 
-        for (IGUID contextRef : this.getContexts()) {
+        Set<IGUID> contextRefs = this.getContexts();
+
+        ContextsEngine.Batch batch = engine.newBatch(contextRefs.size());
+        for (IGUID contextRef : contextRefs) {
             try {
                 Context context = getContext(contextRef);
 
                 SOS_LOG.log(LEVEL.INFO, "Running policies for context " + context.getUniqueName());
 
                 ContextStats.PolicyApply policyApplyStats = new ContextStats.PolicyApply();
-                runPolicies(context, policyApplyStats);
-                InstrumentFactory.instance().measure(StatsTYPE.policies, StatsTYPE.policy_apply_dataset, context.getName(), policyApplyStats.getPolicy_time_to_run_apply_on_current_dataset().get());
+                submitPolicies(batch, context, policyApplyStats, () -> {
+                    InstrumentFactory.instance().measure(StatsTYPE.policies, StatsTYPE.policy_apply_dataset, context.getName(), policyApplyStats.getPolicy_time_to_run_apply_on_current_dataset().get());
+
+                    SOS_LOG.log(LEVEL.INFO, "Finished running policies for context " + context.getUniqueName());
+                });
 
-                SOS_LOG.log(LEVEL.INFO, "Finished running policies for context " + context.getUniqueName());
             } catch (ContextNotFoundException e) {
                 SOS_LOG.log(LEVEL.ERROR, "Unable to run policies for context " + contextRef.toShortString() + " properly");
             }
         }
+        batch.await();
 
     }
 
     private void runPolicies(Context context, ContextStats.PolicyApply policyApplyStats) {
 
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        submitPolicies(batch, context, policyApplyStats, () -> {});
+        batch.await();
+    }
+
+    /**
+     * Submit to the batch the policies of the context for all the versions that passed the predicate
+     * and whose policies are not satisfied yet.
+     */
+    private void submitPolicies(ContextsEngine.Batch batch, Context context, ContextStats.PolicyApply policyApplyStats, Runnable onComplete) {
+
         copyPreviousCountOnNumberOfValidPoliciesPerContext(context);
 
         ContextStats.PolicyCheck dummyStats = new ContextStats.PolicyCheck();
 
         IGUID contextInvariant = context.invariant();
         Map<IGUID, ContextVersionInfo> contentsToProcess = contextsContentsDirectory.getContentsThatPassedPredicateTestRows(contextInvariant, false);
+
+        List<Runnable> tasks = new ArrayList<>();
         contentsToProcess.forEach((guid, row) -> {
 
             if (row.predicateResult && !row.policySatisfied) {
-                boolean policySatisfied = runCheckPolicies(context, guid, dummyStats);
-                if (!policySatisfied) {
-                    runPolicies(context, guid, policyApplyStats);
-                }
+                tasks.add(() -> {
+                    boolean policySatisfied = runCheckPolicies(context, guid, dummyStats);
+                    if (!policySatisfied) {
+                        runPolicies(context, guid, policyApplyStats);
+                    }
+                });
             }
 
         });
+
+        batch.submit(tasks, onComplete);
     }
 
     private void copyPreviousCountOnNumberOfValidPoliciesPerContext(Context context) {
@@ -949,33 +1220,89 @@ public class SOSContextService implements ContextService {
     @Override
     public void runCheckPolicies() {
 
-        for (IGUID contextRef : this.getContexts()) {
+        Set<IGUID> contextRefs = this.getContexts();
+
+        ContextsEngine.Batch batch = engine.newBatch(contextRefs.size());
+        for (IGUID contextRef : contextRefs) {
 
             try {
                 Context context = getContext(contextRef);
                 ContextStats.PolicyCheck policyCheckStats = new ContextStats.PolicyCheck();
-                runCheckPolicies(context, policyCheckStats);
+                submitCheckPolicies(batch, context, policyCheckStats, () ->
+                    InstrumentFactory.instance().measure(StatsTYPE.checkPolicies, StatsTYPE.policy_check_dataset, context.getName(), policyCheckStats.getPolicy_time_to_run_check_on_current_dataset().get())
+                );
 
-                InstrumentFactory.instance().measure(StatsTYPE.checkPolicies, StatsTYPE.policy_check_dataset, context.getName(), policyCheckStats.getPolicy_time_to_run_check_on_current_dataset().get());
             } catch (ContextNotFoundException e) {
                 SOS_LOG.log(LEVEL.ERROR, "Unable to run check-policies for context " + contextRef.toShortString() + " properly");
             }
         }
+        batch.await();
 
     }
 
     private void runCheckPolicies(Context context, ContextStats.PolicyCheck policyCheckStats) {
 
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        submitCheckPolicies(batch, context, policyCheckStats, () -> {});
+        batch.await();
+    }
+
+    /**
+     * Submit to the batch the check of the policies of the context for all the versions that passed the predicate.
+     * The replicas are audited for all the versions before the policies are checked.
+     */
+    private void submitCheckPolicies(ContextsEngine.Batch batch, Context context, ContextStats.PolicyCheck policyCheckStats, Runnable onComplete) {
+
         copyPreviousCountOnNumberOfValidPoliciesPerContext(context);
 
         IGUID contextInvariant = context.invariant();
         Map<IGUID, ContextVersionInfo> contentsToProcess = contextsContentsDirectory.getContentsThatPassedPredicateTestRows(contextInvariant, false);
+
+        List<IGUID> versions = new LinkedList<>();
         contentsToProcess.forEach((guid, row) -> {
-            if (row.predicateResult) {
-                runCheckPolicies(context, guid, policyCheckStats);
+            if (row.predicateResult) versions.add(guid);
+        });
+
+        ReplicasAuditor.Session session = auditReplicas(context, versions);
+
+        List<Runnable> tasks = new ArrayList<>(versions.size());
+        for (IGUID guid : versions) {
+            tasks.add(() -> runCheckPolicies(context, guid, policyCheckStats));
+        }
+
+        batch.submit(tasks, () -> {
+            try {
+                onComplete.run();
+            } finally {
+                session.close();
             }
         });
+    }
 
+    /**
+     * Register the versions of the context and their data to be audited against the codomain of the context,
+     * so that the nodes are challenged for all the versions at once rather than once per version and node.
+     * The data (or the versions) are audited only once a policy checks the replicas of one of them,
+     * so that nothing is audited for contexts whose policies do not check replicas.
+     */
+    private ReplicasAuditor.Session auditReplicas(Context context, List<IGUID> versions) {
+
+        List<IGUID> data = new LinkedList<>();
+        for (IGUID guid : versions) {
+            try {
+                Manifest manifest = manifestsDataService.getManifest(guid, NodeType.MDS);
+                if (manifest.getType() != ManifestType.VERSION) continue;
+
+                IGUID content = ((Version) manifest).content();
+                if (manifestsDataService.getManifest(content, NodeType.MDS).getType() == ManifestType.ATOM) {
+                    data.add(content);
+                }
+            } catch (ManifestNotFoundException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to audit the replicas of the content of version " + guid.toShortString());
+            }
+        }
+
+        return commonUtilities.auditReplicas(context.codomain(), data, versions);
     }
 
     private boolean runCheckPolicies(Context context, IGUID guid, ContextStats.PolicyCheck policyCheckStats) {
@@ -1020,25 +1347,32 @@ public class SOSContextService implements ContextService {
     // NOTE: This method is needed for experimental purposes only
     private void trackNumberOfValidPolicies(IGUID contextInvariant, IGUID head, boolean allPoliciesAreSatisfied) {
 
-        int headIndex = versionsProcessed.indexOf(head);
+        int headIndex;
+        synchronized (versionsProcessed) {
+            headIndex = versionsProcessed.indexOf(head);
+        }
         long now = System.nanoTime();
 
         Deque<Pair<Long, ArrayList<Integer> > > queue = validPoliciesPerContext.get(contextInvariant);
-        ArrayList<Integer> prevListOfHeads = queue.isEmpty() ? new ArrayList<>() : queue.getLast().Y();
 
-        ArrayList<Integer> newListOfHeads = new ArrayList<>(prevListOfHeads);
-        if (allPoliciesAreSatisfied) {
-            if (!newListOfHeads.contains(headIndex)) {
-                newListOfHeads.add(headIndex);
+        // The policies of a context are checked in parallel
+        synchronized (queue) {
+            ArrayList<Integer> prevListOfHeads = queue.isEmpty() ? new ArrayList<>() : queue.getLast().Y();
+
+            ArrayList<Integer> newListOfHeads = new ArrayList<>(prevListOfHeads);
+            if (allPoliciesAreSatisfied) {
+                if (!newListOfHeads.contains(headIndex)) {
+                    newListOfHeads.add(headIndex);
+                }
             }
-        }
 
-        if (!allPoliciesAreSatisfied) {
-            newListOfHeads.remove(new Integer(headIndex)); // NOTE: Must create a new integer to avoid to use the overload remove method by index
-        }
+            if (!allPoliciesAreSatisfied) {
+                newListOfHeads.remove(new Integer(headIndex)); // NOTE: Must create a new integer to avoid to use the overload remove method by index
+            }
 
-        Pair<Long, ArrayList<Integer>> newPair = new Pair<>(now, newListOfHeads);
-        queue.add(newPair);
+            Pair<Long, ArrayList<Integer>> newPair = new Pair<>(now, newListOfHeads);
+            queue.add(newPair);
+        }
 
     }
 
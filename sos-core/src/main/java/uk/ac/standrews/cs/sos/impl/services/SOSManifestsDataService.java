@@ -39,6 +39,8 @@ import uk.ac.standrews.cs.sos.impl.protocol.TasksQueue;
 import uk.ac.standrews.cs.sos.impl.protocol.tasks.ManifestDeletion;
 import uk.ac.standrews.cs.sos.instrument.InstrumentFactory;
 import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
+import uk.ac.standrews.cs.sos.interfaces.manifests.DeletionListener;
+import uk.ac.standrews.cs.sos.interfaces.manifests.HeadListener;
 import uk.ac.standrews.cs.sos.interfaces.manifests.ManifestsCache;
 import uk.ac.standrews.cs.sos.interfaces.manifests.ManifestsIndex;
 import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
@@ -49,10 +51,17 @@ import uk.ac.standrews.cs.sos.utils.Persistence;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static uk.ac.standrews.cs.sos.constants.Internals.*;
 import static uk.ac.standrews.cs.sos.model.NodesCollectionType.*;
@@ -81,6 +90,15 @@ public class SOSManifestsDataService implements ManifestsDataService {
     // Maps ManifestGUID --> [ Nodes that might have it ]
     private ManifestsLocationsIndex manifestsLocationsIndex;
 
+    // Manifests recently not found, so that they are not looked up on disk and remotely over and over again
+    private NegativeLookupsCache negativeLookupsCache;
+    // Lookups being resolved on disk/remotely. Concurrent lookups for the same manifest wait for the same resolution
+    private final ConcurrentHashMap<String, CompletableFuture<Manifest>> inFlightLookups = new ConcurrentHashMap<>();
+    // Notified when the HEAD of an asset is set (e.g. by the CMS, to run the predicates on the new heads only)
+    private final List<HeadListener> headListeners = new CopyOnWriteArrayList<>();
+    // Notified when a manifest is deleted (e.g. by the MMS, to remove the manifest from the metadata index)
+    private final List<DeletionListener> deletionListeners = new CopyOnWriteArrayList<>();
+
     private final IGUID localNode;
     private final NodeDiscoveryService nodeDiscoveryService;
 
@@ -90,11 +108,13 @@ public class SOSManifestsDataService implements ManifestsDataService {
 
         this.localStorage = localStorage;
 
+        local = new LocalManifestsDirectory(localStorage);
+
         loadOrCreateCache();
         loadOrCreateManifestsLocationsIndex();
         loadOrCreateIndex();
+        negativeLookupsCache = new NegativeLookupsCache(mdsSettings.getNegativeCacheSize(), mdsSettings.getNegativeCacheTTL());
 
-        local = new LocalManifestsDirectory(localStorage);
         remote = new RemoteManifestsDirectory(manifestsLocationsIndex, nodeDiscoveryService, this);
 
         this.nodeDiscoveryService = nodeDiscoveryService;
@@ -108,6 +128,7 @@ public class SOSManifestsDataService implements ManifestsDataService {
 
         inMemoryCache.addManifest(manifest);
         local.addManifest(manifest);
+        negativeLookupsCache.invalidate(manifest.guid());
 
         // Add/Update TIP
         ManifestType manifestType = manifest.getType();
@@ -166,6 +187,7 @@ public class SOSManifestsDataService implements ManifestsDataService {
     @Override
     public void addManifestNodeMapping(IGUID manifest, IGUID mdsNode) {
         manifestsLocationsIndex.addEntry(manifest, mdsNode);
+        negativeLookupsCache.invalidate(manifest);
     }
 
     @Override
@@ -177,6 +199,14 @@ public class SOSManifestsDataService implements ManifestsDataService {
         local.delete(guid);
         index.delete(manifest);
         manifestsLocationsIndex.evictEntry(guid, localNode);
+
+        for(DeletionListener listener:deletionListeners) {
+            try {
+                listener.manifestDeleted(manifest);
+            } catch (RuntimeException e) {
+                SOS_LOG.log(LEVEL.WARN, "Deletion listener failed for manifest " + guid.toMultiHash() + " - " + e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -336,46 +366,94 @@ public class SOSManifestsDataService implements ManifestsDataService {
             throw new ManifestNotFoundException("GUID was invalid");
         }
 
+        Manifest manifest;
+        try {
+            manifest = inMemoryCache.findManifest(guid);
+        } catch (ManifestNotFoundException e) {
+            manifest = resolveManifest(nodes, nodeTypeFilter, guid);
+        }
+
+        long duration = System.nanoTime() - start;
+        InstrumentFactory.instance().measure(StatsTYPE.io, StatsTYPE.read_manifest, Integer.toString(manifest.size()), duration);
+
+        return manifest;
+    }
+
+    /**
+     * Find the manifest on disk or in the remote nodes.
+     *
+     * Concurrent lookups for the same manifest (and within the same scope) are coalesced:
+     * only one of them looks for the manifest, while the others wait for its result.
+     * Manifests that are not found are recorded in the negative lookups cache.
+     */
+    private Manifest resolveManifest(NodesCollection nodes, NodeType nodeTypeFilter, IGUID guid) throws ManifestNotFoundException {
+
+        String scope = lookupScope(nodes, nodeTypeFilter);
+        if (negativeLookupsCache.isAbsent(guid, scope)) {
+            throw new ManifestNotFoundException("Manifest recently not found in local, remote. GUID: " + guid.toShortString());
+        }
+
+        String key = guid.toMultiHash() + "@" + scope;
+        CompletableFuture<Manifest> lookup = new CompletableFuture<>();
+        CompletableFuture<Manifest> inFlight = inFlightLookups.putIfAbsent(key, lookup);
+        if (inFlight != null) {
+            return waitForLookup(inFlight, guid);
+        }
+
+        try {
+            long token = negativeLookupsCache.token();
+
+            Manifest manifest = findManifest(nodes, nodeTypeFilter, guid);
+            if (manifest == null) {
+                negativeLookupsCache.recordAbsent(guid, scope, token);
+                throw new ManifestNotFoundException("Unable to find manifest in inMemoryCache, local, remote. GUID: " + guid.toShortString());
+            }
+
+            lookup.complete(manifest);
+            return manifest;
+
+        } catch (ManifestNotFoundException | RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLookups.remove(key, lookup);
+        }
+    }
+
+    /**
+     * @return the manifest found on disk or in the remote nodes, null if not found
+     * @throws ManifestNotFoundException if the manifest could not be added to the cache or disk
+     */
+    private Manifest findManifest(NodesCollection nodes, NodeType nodeTypeFilter, IGUID guid) throws ManifestNotFoundException {
+
         try {
             Manifest manifest;
 
             try {
-                manifest = inMemoryCache.findManifest(guid);
+                manifest = local.findManifest(guid);
+                if (manifest != null) {
+                    inMemoryCache.addManifest(manifest);
+                }
             } catch (ManifestNotFoundException e) {
                 manifest = null;
             }
 
-            if (manifest == null) {
+            if (manifest == null && !nodes.type().equals(LOCAL)) {
 
                 try {
-                    manifest = local.findManifest(guid);
-                    if (manifest != null) {
-                        inMemoryCache.addManifest(manifest);
-                    }
+                    manifest = remote.findManifest(nodes, nodeTypeFilter, guid);
                 } catch (ManifestNotFoundException e) {
                     manifest = null;
                 }
 
-            }
-
-            if (manifest == null && !nodes.type().equals(LOCAL)) {
-
-                manifest = remote.findManifest(nodes, nodeTypeFilter, guid);
                 if (manifest != null) {
                     inMemoryCache.addManifest(manifest);
                     local.addManifest(manifest);
                 }
             }
 
-            if (manifest == null) {
-                throw new ManifestNotFoundException("Unable to find manifest in inMemoryCache, local, remote. GUID: " + guid.toShortString());
-            }
-
-            long duration = System.nanoTime() - start;
-            InstrumentFactory.instance().measure(StatsTYPE.io, StatsTYPE.read_manifest, Integer.toString(manifest.size()), duration);
-
-
             return manifest;
+
         } catch (ManifestPersistException e) {
             SOS_LOG.log(LEVEL.ERROR, "MDS - Unable to persist manifest to cache/local");
         }
@@ -383,6 +461,41 @@ public class SOSManifestsDataService implements ManifestsDataService {
         throw new ManifestNotFoundException("Manifest not found");
     }
 
+    private Manifest waitForLookup(CompletableFuture<Manifest> lookup, IGUID guid) throws ManifestNotFoundException {
+
+        try {
+            return lookup.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ManifestNotFoundException("Interrupted while waiting for manifest with GUID " + guid.toShortString());
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ManifestNotFoundException) {
+                throw new ManifestNotFoundException(cause.getMessage(), cause);
+            }
+
+            throw new ManifestNotFoundException("Unable to find manifest with GUID " + guid.toShortString(), cause);
+        }
+    }
+
+    /**
+     * Lookups find the same manifests if they are for the same type of nodes and collection of nodes.
+     */
+    private static String lookupScope(NodesCollection nodes, NodeType nodeTypeFilter) {
+
+        String scope = nodeTypeFilter + ":" + nodes.type();
+        if (nodes.type().equals(SPECIFIED) && nodes.nodesRefs() != null) {
+            scope += ":" + nodes.nodesRefs().stream()
+                    .map(IGUID::toMultiHash)
+                    .sorted()
+                    .collect(Collectors.joining(","));
+        }
+
+        return scope;
+    }
+
     @Override
     public Set<IGUID> getTips(IGUID invariant) throws TIPNotFoundException {
 
@@ -399,6 +512,38 @@ public class SOSManifestsDataService implements ManifestsDataService {
     public void setHead(Version version) {
 
         index.setHead(version);
+
+        for(HeadListener listener:headListeners) {
+            try {
+                listener.headChanged(version.invariant(), version.guid());
+            } catch (RuntimeException e) {
+                SOS_LOG.log(LEVEL.WARN, "Head listener failed for invariant " + version.invariant().toMultiHash() + " - " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void addHeadListener(HeadListener listener) {
+
+        headListeners.add(listener);
+    }
+
+    @Override
+    public void removeHeadListener(HeadListener listener) {
+
+        headListeners.remove(listener);
+    }
+
+    @Override
+    public void addDeletionListener(DeletionListener listener) {
+
+        deletionListeners.add(listener);
+    }
+
+    @Override
+    public void removeDeletionListener(DeletionListener listener) {
+
+        deletionListeners.remove(listener);
     }
 
     @Override
@@ -449,12 +594,13 @@ public class SOSManifestsDataService implements ManifestsDataService {
 
             IFile cacheFile = localStorage.createFile(cacheDir, MANIFESTS_CACHE_FILE);
             Persistence.persist(inMemoryCache, cacheFile);
+            SOS_LOG.log(LEVEL.INFO, "MDS manifests cache occupancy: " + inMemoryCache.getOccupancy() + "/" + inMemoryCache.getCapacity()
+                    + (inMemoryCache.isBoundedByMemory() ? " bytes. " : " manifests. ") + inMemoryCache.getLRU());
 
             IFile mdsIndexFile = localStorage.createFile(cacheDir, MDS_INDEX_FILE);
             Persistence.persist(manifestsLocationsIndex, mdsIndexFile);
 
-            IFile indexFile = localStorage.createFile(cacheDir, MANIFESTS_INDEX_FILE);
-            Persistence.persist(index, indexFile);
+            index.flush();
 
         } catch (DataStorageException | IOException e) {
             SOS_LOG.log(LEVEL.ERROR, "Unable to persist the MDS inMemoryCache and/or index");
@@ -464,8 +610,9 @@ public class SOSManifestsDataService implements ManifestsDataService {
     @Override
     public void shutdown() {
         inMemoryCache.clear();
+        negativeLookupsCache.clear();
         manifestsLocationsIndex.clear();
-        index.clear();
+        index.close();
     }
 
     private void loadOrCreateCache() {
@@ -473,7 +620,7 @@ public class SOSManifestsDataService implements ManifestsDataService {
             IDirectory cacheDir = localStorage.getNodeDirectory();
             IFile file = localStorage.createFile(cacheDir, MANIFESTS_CACHE_FILE);
             if (file.exists()) {
-                inMemoryCache = ManifestsCacheImpl.load(localStorage, file, localStorage.getManifestsDirectory());
+                inMemoryCache = ManifestsCacheImpl.load(localStorage, file, localStorage.getManifestsDirectory(), mdsSettings.getCacheMaxBytes());
             }
         } catch (DataStorageException | ClassNotFoundException | IOException e) {
             SOS_LOG.log(LEVEL.ERROR, "Unable to load the Manifests cache");
@@ -482,7 +629,7 @@ public class SOSManifestsDataService implements ManifestsDataService {
         }
 
         if (inMemoryCache == null) {
-            inMemoryCache = new ManifestsCacheImpl();
+            inMemoryCache = ManifestsCacheImpl.withMemoryBudget(mdsSettings.getCacheMaxBytes());
         }
     }
 
@@ -505,16 +652,21 @@ public class SOSManifestsDataService implements ManifestsDataService {
     }
 
     private void loadOrCreateIndex() {
+
+        File checkpointFile = null;
+        File logFile = null;
         try {
             IDirectory cacheDir = localStorage.getNodeDirectory();
-            IFile file = localStorage.createFile(cacheDir, MANIFESTS_INDEX_FILE);
-            if (file.exists()) {
-                index = (ManifestsIndex) Persistence.load(file);
-            }
-        } catch (DataStorageException | ClassNotFoundException | IOException e) {
+            checkpointFile = localStorage.createFile(cacheDir, MANIFESTS_INDEX_FILE).toFile();
+            logFile = localStorage.createFile(cacheDir, MANIFESTS_INDEX_LOG_FILE).toFile();
+
+            index = ManifestsIndexImpl.load(checkpointFile, logFile);
+
+        } catch (DataStorageException e) {
             SOS_LOG.log(LEVEL.ERROR, "Unable to load the Manifests index");
-        } catch (IgnoreException e) {
-            SOS_LOG.log(LEVEL.WARN, "Ignore exception on manifests Manifests Index loading");
+        } catch (IOException e) {
+            SOS_LOG.log(LEVEL.WARN, "Unable to load the Manifests index. The index will be rebuilt from the local manifests");
+            index = rebuildIndex(checkpointFile, logFile);
         }
 
         if (index == null) {
@@ -522,4 +674,21 @@ public class SOSManifestsDataService implements ManifestsDataService {
         }
     }
 
+    private ManifestsIndex rebuildIndex(File checkpointFile, File logFile) {
+
+        try {
+            Files.deleteIfExists(checkpointFile.toPath());
+            Files.deleteIfExists(logFile.toPath());
+
+            ManifestsIndex rebuiltIndex = ManifestsIndexImpl.load(checkpointFile, logFile);
+            rebuiltIndex.rebuild(local.manifests());
+
+            return rebuiltIndex;
+
+        } catch (DataStorageException | IOException e) {
+            SOS_LOG.log(LEVEL.ERROR, "Unable to rebuild the Manifests index");
+            return null;
+        }
+    }
+
 }
@@ -17,30 +17,65 @@
 package uk.ac.standrews.cs.sos.impl.services;
 
 import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataPersistException;
 import uk.ac.standrews.cs.sos.impl.metadata.MetadataBuilder;
+import uk.ac.standrews.cs.sos.impl.metadata.MetaType;
+import uk.ac.standrews.cs.sos.impl.metadata.MetadataIndex;
+import uk.ac.standrews.cs.sos.impl.metadata.Property;
+import uk.ac.standrews.cs.sos.interfaces.manifests.DeletionListener;
 import uk.ac.standrews.cs.sos.interfaces.metadata.MetadataEngine;
 import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
-import uk.ac.standrews.cs.sos.model.Metadata;
-import uk.ac.standrews.cs.sos.model.NodesCollection;
+import uk.ac.standrews.cs.sos.model.*;
 import uk.ac.standrews.cs.sos.services.ManifestsDataService;
 import uk.ac.standrews.cs.sos.services.MetadataService;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
 
 /**
+ * The metadata added to this node, or looked up via getProperty, are indexed by the MetadataIndex,
+ * so that the properties of versions can be read and searched without loading their manifests.
+ *
+ * The index is rebuilt from the versions and metadata stored locally on a background thread when the service starts,
+ * so that starting the node does not wait for all manifests to be read. Until the index is rebuilt, versions are found
+ * by scanning the versions stored locally. The manifests deleted from this node are removed from the index.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class SOSMetadataService implements MetadataService {
 
     private ManifestsDataService manifestsDataService;
     private MetadataEngine engine;
+    private MetadataIndex index;
+    private DeletionListener deletionListener;
+
+    private ExecutorService executor;
+    private volatile boolean indexReady;
 
     public SOSMetadataService(MetadataEngine metadataEngine, ManifestsDataService manifestsDataService) {
         this.engine = metadataEngine;
         this.manifestsDataService = manifestsDataService;
+        this.index = new MetadataIndex();
+
+        deletionListener = this::manifestDeleted;
+        manifestsDataService.addDeletionListener(deletionListener);
+
+        // Daemon thread, so that a rebuild still running does not keep the JVM alive
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sos-metadata-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::rebuildIndex);
     }
 
     @Override
@@ -57,6 +92,8 @@ public class SOSMetadataService implements MetadataService {
         } catch (ManifestPersistException e) {
             throw new MetadataPersistException(e);
         }
+
+        index.addMetadata(metadata);
     }
 
     @Override
@@ -79,6 +116,75 @@ public class SOSMetadataService implements MetadataService {
         }
     }
 
+    @Override
+    public void linkVersion(Version version) {
+
+        IGUID metadata = version.getMetadata();
+        if (metadata != null && !metadata.isInvalid()) {
+            index.addVersion(version.guid(), metadata);
+        }
+    }
+
+    @Override
+    public Property getProperty(IGUID version, String property) throws MetadataNotFoundException {
+
+        IGUID metadata = index.getMetadata(version);
+        if (metadata == null) {
+
+            try {
+                Manifest manifest = manifestsDataService.getManifest(version);
+                if (manifest.getType() != ManifestType.VERSION) {
+                    throw new MetadataNotFoundException("Manifest " + version.toShortString() + " is not a version");
+                }
+
+                linkVersion((Version) manifest);
+                metadata = index.getMetadata(version);
+                if (metadata == null) {
+                    throw new MetadataNotFoundException("Unable to find metadata for version " + version.toShortString());
+                }
+
+            } catch (ManifestNotFoundException e) {
+                throw new MetadataNotFoundException("Unable to find version " + version.toShortString());
+            }
+        }
+
+        if (!index.isMetadataIndexed(metadata)) {
+            index.addMetadata(getMetadata(metadata));
+        }
+
+        return index.getProperty(metadata, property);
+    }
+
+    @Override
+    public Set<IGUID> findVersions(String property, String value) {
+
+        if (!indexReady) {
+            return scanVersions(property, p -> p.getType() == MetaType.STRING && value.equals(p.getValue_s()));
+        }
+
+        return index.findVersions(index.findMetadata(property, value));
+    }
+
+    @Override
+    public Set<IGUID> findVersions(String property, long from, long to) {
+
+        if (!indexReady) {
+            return scanVersions(property, p -> p.getType() == MetaType.LONG && p.getValue_l() >= from && p.getValue_l() <= to);
+        }
+
+        return index.findVersions(index.findMetadata(property, from, to));
+    }
+
+    @Override
+    public Set<IGUID> findVersions(String property, double from, double to) {
+
+        if (!indexReady) {
+            return scanVersions(property, p -> p.getType() == MetaType.DOUBLE && p.getValue_d() >= from && p.getValue_d() <= to);
+        }
+
+        return index.findVersions(index.findMetadata(property, from, to));
+    }
+
     @Override
     public void flush() {
         // DO NOTHING
@@ -86,6 +192,90 @@ public class SOSMetadataService implements MetadataService {
 
     @Override
     public void shutdown() {
-        // DO NOTHING
+
+        executor.shutdownNow();
+        manifestsDataService.removeDeletionListener(deletionListener);
+        index.clear();
+    }
+
+    /**
+     * Index the metadata and link the versions stored locally, as listed by the index of the manifests.
+     * The index is used for lookups only once it is rebuilt completely. The rebuild stops if the service is shut down.
+     */
+    private void rebuildIndex() {
+
+        long start = System.nanoTime();
+
+        int versions = 0;
+        for (IGUID invariant : manifestsDataService.getManifests(ManifestType.VERSION)) {
+            for (IGUID version : manifestsDataService.getVersions(invariant)) {
+                if (Thread.currentThread().isInterrupted()) return;
+
+                try {
+                    Manifest manifest = manifestsDataService.getManifest(version);
+                    if (manifest.getType() == ManifestType.VERSION) {
+                        linkVersion((Version) manifest);
+                        versions++;
+                    }
+                } catch (ManifestNotFoundException e) {
+                    SOS_LOG.log(LEVEL.WARN, "Unable to index version " + version.toShortString());
+                }
+            }
+        }
+
+        for (ManifestType type : new ManifestType[]{ ManifestType.METADATA, ManifestType.METADATA_PROTECTED }) {
+            for (IGUID metadata : manifestsDataService.getManifests(type)) {
+                if (Thread.currentThread().isInterrupted()) return;
+
+                try {
+                    index.addMetadata(getMetadata(metadata));
+                } catch (MetadataNotFoundException e) {
+                    SOS_LOG.log(LEVEL.WARN, "Unable to index metadata " + metadata.toShortString());
+                }
+            }
+        }
+
+        indexReady = true;
+        SOS_LOG.log(LEVEL.INFO, "Metadata index rebuilt in " + (System.nanoTime() - start) / 1000000 + "ms. " +
+                "Versions: " + versions + " Metadata: " + index.size());
+    }
+
+    /**
+     * Find the versions stored locally with a matching property by reading their manifests and metadata.
+     * Used until the index is rebuilt. Encrypted properties never match, as they are not indexed by value.
+     */
+    private Set<IGUID> scanVersions(String property, Predicate<Property> matches) {
+
+        Set<IGUID> versions = new LinkedHashSet<>();
+        for (IGUID invariant : manifestsDataService.getManifests(ManifestType.VERSION)) {
+            for (IGUID version : manifestsDataService.getVersions(invariant)) {
+
+                try {
+                    Property found = getProperty(version, property);
+                    if (found != null && !found.isEncrypted() && matches.test(found)) {
+                        versions.add(version);
+                    }
+                } catch (MetadataNotFoundException e) {
+                    // The version has no metadata
+                }
+            }
+        }
+
+        return versions;
+    }
+
+    private void manifestDeleted(Manifest manifest) {
+
+        switch(manifest.getType()) {
+            case VERSION:
+                index.removeVersion(manifest.guid());
+                break;
+            case METADATA:
+            case METADATA_PROTECTED:
+                index.removeMetadata(manifest.guid());
+                break;
+            default:
+                // Other manifests are not indexed
+        }
     }
 }
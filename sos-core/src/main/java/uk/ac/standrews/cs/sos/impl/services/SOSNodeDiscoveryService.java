@@ -18,6 +18,7 @@ package uk.ac.standrews.cs.sos.impl.services;
 
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.SettingsConfiguration;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodeNotFoundException;
@@ -25,12 +26,15 @@ import uk.ac.standrews.cs.sos.exceptions.node.NodeRegistrationException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodesCollectionException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodesDirectoryException;
 import uk.ac.standrews.cs.sos.impl.node.*;
+import uk.ac.standrews.cs.sos.impl.node.placement.LookupOrder;
+import uk.ac.standrews.cs.sos.impl.node.placement.PlacementStrategyFactory;
 import uk.ac.standrews.cs.sos.impl.protocol.TaskState;
 import uk.ac.standrews.cs.sos.impl.protocol.TasksQueue;
 import uk.ac.standrews.cs.sos.impl.protocol.tasks.InfoNode;
 import uk.ac.standrews.cs.sos.impl.protocol.tasks.PingNode;
 import uk.ac.standrews.cs.sos.interfaces.database.NodesDatabase;
 import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
+import uk.ac.standrews.cs.sos.interfaces.node.PlacementStrategy;
 import uk.ac.standrews.cs.sos.model.Manifest;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.model.NodesCollection;
@@ -40,6 +44,7 @@ import uk.ac.standrews.cs.sos.services.NodeDiscoveryService;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -62,14 +67,19 @@ public class SOSNodeDiscoveryService implements NodeDiscoveryService {
 
     private static final int NDS_SCHEDULER_PS = 1;
     private ScheduledExecutorService service;
-    private HashMap<IGUID, NodeStats> nodesStats;
+    private Map<IGUID, NodeStats> nodesStats;
+    private PlacementStrategy placementStrategy;
 
     public SOSNodeDiscoveryService(Node localNode, NodesDatabase nodesDatabase) throws NodesDirectoryException {
         localNodesDirectory = new LocalNodesDirectory(localNode, nodesDatabase);
 
-        nodesStats = new LinkedHashMap<>();
+        nodesStats = new ConcurrentHashMap<>();
 
-        boolean ping = SOSLocalNode.settings.getServices().getNds().isPing();
+        SettingsConfiguration.Settings.AdvanceServicesSettings.NDSSettings ndsSettings = SOSLocalNode.settings.getServices().getNds();
+        // The stats are looked up without creating them, so that ranking nodes does not leave stats for unknown nodes behind
+        placementStrategy = PlacementStrategyFactory.makePlacementStrategy(ndsSettings, guid -> nodesStats.get(guid), this::getZone);
+
+        boolean ping = ndsSettings.isPing();
         if (ping) {
             service = new ScheduledThreadPoolExecutor(NDS_SCHEDULER_PS);
             runCheckNodesPeriodic();
@@ -142,22 +152,11 @@ public class SOSNodeDiscoveryService implements NodeDiscoveryService {
     @Override
     public Set<IGUID> getNodes(NodeType type) {
 
-        switch(type) {
-            case STORAGE:
-                return localNodesDirectory.getNodes(Node::isStorage, NO_LIMIT);
-            case NDS:
-                return localNodesDirectory.getNodes(Node::isNDS, NO_LIMIT);
-            case CMS:
-                return localNodesDirectory.getNodes(Node::isCMS, NO_LIMIT);
-            case MDS:
-                return localNodesDirectory.getNodes(Node::isMDS, NO_LIMIT);
-            case RMS:
-                return localNodesDirectory.getNodes(Node::isRMS, NO_LIMIT);
-            case MMS:
-                return localNodesDirectory.getNodes(Node::isMMS, NO_LIMIT);
+        if (type == NodeType.UNKNOWN || type == NodeType.AGENT) {
+            return Collections.emptySet();
         }
 
-        return Collections.emptySet();
+        return localNodesDirectory.getNodes(type, NO_LIMIT);
     }
 
     @Override
@@ -249,7 +248,7 @@ public class SOSNodeDiscoveryService implements NodeDiscoveryService {
 
     @Override
     public Set<IGUID> getNodes(int limit) {
-        return localNodesDirectory.getNodes(p -> true, limit);
+        return localNodesDirectory.getNodes(limit);
     }
 
     @Override
@@ -290,11 +289,54 @@ public class SOSNodeDiscoveryService implements NodeDiscoveryService {
 
     @Override
     public NodeStats getNodeStats(IGUID guid) {
-        if (!nodesStats.containsKey(guid)) {
-            nodesStats.put(guid, new NodeStats(guid));
+        return nodesStats.computeIfAbsent(guid, NodeStats::new);
+    }
+
+    @Override
+    public List<IGUID> rankNodes(IGUID guid, Collection<IGUID> nodes, int limit) {
+
+        if (nodes == null || nodes.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<IGUID> ranked = placementStrategy.rank(guid, nodes, NO_LIMIT);
+        return LookupOrder.order(ranked, nodesStats::get, limit);
+    }
+
+    @Override
+    public NodesCollection placeReplicas(IGUID guid, NodesCollection nodesCollection, NodeType type, int limit) {
+
+        if (nodesCollection.type() == NodesCollectionType.LOCAL) {
+            return new NodesCollectionImpl(localNodesDirectory.getLocalNode().guid());
+        }
+
+        Set<IGUID> candidates;
+        if (nodesCollection.type() == NodesCollectionType.ANY) {
+            candidates = getNodes(type);
+        } else {
+            candidates = filterNodesCollection(nodesCollection, type, NO_LIMIT).nodesRefs();
+        }
+
+        if (candidates.isEmpty()) {
+            return new NodesCollectionImpl(new LinkedHashSet<>());
+        }
+
+        return new NodesCollectionImpl(new LinkedHashSet<>(placementStrategy.rank(guid, candidates, limit)));
+    }
+
+    /**
+     * The availability zone of a node is the one specified in the settings or, by default, its host.
+     */
+    private String getZone(IGUID guid) {
+
+        Map<String, String> zones = SOSLocalNode.settings.getServices().getNds().getZones();
+        String zone = zones != null ? zones.get(guid.toMultiHash()) : null;
+        if (zone != null) {
+            return zone;
         }
 
-        return nodesStats.get(guid);
+        Node node = localNodesDirectory.getNode(guid);
+        return node != null && node.getIP() != null ? node.getIP() : guid.toMultiHash();
     }
 
     /**
@@ -324,14 +366,12 @@ public class SOSNodeDiscoveryService implements NodeDiscoveryService {
             for(IGUID nodeRef:getNodes()) {
 
                 try {
-                    if (!nodesStats.containsKey(nodeRef)) {
-                        nodesStats.put(nodeRef, new NodeStats(nodeRef));
-                    }
+                    NodeStats nodeStats = getNodeStats(nodeRef);
 
                     Node node = getNode(nodeRef);
                     PingNode pingNode = new PingNode(node, UUID.randomUUID().toString(), true);
                     TasksQueue.instance().performSyncTask(pingNode);
-                    nodesStats.get(nodeRef).addMeasure(pingNode.getTimestamp(), pingNode.valid(), pingNode.getLatency());
+                    nodeStats.addMeasure(pingNode.getTimestamp(), pingNode.valid(), pingNode.getLatency());
 
                 } catch (NodeNotFoundException e) {
                     SOS_LOG.log(LEVEL.WARN, "Unable to ping node with GUID " + nodeRef.toShortString());
@@ -354,6 +394,6 @@ public class SOSNodeDiscoveryService implements NodeDiscoveryService {
         }
 
         localNodesDirectory.clear();
-        nodesStats = new LinkedHashMap<>();
+        nodesStats = new ConcurrentHashMap<>();
     }
 }
@@ -18,7 +18,9 @@ package uk.ac.standrews.cs.sos.impl.services;
 
 import uk.ac.standrews.cs.castore.data.Data;
 import uk.ac.standrews.cs.castore.data.EmptyData;
+import uk.ac.standrews.cs.castore.data.InputStreamData;
 import uk.ac.standrews.cs.castore.exceptions.BindingAbsentException;
+import uk.ac.standrews.cs.castore.exceptions.DataException;
 import uk.ac.standrews.cs.castore.interfaces.IDirectory;
 import uk.ac.standrews.cs.castore.interfaces.IFile;
 import uk.ac.standrews.cs.guid.GUIDFactory;
@@ -37,8 +39,8 @@ import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
 import uk.ac.standrews.cs.sos.exceptions.node.NodesCollectionException;
 import uk.ac.standrews.cs.sos.exceptions.protocol.SOSProtocolException;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
-import uk.ac.standrews.cs.sos.impl.data.AtomStorage;
-import uk.ac.standrews.cs.sos.impl.data.StoredAtomInfo;
+import uk.ac.standrews.cs.sos.impl.data.*;
+import uk.ac.standrews.cs.sos.impl.datamodel.ContentImpl;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.CompoundBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.directory.LocationsIndexImpl;
@@ -65,15 +67,16 @@ import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
 import javax.crypto.SecretKey;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
-import static uk.ac.standrews.cs.sos.constants.Internals.LOCATIONS_INDEX_FILE;
+import static uk.ac.standrews.cs.sos.constants.Internals.*;
 import static uk.ac.standrews.cs.sos.impl.datamodel.directory.LocationsIndexImpl.comparator;
+import static uk.ac.standrews.cs.sos.impl.services.SOSNodeDiscoveryService.NO_LIMIT;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
@@ -92,6 +95,8 @@ public class SOSStorageService implements StorageService {
     private final LocalStorage storage;
     private AtomStorage atomStorage;
     private LocationsIndex locationIndex;
+    private RemoteAtomsCache remoteAtomsCache;
+    private TextIndex textIndex; // null, if the text index is disabled
 
     public SOSStorageService(SettingsConfiguration.Settings.AdvanceServicesSettings.StorageSettings storageSettings, IGUID localNodeGUID, LocalStorage storage,
                              ManifestsDataService manifestsDataService, NodeDiscoveryService nodeDiscoveryService) throws ServiceException {
@@ -104,6 +109,8 @@ public class SOSStorageService implements StorageService {
         this.nodeDiscoveryService = nodeDiscoveryService;
 
         loadOrCreateLocationIndex();
+        loadOrCreateRemoteAtomsCache();
+        loadOrCreateTextIndex();
 
         atomStorage = new AtomStorage(localNodeGUID, storage);
     }
@@ -146,12 +153,21 @@ public class SOSStorageService implements StorageService {
             manifestsDataService.addManifest(atom);
         }
 
+        // The data of protected atoms is encrypted and is not indexed
+        if (textIndex != null && !atomBuilder.isDoNotStoreDataLocally() && !atomBuilder.isProtect() && !atomBuilder.isAlreadyProtected()) {
+            textIndex.add(guid);
+        }
+
         int replicationFactor = atomBuilder.getReplicationFactor() <= storageSettings.getMaxReplication() ? atomBuilder.getReplicationFactor() : storageSettings.getMaxReplication();
         if (replicationFactor > 0) {
 
             try (Data data = atomBuilder.getData()){
 
+                // All the suitable nodes are ranked, so that the replication can move on to the next node if one fails
                 NodesCollection codomain = atomBuilder.getReplicationNodes();
+                if (codomain != null) {
+                    codomain = nodeDiscoveryService.placeReplicas(guid, codomain, NodeType.STORAGE, NO_LIMIT);
+                }
                 boolean sequentialReplication = storageSettings.isSequentialReplication();
 
                 long start = System.nanoTime();
@@ -176,9 +192,38 @@ public class SOSStorageService implements StorageService {
 
         if (compoundBuilder.getType() != CompoundType.DATA) throw new DataStorageException();
 
-        // WORK IN PROGRESS
-        // Add data in chunks
-        return null;
+        AtomBuilder atomBuilder = compoundBuilder.getAtomBuilder();
+        if (atomBuilder == null || !atomBuilder.isBuildIsSet()) throw new DataStorageException("AtomBuilder not set correctly");
+
+        // Every protected chunk would be encrypted with its own random key, so that no chunks would ever be shared
+        if (atomBuilder.isProtect() || atomBuilder.isAlreadyProtected()) {
+            throw new DataStorageException("Protected data cannot be stored as chunks");
+        }
+
+        List<Atom> chunks = new LinkedList<>();
+        Set<Content> contents = new LinkedHashSet<>();
+
+        // Each chunk is stored as an atom. Chunks with the same GUID are stored only once
+        try (Data data = atomBuilder.getData();
+             ContentDefinedChunker chunker = new ContentDefinedChunker(data.getInputStream(), compoundBuilder.getChunkSize())) {
+
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+
+                AtomBuilder chunkBuilder = makeChunkBuilder(atomBuilder, chunk);
+                Atom atom = addAtom(chunkBuilder);
+                chunks.add(atom);
+
+                // The label keeps the order, allows the same chunk to appear more than once and records the length of the chunk
+                contents.add(new ContentImpl(ChunkedData.chunkLabel(chunks.size() - 1, chunk.length), atom.guid()));
+            }
+
+        } catch (IOException | IllegalArgumentException e) {
+            throw new DataStorageException(e);
+        }
+
+        compoundBuilder.setContents(contents);
+        return chunks;
     }
 
     @Override
@@ -188,9 +233,14 @@ public class SOSStorageService implements StorageService {
             IDirectory dataDirectory = storage.getAtomsDirectory();
             dataDirectory.remove(guid.toMultiHash());
 
+            remoteAtomsCache.remove(guid);
             locationIndex.deleteLocation(localNodeGUID, guid);
             manifestsDataService.deleteLocalLocation(guid);
 
+            if (textIndex != null) {
+                textIndex.remove(guid);
+            }
+
         } catch (DataStorageException | BindingAbsentException e) {
             throw new AtomNotFoundException(guid);
         }
@@ -238,21 +288,53 @@ public class SOSStorageService implements StorageService {
     @Override
     public Data getSecureAtomContent(SecureAtom atom, Role role) throws DataNotFoundException {
 
-        try (Data encryptedData = getAtomContent(atom.guid())){
-
-            if (atom.keysRoles().containsKey(role.guid())) {
-                String encryptedKey = atom.keysRoles().get(role.guid());
-                SecretKey decryptedKey = role.decrypt(encryptedKey);
-
-                return atomStorage.decryptData(encryptedData, decryptedKey);
-            } else {
+        try {
+            if (!atom.keysRoles().containsKey(role.guid())) {
                 throw new ProtectionException("Role/key not available for secure atom with GUID " + atom.guid().toShortString());
             }
 
-        } catch (IOException | AtomNotFoundException | ProtectionException e) {
+            String encryptedKey = atom.keysRoles().get(role.guid());
+            SecretKey decryptedKey = role.decrypt(encryptedKey);
+
+            // The encrypted data is closed when the decrypted data is closed
+            Data encryptedData = getAtomContent(atom.guid());
+            return atomStorage.decryptData(encryptedData, decryptedKey);
+
+        } catch (AtomNotFoundException | ProtectionException e) {
+            throw new DataNotFoundException();
+        }
+
+    }
+
+    @Override
+    public Data getCompoundContent(Compound compound) throws DataNotFoundException {
+
+        if (compound.getCompoundType() != CompoundType.DATA) {
             throw new DataNotFoundException();
         }
 
+        // Chunks are labelled with their position in the data and their length
+        List<Content> contents = new LinkedList<>(compound.getContents());
+        if (contents.stream().allMatch(c -> ChunkedData.chunkPosition(c.getLabel()) >= 0)) {
+            contents.sort(Comparator.comparingInt(c -> ChunkedData.chunkPosition(c.getLabel())));
+        }
+
+        List<IGUID> chunks = contents.stream()
+                .map(Content::getGUID)
+                .collect(Collectors.toList());
+
+        long size = 0;
+        for (Content content : contents) {
+            long length = ChunkedData.chunkLength(content.getLabel());
+            if (length < 0) {
+                size = -1; // Compounds created by previous versions of the SOS
+                break;
+            }
+
+            size += length;
+        }
+
+        return new ChunkedData(chunks, size, this::getChunkContent);
     }
 
     @Override
@@ -346,6 +428,21 @@ public class SOSStorageService implements StorageService {
         }
     }
 
+    @Override
+    public File getLocalAtomFile(IGUID guid) {
+
+        if (!atomExists(guid)) return null;
+
+        try {
+            IFile file = storage.createFile(storage.getAtomsDirectory(), guid.toMultiHash());
+            remoteAtomsCache.touch(guid);
+
+            return file.toFile();
+        } catch (DataStorageException e) {
+            return null;
+        }
+    }
+
     @Override
     public IGUID challenge(IGUID guid, String challenge) {
 
@@ -364,21 +461,100 @@ public class SOSStorageService implements StorageService {
         }
     }
 
+    @Override
+    public long cleanCache(long bytes) {
+
+        long freed = 0;
+        for (IGUID guid : remoteAtomsCache.toEvict(bytes)) {
+
+            try {
+                IDirectory dataDirectory = storage.getAtomsDirectory();
+                if (dataDirectory.contains(guid.toMultiHash())) {
+                    dataDirectory.remove(guid.toMultiHash());
+                }
+
+            } catch (DataStorageException | BindingAbsentException e) {
+                SOS_LOG.log(LEVEL.WARN, "Unable to evict cached atom " + guid.toShortString());
+                continue;
+            }
+
+            freed += remoteAtomsCache.remove(guid);
+            locationIndex.deleteLocation(localNodeGUID, guid);
+        }
+
+        SOS_LOG.log(LEVEL.INFO, "Evicted " + freed + " bytes of cached atoms");
+        return freed;
+    }
+
+    @Override
+    public boolean mayContainText(IGUID guid, String text) {
+
+        return textIndex == null || textIndex.mayContain(guid, text);
+    }
+
+    @Override
+    public int rebuildTextIndex() throws DataStorageException {
+
+        if (textIndex == null) {
+            throw new DataStorageException("The text index is disabled");
+        }
+
+        // Only the atoms with a plain (i.e. not protected) manifest are indexed
+        List<IGUID> atoms = new LinkedList<>();
+        String[] filenames = new File(storage.getAtomsDirectory().getPathname()).list();
+        for (String filename : filenames != null ? filenames : new String[0]) {
+
+            try {
+                IGUID guid = GUIDFactory.recreateGUID(filename);
+                if (manifestsDataService.getManifest(guid).getType() == ManifestType.ATOM) {
+                    atoms.add(guid);
+                }
+
+            } catch (GUIDGenerationException | ManifestNotFoundException e) {
+                // Not an atom (e.g. a temporary file) or the atom is unknown
+            }
+        }
+
+        SOS_LOG.log(LEVEL.INFO, "Rebuilding the text index from " + atoms.size() + " atoms");
+        textIndex.rebuild(atoms);
+
+        return atoms.size();
+    }
+
     @Override
     public void flush() {
 
+        try {
+            locationIndex.flush();
+        } catch (IOException e) {
+            SOS_LOG.log(LEVEL.ERROR, "Unable to flush LocationIndex");
+        }
+
         try {
             IDirectory nodeDir = storage.getNodeDirectory();
-            IFile file = storage.createFile(nodeDir, LOCATIONS_INDEX_FILE);
-            locationIndex.persist(file);
+            IFile file = storage.createFile(nodeDir, ATOMS_CACHE_FILE);
+            remoteAtomsCache.persist(file);
         } catch (IOException | DataStorageException e) {
-            SOS_LOG.log(LEVEL.ERROR, "Unable to flush LocationIndex");
+            SOS_LOG.log(LEVEL.ERROR, "Unable to flush the cache of remote atoms");
+        }
+
+        if (textIndex != null) {
+            textIndex.flush();
         }
     }
 
     @Override
     public void shutdown() {
-        locationIndex.clear();
+
+        try {
+            locationIndex.close();
+        } catch (IOException e) {
+            SOS_LOG.log(LEVEL.ERROR, "Unable to close LocationIndex");
+        }
+
+        if (textIndex != null) {
+            textIndex.shutdown();
+        }
     }
 
     @Override
@@ -414,6 +590,21 @@ public class SOSStorageService implements StorageService {
 
                 }
 
+                IGUID machineID = ((SOSLocation) location).getMachineID();
+                if (machineID.equals(localNodeGUID)) {
+                    remoteAtomsCache.touch(atom.guid());
+
+                } else if (storageSettings.isCacheRemoteAtoms() && !atomExists(atom.guid())) {
+
+                    // The read is measured once the data has been fully read and cached, as its size is not known before
+                    Data data = fetchAndCache(atom.guid(), location, start);
+                    if (data != null) {
+                        return data;
+                    }
+
+                    continue; // The data at this location could not be fetched or verified
+                }
+
             } else {
 
                 if (nodesCollection.type() == NodesCollectionType.LOCAL || nodesCollection.type() == NodesCollectionType.SPECIFIED) {
@@ -436,6 +627,36 @@ public class SOSStorageService implements StorageService {
     }
 
 
+    /**
+     * Read-through cache for atoms stored in other nodes.
+     *
+     * The data is written to the local atoms directory while the caller reads it and it is hashed on the way,
+     * so that it is kept only if it matches the GUID of the atom. The read fails at the end of the data otherwise.
+     * The local copy is indexed as a CACHE bundle once stored, so that subsequent reads are served locally.
+     * Cached atoms are evicted by the NodeMaintainer when the atoms directory grows beyond its limit (see cleanCache).
+     *
+     * @param guid of the atom
+     * @param location of the atom in another node
+     * @param start of the read (ns), used to measure the read once the data has been cached
+     * @return the data, cached while it is read, or null if the data could not be fetched
+     */
+    private Data fetchAndCache(IGUID guid, Location location, long start) {
+
+        try {
+            return atomStorage.storeVerifiedWhileReading(guid, new LocationData(location), BundleTypes.CACHE, storedAtomInfo -> {
+                addLocation(guid, storedAtomInfo.getLocationBundle());
+                remoteAtomsCache.add(guid, storedAtomInfo.getSize());
+
+                long duration = System.nanoTime() - start;
+                InstrumentFactory.instance().measure(StatsTYPE.io, StatsTYPE.read_atom, Long.toString(storedAtomInfo.getSize()), duration);
+            });
+
+        } catch (DataStorageException e) {
+            SOS_LOG.log(LEVEL.WARN, "Unable to cache atom " + guid.toShortString() + " from location " + location.toString() + " - " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Adds the data part of the atom to the SOS
      *
@@ -471,6 +692,37 @@ public class SOSStorageService implements StorageService {
         return retval;
     }
 
+    // Chunks are plain atoms. Protected atoms are not returned as chunks, since their data would be encrypted
+    private Data getChunkContent(IGUID guid) throws AtomNotFoundException {
+
+        try {
+            Manifest manifest = manifestsDataService.getManifest(guid);
+            if (manifest.getType() != ManifestType.ATOM) {
+                throw new AtomNotFoundException(guid);
+            }
+
+            return getAtomContent((Atom) manifest);
+
+        } catch (ManifestNotFoundException e) {
+            throw new AtomNotFoundException(guid);
+        }
+    }
+
+    private AtomBuilder makeChunkBuilder(AtomBuilder atomBuilder, byte[] chunk) {
+
+        AtomBuilder chunkBuilder = new AtomBuilder()
+                .setData(new InputStreamData(new ByteArrayInputStream(chunk)))
+                .setBundleType(atomBuilder.getBundleType())
+                .setReplicationFactor(atomBuilder.getReplicationFactor())
+                .setReplicationNodes(atomBuilder.getReplicationNodes())
+                .setDelegateReplication(atomBuilder.isDelegateReplication())
+                .setDoNotStoreDataLocally(atomBuilder.isDoNotStoreDataLocally())
+                .setDoNotStoreManifestLocally(atomBuilder.isDoNotStoreManifestLocally())
+                .setSetLocationAndProvenance(false);
+
+        return chunkBuilder;
+    }
+
     private StoredAtomInfo generateGUIDOnly(AtomBuilder atomBuilder) throws DataStorageException {
 
         StoredAtomInfo storedAtomInfo = new StoredAtomInfo();
@@ -492,18 +744,59 @@ public class SOSStorageService implements StorageService {
         // Load/Create the locations Index impl
         try {
             IDirectory cacheDir = storage.getNodeDirectory();
-            IFile file = storage.createFile(cacheDir, LOCATIONS_INDEX_FILE);
+            IFile checkpointFile = storage.createFile(cacheDir, LOCATIONS_INDEX_FILE);
+            IFile logFile = storage.createFile(cacheDir, LOCATIONS_INDEX_LOG_FILE);
+
+            locationIndex = LocationsIndexImpl.load(checkpointFile.toFile(), logFile.toFile());
+
+        } catch (DataStorageException | IOException e) {
+            throw new ServiceException(ServiceException.SERVICE.STORAGE, "Unable to create the LocationIndex");
+        }
+    }
+
+    private void loadOrCreateRemoteAtomsCache() throws ServiceException {
+
+        try {
+            IDirectory cacheDir = storage.getNodeDirectory();
+            IFile file = storage.createFile(cacheDir, ATOMS_CACHE_FILE);
             if (file.exists()) {
-                locationIndex = (LocationsIndex) Persistence.load(file);
+                remoteAtomsCache = (RemoteAtomsCache) Persistence.load(file);
             }
         } catch (DataStorageException | ClassNotFoundException | IOException e) {
-            throw new ServiceException(ServiceException.SERVICE.STORAGE, "Unable to create the LocationIndex");
+            throw new ServiceException(ServiceException.SERVICE.STORAGE, "Unable to create the cache of remote atoms");
         } catch (IgnoreException e) {
-            SOS_LOG.log(LEVEL.WARN, "Ignore exception on locations index loading");
+            SOS_LOG.log(LEVEL.WARN, "Ignore exception on remote atoms cache loading");
+        }
+
+        if (remoteAtomsCache == null) {
+            remoteAtomsCache = new RemoteAtomsCache();
+        }
+    }
+
+    private void loadOrCreateTextIndex() throws ServiceException {
+
+        if (!storageSettings.isTextIndex()) return;
+
+        try {
+            IDirectory nodeDir = storage.getNodeDirectory();
+            IFile snapshotFile = storage.createFile(nodeDir, TEXT_INDEX_FILE);
+            IFile logFile = storage.createFile(nodeDir, TEXT_INDEX_LOG_FILE);
+
+            textIndex = new TextIndex(snapshotFile.toFile(), logFile.toFile(), this::getLocalAtomData);
+
+        } catch (DataStorageException | IOException e) {
+            throw new ServiceException(ServiceException.SERVICE.STORAGE, "Unable to create the text index");
         }
+    }
+
+    private Data getLocalAtomData(IGUID guid) throws IOException {
+
+        try {
+            IFile file = storage.createFile(storage.getAtomsDirectory(), guid.toMultiHash());
+            return file.getData();
 
-        if (locationIndex == null) {
-            locationIndex = new LocationsIndexImpl();
+        } catch (DataStorageException | DataException e) {
+            throw new IOException(e);
         }
     }
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory-compact and immutable representation of a GUID, to be used in the in-memory indices.
+ *
+ * The digest of a hex-encoded multihash (e.g. SHA256_16_...) of up to 256 bits is stored in WORDS longs,
+ * while the algorithm/base prefix of the multihash and the length of the digest are dictionary-encoded in the format.
+ * The hash code is computed once. Unlike an IGUID, a CompactGUID has no arrays or strings, so that it can also be
+ * stored in the primitive arrays of GUIDIntMap and GUIDSetMap.
+ *
+ * Other multihashes (not hex-encoded or with longer digests) are interned and have the RAW format.
+ * The interned multihashes are never released, so they should be rare.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public final class CompactGUID {
+
+    public static final int WORDS = 4;
+    private static final int MAX_DIGEST_BYTES = WORDS * Long.BYTES;
+
+    // Format of the empty slots of the maps. No GUID has this format
+    static final short NONE = 0;
+    // Format of the interned multihashes. The first word is the id of the multihash
+    static final short RAW = 1;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // [prefix + digest length --> format] and [format --> prefix/digest length]
+    private static final Map<String, Short> FORMAT_IDS = new ConcurrentHashMap<>();
+    private static volatile String[] formatPrefixes = new String[] { null, null };
+    private static volatile int[] formatLengths = new int[] { 0, 0 };
+
+    // [multihash --> id] and [id --> multihash] of the RAW GUIDs
+    private static final Map<String, Long> RAW_IDS = new ConcurrentHashMap<>();
+    private static final List<String> RAW_MULTIHASHES = new ArrayList<>();
+
+    private final long w0, w1, w2, w3;
+    private final short format;
+    private final int hash;
+
+    CompactGUID(long w0, long w1, long w2, long w3, short format) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.format = format;
+        this.hash = hash(w0, w1, w2, w3, format);
+    }
+
+    /**
+     * @param guid to represent
+     * @return the compact representation of the guid
+     */
+    public static CompactGUID of(IGUID guid) {
+        return of(guid.toMultiHash());
+    }
+
+    /**
+     * @param multihash of the GUID (e.g. SHA256_16_aaaa...)
+     * @return the compact representation of the GUID
+     */
+    public static CompactGUID of(String multihash) {
+
+        int separator = multihash.lastIndexOf('_');
+        int digits = multihash.length() - separator - 1;
+
+        if (separator <= 0 || digits == 0 || digits % 2 != 0 || digits / 2 > MAX_DIGEST_BYTES || !isHex(multihash, separator + 1)) {
+            return raw(multihash);
+        }
+
+        short format = format(multihash.substring(0, separator), digits / 2);
+        if (format == RAW) {
+            return raw(multihash);
+        }
+
+        long[] words = new long[WORDS];
+        for (int i = 0; i < digits / 2; i++) {
+            int pos = separator + 1 + 2 * i;
+            long b = (Character.digit(multihash.charAt(pos), 16) << 4) | Character.digit(multihash.charAt(pos + 1), 16);
+            words[i / Long.BYTES] |= b << (8 * (Long.BYTES - 1 - i % Long.BYTES));
+        }
+
+        return new CompactGUID(words[0], words[1], words[2], words[3], format);
+    }
+
+    /**
+     * @return the IGUID represented by this CompactGUID
+     */
+    public IGUID toGUID() {
+
+        try {
+            return GUIDFactory.recreateGUID(toMultiHash());
+        } catch (GUIDGenerationException e) {
+            // The multihash was obtained from a valid GUID
+            throw new IllegalStateException("Unable to recreate GUID " + toMultiHash(), e);
+        }
+    }
+
+    public String toMultiHash() {
+
+        if (format == RAW) {
+            synchronized (RAW_MULTIHASHES) {
+                return RAW_MULTIHASHES.get((int) w0);
+            }
+        }
+
+        String prefix = formatPrefixes[format];
+        int length = formatLengths[format];
+
+        char[] multihash = new char[prefix.length() + 1 + length * 2];
+        prefix.getChars(0, prefix.length(), multihash, 0);
+        int pos = prefix.length();
+        multihash[pos++] = '_';
+        for (int i = 0; i < length; i++) {
+            int b = (int) (word(i / Long.BYTES) >>> (8 * (Long.BYTES - 1 - i % Long.BYTES))) & 0xff;
+            multihash[pos++] = HEX_DIGITS[b >> 4];
+            multihash[pos++] = HEX_DIGITS[b & 0x0f];
+        }
+
+        return new String(multihash);
+    }
+
+    long word(int index) {
+
+        switch (index) {
+            case 0: return w0;
+            case 1: return w1;
+            case 2: return w2;
+            case 3: return w3;
+            default: throw new IndexOutOfBoundsException("Word " + index);
+        }
+    }
+
+    short format() {
+        return format;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) return true;
+        if (!(o instanceof CompactGUID)) return false;
+
+        CompactGUID that = (CompactGUID) o;
+        return hash == that.hash && format == that.format &&
+                w0 == that.w0 && w1 == that.w1 && w2 == that.w2 && w3 == that.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toMultiHash();
+    }
+
+    static int hash(long w0, long w1, long w2, long w3, short format) {
+
+        long h = format;
+        h = h * 31 + w0;
+        h = h * 31 + w1;
+        h = h * 31 + w2;
+        h = h * 31 + w3;
+
+        // Finalizer of MurmurHash3, so that all bits of the words affect the hash
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return (int) h;
+    }
+
+    private static boolean isHex(String multihash, int start) {
+
+        for (int i = start; i < multihash.length(); i++) {
+            char c = multihash.charAt(i);
+            // Lower case only, so that the multihash is recreated exactly
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) return false;
+        }
+
+        return true;
+    }
+
+    private static short format(String prefix, int digestLength) {
+
+        Short format = FORMAT_IDS.get(prefix + "/" + digestLength);
+        if (format != null) return format;
+
+        synchronized (FORMAT_IDS) {
+            format = FORMAT_IDS.get(prefix + "/" + digestLength);
+            if (format != null) return format;
+
+            int id = formatPrefixes.length;
+            if (id > Short.MAX_VALUE) return RAW;
+
+            String[] prefixes = Arrays.copyOf(formatPrefixes, id + 1);
+            int[] lengths = Arrays.copyOf(formatLengths, id + 1);
+            prefixes[id] = prefix;
+            lengths[id] = digestLength;
+            formatPrefixes = prefixes;
+            formatLengths = lengths;
+
+            FORMAT_IDS.put(prefix + "/" + digestLength, (short) id);
+            return (short) id;
+        }
+    }
+
+    private static CompactGUID raw(String multihash) {
+
+        long id = RAW_IDS.computeIfAbsent(multihash, m -> {
+            synchronized (RAW_MULTIHASHES) {
+                RAW_MULTIHASHES.add(m);
+                return (long) RAW_MULTIHASHES.size() - 1;
+            }
+        });
+
+        return new CompactGUID(id, 0, 0, 0, RAW);
+    }
+}
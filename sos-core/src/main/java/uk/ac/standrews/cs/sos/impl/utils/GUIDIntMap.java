@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import static uk.ac.standrews.cs.sos.impl.utils.CompactGUID.NONE;
+import static uk.ac.standrews.cs.sos.impl.utils.CompactGUID.WORDS;
+
+/**
+ * Open-addressing map from GUIDs to ints.
+ *
+ * The keys are stored inline in primitive arrays (see CompactGUID), so that the map has no objects per entry.
+ * Collisions are resolved with linear probing and entries are removed with backward shifting, so no tombstones are left.
+ *
+ * The map is not thread-safe.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class GUIDIntMap {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int missingValue;
+
+    private long[] words;
+    private short[] formats;
+    private int[] hashes;
+    private int[] values;
+
+    private int mask;
+    private int size;
+    private int threshold;
+
+    /**
+     * Map returning -1 for missing keys
+     */
+    public GUIDIntMap() {
+        this(-1);
+    }
+
+    /**
+     * @param missingValue returned for missing keys
+     */
+    public GUIDIntMap(int missingValue) {
+        this(missingValue, MIN_CAPACITY);
+    }
+
+    /**
+     * @param missingValue returned for missing keys
+     * @param expectedSize number of entries that can be added without resizing the map
+     */
+    public GUIDIntMap(int missingValue, int expectedSize) {
+        this.missingValue = missingValue;
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getMissingValue() {
+        return missingValue;
+    }
+
+    public boolean containsKey(CompactGUID key) {
+        return slot(key) >= 0;
+    }
+
+    /**
+     * @param key to look up
+     * @return the value of the key, or the missing value if the key is not in the map
+     */
+    public int get(CompactGUID key) {
+
+        int slot = slot(key);
+        return slot >= 0 ? values[slot] : missingValue;
+    }
+
+    /**
+     * @param key to add or update
+     * @param value of the key
+     * @return the previous value of the key, or the missing value if the key was not in the map
+     */
+    public int put(CompactGUID key, int value) {
+
+        int slot = slot(key);
+        if (slot >= 0) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        if (size >= threshold) {
+            resize(words.length / WORDS * 2);
+            slot = slot(key);
+        }
+
+        slot = -slot - 1;
+        for (int i = 0; i < WORDS; i++) {
+            words[slot * WORDS + i] = key.word(i);
+        }
+        formats[slot] = key.format();
+        hashes[slot] = key.hashCode();
+        values[slot] = value;
+        size++;
+
+        return missingValue;
+    }
+
+    /**
+     * @param key to remove
+     * @return the value of the key, or the missing value if the key was not in the map
+     */
+    public int remove(CompactGUID key) {
+
+        int slot = slot(key);
+        if (slot < 0) return missingValue;
+
+        int value = values[slot];
+        removeSlot(slot);
+        size--;
+
+        return value;
+    }
+
+    public void clear() {
+
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Iterate over the entries of the map, in no particular order.
+     * The map must not be modified while iterating.
+     *
+     * @param consumer of the entries
+     */
+    public void forEach(EntryConsumer consumer) {
+
+        for (int slot = 0; slot < formats.length; slot++) {
+            if (formats[slot] != NONE) {
+                consumer.accept(key(slot), values[slot]);
+            }
+        }
+    }
+
+    public interface EntryConsumer {
+        void accept(CompactGUID key, int value);
+    }
+
+    /**
+     * @return the slot of the key, or -(insertion slot + 1) if the key is not in the map
+     */
+    private int slot(CompactGUID key) {
+
+        int hash = key.hashCode();
+        short format = key.format();
+
+        int slot = hash & mask;
+        while (formats[slot] != NONE) {
+            if (hashes[slot] == hash && formats[slot] == format && wordsEqual(slot, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -slot - 1;
+    }
+
+    private boolean wordsEqual(int slot, CompactGUID key) {
+
+        int offset = slot * WORDS;
+        for (int i = 0; i < WORDS; i++) {
+            if (words[offset + i] != key.word(i)) return false;
+        }
+
+        return true;
+    }
+
+    private CompactGUID key(int slot) {
+
+        int offset = slot * WORDS;
+        return new CompactGUID(words[offset], words[offset + 1], words[offset + 2], words[offset + 3], formats[slot]);
+    }
+
+    // Backward-shift deletion: entries following the removed one are moved back, if their probe sequence allows it
+    private void removeSlot(int slot) {
+
+        int gap = slot;
+        int current = slot;
+        while (true) {
+            current = (current + 1) & mask;
+            if (formats[current] == NONE) break;
+
+            int home = hashes[current] & mask;
+            boolean homeBetweenGapAndCurrent = gap <= current ? (home > gap && home <= current) : (home > gap || home <= current);
+            if (!homeBetweenGapAndCurrent) {
+                move(current, gap);
+                gap = current;
+            }
+        }
+
+        formats[gap] = NONE;
+    }
+
+    private void move(int from, int to) {
+
+        System.arraycopy(words, from * WORDS, words, to * WORDS, WORDS);
+        formats[to] = formats[from];
+        hashes[to] = hashes[from];
+        values[to] = values[from];
+    }
+
+    private void resize(int capacity) {
+
+        long[] oldWords = words;
+        short[] oldFormats = formats;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int oldSlot = 0; oldSlot < oldFormats.length; oldSlot++) {
+            if (oldFormats[oldSlot] == NONE) continue;
+
+            int slot = oldHashes[oldSlot] & mask;
+            while (formats[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+
+            System.arraycopy(oldWords, oldSlot * WORDS, words, slot * WORDS, WORDS);
+            formats[slot] = oldFormats[oldSlot];
+            hashes[slot] = oldHashes[oldSlot];
+            values[slot] = oldValues[oldSlot];
+        }
+    }
+
+    private void allocate(int capacity) {
+
+        words = new long[capacity * WORDS];
+        formats = new short[capacity];
+        hashes = new int[capacity];
+        values = new int[capacity];
+
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int capacityFor(int expectedSize) {
+
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+}
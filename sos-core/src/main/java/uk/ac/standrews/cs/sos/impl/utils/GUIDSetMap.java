@@ -0,0 +1,418 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static uk.ac.standrews.cs.sos.impl.utils.CompactGUID.WORDS;
+
+/**
+ * Map from GUIDs to insertion-ordered sets of GUIDs, with no objects per entry.
+ *
+ * The keys are mapped to ids with a GUIDIntMap. The elements of all sets are stored in primitive arrays and are linked
+ * in a list per key, so that the insertion order is preserved. An open-addressing index on [key id, element] makes
+ * adding, removing and looking up an element constant-time.
+ * A key may be mapped to an empty set.
+ *
+ * The map is not thread-safe.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class GUIDSetMap {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int NIL = -1;
+
+    private GUIDIntMap keys;
+
+    // Per key id
+    private int[] heads;
+    private int[] tails;
+    private int[] counts;
+    private int[] freeKeyIds;
+    private int numberOfFreeKeyIds;
+    private int nextKeyId;
+
+    // Per element id
+    private long[] elementWords;
+    private short[] elementFormats;
+    private int[] elementHashes;
+    private int[] elementKeys;
+    private int[] next;
+    private int[] prev;
+    private int freeElements;
+    private int nextElement;
+
+    // Element id + 1, or 0 for the empty slots
+    private int[] index;
+    private int indexMask;
+    private int indexSize;
+    private int indexThreshold;
+
+    public GUIDSetMap() {
+        clear();
+    }
+
+    /**
+     * @return the number of keys in the map
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public boolean containsKey(CompactGUID key) {
+        return keys.containsKey(key);
+    }
+
+    /**
+     * Map the key to an empty set, if the key is not in the map already
+     *
+     * @param key to add
+     */
+    public void addKey(CompactGUID key) {
+        keyId(key);
+    }
+
+    /**
+     * Add the value to the set of the key. The key is added to the map if needed
+     *
+     * @param key of the set
+     * @param value to add
+     * @return true if the value was not in the set
+     */
+    public boolean add(CompactGUID key, CompactGUID value) {
+
+        int keyId = keyId(key);
+
+        int slot = slot(keyId, value);
+        if (slot >= 0) return false;
+
+        int element = newElement(keyId, value);
+        if (tails[keyId] == NIL) {
+            heads[keyId] = element;
+        } else {
+            next[tails[keyId]] = element;
+            prev[element] = tails[keyId];
+        }
+        tails[keyId] = element;
+        counts[keyId]++;
+
+        index[-slot - 1] = element + 1;
+        if (++indexSize >= indexThreshold) {
+            resizeIndex(index.length * 2);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the value from the set of the key. The key stays in the map, even if its set becomes empty
+     *
+     * @param key of the set
+     * @param value to remove
+     * @return true if the value was in the set
+     */
+    public boolean remove(CompactGUID key, CompactGUID value) {
+
+        int keyId = keys.get(key);
+        if (keyId == NIL) return false;
+
+        int slot = slot(keyId, value);
+        if (slot < 0) return false;
+
+        int element = index[slot] - 1;
+        removeIndexSlot(slot);
+        unlink(keyId, element);
+
+        return true;
+    }
+
+    public boolean contains(CompactGUID key, CompactGUID value) {
+
+        int keyId = keys.get(key);
+        return keyId != NIL && slot(keyId, value) >= 0;
+    }
+
+    /**
+     * @param key of the set
+     * @return the size of the set of the key, or 0 if the key is not in the map
+     */
+    public int count(CompactGUID key) {
+
+        int keyId = keys.get(key);
+        return keyId == NIL ? 0 : counts[keyId];
+    }
+
+    /**
+     * @param key of the set
+     * @return the elements of the set in insertion order, or null if the key is not in the map
+     */
+    public List<CompactGUID> get(CompactGUID key) {
+
+        int keyId = keys.get(key);
+        if (keyId == NIL) return null;
+
+        List<CompactGUID> values = new ArrayList<>(counts[keyId]);
+        for (int element = heads[keyId]; element != NIL; element = next[element]) {
+            values.add(element(element));
+        }
+
+        return values;
+    }
+
+    /**
+     * @param key of the set
+     * @return the first element of the set of the key, or null if the key is not in the map or its set is empty
+     */
+    public CompactGUID first(CompactGUID key) {
+
+        int keyId = keys.get(key);
+        if (keyId == NIL || heads[keyId] == NIL) return null;
+
+        return element(heads[keyId]);
+    }
+
+    /**
+     * Remove the key and its set from the map
+     *
+     * @param key to remove
+     * @return true if the key was in the map
+     */
+    public boolean removeKey(CompactGUID key) {
+
+        int keyId = keys.remove(key);
+        if (keyId == NIL) return false;
+
+        while (heads[keyId] != NIL) {
+            int element = heads[keyId];
+            removeIndexSlot(slot(keyId, element(element)));
+            unlink(keyId, element);
+        }
+
+        if (numberOfFreeKeyIds == freeKeyIds.length) {
+            freeKeyIds = Arrays.copyOf(freeKeyIds, freeKeyIds.length * 2);
+        }
+        freeKeyIds[numberOfFreeKeyIds++] = keyId;
+
+        return true;
+    }
+
+    /**
+     * Iterate over the keys of the map, in no particular order.
+     * The map must not be modified while iterating.
+     *
+     * @param consumer of the keys
+     */
+    public void forEachKey(Consumer<CompactGUID> consumer) {
+        keys.forEach((key, keyId) -> consumer.accept(key));
+    }
+
+    public void clear() {
+
+        keys = new GUIDIntMap(NIL);
+
+        heads = new int[MIN_CAPACITY];
+        tails = new int[MIN_CAPACITY];
+        counts = new int[MIN_CAPACITY];
+        freeKeyIds = new int[MIN_CAPACITY];
+        numberOfFreeKeyIds = 0;
+        nextKeyId = 0;
+
+        elementWords = new long[MIN_CAPACITY * WORDS];
+        elementFormats = new short[MIN_CAPACITY];
+        elementHashes = new int[MIN_CAPACITY];
+        elementKeys = new int[MIN_CAPACITY];
+        next = new int[MIN_CAPACITY];
+        prev = new int[MIN_CAPACITY];
+        freeElements = NIL;
+        nextElement = 0;
+
+        index = new int[MIN_CAPACITY];
+        indexMask = MIN_CAPACITY - 1;
+        indexSize = 0;
+        indexThreshold = (int) (MIN_CAPACITY * LOAD_FACTOR);
+    }
+
+    private int keyId(CompactGUID key) {
+
+        int keyId = keys.get(key);
+        if (keyId != NIL) return keyId;
+
+        if (numberOfFreeKeyIds > 0) {
+            keyId = freeKeyIds[--numberOfFreeKeyIds];
+        } else {
+            keyId = nextKeyId++;
+            if (keyId == heads.length) {
+                heads = Arrays.copyOf(heads, keyId * 2);
+                tails = Arrays.copyOf(tails, keyId * 2);
+                counts = Arrays.copyOf(counts, keyId * 2);
+            }
+        }
+
+        heads[keyId] = NIL;
+        tails[keyId] = NIL;
+        counts[keyId] = 0;
+        keys.put(key, keyId);
+
+        return keyId;
+    }
+
+    private int newElement(int keyId, CompactGUID value) {
+
+        int element;
+        if (freeElements != NIL) {
+            element = freeElements;
+            freeElements = next[element];
+        } else {
+            element = nextElement++;
+            if (element == elementFormats.length) {
+                int capacity = element * 2;
+                elementWords = Arrays.copyOf(elementWords, capacity * WORDS);
+                elementFormats = Arrays.copyOf(elementFormats, capacity);
+                elementHashes = Arrays.copyOf(elementHashes, capacity);
+                elementKeys = Arrays.copyOf(elementKeys, capacity);
+                next = Arrays.copyOf(next, capacity);
+                prev = Arrays.copyOf(prev, capacity);
+            }
+        }
+
+        for (int i = 0; i < WORDS; i++) {
+            elementWords[element * WORDS + i] = value.word(i);
+        }
+        elementFormats[element] = value.format();
+        elementHashes[element] = value.hashCode();
+        elementKeys[element] = keyId;
+        next[element] = NIL;
+        prev[element] = NIL;
+
+        return element;
+    }
+
+    private void unlink(int keyId, int element) {
+
+        if (prev[element] == NIL) {
+            heads[keyId] = next[element];
+        } else {
+            next[prev[element]] = next[element];
+        }
+
+        if (next[element] == NIL) {
+            tails[keyId] = prev[element];
+        } else {
+            prev[next[element]] = prev[element];
+        }
+
+        counts[keyId]--;
+
+        next[element] = freeElements;
+        freeElements = element;
+    }
+
+    private CompactGUID element(int element) {
+
+        int offset = element * WORDS;
+        return new CompactGUID(elementWords[offset], elementWords[offset + 1], elementWords[offset + 2],
+                elementWords[offset + 3], elementFormats[element]);
+    }
+
+    /**
+     * @return the index slot of the value in the set of the key, or -(insertion slot + 1) if the value is not in the set
+     */
+    private int slot(int keyId, CompactGUID value) {
+
+        int hash = value.hashCode();
+        short format = value.format();
+
+        int slot = mix(keyId, hash) & indexMask;
+        while (index[slot] != 0) {
+            int element = index[slot] - 1;
+            if (elementKeys[element] == keyId && elementHashes[element] == hash && elementFormats[element] == format &&
+                    wordsEqual(element, value)) {
+                return slot;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+
+        return -slot - 1;
+    }
+
+    private boolean wordsEqual(int element, CompactGUID value) {
+
+        int offset = element * WORDS;
+        for (int i = 0; i < WORDS; i++) {
+            if (elementWords[offset + i] != value.word(i)) return false;
+        }
+
+        return true;
+    }
+
+    // Backward-shift deletion, as in GUIDIntMap
+    private void removeIndexSlot(int slot) {
+
+        int gap = slot;
+        int current = slot;
+        while (true) {
+            current = (current + 1) & indexMask;
+            if (index[current] == 0) break;
+
+            int element = index[current] - 1;
+            int home = mix(elementKeys[element], elementHashes[element]) & indexMask;
+            boolean homeBetweenGapAndCurrent = gap <= current ? (home > gap && home <= current) : (home > gap || home <= current);
+            if (!homeBetweenGapAndCurrent) {
+                index[gap] = index[current];
+                gap = current;
+            }
+        }
+
+        index[gap] = 0;
+        indexSize--;
+    }
+
+    private void resizeIndex(int capacity) {
+
+        int[] oldIndex = index;
+
+        index = new int[capacity];
+        indexMask = capacity - 1;
+        indexThreshold = (int) (capacity * LOAD_FACTOR);
+
+        for (int entry : oldIndex) {
+            if (entry == 0) continue;
+
+            int element = entry - 1;
+            int slot = mix(elementKeys[element], elementHashes[element]) & indexMask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            index[slot] = entry;
+        }
+    }
+
+    private static int mix(int keyId, int hash) {
+
+        int h = hash ^ (keyId * 0x9e3779b9);
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded, thread-safe, least-recently-used cache.
+ *
+ * The cache is bounded either by number of entries or by the total weight of its values (e.g. estimated bytes),
+ * as given by a weigher function. A bound by number of entries is simply a bound by weight where every value weighs 1.
+ *
+ * The cache is split into segments, each being an access-ordered LinkedHashMap guarded by its own lock.
+ * All operations are O(1) (amortised, when evicting) and only lock the segment of the given key.
+ * Eviction is LRU within each segment, which approximates a global LRU for large caches.
+ * Small caches (less than 2 * MIN_SEGMENT_SIZE entries/weight) use a single segment and are therefore strictly LRU.
+ * A value that weighs more than its segment is not retained.
+ *
+ * Null keys and values are not allowed.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LRUCache<K, V> {
+
+    // Maximum number of entries kept in the cache at one time
+    public static final int DEFAULT_MAX_SIZE = 8192;
+
+    private static final int MIN_SEGMENT_SIZE = 512;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final long maxWeight;
+    private final Segment<K, V>[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LRUCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of entries
+     */
+    public LRUCache(int maxSize) {
+        this(maxSize, value -> 1);
+    }
+
+    /**
+     * @param maxWeight maximum total weight of the values
+     * @param weigher gives the weight of a value. The weight of a value must not change while it is in the cache.
+     */
+    @SuppressWarnings("unchecked")
+    public LRUCache(long maxWeight, ToLongFunction<? super V> weigher) {
+
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("The size of the cache must be positive");
+        }
+
+        this.maxWeight = maxWeight;
+
+        int numberOfSegments = 1;
+        while (numberOfSegments < MAX_SEGMENTS && maxWeight / (numberOfSegments * 2) >= MIN_SEGMENT_SIZE) {
+            numberOfSegments *= 2;
+        }
+
+        long segmentWeight = maxWeight / numberOfSegments;
+        segments = new Segment[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            // Spread the remainder, so that the total capacity is exactly maxWeight
+            long capacity = segmentWeight + (i < maxWeight % numberOfSegments ? 1 : 0);
+            segments[i] = new Segment<>(capacity, weigher, evictions);
+        }
+    }
+
+    /**
+     * Get the value for the given key and mark it as the most recently used.
+     *
+     * @param key of the entry
+     * @return the value or null if the key is not in the cache
+     */
+    public V get(K key) {
+
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return value;
+    }
+
+    /**
+     * Get the value for the given key without affecting the hit/miss counters.
+     * Use this method for internal bookkeeping, so that the counters reflect the actual lookups only.
+     *
+     * @param key of the entry
+     * @return the value or null if the key is not in the cache
+     */
+    public V peek(K key) {
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Read the value for the given key while holding the lock of its segment, without affecting the hit/miss counters.
+     * Use this method when the value is mutable and updated through compute, so that it is not read while it changes.
+     * The reader is given the current value (or null) and must not access this cache or retain the value.
+     *
+     * @param key of the entry
+     * @param reader of the value
+     * @return the result of the reader
+     */
+    public <R> R peek(K key, Function<? super V, ? extends R> reader) {
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return reader.apply(segment.get(key));
+        }
+    }
+
+    public boolean containsKey(K key) {
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    /**
+     * Add the entry to the cache, evicting the least recently used entries of the segment if needed.
+     *
+     * @param key of the entry
+     * @param value of the entry
+     * @return the previous value for the key, if any
+     */
+    public V put(K key, V value) {
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.putEntry(key, value);
+        }
+    }
+
+    /**
+     * Atomically compute the value for the given key.
+     * The remapping function is given the current value (or null) and must not access this cache.
+     * If the function returns null, the entry is removed.
+     *
+     * @param key of the entry
+     * @param remappingFunction to compute the new value
+     * @return the new value
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.computeEntry(key, remappingFunction);
+        }
+    }
+
+    public V remove(K key) {
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.removeEntry(key);
+        }
+    }
+
+    public int size() {
+
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @return the current total weight of the values in the cache (the number of entries, if no weigher is used)
+     */
+    public long getWeight() {
+
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public void clear() {
+
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clearEntries();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the keys in the cache.
+     * Within each segment, the keys are ordered from the least to the most recently used,
+     * so adding the keys back in this order preserves the eviction order.
+     *
+     * @return list of keys
+     */
+    public List<K> keys() {
+
+        List<K> keys = new ArrayList<>();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                keys.addAll(segment.keySet());
+            }
+        }
+
+        return keys;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public void resetStats() {
+
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "LRUCache{size=" + size() + ", weight=" + getWeight() + "/" + maxWeight +
+                ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "}";
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * Keeps track of the weight of its values and evicts its least recently used entries when over capacity.
+     * All methods must be called while holding the lock on the segment.
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private final long capacity;
+        private final ToLongFunction<? super V> weigher;
+        private final LongAdder evictions;
+
+        private long weight;
+
+        Segment(long capacity, ToLongFunction<? super V> weigher, LongAdder evictions) {
+            super(16, 0.75f, true);
+
+            this.capacity = capacity;
+            this.weigher = weigher;
+            this.evictions = evictions;
+        }
+
+        V putEntry(K key, V value) {
+
+            V previous = put(key, value);
+            weight += weightOf(value) - weightOf(previous);
+            evict();
+
+            return previous;
+        }
+
+        V computeEntry(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+
+            // The current value must be weighed before the function is applied, as it might be mutated by it
+            long previousWeight = weightOf(get(key));
+
+            V value = compute(key, remappingFunction);
+            weight += weightOf(value) - previousWeight;
+            evict();
+
+            return value;
+        }
+
+        V removeEntry(K key) {
+
+            V previous = remove(key);
+            weight -= weightOf(previous);
+
+            return previous;
+        }
+
+        void clearEntries() {
+
+            clear();
+            weight = 0;
+        }
+
+        private void evict() {
+
+            Iterator<Map.Entry<K, V>> iterator = entrySet().iterator();
+            while (weight > capacity && iterator.hasNext()) {
+                Map.Entry<K, V> eldest = iterator.next();
+                weight -= weightOf(eldest.getValue());
+                iterator.remove();
+
+                evictions.increment();
+            }
+        }
+
+        private long weightOf(V value) {
+            return value == null ? 0 : weigher.applyAsLong(value);
+        }
+    }
+}
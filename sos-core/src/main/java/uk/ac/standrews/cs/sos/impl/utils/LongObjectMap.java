@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+/**
+ * Open-addressing map from longs to objects.
+ *
+ * The keys are stored in a primitive array, so that the map has no boxed keys and no objects per entry.
+ * Collisions are resolved with linear probing. Entries are never removed, so no tombstones are needed.
+ * Values cannot be null, as null marks the empty slots.
+ *
+ * The map is not thread-safe.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private Object[] values;
+
+    private int mask;
+    private int size;
+    private int threshold;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries that can be added without resizing the map
+     */
+    public LongObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param key to look up
+     * @return the value of the key, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+
+        int slot = slot(key);
+        return slot >= 0 ? (V) values[slot] : null;
+    }
+
+    /**
+     * @param key to add or update
+     * @param value of the key
+     * @return the previous value of the key, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+
+        Objects.requireNonNull(value);
+
+        int slot = slot(key);
+        if (slot >= 0) {
+            V previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        insert(-slot - 1, key, value);
+        return null;
+    }
+
+    /**
+     * @param key to look up
+     * @param function giving the value of the key, if the key is not in the map. It must not return null
+     * @return the value of the key
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<V> function) {
+
+        int slot = slot(key);
+        if (slot >= 0) {
+            return (V) values[slot];
+        }
+
+        V value = Objects.requireNonNull(function.apply(key));
+        insert(-slot - 1, key, value);
+        return value;
+    }
+
+    /**
+     * Iterate over the entries of the map, in no particular order.
+     * The map must not be modified while iterating.
+     *
+     * @param consumer of the entries
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<V> consumer) {
+
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                consumer.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * @return the slot of the key, or -(insertion slot + 1) if the key is not in the map
+     */
+    private int slot(long key) {
+
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -slot - 1;
+    }
+
+    private void insert(int slot, long key, V value) {
+
+        if (size >= threshold) {
+            resize(values.length * 2);
+            slot = -slot(key) - 1;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    private void resize(int capacity) {
+
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+
+        for (int oldSlot = 0; oldSlot < oldValues.length; oldSlot++) {
+            if (oldValues[oldSlot] == null) continue;
+
+            int slot = hash(oldKeys[oldSlot]) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = oldKeys[oldSlot];
+            values[slot] = oldValues[oldSlot];
+        }
+    }
+
+    private void allocate(int capacity) {
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int capacityFor(int expectedSize) {
+
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+}
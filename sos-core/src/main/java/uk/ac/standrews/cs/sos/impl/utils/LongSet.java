@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+/**
+ * Open-addressing set of longs.
+ *
+ * The elements are stored in a primitive array, so that the set has no boxed elements.
+ * Collisions are resolved with linear probing. Elements are never removed, so no tombstones are needed.
+ *
+ * The set is not thread-safe.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LongSet {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] elements;
+    private boolean[] used;
+
+    private int mask;
+    private int size;
+    private int threshold;
+
+    public LongSet() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long element) {
+        return slot(element) >= 0;
+    }
+
+    /**
+     * @param element to add
+     * @return true if the element was not in the set
+     */
+    public boolean add(long element) {
+
+        int slot = slot(element);
+        if (slot >= 0) return false;
+
+        if (size >= threshold) {
+            resize(used.length * 2);
+            slot = slot(element);
+        }
+
+        slot = -slot - 1;
+        elements[slot] = element;
+        used[slot] = true;
+        size++;
+
+        return true;
+    }
+
+    /**
+     * @return the elements of the set, in no particular order
+     */
+    public long[] toArray() {
+
+        long[] retval = new long[size];
+        int i = 0;
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) retval[i++] = elements[slot];
+        }
+
+        return retval;
+    }
+
+    /**
+     * @return the slot of the element, or -(insertion slot + 1) if the element is not in the set
+     */
+    private int slot(long element) {
+
+        int slot = LongObjectMap.hash(element) & mask;
+        while (used[slot]) {
+            if (elements[slot] == element) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -slot - 1;
+    }
+
+    private void resize(int capacity) {
+
+        long[] oldElements = elements;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int oldSlot = 0; oldSlot < oldUsed.length; oldSlot++) {
+            if (!oldUsed[oldSlot]) continue;
+
+            int slot = LongObjectMap.hash(oldElements[oldSlot]) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+
+            elements[slot] = oldElements[oldSlot];
+            used[slot] = true;
+        }
+    }
+
+    private void allocate(int capacity) {
+
+        elements = new long[capacity];
+        used = new boolean[capacity];
+
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming search of a text pattern over a stream of characters.
+ *
+ * The text is decoded and scanned in fixed-size buffers, so the memory used is O(buffer + pattern)
+ * regardless of the size of the text, and the scan stops as soon as the requested number of occurrences is found.
+ * The pattern is matched with the Knuth-Morris-Pratt automaton (i.e. Aho-Corasick for a single pattern),
+ * so that every character of the text is read exactly once and no input needs to be re-read or buffered.
+ *
+ * Occurrences are counted without overlaps, as String.indexOf would find them when restarting after each match.
+ * When ignoring case, both the pattern and the text are folded one character at a time, after decoding,
+ * with Character.toLowerCase.
+ *
+ * Instances are immutable and can be shared across threads.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class TextSearch {
+
+    // Count all the occurrences of the pattern
+    public static final int NO_LIMIT = -1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final char[] pattern;
+    private final int[] failure;
+    private final boolean ignoreCase;
+
+    /**
+     * @param pattern to search. A null or empty pattern never matches.
+     * @param ignoreCase true if the search is case-insensitive
+     */
+    public TextSearch(String pattern, boolean ignoreCase) {
+
+        this.ignoreCase = ignoreCase;
+
+        if (pattern == null) pattern = "";
+        this.pattern = new char[pattern.length()];
+        for (int i = 0; i < this.pattern.length; i++) {
+            this.pattern[i] = fold(pattern.charAt(i));
+        }
+
+        this.failure = failureFunction(this.pattern);
+    }
+
+    /**
+     * @param stream to search, decoded with the default charset. The stream is not closed.
+     * @return true if the pattern occurs at least once in the stream
+     * @throws IOException if the stream could not be read
+     */
+    public boolean contains(InputStream stream) throws IOException {
+
+        return count(stream, 1) == 1;
+    }
+
+    /**
+     * Count the occurrences of the pattern, decoding the stream with the default charset.
+     *
+     * @param stream to search. The stream is not closed.
+     * @param limit maximum number of occurrences to count, or NO_LIMIT
+     * @return number of occurrences found, up to limit
+     * @throws IOException if the stream could not be read
+     */
+    public int count(InputStream stream, int limit) throws IOException {
+
+        return count(stream, Charset.defaultCharset(), limit);
+    }
+
+    /**
+     * @param stream to search. The stream is not closed.
+     * @param charset used to decode the stream
+     * @param limit maximum number of occurrences to count, or NO_LIMIT
+     * @return number of occurrences found, up to limit
+     * @throws IOException if the stream could not be read
+     */
+    public int count(InputStream stream, Charset charset, int limit) throws IOException {
+
+        if (pattern.length == 0) return 0;
+
+        // The reader is not closed, so that the stream is left to the caller
+        return count(new InputStreamReader(stream, charset), limit);
+    }
+
+    /**
+     * @param reader to search. The reader is not closed.
+     * @param limit maximum number of occurrences to count, or NO_LIMIT
+     * @return number of occurrences found, up to limit
+     * @throws IOException if the reader could not be read
+     */
+    public int count(Reader reader, int limit) throws IOException {
+
+        if (pattern.length == 0) return 0;
+
+        char[] buffer = new char[BUFFER_SIZE];
+        int state = 0; // number of characters of the pattern matched so far
+        int count = 0;
+
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+
+                char c = fold(buffer[i]);
+                while (state > 0 && c != pattern[state]) {
+                    state = failure[state - 1];
+                }
+
+                if (c == pattern[state]) {
+                    state++;
+                }
+
+                if (state == pattern.length) {
+                    count++;
+                    if (limit > 0 && count == limit) {
+                        return count;
+                    }
+
+                    // Restart, so that occurrences do not overlap
+                    state = 0;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @param text to search
+     * @param limit maximum number of occurrences to count, or NO_LIMIT
+     * @return number of occurrences found, up to limit
+     */
+    public int count(String text, int limit) {
+
+        if (text == null) return 0;
+
+        try {
+            return count(new StringReader(text), limit);
+        } catch (IOException e) {
+            // Never thrown when reading from memory
+            return 0;
+        }
+    }
+
+    private char fold(char c) {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    /**
+     * failure[i] is the length of the longest proper prefix of pattern[0..i] that is also a suffix of it.
+     */
+    private static int[] failureFunction(char[] pattern) {
+
+        int[] failure = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k - 1];
+            }
+
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+
+            failure[i] = k;
+        }
+
+        return failure;
+    }
+}
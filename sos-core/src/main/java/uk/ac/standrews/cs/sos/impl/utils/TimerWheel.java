@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel, used to fire items once their deadline has passed.
+ *
+ * Time is measured in ticks (e.g. seconds) and it is given by the caller, so that the wheel does not own any thread.
+ * Each item is stored in the bucket of its deadline tick, modulo the number of buckets.
+ * Scheduling an item is O(1). Advancing the wheel only scans the buckets of the elapsed ticks
+ * (all the buckets, at most, if more ticks than buckets have elapsed) and it skips the items due in a later round.
+ *
+ * The wheel is thread-safe.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class TimerWheel<T> {
+
+    private final List<Timeout<T>>[] buckets;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param numberOfBuckets of the wheel. Deadlines further away than this number of ticks take multiple rounds of the wheel.
+     * @param startTick the current tick
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(int numberOfBuckets, long startTick) {
+
+        if (numberOfBuckets <= 0) {
+            throw new IllegalArgumentException("The number of buckets must be positive");
+        }
+
+        this.buckets = new List[numberOfBuckets];
+        this.currentTick = startTick;
+    }
+
+    /**
+     * Schedule the item to fire at the given tick.
+     * Items with a deadline that has already passed fire on the next call to advance.
+     *
+     * @param item to fire
+     * @param deadline tick at which the item fires
+     */
+    public synchronized void schedule(T item, long deadline) {
+
+        if (deadline <= currentTick) {
+            deadline = currentTick + 1;
+        }
+
+        int index = (int) Math.floorMod(deadline, (long) buckets.length);
+        if (buckets[index] == null) {
+            buckets[index] = new ArrayList<>();
+        }
+
+        buckets[index].add(new Timeout<>(item, deadline));
+        size++;
+    }
+
+    /**
+     * Move the wheel forward to the given tick.
+     *
+     * @param now the current tick
+     * @return the items whose deadline is not after now, in no particular order
+     */
+    public synchronized List<T> advance(long now) {
+
+        List<T> expired = new ArrayList<>();
+        if (now <= currentTick) return expired;
+
+        long elapsed = now - currentTick;
+        int ticksToScan = elapsed >= buckets.length ? buckets.length : (int) elapsed;
+        for (int i = 1; i <= ticksToScan; i++) {
+
+            int index = (int) Math.floorMod(currentTick + i, (long) buckets.length);
+            List<Timeout<T>> bucket = buckets[index];
+            if (bucket == null) continue;
+
+            Iterator<Timeout<T>> iterator = bucket.iterator();
+            while (iterator.hasNext()) {
+                Timeout<T> timeout = iterator.next();
+                if (timeout.deadline <= now) {
+                    expired.add(timeout.item);
+                    iterator.remove();
+                    size--;
+                }
+            }
+
+            if (bucket.isEmpty()) {
+                buckets[index] = null;
+            }
+        }
+
+        currentTick = now;
+        return expired;
+    }
+
+    /**
+     * @return the number of items scheduled and not fired yet
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = null;
+        }
+        size = 0;
+    }
+
+    private static class Timeout<T> {
+
+        final T item;
+        final long deadline;
+
+        Timeout(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package uk.ac.standrews.cs.sos.interfaces.context;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.sos.impl.context.directory.ContextVersionInfo;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -28,14 +29,34 @@ public interface ContextsContentsDirectory {
 
     void addOrUpdateEntry(IGUID contextInvariant, IGUID version, ContextVersionInfo contextVersionInfo);
 
+    /**
+     * Add or update multiple entries for the context at once.
+     * Persistent implementations write all the entries in a single transaction.
+     *
+     * @param contextInvariant of the context
+     * @param entries [version -> info]
+     */
+    void addOrUpdateEntries(IGUID contextInvariant, Map<IGUID, ContextVersionInfo> entries);
+
     void evict(IGUID context, IGUID version);
 
+    void evict(IGUID context, Collection<IGUID> versions);
+
     void delete(IGUID context, IGUID version);
 
     void delete(IGUID context);
 
     ContextVersionInfo getEntry(IGUID context, IGUID version);
 
+    /**
+     * Get the entries for the given versions in a single lookup.
+     *
+     * @param context of the entries
+     * @param versions to look up
+     * @return [version -> info] for the versions that have an entry, evicted or not. Versions with no entry are not in the map.
+     */
+    Map<IGUID, ContextVersionInfo> getEntries(IGUID context, Collection<IGUID> versions);
+
     boolean entryExists(IGUID context, IGUID version);
 
     Map<IGUID, ContextVersionInfo> getContentsThatPassedPredicateTestRows(IGUID context, boolean includeEvicted);
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.interfaces.manifests;
+
+import uk.ac.standrews.cs.sos.model.Manifest;
+
+/**
+ * Listener notified whenever a manifest is deleted from this node.
+ *
+ * Listeners are called synchronously by the thread deleting the manifest, so they must be cheap and must not block.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public interface DeletionListener {
+
+    /**
+     * @param manifest that was deleted
+     */
+    void manifestDeleted(Manifest manifest);
+}
@@ -21,7 +21,6 @@ import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.LocationBundle;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.Queue;
 
 /**
@@ -29,14 +28,34 @@ import java.util.Queue;
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
-public interface LocationsIndex extends Serializable {
+public interface LocationsIndex {
 
     void addLocation(IGUID guid, LocationBundle locationBundle);
 
     Queue<LocationBundle> findLocations(IGUID guid);
 
+    /**
+     * Write the whole index to the given file
+     *
+     * @param file where to write the index
+     * @throws IOException if the index could not be written
+     */
     void persist(IFile file) throws IOException;
 
+    /**
+     * Persist the changes made to the index since the last flush
+     *
+     * @throws IOException if the changes could not be written
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flush the index and release it. The index must not be used afterwards.
+     *
+     * @throws IOException if the index could not be flushed
+     */
+    void close() throws IOException;
+
     void deleteLocation(IGUID node, IGUID guid);
 
     void clear();
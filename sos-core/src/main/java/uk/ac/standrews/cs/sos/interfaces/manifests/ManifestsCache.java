@@ -16,14 +16,36 @@
  */
 package uk.ac.standrews.cs.sos.interfaces.manifests;
 
-import uk.ac.standrews.cs.sos.impl.utils.LRU_GUID;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.utils.LRUCache;
+import uk.ac.standrews.cs.sos.model.Manifest;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public interface ManifestsCache extends ManifestsDirectory {
 
-    LRU_GUID getLRU();
+    /**
+     * @return the underlying LRU cache, which exposes the hit/miss/eviction counters
+     */
+    LRUCache<IGUID, Manifest> getLRU();
+
+    /**
+     * @return the estimated number of bytes used by the cached manifests
+     * (or the number of manifests, if the cache is bounded by number of manifests)
+     */
+    long getOccupancy();
+
+    /**
+     * @return the maximum number of bytes that can be used by the cached manifests
+     * (or the maximum number of manifests, if the cache is bounded by number of manifests)
+     */
+    long getCapacity();
+
+    /**
+     * @return true if the occupancy and capacity of the cache are in bytes, false if they are in number of manifests
+     */
+    boolean isBoundedByMemory();
 
     void clear();
 }
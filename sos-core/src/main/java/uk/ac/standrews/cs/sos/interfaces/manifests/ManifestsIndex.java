@@ -24,6 +24,7 @@ import uk.ac.standrews.cs.sos.model.ManifestType;
 import uk.ac.standrews.cs.sos.model.Versionable;
 
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
@@ -96,10 +97,17 @@ public interface ManifestsIndex {
     void flush();
 
     /**
-     * TODO - this method should be implemented. Such methods should be elsewhere too!!!!
-     * Rebuild index from disk
+     * Rebuild the index from the given manifests, replacing its current content
+     *
+     * @param manifests to index (e.g. the manifests stored locally)
+     * @return number of manifests indexed
      */
-    void rebuild();
+    int rebuild(Stream<Manifest> manifests);
 
     void clear();
+
+    /**
+     * Persist the index to disk and release its resources. The index is not cleared from disk
+     */
+    void close();
 }
@@ -58,6 +58,12 @@ public interface Response {
      */
     int getContentLength();
 
+    /**
+     * @param name of the header
+     * @return the value of the first header with the given name, or null if the response has no such header
+     */
+    String getHeader(String name);
+
     /**
      * Consume resources used by the response.
      * @throws IOException if unable to consume response.
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.interfaces.node;
+
+import uk.ac.standrews.cs.guid.IGUID;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decides which nodes should hold (or be asked for) the entity with a given GUID.
+ *
+ * The same strategy is used both to place replicas and to look them up,
+ * so that lookups go first to the nodes most likely to hold the entity.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public interface PlacementStrategy {
+
+    /**
+     * Rank the candidate nodes for the given entity.
+     *
+     * @param guid of the entity to place or to look up
+     * @param candidates nodes to choose from
+     * @param limit max number of nodes to return. All candidates are ranked if limit is not positive
+     * @return the chosen nodes, the most preferred first
+     */
+    List<IGUID> rank(IGUID guid, Collection<IGUID> candidates, int limit);
+
+}
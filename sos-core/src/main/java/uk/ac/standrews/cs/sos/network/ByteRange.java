@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.network;
+
+import java.util.*;
+
+/**
+ * Range of bytes of an entity, as used by the Range and Content-Range HTTP headers (RFC 7233).
+ * Both first and last positions are inclusive.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ByteRange {
+
+    public static final String RANGE_HEADER = "Range";
+    public static final String IF_RANGE_HEADER = "If-Range";
+    public static final String CONTENT_RANGE_HEADER = "Content-Range";
+    public static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+    public static final String BYTES_UNIT = "bytes";
+
+    // Requests with more ranges than this are served as a whole, so that a request cannot make the server do too much work
+    static final int MAX_RANGES = 64;
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+
+        if (first < 0 || last < first) {
+            throw new IllegalArgumentException("Invalid range " + first + "-" + last);
+        }
+
+        this.first = first;
+        this.last = last;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * @return the value of the Range header requesting this range
+     */
+    public String toRangeHeader() {
+        return BYTES_UNIT + "=" + first + "-" + last;
+    }
+
+    /**
+     * @param size of the whole entity
+     * @return the value of the Content-Range header for this range
+     */
+    public String toContentRangeHeader(long size) {
+        return BYTES_UNIT + " " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * @param size of the whole entity
+     * @return the value of the Content-Range header of a response to an unsatisfiable range request
+     */
+    public static String unsatisfiedContentRangeHeader(long size) {
+        return BYTES_UNIT + " */" + size;
+    }
+
+    /**
+     * Parse the value of a Range header.
+     * Overlapping and adjacent ranges are merged and the resulting ranges are sorted.
+     *
+     * @param header value of the Range header
+     * @param size of the whole entity
+     * @return the ranges to be served, an empty list if no range can be satisfied,
+     *         or null if the header is not valid and should be ignored (i.e. the whole entity is served)
+     */
+    public static List<ByteRange> parseRangeHeader(String header, long size) {
+
+        if (header == null) return null;
+
+        header = header.trim();
+        if (!header.regionMatches(true, 0, BYTES_UNIT + "=", 0, BYTES_UNIT.length() + 1)) return null;
+
+        String[] specs = header.substring(BYTES_UNIT.length() + 1).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : specs) {
+
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+
+            try {
+                String firstValue = spec.substring(0, dash).trim();
+                String lastValue = spec.substring(dash + 1).trim();
+
+                if (firstValue.isEmpty()) {
+                    // Suffix range: the last n bytes of the entity
+                    long suffix = Long.parseLong(lastValue);
+                    if (suffix < 0) return null;
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+                    }
+
+                } else {
+                    long first = Long.parseLong(firstValue);
+                    long last = lastValue.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastValue);
+                    if (first < 0 || last < first) return null;
+
+                    // Ranges starting after the end of the entity cannot be satisfied
+                    if (first < size) {
+                        ranges.add(new ByteRange(first, Math.min(last, size - 1)));
+                    }
+                }
+
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return coalesce(ranges);
+    }
+
+    /**
+     * Parse the value of a Content-Range header.
+     *
+     * @param header value of the Content-Range header
+     * @return the range, or null if the header is not valid or does not contain a range
+     */
+    public static ByteRange parseContentRangeHeader(String header) {
+
+        if (header == null || !header.trim().startsWith(BYTES_UNIT + " ")) return null;
+
+        String value = header.trim().substring(BYTES_UNIT.length() + 1).trim();
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (dash < 0 || slash < dash) return null;
+
+        try {
+            return new ByteRange(Long.parseLong(value.substring(0, dash).trim()), Long.parseLong(value.substring(dash + 1, slash).trim()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse the size of the whole entity from a Content-Range header.
+     *
+     * @param header value of the Content-Range header
+     * @return the size of the entity, or -1 if the header is not valid or the size is unknown
+     */
+    public static long parseContentRangeSize(String header) {
+
+        if (header == null) return -1;
+
+        int slash = header.indexOf('/');
+        if (slash < 0) return -1;
+
+        try {
+            return Long.parseLong(header.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+
+        if (ranges.size() <= 1) return ranges;
+
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::getFirst));
+
+        List<ByteRange> retval = new ArrayList<>();
+        ByteRange current = sorted.get(0);
+        for (ByteRange range : sorted.subList(1, sorted.size())) {
+
+            if (range.first <= current.last + 1) {
+                current = new ByteRange(current.first, Math.max(current.last, range.last));
+            } else {
+                retval.add(current);
+                current = range;
+            }
+        }
+        retval.add(current);
+
+        return Collections.unmodifiableList(retval);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ByteRange byteRange = (ByteRange) o;
+        return first == byteRange.first && last == byteRange.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(first, last);
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+}
@@ -51,6 +51,11 @@ public class ErrorResponseImpl implements Response {
         return 0;
     }
 
+    @Override
+    public String getHeader(String name) {
+        return null;
+    }
+
     @Override
     public void consumeResponse() { }
 }
@@ -23,9 +23,13 @@ public class HTTPStatus {
 
     public static final int OK = 200;
     public static final int CREATED = 201;
+    public static final int PARTIAL_CONTENT = 206;
+
+    public static final int NOT_MODIFIED = 304;
 
     public static final int BAD_REQUEST = 400;
     public static final int NOT_FOUND = 404;
+    public static final int RANGE_NOT_SATISFIABLE = 416;
 
     public static final int INTERNAL_SERVER = 500;
 
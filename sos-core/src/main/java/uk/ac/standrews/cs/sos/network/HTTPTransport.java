@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.network;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.ssl.SSLContexts;
+import uk.ac.standrews.cs.sos.SettingsConfiguration;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous HTTP transport shared by all the requests of the node.
+ *
+ * Connections are pooled (with a limit per host) and kept alive across requests.
+ * Request bodies are streamed from their input stream and response bodies are streamed to the caller.
+ *
+ * Responses are handed over to the caller from a separate pool of threads,
+ * so that callers can safely block on the body of the response.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class HTTPTransport {
+
+    private final CloseableHttpAsyncClient client;
+    private final ExecutorService callbacks;
+    private final int bufferSize;
+
+    public HTTPTransport(SettingsConfiguration.Settings.GlobalSettings.NetworkSettings settings) {
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(settings.getConnectTimeout())
+                .setConnectionRequestTimeout(settings.getConnectTimeout())
+                .setSocketTimeout(settings.getSocketTimeout())
+                .build();
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Math.max(1, settings.getIoThreads()))
+                .setSoKeepAlive(true)
+                .setTcpNoDelay(true)
+                .build();
+
+        client = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setMaxConnTotal(settings.getMaxConnections())
+                .setMaxConnPerRoute(settings.getMaxConnectionsPerHost())
+                .setKeepAliveStrategy(keepAliveStrategy(settings.getKeepAlive()))
+                .setSSLContext(SSLContexts.createSystemDefault()) // Uses the SSL trust store set in the settings
+                .build();
+        client.start();
+
+        AtomicInteger threadsCounter = new AtomicInteger();
+        callbacks = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sos-http-" + threadsCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        bufferSize = settings.getBufferSize();
+    }
+
+    /**
+     * Execute the request asynchronously.
+     * Cancelling the returned future aborts the request.
+     *
+     * @param request to execute
+     * @return future completed as soon as the headers of the response are received
+     */
+    public CompletableFuture<HttpResponse> execute(HttpRequestBase request) {
+
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+
+        try {
+            HttpHost target = URIUtils.extractHost(request.getURI());
+            StreamingResponseConsumer consumer = new StreamingResponseConsumer(bufferSize);
+            Future<HttpResponse> exchange = client.execute(new BasicAsyncRequestProducer(target, request), consumer, null);
+
+            consumer.getHeaders().whenCompleteAsync((response, throwable) -> {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    future.complete(response);
+                }
+            }, callbacks);
+
+            future.whenComplete((response, throwable) -> {
+                if (future.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+
+        } catch (IllegalStateException e) { // The transport has been shutdown
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    public void shutdown() throws IOException {
+
+        callbacks.shutdown();
+        client.close();
+    }
+
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long defaultKeepAlive) {
+
+        return (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? keepAlive : defaultKeepAlive;
+        };
+    }
+}
@@ -26,6 +26,9 @@ import java.net.URL;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *
@@ -41,6 +44,7 @@ public abstract class Request {
     protected HTTPMethod method;
     protected URL url;
     protected InputStream inputStream;
+    protected Map<String, String> headers = new LinkedHashMap<>();
 
     String json_body;
     PublicKey d_publicKey;
@@ -87,13 +91,32 @@ public abstract class Request {
         return this;
     }
 
+    /**
+     * Set an additional header of the request (e.g. Range)
+     *
+     * @param name of the header
+     * @param value of the header
+     * @return this request
+     */
+    public Request setHeader(String name, String value) {
+        this.headers.put(name, value);
+        return this;
+    }
+
     Request setSigningPrivateKey(PrivateKey d_privateKey) {
         this.d_privateKey = d_privateKey;
 
         return this;
     }
 
-    abstract Response play() throws IOException;
+    /**
+     * Send the request through the given transport.
+     *
+     * @param transport used to send the request
+     * @return future completed with the response as soon as its headers are received
+     * @throws IOException if the request is not valid
+     */
+    abstract CompletableFuture<Response> play(HTTPTransport transport) throws IOException;
 
     @Override
     public String toString() {
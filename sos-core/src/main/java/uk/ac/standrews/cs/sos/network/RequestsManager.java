@@ -16,18 +16,24 @@
  */
 package uk.ac.standrews.cs.sos.network;
 
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.options.Options;
 import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.SettingsConfiguration;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 
 import java.io.IOException;
 import java.security.PrivateKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Singleton Class
  *
+ * All requests are sent through a shared HTTPTransport, which pools and keeps alive the connections to the remote nodes.
+ * Requests can be played synchronously or asynchronously (e.g. to contact multiple nodes in parallel).
+ *
  * If HTTPS requests do not work:
  * https://docs.oracle.com/cd/E19509-01/820-3503/6nf1il6g1/index.html (THIS DID NOT WORK)
  * https://stackoverflow.com/questions/25084104/https-certificate-validation-fails-when-using-a-truststore (Should use already existing cacerts)
@@ -37,28 +43,36 @@ import java.security.PrivateKey;
 public class RequestsManager {
 
     private PrivateKey d_privateKey;
+    private HTTPTransport transport;
+    // Maximum time (ms) to wait for the headers of a synchronous request
+    private long syncTimeout;
     private static RequestsManager lazyInstance;
 
-    private RequestsManager() {}
-
     // Ensure that this class cannot be instantiated by other classes by making the constructor private
-    private RequestsManager(PrivateKey d_privateKey) {
+    private RequestsManager(PrivateKey d_privateKey, SettingsConfiguration.Settings.GlobalSettings.NetworkSettings settings) {
         this.d_privateKey = d_privateKey;
+        this.transport = new HTTPTransport(settings);
+        this.syncTimeout = (long) settings.getConnectTimeout() + settings.getSocketTimeout();
     }
 
     public static RequestsManager init(PrivateKey d_privateKey) {
+        return init(d_privateKey, new SettingsConfiguration.Settings.GlobalSettings.NetworkSettings());
+    }
+
+    public static synchronized RequestsManager init(PrivateKey d_privateKey, SettingsConfiguration.Settings.GlobalSettings.NetworkSettings settings) {
         if(lazyInstance == null){
-            Options.refresh(); // Make sure that Unirest instance is restarted
-            // Unirest.setTimeouts(10000, 120000); // NOTE - Make these params configurable
-            lazyInstance = new RequestsManager(d_privateKey);
+            if (settings == null) {
+                settings = new SettingsConfiguration.Settings.GlobalSettings.NetworkSettings();
+            }
+
+            lazyInstance = new RequestsManager(d_privateKey, settings);
         }
         return lazyInstance;
     }
 
-    public static RequestsManager getInstance() {
+    public static synchronized RequestsManager getInstance() {
         if(lazyInstance == null){
-            Options.refresh(); // Make sure that Unirest instance is restarted
-            lazyInstance = new RequestsManager();
+            lazyInstance = new RequestsManager(null, new SettingsConfiguration.Settings.GlobalSettings.NetworkSettings());
         }
         return lazyInstance;
     }
@@ -75,7 +89,8 @@ public class RequestsManager {
     }
 
     /**
-     * Synchronous request
+     * Synchronous request.
+     * The request is aborted if the headers of the response are not received within the connect and socket timeouts.
      *
      * @param request to make
      * @param sign set to true to sign the outgoing request, false otherwise
@@ -84,17 +99,79 @@ public class RequestsManager {
      */
     public Response playSyncRequest(Request request, boolean sign) throws IOException {
 
+        CompletableFuture<Response> response = playAsyncRequest(request, sign);
+        try {
+            return response.get(syncTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            abort(response);
+            Thread.currentThread().interrupt();
+            return new ErrorResponseImpl();
+        } catch (TimeoutException e) {
+            SOS_LOG.log(LEVEL.WARN, "HTTP request timed out after " + syncTimeout + "ms");
+            abort(response);
+            return new ErrorResponseImpl();
+        } catch (ExecutionException e) {
+            SOS_LOG.log(LEVEL.ERROR, "Unable to make HTTP request: " + e.getMessage());
+            return new ErrorResponseImpl();
+        }
+    }
+
+    /**
+     * Asynchronous request, which is not signed.
+     *
+     * @param request to make
+     * @return future response to the request
+     * @throws IOException if request is not valid
+     */
+    public CompletableFuture<Response> playAsyncRequest(Request request) throws IOException {
+        return playAsyncRequest(request, false);
+    }
+
+    /**
+     * Asynchronous request.
+     *
+     * The returned future never completes exceptionally: an ErrorResponseImpl is returned if the request fails.
+     * Cancelling the future aborts the request.
+     *
+     * @param request to make
+     * @param sign set to true to sign the outgoing request, false otherwise
+     * @return future response to the request, completed as soon as the headers of the response are received
+     * @throws IOException if request is not valid
+     */
+    public CompletableFuture<Response> playAsyncRequest(Request request, boolean sign) throws IOException {
+
         if (sign) {
             request = request.setSigningPrivateKey(d_privateKey);
         }
-        return request.play();
+        return request.play(transport);
+    }
+
+    /**
+     * Abort the request. If the response arrived in the meanwhile, its body is consumed so that the connection is released.
+     */
+    private void abort(CompletableFuture<Response> response) {
+
+        if (!response.cancel(true)) {
+            response.thenAccept(r -> {
+                try {
+                    r.consumeResponse();
+                } catch (IOException e) {
+                    SOS_LOG.log(LEVEL.WARN, "Unable to consume the response of an aborted request");
+                }
+            });
+        }
     }
 
     public void shutdown() {
 
+        synchronized (RequestsManager.class) {
+            if (lazyInstance == this) {
+                lazyInstance = null;
+            }
+        }
+
         try {
-            lazyInstance = null;
-            Unirest.shutdown();
+            transport.shutdown();
         } catch (IOException e) {
             SOS_LOG.log(LEVEL.ERROR, "Unable to shutdown Requests Manager");
         }
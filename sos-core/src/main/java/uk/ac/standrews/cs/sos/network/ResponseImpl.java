@@ -16,42 +16,63 @@
  */
 package uk.ac.standrews.cs.sos.network;
 
-import com.mashape.unirest.http.HttpResponse;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.NullInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
-import uk.ac.standrews.cs.sos.utils.IO;
 import uk.ac.standrews.cs.sos.utils.JSONHelper;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Wrapper around the okhttp3 response class
+ * Wrapper around the apache http response class
+ *
+ * The body of BINARY responses is streamed and can be read only once.
+ * The body of JSON and TEXT responses is buffered the first time it is accessed, so that it can be read multiple times.
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class ResponseImpl implements Response {
 
-    private HttpResponse<?> response;
+    private HttpResponse response;
+    private ResponseType responseType;
+    private byte[] content; // Buffered body
 
-    public ResponseImpl(HttpResponse<?> response) {
+    public ResponseImpl(HttpResponse response, ResponseType responseType) {
         this.response = response;
+        this.responseType = responseType;
     }
 
     @Override
     public int getCode() {
-        return response.getStatus();
+        return response.getStatusLine().getStatusCode();
     }
 
     @Override
     public InputStream getBody() {
-        return response.getRawBody();
+
+        try {
+            if (responseType != ResponseType.BINARY) {
+                return new ByteArrayInputStream(getContent());
+            }
+
+            HttpEntity entity = response.getEntity();
+            return entity != null ? entity.getContent() : new NullInputStream(0);
+        } catch (IOException e) {
+            return new NullInputStream(0);
+        }
     }
 
     @Override
     public com.fasterxml.jackson.databind.JsonNode getJSON() {
 
         try {
-            return JSONHelper.jsonObjMapper().readTree(response.getBody().toString());
+            return JSONHelper.jsonObjMapper().readTree(getContent());
         } catch (IOException e) {
             return null;
         }
@@ -60,8 +81,8 @@ public class ResponseImpl implements Response {
     @Override
     public String getStringBody() {
 
-        try (InputStream body = getBody()){
-            return IO.InputStreamToString(body);
+        try {
+            return new String(getContent(), StandardCharsets.UTF_8);
         } catch (IOException e) {
             return "";
         }
@@ -69,12 +90,36 @@ public class ResponseImpl implements Response {
 
     public int getContentLength() {
 
-        return Integer.parseInt(response.getHeaders().getFirst("Content-Length"));
+        Header contentLength = response.getFirstHeader("Content-Length");
+        return contentLength != null ? Integer.parseInt(contentLength.getValue()) : -1;
+    }
+
+    @Override
+    public String getHeader(String name) {
+
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
     }
 
     @Override
     public void consumeResponse() throws IOException {
 
-        try(InputStream ignored = getBody()) {} // Ensure that connection is closed properly.
+        try(InputStream ignored = getBody()) {} // Ensure that connection is released properly.
+    }
+
+    private synchronized byte[] getContent() throws IOException {
+
+        if (content == null) {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                content = new byte[0];
+            } else {
+                try (InputStream body = entity.getContent()) {
+                    content = IOUtils.toByteArray(body);
+                }
+            }
+        }
+
+        return content;
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.network;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Response consumer that hands over the response as soon as its headers are received.
+ *
+ * The body of the response is streamed to the reader through a bounded buffer.
+ * Once the buffer is full, the connection stops reading from the socket until the reader catches up,
+ * so the body is never fully kept in memory.
+ * Bodies that fit in the buffer are consumed straight away and the connection is released to the pool
+ * even if the body is never read.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+class StreamingResponseConsumer implements HttpAsyncResponseConsumer<HttpResponse> {
+
+    private final int bufferSize;
+    private final CompletableFuture<HttpResponse> headers = new CompletableFuture<>();
+
+    private volatile HttpResponse response;
+    private volatile SharedInputBuffer buffer;
+    private volatile Exception exception;
+    private volatile boolean done;
+
+    StreamingResponseConsumer(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return future completed as soon as the headers of the response are received
+     */
+    CompletableFuture<HttpResponse> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public void responseReceived(HttpResponse response) {
+
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            buffer = new SharedInputBuffer(bufferSize);
+
+            BasicHttpEntity streamingEntity = new BasicHttpEntity();
+            streamingEntity.setContent(new ContentInputStream(buffer));
+            streamingEntity.setContentLength(entity.getContentLength());
+            streamingEntity.setContentType(entity.getContentType());
+            streamingEntity.setContentEncoding(entity.getContentEncoding());
+            streamingEntity.setChunked(entity.isChunked());
+            response.setEntity(streamingEntity);
+        }
+
+        this.response = response;
+        headers.complete(response);
+    }
+
+    @Override
+    public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        buffer.consumeContent(decoder, ioControl);
+    }
+
+    @Override
+    public void responseCompleted(HttpContext context) {
+
+        done = true;
+        if (buffer != null) {
+            buffer.close(); // Mark the end of the stream, but keep any content not read yet
+        }
+    }
+
+    @Override
+    public void failed(Exception ex) {
+
+        exception = ex;
+        abort();
+        headers.completeExceptionally(ex);
+    }
+
+    @Override
+    public boolean cancel() {
+
+        abort();
+        headers.cancel(false);
+        return true;
+    }
+
+    @Override
+    public void close() {
+
+        if (!done) {
+            abort();
+        }
+    }
+
+    @Override
+    public Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public HttpResponse getResult() {
+        return response;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done;
+    }
+
+    // Readers waiting on the body get an IOException
+    private void abort() {
+
+        done = true;
+        if (buffer != null) {
+            buffer.shutdown();
+        }
+    }
+}
@@ -17,31 +17,33 @@
 package uk.ac.standrews.cs.sos.network;
 
 
-import com.mashape.unirest.http.HttpMethod;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
-import com.mashape.unirest.request.BaseRequest;
-import com.mashape.unirest.request.GetRequest;
-import com.mashape.unirest.request.HttpRequest;
-import com.mashape.unirest.request.HttpRequestWithBody;
-import com.mashape.unirest.request.body.RawBody;
-import com.mashape.unirest.request.body.RequestBodyEntity;
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.*;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
-import uk.ac.standrews.cs.sos.utils.IO;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import uk.ac.standrews.cs.utilities.crypto.CryptoException;
 import uk.ac.standrews.cs.utilities.crypto.DigitalSignature;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
+ * Request to a remote node.
+ *
+ * The request can be played synchronously or asynchronously through the RequestsManager.
+ * Request and response bodies are streamed and never fully buffered, unless the response is of type JSON or TEXT.
  *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
@@ -102,145 +104,121 @@ public class SyncRequest extends Request {
 
     /**
      * Execute the request
-     * @return the response to the request made
+     * @param transport used to send the request
+     * @return the future response to the request made
      * @throws IOException if the request could not be processed properly
      */
-    Response play() throws IOException {
+    CompletableFuture<Response> play(HTTPTransport transport) throws IOException {
         SOS_LOG.log(LEVEL.INFO, "Play request. Method: " + method + " URL: " + url.toString());
 
+        HttpRequestBase request = makeRequest();
+        headers.forEach(request::setHeader);
+        try {
+            setChallenge(request);
+            signRequest(request);
+            encryptRequest(request);
+        } catch (CryptoException e) {
+            SOS_LOG.log(LEVEL.ERROR, "Unable to make HTTP request: " + e.getMessage());
+            return CompletableFuture.completedFuture(new ErrorResponseImpl());
+        }
+
+        CompletableFuture<HttpResponse> exchange = transport.execute(request);
+        CompletableFuture<Response> response = exchange.handle((resp, throwable) -> {
+
+            if (throwable != null) {
+                SOS_LOG.log(LEVEL.ERROR, "Unable to make HTTP request: " + throwable.getMessage());
+                return new ErrorResponseImpl();
+            }
+
+            return makeResponse(resp);
+        });
+
+        // Abort the request if the caller is no longer interested in the response
+        response.whenComplete((resp, throwable) -> {
+            if (response.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+
+        return response;
+    }
+
+    private HttpRequestBase makeRequest() throws IOException {
+
+        URI uri;
+        try {
+            uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url.toString(), e);
+        }
+
         switch(method) {
-            case GET: return get();
-            case POST: return managePOST();
-            case PUT: return managePUT();
-            case DELETE: return delete();
+            case GET: return new HttpGet(uri);
+            case POST: return managePOST(new HttpPost(uri));
+            case PUT: return managePUT(new HttpPut(uri));
+            case DELETE: return new HttpDelete(uri);
             default:
                 SOS_LOG.log(LEVEL.ERROR, "Unknown Request method while playing a request");
                 throw new IOException("Unknown Request method");
         }
-
     }
 
-    private Response managePOST() throws IOException {
+    private HttpRequestBase managePOST(HttpPost request) throws IOException {
 
-        Response response;
         if (inputStream != null) {
-            response = postData();
+            setContentType(request, "multipart/form-data");
+            // The data is streamed (chunked) rather than loaded in memory
+            request.setEntity(new InputStreamEntity(inputStream));
         } else if (json_body != null) {
-            response = postJSON();
+            setContentType(request, "application/json");
+            request.setEntity(new StringEntity(json_body, StandardCharsets.UTF_8));
         } else {
             throw new IOException("No body to post");
         }
 
-        return response;
+        return request;
     }
 
-    private Response managePUT() throws IOException {
+    private HttpRequestBase managePUT(HttpPut request) throws IOException {
 
-        Response response;
         if (json_body != null) {
-            response = putJSON();
+            setContentType(request, "application/json");
+            request.setEntity(new StringEntity(json_body, StandardCharsets.UTF_8));
         } else {
             throw new IOException("No body to post");
         }
 
-        return response;
+        return request;
     }
 
-    protected Response get() {
-
-        GetRequest req = Unirest.get(url.toString());
-        req = (GetRequest) setChallenge(req);
-
-        return makeRequest(req);
-    }
-
-    protected Response delete() {
-
-        HttpRequestWithBody req = Unirest.delete(url.toString());
-        req = (HttpRequestWithBody) setChallenge(req);
-
-        return makeRequest(req);
-    }
-
-    private Response postJSON() {
-
-        HttpRequestWithBody requestWithBody = Unirest.post(url.toString());
-        requestWithBody = setContentType(requestWithBody,"application/json");
-        requestWithBody = (HttpRequestWithBody) setChallenge(requestWithBody);
-
-        RequestBodyEntity requestBodyEntity = requestWithBody.body(json_body);
-
-        return makeRequest(requestBodyEntity);
-    }
-
-    private HttpRequestWithBody setContentType(HttpRequestWithBody req, String defaultContentType) {
+    private void setContentType(HttpRequestBase request, String defaultContentType) {
 
         if (content_type != null && !content_type.isEmpty()) {
-            req.header("Content-Type", content_type);
+            request.setHeader("Content-Type", content_type);
         } else {
-            req.header("Content-Type", defaultContentType);
+            request.setHeader("Content-Type", defaultContentType);
         }
-
-        return req;
     }
 
-    private Response postData() throws IOException {
-
-        // NOTE - this will most likely fail for large data
-        byte[] bytes = IOUtils.toByteArray(inputStream);
-
-        HttpRequestWithBody httpRequestWithBody = Unirest.post(url.toString());
-        httpRequestWithBody = setContentType(httpRequestWithBody,"multipart/form-data");
-
-        httpRequestWithBody = (HttpRequestWithBody) setChallenge(httpRequestWithBody);
-        RawBody requestWithRawBody = httpRequestWithBody.body(bytes);
-
-        return makeRequest(requestWithRawBody);
-    }
-
-    private Response putJSON() {
-
-        HttpRequestWithBody requestWithBody = Unirest.put(url.toString());
-        requestWithBody = setContentType(requestWithBody,"application/json");
-        requestWithBody = (HttpRequestWithBody) setChallenge(requestWithBody);
-
-        RequestBodyEntity requestBodyEntity = requestWithBody.body(json_body);
-
-        return makeRequest(requestBodyEntity);
-    }
-
-    private Response makeRequest(BaseRequest request) {
+    private Response makeResponse(HttpResponse response) {
 
         try {
-            signRequest(request);
-            encryptRequest(request);
-
-            HttpResponse<?> resp = null;
-            switch(responseType) {
-                case JSON:
-                    resp = request.asJson();
-                    break;
-                case TEXT:
-                    resp = request.asString();
-                    break;
-                case BINARY:
-                    resp = request.asBinary();
-                    break;
-            }
-
             if (d_publicKey != null) {
-                String signedChallenge = resp.getHeaders().getFirst(SOS_NODE_CHALLENGE_HEADER);
-                boolean verified = DigitalSignature.verify64(d_publicKey, nodeChallenge, signedChallenge);
+                Header signedChallenge = response.getFirstHeader(SOS_NODE_CHALLENGE_HEADER);
+                boolean verified = signedChallenge != null &&
+                        DigitalSignature.verify64(d_publicKey, nodeChallenge, signedChallenge.getValue());
 
                 if (!verified) {
                     SOS_LOG.log(LEVEL.ERROR, "SyncRequest - Challenge not verified");
+                    EntityUtils.consumeQuietly(response.getEntity());
                     return new ErrorResponseImpl();
                 }
             }
 
-            return new ResponseImpl(resp);
-        } catch (UnirestException | CryptoException | IOException e) {
+            return new ResponseImpl(response, responseType);
+        } catch (CryptoException e) {
             SOS_LOG.log(LEVEL.ERROR, "Unable to make HTTP request: " + e.getMessage());
+            EntityUtils.consumeQuietly(response.getEntity());
             return new ErrorResponseImpl();
         } catch (Error e) {
             SOS_LOG.log(LEVEL.ERROR, "SyncRequest - Serious error: " + e.getMessage());
@@ -249,49 +227,40 @@ public class SyncRequest extends Request {
     }
 
     // NOTE - The following method has not been tested
-    // This method might be particularly slow for requests that have large bodies
-    // I am not signing the body for the time being
-    private void signRequest(BaseRequest request) throws CryptoException, IOException {
+    // I am not signing the body for the time being.
+    // Streamed bodies are not part of the signature, since signing them would require buffering them in memory.
+    private void signRequest(HttpRequestBase request) throws CryptoException {
 
         if (d_privateKey != null) {
-            HttpRequest httpRequest = request.getHttpRequest();
-            String method = httpRequest.getHttpMethod().name();
-            String url = httpRequest.getUrl();
-            String headers = httpRequest.getHeaders()
-                    .entrySet().stream()
-                        .map(h -> h.getKey() + "=" + h.getValue()
-                                                        .stream()
-                                                        .collect(Collectors.joining())
-                            )
-                        .collect(Collectors.joining("&"));
+            String method = request.getMethod();
+            String url = request.getURI().toString();
+            String headers = Arrays.stream(request.getAllHeaders())
+                    .map(h -> h.getName() + "=" + h.getValue())
+                    .collect(Collectors.joining("&"));
 
             String body = "";
-            if (httpRequest.getHttpMethod() == HttpMethod.POST || httpRequest.getHttpMethod() == HttpMethod.PUT) {
-                try (InputStream bodyContent = httpRequest.getBody().getEntity().getContent()) {
-                    body = IO.InputStreamToString(bodyContent);
-                }
+            if (request instanceof HttpEntityEnclosingRequestBase && json_body != null) {
+                body = json_body;
             }
 
             String requestToSign = method + url + headers + body + nodeChallenge;
             String signedChallenge = DigitalSignature.sign64(d_privateKey, requestToSign);
 
-            request.getHttpRequest().header(SOS_NODE_SIGNED_CHALLENGE_HEADER, signedChallenge); // TODO - Have remote node verify the signature
+            request.setHeader(SOS_NODE_SIGNED_CHALLENGE_HEADER, signedChallenge); // TODO - Have remote node verify the signature
         }
 
     }
 
-    private void encryptRequest(BaseRequest request) {
+    private void encryptRequest(HttpRequestBase request) {
         // TODO - This will be developed in the future to protect data in-transit
     }
 
-    private HttpRequest setChallenge(HttpRequest httpRequest) {
+    private void setChallenge(HttpRequestBase request) {
 
         // If the public key is unknown, then there is no reason to challenge the contacted node
         if (d_publicKey != null) {
-            httpRequest = httpRequest.header(SOS_NODE_CHALLENGE_HEADER, nodeChallenge);
+            request.setHeader(SOS_NODE_CHALLENGE_HEADER, nodeChallenge);
         }
-
-        return httpRequest;
     }
 
     public void setContent_type(String content_type) {
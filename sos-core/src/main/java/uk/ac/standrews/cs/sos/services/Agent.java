@@ -65,6 +65,17 @@ public interface Agent extends Service {
      */
     Compound addCompound(CompoundBuilder compoundBuilder) throws ServiceException;
 
+    /**
+     * Adds data to the Sea of Stuff as a compound of type DATA.
+     * The data is split in content-defined chunks and each chunk is added as an atom.
+     * Chunks that are already known to this node are not stored again. Protected data cannot be chunked.
+     *
+     * @param compoundBuilder of type DATA, with the atom builder for the data
+     * @return the added compound
+     * @throws ServiceException if the data could not be added
+     */
+    Compound addChunkedData(CompoundBuilder compoundBuilder) throws ServiceException;
+
     /**
      * Adds a version of an asset to the Sea of Stuff.
      *
@@ -97,6 +108,16 @@ public interface Agent extends Service {
      */
     Data getData(IGUID atomGUID) throws ServiceException;
 
+    /**
+     * Check, without reading the data, whether the data of the given version or atom may contain the text.
+     * The check uses the text index of the node, if enabled.
+     *
+     * @param guid of the version or atom
+     * @param text to look for
+     * @return false only if the data definitely does not contain the text
+     */
+    boolean mayContainText(IGUID guid, String text);
+
     /**
      * Get the manifest matching the given GUID.
      *
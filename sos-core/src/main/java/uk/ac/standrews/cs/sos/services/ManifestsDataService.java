@@ -22,6 +22,8 @@ import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.TIPNotFoundException;
 import uk.ac.standrews.cs.sos.impl.manifest.ManifestParam;
+import uk.ac.standrews.cs.sos.interfaces.manifests.DeletionListener;
+import uk.ac.standrews.cs.sos.interfaces.manifests.HeadListener;
 import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
 import uk.ac.standrews.cs.sos.model.Manifest;
 import uk.ac.standrews.cs.sos.model.ManifestType;
@@ -180,6 +182,31 @@ public interface ManifestsDataService extends Service {
      */
     void setHead(Version version);
 
+    /**
+     * Register a listener to be notified every time the HEAD of an asset is set,
+     * either explicitly or when the first version of an asset is added.
+     *
+     * @param listener to register
+     */
+    void addHeadListener(HeadListener listener);
+
+    /**
+     * @param listener to unregister
+     */
+    void removeHeadListener(HeadListener listener);
+
+    /**
+     * Register a listener to be notified every time a manifest is deleted from this node.
+     *
+     * @param listener to register
+     */
+    void addDeletionListener(DeletionListener listener);
+
+    /**
+     * @param listener to unregister
+     */
+    void removeDeletionListener(DeletionListener listener);
+
     /**
      * Get all the known version for an invariant.
      *
@@ -21,8 +21,12 @@ import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataPersistException;
 import uk.ac.standrews.cs.sos.impl.metadata.MetadataBuilder;
+import uk.ac.standrews.cs.sos.impl.metadata.Property;
 import uk.ac.standrews.cs.sos.model.Metadata;
 import uk.ac.standrews.cs.sos.model.NodesCollection;
+import uk.ac.standrews.cs.sos.model.Version;
+
+import java.util.Set;
 
 /**
  * Metadata Management Service (MMS)
@@ -65,4 +69,54 @@ public interface MetadataService extends Service {
      * @throws MetadataNotFoundException if the metadata could not be found
      */
     Metadata getMetadata(NodesCollection nodesCollection, IGUID guid) throws MetadataNotFoundException;
+
+    /**
+     * Link the version to its metadata, so that the version can be found by the properties of its metadata.
+     *
+     * @param version to link
+     */
+    void linkVersion(Version version);
+
+    /**
+     * Get a property of the metadata of a version.
+     * The properties are read from the metadata index, so the version and metadata manifests are loaded only the first time.
+     *
+     * @param version guid of the version
+     * @param property name of the property
+     * @return the property or null if the metadata has no such property
+     * @throws MetadataNotFoundException if the version or its metadata could not be found
+     */
+    Property getProperty(IGUID version, String property) throws MetadataNotFoundException;
+
+    /**
+     * Find the versions whose metadata has the given STRING value for the property.
+     * Only the versions stored locally or linked to their metadata are found (@see linkVersion and getProperty).
+     *
+     * @param property name of the property
+     * @param value of the property
+     * @return the guids of the versions
+     */
+    Set<IGUID> findVersions(String property, String value);
+
+    /**
+     * Find the versions whose metadata has a LONG value for the property within the given range (inclusive).
+     * Only the versions stored locally or linked to their metadata are found (@see linkVersion and getProperty).
+     *
+     * @param property name of the property
+     * @param from lowest value
+     * @param to highest value
+     * @return the guids of the versions
+     */
+    Set<IGUID> findVersions(String property, long from, long to);
+
+    /**
+     * Find the versions whose metadata has a DOUBLE value for the property within the given range (inclusive).
+     * Only the versions stored locally or linked to their metadata are found (@see linkVersion and getProperty).
+     *
+     * @param property name of the property
+     * @param from lowest value
+     * @param to highest value
+     * @return the guids of the versions
+     */
+    Set<IGUID> findVersions(String property, double from, double to);
 }
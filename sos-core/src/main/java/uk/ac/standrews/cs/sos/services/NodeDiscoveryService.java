@@ -24,6 +24,8 @@ import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.sos.model.NodesCollection;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -144,4 +146,29 @@ public interface NodeDiscoveryService extends Service {
      */
     NodeStats getNodeStats(IGUID guid);
 
+    /**
+     * Rank the given nodes to look up the entity with the matching GUID.
+     * The nodes are ranked by the placement strategy of this node, so that the nodes where the entity is most likely
+     * to be placed are asked first. Available nodes come first, and much slower nodes are moved down a little
+     * (see LookupOrder).
+     *
+     * @param guid of the entity
+     * @param nodes to rank
+     * @param limit max number of nodes to return. All nodes are ranked if limit is NO_LIMIT
+     * @return the ranked nodes
+     */
+    List<IGUID> rankNodes(IGUID guid, Collection<IGUID> nodes, int limit);
+
+    /**
+     * Choose the nodes of the given type where the entity with the matching GUID should be replicated.
+     * A collection of type ANY resolves to all the known nodes of the given type, while LOCAL resolves to this node.
+     *
+     * @param guid of the entity to replicate
+     * @param nodesCollection the nodes allowed to hold the entity
+     * @param type of the nodes
+     * @param limit max number of nodes to choose. All nodes are ranked if limit is NO_LIMIT
+     * @return the chosen nodes, ordered by preference
+     */
+    NodesCollection placeReplicas(IGUID guid, NodesCollection nodesCollection, NodeType type, int limit);
+
 }
@@ -29,6 +29,7 @@ import uk.ac.standrews.cs.sos.impl.datamodel.builders.CompoundBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.LocationBundle;
 import uk.ac.standrews.cs.sos.model.*;
 
+import java.io.File;
 import java.util.List;
 import java.util.Queue;
 
@@ -57,12 +58,15 @@ public interface StorageService extends Service {
     Atom addAtom(AtomBuilder atomBuilder) throws DataStorageException, ManifestPersistException;
 
     /**
-     * Add chunked data
+     * Add chunked data.
+     * The data of the atom builder set in the compound builder is split in content-defined chunks and each chunk is added as an atom.
+     * The contents of the compound builder are set to the chunks, labelled with their position and length.
+     * Protected data cannot be chunked, since chunks encrypted with different keys would never be shared.
      *
-     * @param compoundBuilder
-     * @return
-     * @throws DataStorageException
-     * @throws ManifestPersistException
+     * @param compoundBuilder of type DATA
+     * @return the atoms for the chunks, in order
+     * @throws DataStorageException if the data could not be added or is protected
+     * @throws ManifestPersistException if the manifest of a chunk could not be created
      */
     List<Atom> addAtom(CompoundBuilder compoundBuilder) throws DataStorageException, ManifestPersistException;
 
@@ -96,6 +100,16 @@ public interface StorageService extends Service {
      */
     Data getSecureAtomContent(SecureAtom atom, Role role) throws DataNotFoundException;
 
+    /**
+     * Get the data of a compound of type DATA, by reassembling its chunks.
+     * The chunks are fetched lazily while the data is being read. Chunks that are protected atoms cannot be read.
+     *
+     * @param compound of type DATA
+     * @return the data
+     * @throws DataNotFoundException if the compound is not of type DATA
+     */
+    Data getCompoundContent(Compound compound) throws DataNotFoundException;
+
     /**
      * Get the data for the atom with the specified GUID
      *
@@ -141,6 +155,15 @@ public interface StorageService extends Service {
 
     boolean atomExists(IGUID guid);
 
+    /**
+     * Get the file of an atom stored in this node, so that it can be sent without copying it (e.g. via sendfile)
+     * or read by ranges.
+     *
+     * @param guid of the atom
+     * @return the file or null if the atom is not stored in this node
+     */
+    File getLocalAtomFile(IGUID guid);
+
     /**
      * Challenge the storage for the atom matching the given guid.
      *
@@ -160,6 +183,33 @@ public interface StorageService extends Service {
      */
     void deleteAtom(IGUID guid) throws AtomNotFoundException;
 
+    /**
+     * Evict atoms that were fetched from other nodes and cached locally, from the least recently used one,
+     * until at least the given number of bytes is freed or there are no more cached atoms.
+     *
+     * @param bytes to free
+     * @return the number of bytes actually freed
+     */
+    long cleanCache(long bytes);
+
+    /**
+     * Check the text index of this node for the given atom.
+     * Atoms that are not indexed (e.g. if the text index is disabled) may contain any text.
+     *
+     * @param guid of the atom
+     * @param text to look for
+     * @return false only if the atom definitely does not contain the text
+     */
+    boolean mayContainText(IGUID guid, String text);
+
+    /**
+     * Rebuild the text index from the atoms stored in this node. The index is rebuilt in the background.
+     *
+     * @return the number of atoms to be indexed
+     * @throws DataStorageException if the text index is disabled or the atoms could not be listed
+     */
+    int rebuildTextIndex() throws DataStorageException;
+
     /**
      * Flush all indexes and caches managed by the storage actor
      */
@@ -19,6 +19,7 @@ package uk.ac.standrews.cs.sos.utils;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.logger.Logger;
+import uk.ac.standrews.cs.sos.instrument.InstrumentLog;
 
 /**
  * This is a SOS LOG wrapper.
@@ -40,6 +41,8 @@ public class SOS_LOG {
         log.disable("org.eclipse.jetty");
         log.disable("o.a.h");
         log.disable("spark");
+
+        InstrumentLog.setSink(SOS_LOG::log);
     }
 
     public static void log(LEVEL level, String message) {
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.context;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ContextsEngineTest {
+
+    @Test
+    public void allTasksRunTest() {
+
+        ContextsEngine engine = new ContextsEngine(4);
+        AtomicInteger counter = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+
+        ContextsEngine.Batch batch = engine.newBatch(3);
+        for (int c = 0; c < 3; c++) {
+            batch.submit(tasks(100, counter::incrementAndGet), completed::incrementAndGet);
+        }
+        batch.await();
+
+        assertEquals(counter.get(), 300);
+        assertEquals(completed.get(), 3);
+        engine.shutdown();
+    }
+
+    @Test
+    public void completionRunsAfterAllTasksTest() {
+
+        ContextsEngine engine = new ContextsEngine(4);
+        AtomicInteger counter = new AtomicInteger();
+        AtomicInteger countOnCompletion = new AtomicInteger(-1);
+
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        batch.submit(tasks(50, counter::incrementAndGet), () -> countOnCompletion.set(counter.get()));
+        batch.await();
+
+        assertEquals(countOnCompletion.get(), 50);
+        engine.shutdown();
+    }
+
+    @Test
+    public void contextWithNoTasksCompletesTest() {
+
+        ContextsEngine engine = new ContextsEngine(2);
+        AtomicBoolean completed = new AtomicBoolean(false);
+
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        batch.submit(Collections.emptyList(), () -> completed.set(true));
+        batch.await();
+
+        assertTrue(completed.get());
+        engine.shutdown();
+    }
+
+    @Test
+    public void failingTaskDoesNotStopContextTest() {
+
+        ContextsEngine engine = new ContextsEngine(2);
+        AtomicInteger counter = new AtomicInteger();
+        AtomicBoolean completed = new AtomicBoolean(false);
+
+        List<Runnable> tasks = tasks(10, counter::incrementAndGet);
+        tasks.add(0, () -> { throw new IllegalStateException("failing task"); });
+
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        batch.submit(tasks, () -> completed.set(true));
+        batch.await();
+
+        assertEquals(counter.get(), 10);
+        assertTrue(completed.get());
+        engine.shutdown();
+    }
+
+    // Every slot of the context fails with an Error: the remaining tasks must still be scheduled and the context completed
+    @Test (timeOut = 10000)
+    public void taskThrowingErrorDoesNotStopContextTest() {
+
+        ContextsEngine engine = new ContextsEngine(2);
+        AtomicInteger counter = new AtomicInteger();
+        AtomicBoolean completed = new AtomicBoolean(false);
+
+        List<Runnable> tasks = tasks(10, counter::incrementAndGet);
+        for (int i = 0; i < engine.getParallelism(); i++) {
+            tasks.add(0, () -> { throw new StackOverflowError("failing task"); });
+        }
+
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        batch.submit(tasks, () -> completed.set(true));
+        batch.await();
+
+        assertEquals(counter.get(), 10);
+        assertTrue(completed.get());
+        engine.shutdown();
+    }
+
+    @Test (timeOut = 10000)
+    public void completionThrowingErrorDoesNotBlockBatchTest() {
+
+        ContextsEngine engine = new ContextsEngine(2);
+        AtomicBoolean completed = new AtomicBoolean(false);
+
+        ContextsEngine.Batch batch = engine.newBatch(2);
+        batch.submit(tasks(5, () -> {}), () -> { throw new LinkageError("failing completion"); });
+        batch.submit(tasks(5, () -> {}), () -> completed.set(true));
+        batch.await();
+
+        assertTrue(completed.get());
+        engine.shutdown();
+    }
+
+    @Test
+    public void contextsAreFairTest() {
+
+        // Two contexts sharing four threads run at most two tasks each at a time
+        ContextsEngine engine = new ContextsEngine(4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        Runnable task = () -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            sleep();
+            running.decrementAndGet();
+        };
+
+        ContextsEngine.Batch batch = engine.newBatch(2);
+        batch.submit(tasks(20, task), () -> {});
+        batch.submit(tasks(20, () -> {}), () -> {});
+        batch.await();
+
+        assertTrue(maxRunning.get() <= 2);
+        engine.shutdown();
+    }
+
+    @Test
+    public void tasksRunAfterShutdownTest() {
+
+        ContextsEngine engine = new ContextsEngine(2);
+        engine.shutdown();
+
+        AtomicInteger counter = new AtomicInteger();
+        ContextsEngine.Batch batch = engine.newBatch(1);
+        batch.submit(tasks(10, counter::incrementAndGet), () -> {});
+        batch.await();
+
+        assertEquals(counter.get(), 10);
+    }
+
+    private List<Runnable> tasks(int numberOfTasks, Runnable task) {
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < numberOfTasks; i++) {
+            tasks.add(task);
+        }
+
+        return tasks;
+    }
+
+    private void sleep() {
+
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.context;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.mock.action.ExpectationCallback;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.data.StringData;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.sos.SettingsConfiguration;
+import uk.ac.standrews.cs.sos.exceptions.ConfigurationException;
+import uk.ac.standrews.cs.sos.exceptions.manifest.AtomNotFoundException;
+import uk.ac.standrews.cs.sos.exceptions.node.NodeNotFoundException;
+import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.impl.node.SOSNode;
+import uk.ac.standrews.cs.sos.impl.protocol.json.ChallengePackage;
+import uk.ac.standrews.cs.sos.impl.protocol.tasks.EntityChallenge;
+import uk.ac.standrews.cs.sos.services.ManifestsDataService;
+import uk.ac.standrews.cs.sos.services.NodeDiscoveryService;
+import uk.ac.standrews.cs.sos.services.StorageService;
+import uk.ac.standrews.cs.sos.utils.JSONHelper;
+import uk.ac.standrews.cs.sos.utils.SOS_LOG;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.model.HttpCallback.callback;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+import static uk.ac.standrews.cs.sos.constants.Paths.TEST_RESOURCES_PATH;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ReplicasAuditorTest {
+
+    private static final int MOCK_SERVER_PORT = 10008;
+    private static final String CHALLENGE_PATH = "/sos/storage/atoms/challenge";
+
+    // Data held by the mock node, by GUID
+    private static final Map<String, String> NODE_DATA = new ConcurrentHashMap<>();
+
+    private ClientAndServer mockServer;
+
+    private ReplicasAuditor replicasAuditor;
+    private Set<IGUID> nodes;
+
+    private IGUID heldData;
+    private IGUID missingData;
+    private IGUID corruptedData;
+
+    @BeforeMethod
+    public void setUp() throws ConfigurationException, GUIDGenerationException, NodeNotFoundException, AtomNotFoundException {
+
+        SettingsConfiguration.Settings settings = new SettingsConfiguration(new File(TEST_RESOURCES_PATH + "configurations/data_replication_test.json")).getSettingsObj();
+        SOSLocalNode.settings = settings;
+
+        new SOS_LOG(GUIDFactory.generateRandomGUID(GUID_ALGORITHM));
+
+        heldData = GUIDFactory.generateGUID(GUID_ALGORITHM, "held data");
+        missingData = GUIDFactory.generateGUID(GUID_ALGORITHM, "missing data");
+        corruptedData = GUIDFactory.generateGUID(GUID_ALGORITHM, "corrupted data");
+
+        // The node holds a different version of the corrupted data, so it cannot answer the challenge correctly
+        NODE_DATA.clear();
+        NODE_DATA.put(heldData.toMultiHash(), "held data");
+        NODE_DATA.put(corruptedData.toMultiHash(), "data that was corrupted");
+
+        mockServer = startClientAndServer(MOCK_SERVER_PORT);
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath(CHALLENGE_PATH)
+                )
+                .callback(
+                        callback()
+                                .withCallbackClass(ChallengeCallback.class.getName())
+                );
+
+        IGUID nodeGUID = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        SOSNode node = new SOSNode(nodeGUID, null,
+                "localhost", MOCK_SERVER_PORT,
+                false, true, false, false, false, false, false, false);
+
+        NodeDiscoveryService nodeDiscoveryService = mock(NodeDiscoveryService.class);
+        when(nodeDiscoveryService.getNode(nodeGUID)).thenReturn(node);
+
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.getAtomContent(heldData)).thenReturn(new StringData("held data"));
+        when(storageService.getAtomContent(missingData)).thenReturn(new StringData("missing data"));
+        when(storageService.getAtomContent(corruptedData)).thenReturn(new StringData("corrupted data"));
+
+        replicasAuditor = new ReplicasAuditor(nodeDiscoveryService, mock(ManifestsDataService.class), storageService);
+        nodes = Collections.singleton(nodeGUID);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        mockServer.stop();
+    }
+
+    @Test
+    public void dataHoldersTest() {
+
+        assertEquals(replicasAuditor.dataHolders(nodes, heldData), nodes);
+        assertTrue(replicasAuditor.dataHolders(nodes, missingData).isEmpty());
+        assertTrue(replicasAuditor.dataHolders(nodes, corruptedData).isEmpty());
+    }
+
+    @Test
+    public void noNodesTest() {
+
+        assertTrue(replicasAuditor.dataHolders(Collections.emptySet(), heldData).isEmpty());
+        mockServer.verify(request().withPath(CHALLENGE_PATH), VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void unknownNodeTest() throws GUIDGenerationException {
+
+        Set<IGUID> unknownNodes = Collections.singleton(GUIDFactory.generateRandomGUID(GUID_ALGORITHM));
+        assertTrue(replicasAuditor.dataHolders(unknownNodes, heldData).isEmpty());
+    }
+
+    @Test
+    public void sessionChallengesNodesOnceTest() {
+
+        try (ReplicasAuditor.Session ignored = replicasAuditor.startSession(nodes, Arrays.asList(heldData, missingData, corruptedData), Collections.emptyList())) {
+
+            assertEquals(replicasAuditor.dataHolders(nodes, heldData), nodes);
+            assertTrue(replicasAuditor.dataHolders(nodes, missingData).isEmpty());
+            assertTrue(replicasAuditor.dataHolders(nodes, corruptedData).isEmpty());
+        }
+
+        // All the data was challenged in a single request
+        mockServer.verify(request().withPath(CHALLENGE_PATH), VerificationTimes.exactly(1));
+    }
+
+    @Test
+    public void sessionWithoutChecksChallengesNoNodesTest() {
+
+        replicasAuditor.startSession(nodes, Arrays.asList(heldData, missingData, corruptedData), Collections.emptyList()).close();
+
+        // The data is audited only when its replicas are checked
+        mockServer.verify(request().withPath(CHALLENGE_PATH), VerificationTimes.exactly(0));
+    }
+
+    @Test
+    public void closedSessionChallengesNodesAgainTest() {
+
+        try (ReplicasAuditor.Session ignored = replicasAuditor.startSession(nodes, Collections.singletonList(heldData), Collections.emptyList())) {
+            assertEquals(replicasAuditor.dataHolders(nodes, heldData), nodes);
+        }
+
+        assertEquals(replicasAuditor.dataHolders(nodes, heldData), nodes);
+        mockServer.verify(request().withPath(CHALLENGE_PATH), VerificationTimes.exactly(2));
+    }
+
+    /**
+     * Answers the challenges as a node holding the NODE_DATA.
+     */
+    public static class ChallengeCallback implements ExpectationCallback {
+
+        @Override
+        public HttpResponse handle(HttpRequest httpRequest) {
+
+            try {
+                ChallengePackage challengePackage = JSONHelper.jsonObjMapper().readValue(httpRequest.getBodyAsString(), ChallengePackage.class);
+
+                ObjectNode results = JSONHelper.jsonObjMapper().createObjectNode();
+                for (String guid : challengePackage.getGuids()) {
+                    String data = NODE_DATA.get(guid);
+                    if (data == null) continue;
+
+                    IGUID result = EntityChallenge.challengeResult(new ByteArrayInputStream(data.getBytes()), challengePackage.getChallenge());
+                    results.put(guid, result.toMultiHash());
+                }
+
+                return response().withStatusCode(200).withBody(results.toString());
+
+            } catch (Exception e) {
+                return response().withStatusCode(500);
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import uk.ac.standrews.cs.sos.exceptions.context.PolicyException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotMadeException;
 import uk.ac.standrews.cs.sos.exceptions.metadata.MetadataPersistException;
 import uk.ac.standrews.cs.sos.exceptions.reflection.ClassLoaderException;
+import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.context.CommonUtilities;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.VersionBuilder;
 import uk.ac.standrews.cs.sos.impl.metadata.MetadataManifest;
@@ -36,6 +37,7 @@ import uk.ac.standrews.cs.sos.model.Predicate;
 import uk.ac.standrews.cs.sos.model.Version;
 import uk.ac.standrews.cs.sos.utils.JSONHelper;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
@@ -81,6 +83,53 @@ public class SOSReflectionTest extends SetUpTest {
         assertTrue(predicate.test(GUIDFactory.generateRandomGUID(GUID_ALGORITHM)));
     }
 
+    @Test
+    public void predicateLoadedFromBytecodeCache() throws IOException, ClassLoaderException, DataStorageException {
+
+        String JSON_PREDICATE =
+                "{\n" +
+                        "\t\"type\": \"Predicate\",\n" +
+                        "\t\"predicate\": \"!false;\"\n" +
+                        "}";
+
+        JsonNode node = JSONHelper.jsonObjMapper().readTree(JSON_PREDICATE);
+        SOSReflection.instance().load(node);
+
+        String className = new PredicateClassBuilder().className(node);
+        File cache = new File(localStorage.getJavaDirectory().toFile(), SOSReflection.apiFingerprint());
+        File classFile = new File(cache, "uk/ac/standrews/cs/sos/impl/context/" + className + ".class");
+        assertTrue(classFile.isFile());
+
+        // Simulate a restart of the node. The class is loaded from the cache, without loading the computational unit first
+        SOSReflection.init(localStorage);
+        Predicate predicate = SOSReflection.instance().predicateInstance(node);
+        assertTrue(predicate.test(GUIDFactory.generateRandomGUID(GUID_ALGORITHM)));
+
+        // Loading the computational unit again is a no-op
+        SOSReflection.instance().load(node);
+        assertNotNull(SOSReflection.instance().predicateInstance(node));
+    }
+
+    @Test
+    public void bytecodeOfOtherBuildsIsRemoved() throws IOException, ClassLoaderException, DataStorageException {
+
+        File otherCache = new File(localStorage.getJavaDirectory().toFile(), "0000000000000000/uk/ac/standrews/cs/sos/impl/context");
+        assertTrue(otherCache.mkdirs());
+        assertTrue(new File(otherCache, "SHA256_16_0000.class").createNewFile());
+
+        String JSON_PREDICATE =
+                "{\n" +
+                        "\t\"type\": \"Predicate\",\n" +
+                        "\t\"predicate\": \"!!true;\"\n" +
+                        "}";
+
+        JsonNode node = JSONHelper.jsonObjMapper().readTree(JSON_PREDICATE);
+        SOSReflection.instance().load(node);
+
+        assertFalse(new File(localStorage.getJavaDirectory().toFile(), "0000000000000000").exists());
+        assertTrue(new File(localStorage.getJavaDirectory().toFile(), SOSReflection.apiFingerprint()).isDirectory());
+    }
+
     @Test
     public void loadNonTrivialPredicate() throws IOException, ClassLoaderException, ManifestNotMadeException, MetadataPersistException, ServiceException {
 
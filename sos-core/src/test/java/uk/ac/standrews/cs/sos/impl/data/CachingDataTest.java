@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.CastoreBuilder;
+import uk.ac.standrews.cs.castore.CastoreFactory;
+import uk.ac.standrews.cs.castore.CastoreType;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.data.StringData;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.CommonTest;
+import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
+import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.BundleTypes;
+import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class CachingDataTest extends CommonTest {
+
+    private static final String TEST_DATA = "some data fetched from another node";
+
+    private LocalStorage localStorage;
+    private AtomStorage atomStorage;
+    private List<StoredAtomInfo> stored;
+
+    @BeforeMethod
+    public void setUp(Method testMethod) throws Exception {
+        super.setUp(testMethod);
+
+        String root = System.getProperty("user.home") + "/sos/";
+        CastoreBuilder castoreBuilder = new CastoreBuilder()
+                .setType(CastoreType.LOCAL)
+                .setRoot(root);
+        localStorage = new LocalStorage(CastoreFactory.createStorage(castoreBuilder));
+
+        atomStorage = new AtomStorage(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), localStorage);
+        stored = new ArrayList<>();
+    }
+
+    @AfterMethod
+    public void tearDown() throws DataStorageException {
+        localStorage.destroy();
+    }
+
+    @Test
+    public void dataIsCachedWhileReadTest() throws Exception {
+
+        IGUID guid = GUIDFactory.generateGUID(GUID_ALGORITHM, TEST_DATA);
+        Data data = atomStorage.storeVerifiedWhileReading(guid, new StringData(TEST_DATA), BundleTypes.CACHE, stored::add);
+
+        try (InputStream inputStream = data.getInputStream()) {
+            byte[] first = new byte[4];
+            assertEquals(inputStream.read(first), 4);
+            assertEquals(new String(first), TEST_DATA.substring(0, 4));
+
+            // Nothing is stored until the whole data has been read
+            assertTrue(stored.isEmpty());
+            assertFalse(localStorage.getAtomsDirectory().contains(guid.toMultiHash()));
+
+            assertEquals(IOUtils.toString(inputStream, "UTF-8"), TEST_DATA.substring(4));
+        }
+
+        assertEquals(stored.size(), 1);
+        assertEquals(stored.get(0).getGuid(), guid);
+        assertEquals(stored.get(0).getSize(), TEST_DATA.length());
+        assertEquals(data.getSize(), TEST_DATA.length());
+        assertEquals(stored.get(0).getLocationBundle().getType(), BundleTypes.CACHE);
+        assertTrue(localStorage.getAtomsDirectory().contains(guid.toMultiHash()));
+    }
+
+    @Test
+    public void sizeIsUnknownUntilReadTest() throws Exception {
+
+        IGUID guid = GUIDFactory.generateGUID(GUID_ALGORITHM, TEST_DATA);
+        Data data = atomStorage.storeVerifiedWhileReading(guid, new StringData(TEST_DATA), BundleTypes.CACHE, stored::add);
+
+        assertEquals(data.getSize(), -1);
+    }
+
+    @Test
+    public void dataNotMatchingGUIDIsNotCachedTest() throws Exception {
+
+        IGUID guid = GUIDFactory.generateGUID(GUID_ALGORITHM, "some other data");
+        Data data = atomStorage.storeVerifiedWhileReading(guid, new StringData(TEST_DATA), BundleTypes.CACHE, stored::add);
+
+        try (InputStream inputStream = data.getInputStream()) {
+            IOUtils.toByteArray(inputStream);
+            fail("The data does not match the GUID");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertTrue(stored.isEmpty());
+        assertFalse(localStorage.getAtomsDirectory().contains(guid.toMultiHash()));
+    }
+
+    @Test
+    public void dataClosedEarlyIsNotCachedTest() throws Exception {
+
+        IGUID guid = GUIDFactory.generateGUID(GUID_ALGORITHM, TEST_DATA);
+        Data data = atomStorage.storeVerifiedWhileReading(guid, new StringData(TEST_DATA), BundleTypes.CACHE, stored::add);
+
+        try (InputStream inputStream = data.getInputStream()) {
+            assertNotEquals(inputStream.read(), -1);
+        }
+
+        assertTrue(stored.isEmpty());
+        assertFalse(localStorage.getAtomsDirectory().contains(guid.toMultiHash()));
+    }
+
+    @Test
+    public void dataIsVerifiedOnEveryReadTest() throws Exception {
+
+        IGUID guid = GUIDFactory.generateGUID(GUID_ALGORITHM, "some other data");
+        Data data = atomStorage.storeVerifiedWhileReading(guid, new StringData(TEST_DATA), BundleTypes.CACHE, stored::add);
+        data.getInputStream().close();
+
+        try (InputStream inputStream = data.getInputStream()) {
+            IOUtils.toByteArray(inputStream);
+            fail("The data does not match the GUID");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.data.InputStreamData;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ChunkedDataTest {
+
+    @Test
+    public void chunkLabelTest() {
+
+        String label = ChunkedData.chunkLabel(3, 4096);
+        assertEquals(ChunkedData.chunkPosition(label), 3);
+        assertEquals(ChunkedData.chunkLength(label), 4096);
+    }
+
+    @Test
+    public void chunkLabelWithoutLengthTest() {
+
+        assertEquals(ChunkedData.chunkPosition("3"), 3);
+        assertEquals(ChunkedData.chunkLength("3"), -1);
+
+        assertEquals(ChunkedData.chunkPosition("cat"), -1);
+        assertEquals(ChunkedData.chunkPosition(null), -1);
+    }
+
+    @Test
+    public void readChunksTest() throws IOException {
+
+        IGUID first = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID second = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        Map<IGUID, byte[]> chunks = new HashMap<>();
+        chunks.put(first, "hello ".getBytes());
+        chunks.put(second, "world".getBytes());
+
+        AtomicInteger reads = new AtomicInteger();
+        ChunkedData data = new ChunkedData(Arrays.asList(first, second, first), 17, chunk -> {
+            reads.incrementAndGet();
+            return new InputStreamData(new ByteArrayInputStream(chunks.get(chunk)));
+        });
+
+        // The size does not require the chunks to be read
+        assertEquals(data.getSize(), 17);
+        assertEquals(reads.get(), 0);
+
+        assertEquals(IOUtils.toString(data.getInputStream(), "UTF-8"), "hello world" + "hello ");
+        assertEquals(reads.get(), 3);
+    }
+
+    @Test
+    public void chunksAreClosedOnceReadTest() throws IOException {
+
+        IGUID first = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID second = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        AtomicInteger closed = new AtomicInteger();
+        ChunkedData data = new ChunkedData(Arrays.asList(first, second), 10, chunk -> new CloseCountingData("chunk", closed));
+
+        try (InputStream inputStream = data.getInputStream()) {
+            assertEquals(inputStream.read(new byte[5]), 5);
+            assertEquals(closed.get(), 0);
+
+            // Reading past the first chunk closes it
+            assertEquals(inputStream.read(new byte[5]), 5);
+            assertEquals(closed.get(), 1);
+        }
+
+        assertEquals(closed.get(), 2);
+    }
+
+    @Test
+    public void closeDoesNotFetchRemainingChunksTest() throws IOException {
+
+        IGUID first = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID second = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID third = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        AtomicInteger reads = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        ChunkedData data = new ChunkedData(Arrays.asList(first, second, third), 15, chunk -> {
+            reads.incrementAndGet();
+            return new CloseCountingData("chunk", closed);
+        });
+
+        InputStream inputStream = data.getInputStream();
+        assertEquals(inputStream.read(), 'c');
+        inputStream.close();
+
+        assertEquals(reads.get(), 1);
+        assertEquals(closed.get(), 1);
+    }
+
+    private static class CloseCountingData implements Data {
+
+        private final byte[] bytes;
+        private final AtomicInteger closed;
+
+        CloseCountingData(String content, AtomicInteger closed) {
+            this.bytes = content.getBytes();
+            this.closed = closed;
+        }
+
+        @Override
+        public byte[] getState() {
+            return bytes;
+        }
+
+        @Override
+        public long getSize() {
+            return bytes.length;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.data.StringData;
+import uk.ac.standrews.cs.utilities.crypto.CryptoException;
+import uk.ac.standrews.cs.utilities.crypto.SymmetricEncryption;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class CipherDataTest {
+
+    @Test
+    public void encryptAndDecryptTest() throws CryptoException, IOException {
+
+        SecretKey key = SymmetricEncryption.generateRandomKey();
+
+        String text = "some text to protect";
+        try (Data encrypted = CipherData.encrypt(new StringData(text), key)) {
+
+            byte[] encryptedBytes = encrypted.getState();
+            assertNotEquals(new String(encryptedBytes), text);
+
+            Data decrypted = CipherData.decrypt(new BytesData(encryptedBytes), key);
+            assertEquals(IOUtils.toString(decrypted.getInputStream(), "UTF-8"), text);
+        }
+    }
+
+    @Test
+    public void sizeIsUnknownTest() throws CryptoException {
+
+        SecretKey key = SymmetricEncryption.generateRandomKey();
+
+        // The IV and the padding change the size of the data
+        assertEquals(CipherData.encrypt(new StringData("some text"), key).getSize(), -1);
+        assertEquals(CipherData.decrypt(new StringData("some text"), key).getSize(), -1);
+    }
+
+    @Test (expectedExceptions = IOException.class)
+    public void decryptionFailureIsRethrownTest() throws CryptoException, IOException {
+
+        SecretKey key = SymmetricEncryption.generateRandomKey();
+
+        // The data was not encrypted, so the cipher fails rather than the reader getting a truncated stream
+        Data decrypted = CipherData.decrypt(new StringData("this data was never encrypted"), key);
+        IOUtils.toByteArray(decrypted.getInputStream());
+    }
+
+    @Test (timeOut = 10000)
+    public void closingReaderStopsCipherTest() throws CryptoException, IOException, InterruptedException {
+
+        SecretKey key = SymmetricEncryption.generateRandomKey();
+        EndlessData endlessData = new EndlessData();
+
+        InputStream inputStream = CipherData.encrypt(endlessData, key).getInputStream();
+        assertEquals(inputStream.read(new byte[16]), 16);
+
+        // The cipher thread blocks on the full pipe until the reader closes its end
+        inputStream.close();
+        assertTrue(endlessData.closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test (timeOut = 10000)
+    public void streamsDoNotWaitOnEachOtherTest() throws CryptoException, IOException {
+
+        SecretKey key = SymmetricEncryption.generateRandomKey();
+
+        // Every stream fills its pipe and blocks, since nothing is read from it
+        int streams = 2 * Runtime.getRuntime().availableProcessors() + 2;
+        List<InputStream> blocked = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            InputStream inputStream = CipherData.encrypt(new EndlessData(), key).getInputStream();
+            assertEquals(inputStream.read(new byte[16]), 16);
+            blocked.add(inputStream);
+        }
+
+        // Encrypting the decrypted data needs a further cipher thread while the decryption is in progress
+        String text = "some text to protect";
+        byte[] encrypted = CipherData.encrypt(new StringData(text), key).getState();
+        Data decrypted = CipherData.decrypt(new BytesData(encrypted), key);
+        Data encryptedAgain = CipherData.encrypt(decrypted, key);
+
+        Data decryptedAgain = CipherData.decrypt(new BytesData(encryptedAgain.getState()), key);
+        assertEquals(IOUtils.toString(decryptedAgain.getInputStream(), "UTF-8"), text);
+
+        for (InputStream inputStream : blocked) {
+            inputStream.close();
+        }
+    }
+
+    private static class BytesData implements Data {
+
+        private final byte[] bytes;
+
+        BytesData(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public byte[] getState() {
+            return bytes;
+        }
+
+        @Override
+        public long getSize() {
+            return bytes.length;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    /**
+     * Data that never ends, so that the cipher can only stop if the reader aborts it.
+     */
+    private static class EndlessData implements Data {
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public byte[] getState() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+
+            return new InputStream() {
+
+                @Override
+                public int read() {
+                    return 'a';
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    Arrays.fill(b, off, off + len, (byte) 'a');
+                    return len;
+                }
+
+                @Override
+                public void close() {
+                    closed.countDown();
+                }
+            };
+        }
+
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ContentDefinedChunkerTest {
+
+    private static final int AVERAGE_CHUNK_SIZE = 4096;
+
+    @Test
+    public void emptyDataHasNoChunks() throws Exception {
+
+        try (ContentDefinedChunker chunker = new ContentDefinedChunker(new ByteArrayInputStream(new byte[0]), AVERAGE_CHUNK_SIZE)) {
+            assertNull(chunker.next());
+        }
+    }
+
+    @Test
+    public void smallDataIsOneChunk() throws Exception {
+
+        byte[] data = randomData(100, 1);
+        List<byte[]> chunks = chunk(data);
+
+        assertEquals(chunks.size(), 1);
+        assertEquals(chunks.get(0), data);
+    }
+
+    @Test
+    public void chunksReassembleToData() throws Exception {
+
+        byte[] data = randomData(1024 * 1024, 1);
+        List<byte[]> chunks = chunk(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            out.write(chunk);
+        }
+
+        assertEquals(out.toByteArray(), data);
+    }
+
+    @Test
+    public void chunksAreWithinBounds() throws Exception {
+
+        byte[] data = randomData(1024 * 1024, 2);
+        List<byte[]> chunks = chunk(data);
+
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            int length = chunks.get(i).length;
+            assertTrue(length >= AVERAGE_CHUNK_SIZE / 4);
+            assertTrue(length <= AVERAGE_CHUNK_SIZE * 4);
+        }
+    }
+
+    @Test
+    public void insertionChangesOnlyNearbyChunks() throws Exception {
+
+        byte[] data = randomData(1024 * 1024, 3);
+
+        byte[] edited = new byte[data.length + 10];
+        int insertionPoint = data.length / 2;
+        System.arraycopy(data, 0, edited, 0, insertionPoint);
+        System.arraycopy(randomData(10, 4), 0, edited, insertionPoint, 10);
+        System.arraycopy(data, insertionPoint, edited, insertionPoint + 10, data.length - insertionPoint);
+
+        Set<String> originalChunks = new HashSet<>();
+        for (byte[] chunk : chunk(data)) {
+            originalChunks.add(Base64.getEncoder().encodeToString(chunk));
+        }
+
+        List<byte[]> editedChunks = chunk(edited);
+        int shared = 0;
+        for (byte[] chunk : editedChunks) {
+            if (originalChunks.contains(Base64.getEncoder().encodeToString(chunk))) {
+                shared++;
+            }
+        }
+
+        assertTrue(shared >= editedChunks.size() - 3);
+    }
+
+    private List<byte[]> chunk(byte[] data) throws Exception {
+
+        List<byte[]> chunks = new LinkedList<>();
+        try (ContentDefinedChunker chunker = new ContentDefinedChunker(new ByteArrayInputStream(data), AVERAGE_CHUNK_SIZE)) {
+
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                chunks.add(chunk);
+            }
+        }
+
+        return chunks;
+    }
+
+    private byte[] randomData(int size, long seed) {
+
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+
+        return data;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+
+import java.io.*;
+import java.util.List;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class RemoteAtomsCacheTest {
+
+    @Test
+    public void basicTest() {
+
+        RemoteAtomsCache cache = new RemoteAtomsCache();
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        cache.add(guid, 100);
+
+        assertTrue(cache.contains(guid));
+        assertEquals(cache.getSize(), 100);
+        assertEquals(cache.count(), 1);
+
+        assertEquals(cache.remove(guid), 100);
+        assertFalse(cache.contains(guid));
+        assertEquals(cache.getSize(), 0);
+        assertEquals(cache.remove(guid), 0);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedTest() {
+
+        RemoteAtomsCache cache = new RemoteAtomsCache();
+        IGUID one = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID two = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID three = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        cache.add(one, 100);
+        cache.add(two, 100);
+        cache.add(three, 100);
+
+        // "one" becomes the most recently used atom
+        assertTrue(cache.touch(one));
+
+        List<IGUID> toEvict = cache.toEvict(150);
+        assertEquals(toEvict.size(), 2);
+        assertEquals(toEvict.get(0), two);
+        assertEquals(toEvict.get(1), three);
+
+        // Atoms are not removed until they are actually evicted
+        assertEquals(cache.count(), 3);
+    }
+
+    @Test
+    public void evictMoreThanCachedTest() {
+
+        RemoteAtomsCache cache = new RemoteAtomsCache();
+        cache.add(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), 100);
+
+        assertEquals(cache.toEvict(1000).size(), 1);
+        assertTrue(new RemoteAtomsCache().toEvict(1000).isEmpty());
+    }
+
+    @Test
+    public void serializationKeepsOrderTest() throws IOException, ClassNotFoundException {
+
+        RemoteAtomsCache cache = new RemoteAtomsCache();
+        IGUID one = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID two = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        cache.add(one, 10);
+        cache.add(two, 20);
+        cache.touch(one);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(cache);
+        }
+
+        RemoteAtomsCache loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (RemoteAtomsCache) in.readObject();
+        }
+
+        assertEquals(loaded.getSize(), 30);
+        assertEquals(loaded.toEvict(1).get(0), two);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.data;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.data.StringData;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class TextIndexTest {
+
+    private File snapshot;
+    private File log;
+    private Map<IGUID, Data> atoms;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+
+        File dir = Files.createTempDirectory("text-index").toFile();
+        snapshot = new File(dir, "text.index");
+        log = new File(dir, "text.index.log");
+        atoms = new HashMap<>();
+    }
+
+    @Test
+    public void basicTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        assertTrue(index.add(atom(guid, "Lorem ipsum dolor sit amet")).get());
+        assertTrue(index.isIndexed(guid));
+        assertEquals(index.size(), 1);
+
+        assertTrue(index.mayContain(guid, "ipsum"));
+        assertTrue(index.mayContain(guid, "IPSUM DOLOR"));
+        assertFalse(index.mayContain(guid, "consectetur"));
+
+        index.shutdown();
+    }
+
+    @Test
+    public void notIndexedMayContainAnythingTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        assertFalse(index.isIndexed(guid));
+        assertTrue(index.mayContain(guid, "anything"));
+
+        index.shutdown();
+    }
+
+    @Test
+    public void shortTextIsNotLookedUpTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.add(atom(guid, "abcdef")).get();
+
+        // Texts shorter than a trigram cannot be answered by the index
+        assertTrue(index.mayContain(guid, "zz"));
+        assertNull(index.candidates("zz"));
+
+        index.shutdown();
+    }
+
+    @Test
+    public void candidatesTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID one = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID two = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID three = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        index.add(atom(one, "the quick brown fox")).get();
+        index.add(atom(two, "the lazy dog")).get();
+        index.add(atom(three, "THE QUICK RED FOX")).get();
+
+        Set<IGUID> candidates = index.candidates("quick");
+        assertEquals(candidates.size(), 2);
+        assertTrue(candidates.contains(one));
+        assertTrue(candidates.contains(three));
+
+        assertTrue(index.candidates("elephant").isEmpty());
+
+        index.shutdown();
+    }
+
+    @Test
+    public void removeTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.add(atom(guid, "some text")).get();
+        index.remove(guid).get();
+
+        assertFalse(index.isIndexed(guid));
+        assertTrue(index.mayContain(guid, "other"));
+        assertTrue(index.candidates("text").isEmpty());
+
+        // The atom can be indexed again
+        index.add(atom(guid, "other text")).get();
+        assertTrue(index.isIndexed(guid));
+        assertFalse(index.mayContain(guid, "some"));
+
+        index.shutdown();
+    }
+
+    @Test
+    public void persistedLogTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID one = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID two = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.add(atom(one, "first atom")).get();
+        index.add(atom(two, "second atom")).get();
+        index.remove(two).get();
+        index.shutdown();
+
+        TextIndex loaded = new TextIndex(snapshot, log, atoms::get);
+        assertTrue(loaded.isIndexed(one));
+        assertFalse(loaded.isIndexed(two));
+        assertFalse(loaded.mayContain(one, "second"));
+        loaded.shutdown();
+    }
+
+    @Test
+    public void persistedSnapshotTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID one = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID two = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID three = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.add(atom(one, "first atom")).get();
+        index.add(atom(two, "second atom")).get();
+        index.remove(one).get();
+        index.compact().get();
+
+        // Updates after the snapshot are in the log
+        index.add(atom(three, "third atom")).get();
+        index.shutdown();
+
+        assertTrue(snapshot.exists());
+
+        TextIndex loaded = new TextIndex(snapshot, log, atoms::get);
+        assertEquals(loaded.size(), 2);
+        assertFalse(loaded.isIndexed(one));
+        assertTrue(loaded.isIndexed(two));
+        assertTrue(loaded.isIndexed(three));
+        assertEquals(loaded.candidates("atom").size(), 2);
+        assertFalse(loaded.mayContain(two, "third"));
+        loaded.shutdown();
+    }
+
+    @Test
+    public void partialRecordIsDroppedTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.add(atom(guid, "some text")).get();
+        index.shutdown();
+
+        // Simulate a crash while appending a record
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(file.length());
+            file.writeInt(1000);
+            file.writeByte(1);
+        }
+
+        TextIndex loaded = new TextIndex(snapshot, log, atoms::get);
+        assertTrue(loaded.isIndexed(guid));
+
+        IGUID other = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        loaded.add(atom(other, "other text")).get();
+        loaded.shutdown();
+
+        TextIndex reloaded = new TextIndex(snapshot, log, atoms::get);
+        assertTrue(reloaded.isIndexed(guid));
+        assertTrue(reloaded.isIndexed(other));
+        reloaded.shutdown();
+    }
+
+    @Test
+    public void malformedRecordLengthIsDroppedTest() throws Exception {
+
+        for (int length : new int[] { -5, 0, Integer.MAX_VALUE }) {
+
+            TextIndex index = new TextIndex(snapshot, log, atoms::get);
+            IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+            index.add(atom(guid, "some text")).get();
+            index.shutdown();
+
+            // A torn length, which must not be used to allocate the record
+            try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+                file.seek(file.length());
+                file.writeInt(length);
+            }
+
+            TextIndex loaded = new TextIndex(snapshot, log, atoms::get);
+            assertTrue(loaded.isIndexed(guid));
+            loaded.shutdown();
+        }
+    }
+
+    @Test
+    public void compactionThresholdTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        for (int i = 0; i < TextIndex.COMPACTION_THRESHOLD; i++) {
+            index.add(atom(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), "atom " + i)).get();
+        }
+        index.shutdown();
+
+        assertTrue(snapshot.exists());
+
+        TextIndex loaded = new TextIndex(snapshot, log, atoms::get);
+        assertEquals(loaded.size(), TextIndex.COMPACTION_THRESHOLD);
+        loaded.shutdown();
+    }
+
+    @Test
+    public void rebuildTest() throws Exception {
+
+        TextIndex index = new TextIndex(snapshot, log, atoms::get);
+        IGUID stale = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.add(atom(stale, "stale atom")).get();
+
+        IGUID one = atom(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), "first atom");
+        IGUID two = atom(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), "second atom");
+
+        assertEquals((int) index.rebuild(Arrays.asList(one, two)).get(), 2);
+        assertFalse(index.isIndexed(stale));
+        assertTrue(index.isIndexed(one));
+        assertTrue(index.isIndexed(two));
+
+        index.shutdown();
+    }
+
+    private IGUID atom(IGUID guid, String text) {
+
+        atoms.put(guid, new StringData(text));
+        return guid;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.database;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.interfaces.IFile;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.SetUpTest;
+import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
+import uk.ac.standrews.cs.sos.impl.context.directory.ContextVersionInfo;
+import uk.ac.standrews.cs.sos.interfaces.context.ContextsContentsDirectory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.time.Instant;
+import java.util.*;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.DB_FILE;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ContextsContentsDirectoryDatabaseTest extends SetUpTest {
+
+    private ContextsContentsDirectory directory;
+
+    @BeforeMethod
+    public void setUp(Method testMethod) throws Exception {
+        super.setUp(testMethod);
+
+        // Make sure that the DB path is clean
+        localStorage.getNodeDirectory().remove(DB_FILE);
+
+        IFile dbFile = localStorage.createFile(localStorage.getNodeDirectory(), DB_FILE);
+        DatabaseFactory.initInstance(dbFile);
+        directory = (ContextsContentsDirectory) DatabaseFactory.instance().getDatabase(DatabaseType.CONTEXTS);
+    }
+
+    @AfterMethod
+    public void tearDown() throws InterruptedException, DataStorageException, IOException {
+        super.tearDown();
+
+        DatabaseFactory.kill();
+    }
+
+    @Test
+    public void addAndGetEntryTest() {
+
+        IGUID context = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID version = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        assertFalse(directory.entryExists(context, version));
+
+        directory.addOrUpdateEntry(context, version, passed());
+        assertTrue(directory.entryExists(context, version));
+        assertTrue(directory.getEntry(context, version).predicateResult);
+    }
+
+    @Test
+    public void batchAddAndGetEntriesTest() {
+
+        IGUID context = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID otherContext = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        Map<IGUID, ContextVersionInfo> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 1200; i++) { // More than a single IN clause can hold
+            entries.put(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), passed());
+        }
+        directory.addOrUpdateEntries(context, entries);
+
+        IGUID unknown = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        List<IGUID> versions = new ArrayList<>(entries.keySet());
+        versions.add(unknown);
+
+        Map<IGUID, ContextVersionInfo> found = directory.getEntries(context, versions);
+        assertEquals(found.size(), entries.size());
+        assertFalse(found.containsKey(unknown));
+
+        assertTrue(directory.getEntries(otherContext, versions).isEmpty());
+        assertTrue(directory.getEntries(context, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void batchEvictTest() {
+
+        IGUID context = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID version = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID previousVersion = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        Map<IGUID, ContextVersionInfo> entries = new LinkedHashMap<>();
+        entries.put(version, passed());
+        entries.put(previousVersion, passed());
+        directory.addOrUpdateEntries(context, entries);
+
+        directory.evict(context, Collections.singleton(previousVersion));
+
+        Map<IGUID, ContextVersionInfo> notEvicted = directory.getContentsThatPassedPredicateTestRows(context, false);
+        assertEquals(notEvicted.size(), 1);
+        assertTrue(notEvicted.containsKey(version));
+
+        Map<IGUID, ContextVersionInfo> all = directory.getContentsThatPassedPredicateTestRows(context, true);
+        assertEquals(all.size(), 2);
+        assertTrue(all.get(previousVersion).evicted);
+
+        // The evicted entry is still known, so that the predicate does not have to be run again
+        assertTrue(directory.entryExists(context, previousVersion));
+    }
+
+    @Test
+    public void contentsAreScopedByContextTest() {
+
+        IGUID context = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID otherContext = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        directory.addOrUpdateEntry(context, GUIDFactory.generateRandomGUID(GUID_ALGORITHM), passed());
+        directory.addOrUpdateEntry(otherContext, GUIDFactory.generateRandomGUID(GUID_ALGORITHM), passed());
+
+        assertEquals(directory.getContentsThatPassedPredicateTestRows(context, true).size(), 1);
+        assertEquals(directory.getContentsThatPassedPredicateTestRows(context, false).size(), 1);
+
+        directory.delete(otherContext);
+        assertEquals(directory.getContentsThatPassedPredicateTestRows(otherContext, true).size(), 0);
+        assertEquals(directory.getContentsThatPassedPredicateTestRows(context, true).size(), 1);
+    }
+
+    private ContextVersionInfo passed() {
+
+        ContextVersionInfo contextVersionInfo = new ContextVersionInfo();
+        contextVersionInfo.predicateResult = true;
+        contextVersionInfo.timestamp = Instant.now();
+
+        return contextVersionInfo;
+    }
+}
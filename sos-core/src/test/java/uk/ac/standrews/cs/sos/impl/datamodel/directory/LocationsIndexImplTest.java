@@ -41,18 +41,21 @@ import uk.ac.standrews.cs.sos.impl.datamodel.locations.sos.SOSURLProtocol;
 import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.interfaces.manifests.LocationsIndex;
-import uk.ac.standrews.cs.sos.utils.Persistence;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Queue;
 
 import static org.testng.Assert.*;
 import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
 import static uk.ac.standrews.cs.sos.constants.Internals.LOCATIONS_INDEX_FILE;
+import static uk.ac.standrews.cs.sos.constants.Internals.LOCATIONS_INDEX_LOG_FILE;
 import static uk.ac.standrews.cs.sos.constants.Paths.TEST_RESOURCES_PATH;
 
 /**
@@ -105,10 +108,11 @@ public class LocationsIndexImplTest {
 
         IDirectory cachesDir = localStorage.getNodeDirectory();
         IFile file = localStorage.createFile(cachesDir, LOCATIONS_INDEX_FILE);
+        IFile logFile = localStorage.createFile(cachesDir, LOCATIONS_INDEX_LOG_FILE);
         locationsIndex.persist(file);
 
 
-        LocationsIndex locationsIndexPersisted = (LocationsIndex) Persistence.load(file);
+        LocationsIndex locationsIndexPersisted = LocationsIndexImpl.load(file.toFile(), logFile.toFile());
         assertNotNull(locationsIndexPersisted);
 
         Iterator<LocationBundle> it = locationsIndexPersisted.findLocations(guid).iterator();
@@ -116,6 +120,99 @@ public class LocationsIndexImplTest {
         assertEquals(locationBundle, it.next());
     }
 
+    @Test
+    public void logReplayTest() throws Exception {
+        setUpLocalNode();
+
+        File dir = Files.createTempDirectory("locations").toFile();
+        File checkpointFile = new File(dir, LOCATIONS_INDEX_FILE);
+        File logFile = new File(dir, LOCATIONS_INDEX_LOG_FILE);
+
+        IGUID node = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID other = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        LocationBundle sosBundle = new PersistLocationBundle(new SOSLocation(node, guid));
+        LocationBundle uriBundle = new ExternalLocationBundle(new URILocation("http://example.org/resource"));
+        LocationBundle otherBundle = new CacheLocationBundle(new SOSLocation(node, other));
+
+        LocationsIndex locationsIndex = LocationsIndexImpl.load(checkpointFile, logFile);
+        locationsIndex.addLocation(guid, sosBundle);
+        locationsIndex.addLocation(guid, uriBundle);
+        locationsIndex.addLocation(other, otherBundle);
+        locationsIndex.deleteLocation(node, other);
+        locationsIndex.flush();
+
+        // Nothing but the log has been written
+        assertFalse(checkpointFile.exists());
+
+        LocationsIndex reloaded = LocationsIndexImpl.load(checkpointFile, logFile);
+        Queue<LocationBundle> locations = reloaded.findLocations(guid);
+        assertEquals(locations.size(), 2);
+        assertTrue(locations.contains(sosBundle));
+        assertTrue(locations.contains(uriBundle));
+        assertTrue(reloaded.findLocations(other).isEmpty());
+
+        // The log is compacted into the checkpoint when loaded
+        assertTrue(checkpointFile.exists());
+        reloaded.close();
+    }
+
+    @Test
+    public void partiallyWrittenRecordTest() throws Exception {
+        setUpLocalNode();
+
+        File dir = Files.createTempDirectory("locations").toFile();
+        File checkpointFile = new File(dir, LOCATIONS_INDEX_FILE);
+        File logFile = new File(dir, LOCATIONS_INDEX_LOG_FILE);
+
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        LocationBundle locationBundle = new CacheLocationBundle(new URILocation("http://example.org/resource"));
+
+        LocationsIndex locationsIndex = LocationsIndexImpl.load(checkpointFile, logFile);
+        locationsIndex.addLocation(guid, locationBundle);
+        locationsIndex.flush();
+
+        // Simulate a node stopping while writing a record
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[] { 42, 5, 1 });
+        }
+
+        LocationsIndex reloaded = LocationsIndexImpl.load(checkpointFile, logFile);
+        assertEquals(reloaded.findLocations(guid).size(), 1);
+        assertEquals(reloaded.findLocations(guid).peek(), locationBundle);
+        reloaded.close();
+    }
+
+    @Test
+    public void checkpointTest() throws Exception {
+        setUpLocalNode();
+
+        File dir = Files.createTempDirectory("locations").toFile();
+        File checkpointFile = new File(dir, LOCATIONS_INDEX_FILE);
+        File logFile = new File(dir, LOCATIONS_INDEX_LOG_FILE);
+
+        IGUID node = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        LocationsIndexImpl locationsIndex = LocationsIndexImpl.load(checkpointFile, logFile);
+        for (int i = 0; i < 100; i++) {
+            IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+            locationsIndex.addLocation(guid, new PersistLocationBundle(new SOSLocation(node, guid)));
+        }
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        LocationBundle locationBundle = new PersistLocationBundle(new SOSLocation(node, guid));
+        locationsIndex.addLocation(guid, locationBundle);
+
+        locationsIndex.checkpoint();
+        assertTrue(checkpointFile.exists());
+        assertTrue(logFile.length() < 100);
+
+        // The digests of the GUIDs are stored as raw bytes and the node only once
+        assertTrue(checkpointFile.length() < 101 * 2 * 32);
+
+        LocationsIndex reloaded = LocationsIndexImpl.load(checkpointFile, logFile);
+        assertEquals(reloaded.findLocations(guid).peek(), locationBundle);
+        reloaded.close();
+    }
+
     @Test
     public void iteratorOrderingTest() throws URISyntaxException {
         LocationsIndex locationsIndex = new LocationsIndexImpl();
@@ -190,4 +287,10 @@ public class LocationsIndexImplTest {
                 new CacheLocationBundle(new URILocation("http://example.org/other"))), -1);
     }
 
+    private void setUpLocalNode() throws ConfigurationException, SOSProtocolException {
+        SOSLocalNode.settings = new SettingsConfiguration(new File(TEST_RESOURCES_PATH + "configurations/config_test.json")).getSettingsObj();
+        SOSLocalNode.settings.setGuid(GUIDFactory.generateRandomGUID(GUID_ALGORITHM).toMultiHash());
+        SOSURLProtocol.getInstance().register(null, null); // Local storage is not needed for this set of tests
+    }
+
 }
@@ -40,6 +40,7 @@ import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.ExternalLocationB
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.LocationBundle;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.sos.SOSURLProtocol;
 import uk.ac.standrews.cs.sos.impl.manifest.ManifestFactory;
+import uk.ac.standrews.cs.sos.impl.manifest.ManifestWeigher;
 import uk.ac.standrews.cs.sos.impl.node.LocalStorage;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.interfaces.manifests.ManifestsCache;
@@ -98,6 +99,7 @@ public class ManifestsCacheImplTest extends CommonTest {
     @Test (expectedExceptions = ManifestNotFoundException.class)
     public void cacheAddAndMissTest() throws ManifestPersistException, ManifestNotFoundException {
         ManifestsCache cache = new ManifestsCacheImpl(2);
+        assertFalse(cache.isBoundedByMemory());
 
         Manifest manifest = ManifestUtils.createMockManifestTypeAtom();
         Manifest manifest1 = ManifestUtils.createMockManifestTypeAtom();
@@ -110,6 +112,50 @@ public class ManifestsCacheImplTest extends CommonTest {
         cache.findManifest(manifest.guid());
     }
 
+    @Test
+    public void cacheCountersTest() throws ManifestPersistException, ManifestNotFoundException {
+        ManifestsCache cache = new ManifestsCacheImpl(1);
+
+        Manifest manifest = ManifestUtils.createMockManifestTypeAtom();
+        Manifest manifest1 = ManifestUtils.createMockManifestTypeAtom();
+
+        cache.addManifest(manifest);
+        cache.findManifest(manifest.guid());
+        cache.addManifest(manifest1);
+
+        try {
+            cache.findManifest(manifest.guid());
+        } catch (ManifestNotFoundException e) {
+            // Evicted by manifest1
+        }
+
+        assertEquals(cache.getLRU().getHits(), 1);
+        assertEquals(cache.getLRU().getMisses(), 1);
+        assertEquals(cache.getLRU().getEvictions(), 1);
+    }
+
+    @Test (expectedExceptions = ManifestNotFoundException.class)
+    public void cacheMemoryBudgetTest() throws ManifestPersistException, ManifestNotFoundException {
+
+        Manifest manifest = ManifestUtils.createMockManifestTypeAtom();
+        Manifest manifest1 = ManifestUtils.createMockManifestTypeAtom();
+        Manifest manifest2 = ManifestUtils.createMockManifestTypeAtom();
+
+        // Enough space for two manifests only
+        long budget = ManifestWeigher.weigh(manifest) * 2;
+        ManifestsCache cache = ManifestsCacheImpl.withMemoryBudget(budget);
+        assertTrue(cache.isBoundedByMemory());
+
+        cache.addManifest(manifest);
+        cache.addManifest(manifest1);
+        assertEquals(cache.getOccupancy(), budget);
+        assertEquals(cache.getCapacity(), budget);
+
+        cache.addManifest(manifest2);
+        assertEquals(cache.getOccupancy(), budget);
+        cache.findManifest(manifest.guid());
+    }
+
     @Test
     public void cacheAddUniqueTest() throws ManifestPersistException, ManifestNotFoundException {
         ManifestsCache cache = new ManifestsCacheImpl();
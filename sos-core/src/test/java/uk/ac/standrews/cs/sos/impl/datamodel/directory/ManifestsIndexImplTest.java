@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.directory;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.exceptions.manifest.HEADNotFoundException;
+import uk.ac.standrews.cs.sos.interfaces.manifests.ManifestsIndex;
+import uk.ac.standrews.cs.sos.model.Manifest;
+import uk.ac.standrews.cs.sos.model.ManifestType;
+import uk.ac.standrews.cs.sos.model.Version;
+import uk.ac.standrews.cs.sos.utils.ManifestUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ManifestsIndexImplTest {
+
+    @Test
+    public void logReplayTest() throws Exception {
+
+        File dir = Files.createTempDirectory("manifests").toFile();
+        File checkpointFile = new File(dir, MANIFESTS_INDEX_FILE);
+        File logFile = new File(dir, MANIFESTS_INDEX_LOG_FILE);
+
+        Version version = ManifestUtils.createDummyVersion();
+        Version newVersion = ManifestUtils.createDummyVersion(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), Collections.singleton(version.guid()), version.invariant());
+        Manifest atom = ManifestUtils.createMockManifestTypeAtom();
+        Manifest deletedAtom = ManifestUtils.createMockManifestTypeAtom();
+
+        ManifestsIndex index = ManifestsIndexImpl.load(checkpointFile, logFile);
+        index.advanceTip(version);
+        index.track(version);
+        index.advanceTip(newVersion);
+        index.track(newVersion);
+        index.setHead(newVersion);
+        index.track(atom);
+        index.track(deletedAtom);
+        index.delete(deletedAtom);
+        index.flush();
+
+        // Nothing but the log has been written
+        assertFalse(checkpointFile.exists());
+
+        ManifestsIndex reloaded = ManifestsIndexImpl.load(checkpointFile, logFile);
+        assertEquals(reloaded.getTips(version.invariant()), Collections.singleton(newVersion.guid()));
+        assertEquals(reloaded.getHead(version.invariant()), newVersion.guid());
+        assertEquals(reloaded.getVersions(version.invariant()).size(), 2);
+        assertTrue(reloaded.getManifests(ManifestType.VERSION).contains(version.invariant()));
+        assertTrue(reloaded.getManifests(ManifestType.ATOM).contains(atom.guid()));
+        assertFalse(reloaded.getManifests(ManifestType.ATOM).contains(deletedAtom.guid()));
+
+        // The log is compacted into the checkpoint when loaded
+        assertTrue(checkpointFile.exists());
+        reloaded.close();
+    }
+
+    @Test
+    public void partiallyWrittenRecordTest() throws Exception {
+
+        File dir = Files.createTempDirectory("manifests").toFile();
+        File checkpointFile = new File(dir, MANIFESTS_INDEX_FILE);
+        File logFile = new File(dir, MANIFESTS_INDEX_LOG_FILE);
+
+        Version version = ManifestUtils.createDummyVersion();
+
+        ManifestsIndex index = ManifestsIndexImpl.load(checkpointFile, logFile);
+        index.advanceTip(version);
+        index.setHead(version);
+        index.flush();
+
+        // Simulate a node stopping while writing a record
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[] { 42, 5, 1 });
+        }
+
+        ManifestsIndex reloaded = ManifestsIndexImpl.load(checkpointFile, logFile);
+        assertEquals(reloaded.getTips(version.invariant()), Collections.singleton(version.guid()));
+        assertEquals(reloaded.getHead(version.invariant()), version.guid());
+        reloaded.close();
+    }
+
+    @Test
+    public void checkpointTest() throws Exception {
+
+        File dir = Files.createTempDirectory("manifests").toFile();
+        File checkpointFile = new File(dir, MANIFESTS_INDEX_FILE);
+        File logFile = new File(dir, MANIFESTS_INDEX_LOG_FILE);
+
+        ManifestsIndexImpl index = ManifestsIndexImpl.load(checkpointFile, logFile);
+        for (int i = 0; i < 100; i++) {
+            index.track(ManifestUtils.createMockManifestTypeAtom());
+        }
+        Version version = ManifestUtils.createDummyVersion();
+        index.advanceTip(version);
+        index.setHead(version);
+        index.track(version);
+
+        index.checkpoint();
+        assertTrue(checkpointFile.exists());
+        assertTrue(logFile.length() < 100);
+
+        // The digests of the GUIDs are stored as raw bytes
+        assertTrue(checkpointFile.length() < 104 * 2 * 32);
+
+        ManifestsIndex reloaded = ManifestsIndexImpl.load(checkpointFile, logFile);
+        assertEquals(reloaded.getManifests(ManifestType.ATOM).size(), 100);
+        assertEquals(reloaded.getTips(version.invariant()), Collections.singleton(version.guid()));
+        assertEquals(reloaded.getHead(version.invariant()), version.guid());
+        reloaded.close();
+    }
+
+    @Test
+    public void compactedLogIsNotReplayedTest() throws Exception {
+
+        File dir = Files.createTempDirectory("manifests").toFile();
+        File checkpointFile = new File(dir, MANIFESTS_INDEX_FILE);
+        File logFile = new File(dir, MANIFESTS_INDEX_LOG_FILE);
+
+        Manifest atom = ManifestUtils.createMockManifestTypeAtom();
+
+        ManifestsIndexImpl index = ManifestsIndexImpl.load(checkpointFile, logFile);
+        index.track(atom);
+        index.flush();
+        byte[] compactedLog = Files.readAllBytes(logFile.toPath());
+
+        index.checkpoint();
+        index.delete(atom);
+        index.checkpoint();
+        index.close();
+
+        // Simulate a node stopping after writing a checkpoint, but before starting a new log
+        Files.write(logFile.toPath(), compactedLog);
+
+        ManifestsIndex reloaded = ManifestsIndexImpl.load(checkpointFile, logFile);
+        assertFalse(reloaded.getManifests(ManifestType.ATOM).contains(atom.guid()));
+        reloaded.close();
+    }
+
+    @Test
+    public void rebuildTest() throws Exception {
+
+        Version version = ManifestUtils.createDummyVersion();
+        IGUID invariant = version.invariant();
+        Version newVersion = ManifestUtils.createDummyVersion(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), Collections.singleton(version.guid()), invariant);
+        Version siblingVersion = ManifestUtils.createDummyVersion(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), Collections.singleton(version.guid()), invariant);
+        Version otherVersion = ManifestUtils.createDummyVersion();
+        Manifest atom = ManifestUtils.createMockManifestTypeAtom();
+
+        ManifestsIndex index = new ManifestsIndexImpl();
+        index.advanceTip(version);
+        index.setHead(version);
+        index.track(ManifestUtils.createMockManifestTypeAtom()); // Not stored anymore
+
+        int indexed = index.rebuild(Stream.of(version, newVersion, siblingVersion, otherVersion, atom).parallel());
+        assertEquals(indexed, 5);
+
+        Set<IGUID> tips = index.getTips(invariant);
+        assertEquals(tips.size(), 2);
+        assertTrue(tips.contains(newVersion.guid()));
+        assertTrue(tips.contains(siblingVersion.guid()));
+        assertEquals(index.getVersions(invariant).size(), 3);
+
+        // The existing head is kept, while a new head is set for the other asset
+        assertEquals(index.getHead(invariant), version.guid());
+        assertEquals(index.getHead(otherVersion.invariant()), otherVersion.guid());
+
+        assertEquals(index.getManifests(ManifestType.VERSION).size(), 2);
+        assertEquals(index.getManifests(ManifestType.ATOM), Collections.singleton(atom.guid()));
+    }
+
+    @Test (expectedExceptions = HEADNotFoundException.class)
+    public void closeAndClearTest() throws Exception {
+
+        File dir = Files.createTempDirectory("manifests").toFile();
+        File checkpointFile = new File(dir, MANIFESTS_INDEX_FILE);
+        File logFile = new File(dir, MANIFESTS_INDEX_LOG_FILE);
+
+        Version version = ManifestUtils.createDummyVersion();
+
+        ManifestsIndex index = ManifestsIndexImpl.load(checkpointFile, logFile);
+        index.setHead(version);
+        index.close();
+
+        ManifestsIndex reloaded = ManifestsIndexImpl.load(checkpointFile, logFile);
+        assertEquals(reloaded.getHead(version.invariant()), version.guid());
+
+        reloaded.clear();
+        reloaded.close();
+
+        ManifestsIndexImpl.load(checkpointFile, logFile).getHead(version.invariant());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.datamodel.directory;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class NegativeLookupsCacheTest {
+
+    private static final String SCOPE = "MDS:ANY";
+
+    @Test
+    public void basicTest() {
+
+        NegativeLookupsCache cache = new NegativeLookupsCache(16, 60000);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        assertFalse(cache.isAbsent(guid, SCOPE));
+
+        cache.recordAbsent(guid, SCOPE, cache.token());
+        assertTrue(cache.isAbsent(guid, SCOPE));
+        assertFalse(cache.isAbsent(guid, "MDS:LOCAL"));
+    }
+
+    @Test
+    public void expiryTest() throws InterruptedException {
+
+        NegativeLookupsCache cache = new NegativeLookupsCache(16, 100);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        cache.recordAbsent(guid, SCOPE, cache.token());
+        assertTrue(cache.isAbsent(guid, SCOPE));
+
+        Thread.sleep(200);
+        assertFalse(cache.isAbsent(guid, SCOPE));
+    }
+
+    @Test
+    public void invalidateTest() {
+
+        NegativeLookupsCache cache = new NegativeLookupsCache(16, 60000);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        cache.recordAbsent(guid, SCOPE, cache.token());
+        cache.invalidate(guid);
+        assertFalse(cache.isAbsent(guid, SCOPE));
+    }
+
+    @Test
+    public void addedDuringLookupTest() {
+
+        NegativeLookupsCache cache = new NegativeLookupsCache(16, 60000);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        long token = cache.token();
+        cache.invalidate(guid); // The manifest is added while it is being looked up
+        cache.recordAbsent(guid, SCOPE, token);
+
+        assertFalse(cache.isAbsent(guid, SCOPE));
+    }
+
+    @Test
+    public void disabledTest() {
+
+        NegativeLookupsCache cache = new NegativeLookupsCache(16, 0);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        cache.recordAbsent(guid, SCOPE, cache.token());
+        assertFalse(cache.isAbsent(guid, SCOPE));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.metadata;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.model.Metadata;
+
+import java.util.*;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class MetadataIndexTest {
+
+    @Test
+    public void propertyTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata metadata = metadata(new Property("Content-Type", "text/plain"), new Property("Size", 42L));
+        index.addMetadata(metadata);
+
+        assertTrue(index.isMetadataIndexed(metadata.guid()));
+        assertEquals(index.getProperty(metadata.guid(), "Content-Type").getValue_s(), "text/plain");
+        assertEquals(index.getProperty(metadata.guid(), "Size").getValue_l(), 42L);
+        assertNull(index.getProperty(metadata.guid(), "Missing"));
+        assertNull(index.getProperty(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), "Size"));
+    }
+
+    @Test
+    public void findStringTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata text = metadata(new Property("Content-Type", "text/plain"));
+        Metadata otherText = metadata(new Property("Content-Type", "text/plain"), new Property("Size", 1L));
+        Metadata image = metadata(new Property("Content-Type", "image/jpeg"));
+        index.addMetadata(text);
+        index.addMetadata(otherText);
+        index.addMetadata(image);
+
+        Set<IGUID> found = index.findMetadata("Content-Type", "text/plain");
+        assertEquals(found.size(), 2);
+        assertTrue(found.contains(text.guid()));
+        assertTrue(found.contains(otherText.guid()));
+
+        assertTrue(index.findMetadata("Content-Type", "video/mp4").isEmpty());
+        assertTrue(index.findMetadata("Missing", "text/plain").isEmpty());
+    }
+
+    @Test
+    public void findLongRangeTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata small = metadata(new Property("Size", 10L));
+        Metadata medium = metadata(new Property("Size", 100L));
+        Metadata large = metadata(new Property("Size", 1000L));
+        index.addMetadata(small);
+        index.addMetadata(medium);
+        index.addMetadata(large);
+
+        assertEquals(index.findMetadata("Size", 10L, 100L), new HashSet<>(Arrays.asList(small.guid(), medium.guid())));
+        assertEquals(index.findMetadata("Size", 101L, Long.MAX_VALUE), Collections.singleton(large.guid()));
+        assertEquals(index.findMetadata("Size", 100L, 100L), Collections.singleton(medium.guid()));
+        assertTrue(index.findMetadata("Size", 1001L, 2000L).isEmpty());
+        assertTrue(index.findMetadata("Size", 100L, 10L).isEmpty());
+    }
+
+    @Test
+    public void findDoubleRangeTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata low = metadata(new Property("Ratio", 0.25));
+        Metadata high = metadata(new Property("Ratio", 0.75));
+        index.addMetadata(low);
+        index.addMetadata(high);
+
+        assertEquals(index.findMetadata("Ratio", 0.0, 0.5), Collections.singleton(low.guid()));
+        assertEquals(index.findMetadata("Ratio", 0.25, 0.75).size(), 2);
+
+        // Values of a different type are not found
+        assertTrue(index.findMetadata("Ratio", 0L, 1L).isEmpty());
+    }
+
+    @Test
+    public void encryptedPropertiesAreNotIndexedByValueTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata metadata = metadata(new Property(MetaType.STRING, "Content-Type", "ENCRYPTED_VALUE"));
+        index.addMetadata(metadata);
+
+        assertTrue(index.findMetadata("Content-Type", "ENCRYPTED_VALUE").isEmpty());
+        assertTrue(index.getProperty(metadata.guid(), "Content-Type").isEncrypted());
+    }
+
+    @Test
+    public void versionsTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata text = metadata(new Property("Content-Type", "text/plain"));
+        Metadata image = metadata(new Property("Content-Type", "image/jpeg"));
+        index.addMetadata(text);
+        index.addMetadata(image);
+
+        IGUID version = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID otherVersion = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID imageVersion = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.addVersion(version, text.guid());
+        index.addVersion(otherVersion, text.guid());
+        index.addVersion(imageVersion, image.guid());
+        index.addVersion(version, image.guid()); // Versions are immutable, so the first link is kept
+
+        assertEquals(index.getMetadata(version), text.guid());
+        assertNull(index.getMetadata(GUIDFactory.generateRandomGUID(GUID_ALGORITHM)));
+
+        Set<IGUID> versions = index.findVersions(index.findMetadata("Content-Type", "text/plain"));
+        assertEquals(versions.size(), 2);
+        assertTrue(versions.contains(version));
+        assertTrue(versions.contains(otherVersion));
+
+        assertEquals(index.findVersions(index.findMetadata("Content-Type", "image/jpeg")), Collections.singleton(imageVersion));
+    }
+
+    @Test
+    public void addTwiceTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata metadata = metadata(new Property("Size", 1L));
+        index.addMetadata(metadata);
+        index.addMetadata(metadata);
+
+        assertEquals(index.size(), 1);
+        assertEquals(index.findMetadata("Size", 0L, 2L).size(), 1);
+    }
+
+    @Test
+    public void removeMetadataTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata text = metadata(new Property("Content-Type", "text/plain"), new Property("Size", 1L), new Property("Ratio", 0.5));
+        Metadata otherText = metadata(new Property("Content-Type", "text/plain"));
+        index.addMetadata(text);
+        index.addMetadata(otherText);
+
+        IGUID version = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.addVersion(version, text.guid());
+
+        index.removeMetadata(text.guid());
+
+        assertFalse(index.isMetadataIndexed(text.guid()));
+        assertNull(index.getProperty(text.guid(), "Size"));
+        assertEquals(index.findMetadata("Content-Type", "text/plain"), Collections.singleton(otherText.guid()));
+        assertTrue(index.findMetadata("Size", 0L, 2L).isEmpty());
+        assertTrue(index.findMetadata("Ratio", 0.0, 1.0).isEmpty());
+        assertTrue(index.findVersions(index.findMetadata("Content-Type", "text/plain")).isEmpty());
+        assertEquals(index.size(), 1);
+
+        // The version is found again once the metadata is indexed again
+        index.addMetadata(text);
+        assertEquals(index.findVersions(index.findMetadata("Size", 0L, 2L)), Collections.singleton(version));
+    }
+
+    @Test
+    public void removeVersionTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata text = metadata(new Property("Content-Type", "text/plain"));
+        index.addMetadata(text);
+
+        IGUID version = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        IGUID otherVersion = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        index.addVersion(version, text.guid());
+        index.addVersion(otherVersion, text.guid());
+
+        index.removeVersion(version);
+        index.removeVersion(GUIDFactory.generateRandomGUID(GUID_ALGORITHM)); // Not indexed, so nothing happens
+
+        assertNull(index.getMetadata(version));
+        assertEquals(index.findVersions(index.findMetadata("Content-Type", "text/plain")), Collections.singleton(otherVersion));
+
+        // The metadata is still indexed
+        assertTrue(index.isMetadataIndexed(text.guid()));
+    }
+
+    @Test
+    public void clearTest() {
+
+        MetadataIndex index = new MetadataIndex();
+        Metadata metadata = metadata(new Property("Size", 1L));
+        index.addMetadata(metadata);
+        index.addVersion(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), metadata.guid());
+
+        index.clear();
+
+        assertEquals(index.size(), 0);
+        assertTrue(index.findMetadata("Size", 0L, 2L).isEmpty());
+    }
+
+    private static Metadata metadata(Property... properties) {
+
+        HashMap<String, Property> map = new HashMap<>();
+        for (Property property : properties) {
+            map.put(property.getKey(), property);
+        }
+
+        return new MetadataManifest(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), map, (IGUID) null, null);
+    }
+}
@@ -30,6 +30,7 @@ import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.database.DatabaseFactory;
 import uk.ac.standrews.cs.sos.impl.database.DatabaseType;
 import uk.ac.standrews.cs.sos.interfaces.database.NodesDatabase;
+import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
 import uk.ac.standrews.cs.sos.model.Node;
 import uk.ac.standrews.cs.utilities.crypto.CryptoException;
 import uk.ac.standrews.cs.utilities.crypto.DigitalSignature;
@@ -41,7 +42,7 @@ import java.util.Set;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
-import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.*;
 import static uk.ac.standrews.cs.sos.constants.Internals.DB_FILE;
 import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
 import static uk.ac.standrews.cs.sos.impl.services.SOSNodeDiscoveryService.NO_LIMIT;
@@ -236,6 +237,53 @@ public class LocalNodesDirectoryTest extends SetUpTest {
         assertEquals(retrievedUpdatedNode.isStorage(), true);
     }
 
+    @Test
+    public void getNodesByRoleTest() {
+
+        addNode(true, false, false, false, false, false, false, false);
+        addNode(false, true, false, false, false, false, false, false);
+        addNode(false, false, true, false, false, false, false, false);
+        addNode(true, true, false, false, false, false, false, false);
+        addNode(true, true, true, true, true, false, false, false);
+
+        assertEquals(localNodesDirectory.getNodes(NodeType.STORAGE, NO_LIMIT).size(), 3);
+        assertEquals(localNodesDirectory.getNodes(NodeType.MDS, NO_LIMIT).size(), 2);
+        assertEquals(localNodesDirectory.getNodes(NodeType.NDS, NO_LIMIT).size(), 1);
+        assertEquals(localNodesDirectory.getNodes(NodeType.CMS, NO_LIMIT).size(), 0);
+        assertEquals(localNodesDirectory.getNodes(NodeType.STORAGE, 2).size(), 2);
+        assertEquals(localNodesDirectory.getNodes(5).size(), 5);
+        assertEquals(localNodesDirectory.getNodes(2).size(), 2);
+    }
+
+    @Test
+    public void nodeRolesAreUpdatedTest() {
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        addNode(guid, true, true, false, false, false, false, false, false);
+        assertTrue(localNodesDirectory.hasRole(guid, NodeType.STORAGE));
+        assertFalse(localNodesDirectory.hasRole(guid, NodeType.MDS));
+
+        // No longer a storage node, but now a MDS node
+        addNode(guid, true, false, true, false, false, false, false, false);
+        assertFalse(localNodesDirectory.hasRole(guid, NodeType.STORAGE));
+        assertTrue(localNodesDirectory.hasRole(guid, NodeType.MDS));
+
+        assertEquals(localNodesDirectory.getNodes(NodeType.STORAGE, NO_LIMIT).size(), 0);
+        assertEquals(localNodesDirectory.getNodes(NodeType.MDS, NO_LIMIT).size(), 1);
+        assertEquals(localNodesDirectory.size(), 1);
+    }
+
+    @Test
+    public void localNodeIsNotReturnedTest() {
+
+        addNode(testNode.guid(), true, true, true, true, true, true, true, false);
+        addNode(true, true, false, false, false, false, false, false);
+
+        assertEquals(localNodesDirectory.getNodes(NodeType.STORAGE, NO_LIMIT).size(), 1);
+        assertEquals(localNodesDirectory.getNodes(NO_LIMIT).size(), 1);
+        assertEquals(localNodesDirectory.getNodes(p -> true, NO_LIMIT).size(), 1);
+    }
+
     private void addNode(IGUID guid, boolean isClient, boolean isStorage, boolean isMDS, boolean isNDS, boolean isMCS, boolean isCMS, boolean isRMS, boolean isExperiment) {
         localNodesDirectory.addNode(new SOSNode(guid, mockSignatureCertificate,"example.com", 8080,
                 isClient, isStorage, isMDS,
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.node.placement;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
+import uk.ac.standrews.cs.sos.impl.node.NodeStats;
+import uk.ac.standrews.cs.sos.interfaces.node.PlacementStrategy;
+
+import java.util.*;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class PlacementStrategyTest {
+
+    private static final int NUMBER_OF_NODES = 10;
+
+    private List<IGUID> nodes;
+    private Map<IGUID, NodeStats> stats;
+
+    @BeforeMethod
+    public void setUp() throws GUIDGenerationException {
+
+        nodes = new ArrayList<>();
+        stats = new HashMap<>();
+        for(int i = 0; i < NUMBER_OF_NODES; i++) {
+            nodes.add(GUIDFactory.generateRandomGUID(GUID_ALGORITHM));
+        }
+    }
+
+    @Test
+    public void rendezvousIsDeterministicTest() throws GUIDGenerationException {
+
+        PlacementStrategy placementStrategy = new RendezvousPlacement(stats::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        List<IGUID> ranked = placementStrategy.rank(guid, nodes, 3);
+        assertEquals(ranked.size(), 3);
+
+        // The order of the candidates does not matter
+        List<IGUID> shuffled = new ArrayList<>(nodes);
+        Collections.reverse(shuffled);
+        assertEquals(placementStrategy.rank(guid, shuffled, 3), ranked);
+    }
+
+    @Test
+    public void rendezvousRemovingNodeMovesOnlyItsEntitiesTest() throws GUIDGenerationException {
+
+        PlacementStrategy placementStrategy = new RendezvousPlacement(stats::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        List<IGUID> ranked = placementStrategy.rank(guid, nodes, 3);
+
+        List<IGUID> remaining = new ArrayList<>(nodes);
+        remaining.remove(ranked.get(0));
+
+        List<IGUID> rerank = placementStrategy.rank(guid, remaining, 2);
+        assertEquals(rerank, ranked.subList(1, 3));
+    }
+
+    @Test
+    public void rendezvousUnavailableNodesComeLastTest() throws GUIDGenerationException {
+
+        PlacementStrategy placementStrategy = new RendezvousPlacement(stats::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        IGUID best = placementStrategy.rank(guid, nodes, 1).get(0);
+        addMeasure(best, false, null);
+
+        List<IGUID> ranked = placementStrategy.rank(guid, nodes, 0);
+        assertEquals(ranked.size(), NUMBER_OF_NODES);
+        assertEquals(ranked.get(NUMBER_OF_NODES - 1), best);
+    }
+
+    @Test
+    public void powerOfTwoChoicesNeverPicksSlowestFirstTest() throws GUIDGenerationException {
+
+        for(int i = 0; i < NUMBER_OF_NODES; i++) {
+            addMeasure(nodes.get(i), true, (long) (i + 1) * 1000);
+        }
+        IGUID slowest = nodes.get(NUMBER_OF_NODES - 1);
+
+        PlacementStrategy placementStrategy = new PowerOfTwoChoicesPlacement(stats::get);
+        for(int i = 0; i < 100; i++) {
+            IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+            List<IGUID> ranked = placementStrategy.rank(guid, nodes, 1);
+
+            assertEquals(ranked.size(), 1);
+            assertNotEquals(ranked.get(0), slowest);
+        }
+    }
+
+    @Test
+    public void powerOfTwoChoicesRanksAllNodesOnceTest() throws GUIDGenerationException {
+
+        addMeasure(nodes.get(0), false, null);
+
+        PlacementStrategy placementStrategy = new PowerOfTwoChoicesPlacement(stats::get);
+        List<IGUID> ranked = placementStrategy.rank(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), nodes, 0);
+
+        assertEquals(ranked.size(), NUMBER_OF_NODES);
+        assertEquals(new HashSet<>(ranked), new HashSet<>(nodes));
+        assertEquals(ranked.get(NUMBER_OF_NODES - 1), nodes.get(0));
+    }
+
+    @Test
+    public void zoneSpreadTest() throws GUIDGenerationException {
+
+        // Two zones, with only two nodes in the second one
+        Map<IGUID, String> zones = new HashMap<>();
+        for(int i = 0; i < NUMBER_OF_NODES; i++) {
+            zones.put(nodes.get(i), i < 2 ? "zone-b" : "zone-a");
+        }
+
+        PlacementStrategy placementStrategy = new ZoneSpreadPlacement(new RendezvousPlacement(stats::get), zones::get, stats::get);
+        List<IGUID> ranked = placementStrategy.rank(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), nodes, 0);
+        assertEquals(ranked.size(), NUMBER_OF_NODES);
+
+        assertNotEquals(zones.get(ranked.get(0)), zones.get(ranked.get(1)));
+        assertNotEquals(zones.get(ranked.get(2)), zones.get(ranked.get(3)));
+        for(int i = 4; i < NUMBER_OF_NODES; i++) {
+            assertEquals(zones.get(ranked.get(i)), "zone-a");
+        }
+    }
+
+    @Test
+    public void zoneSpreadSkipsUnavailableNodesTest() throws GUIDGenerationException {
+
+        // Two zones, with the only node of the second one unavailable
+        Map<IGUID, String> zones = new HashMap<>();
+        for(int i = 0; i < NUMBER_OF_NODES; i++) {
+            zones.put(nodes.get(i), i < 1 ? "zone-b" : "zone-a");
+        }
+        addMeasure(nodes.get(0), false, null);
+
+        PlacementStrategy placementStrategy = new ZoneSpreadPlacement(new RendezvousPlacement(stats::get), zones::get, stats::get);
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        List<IGUID> ranked = placementStrategy.rank(guid, nodes, 0);
+        assertEquals(ranked.size(), NUMBER_OF_NODES);
+
+        // The available nodes keep the order of the other strategy
+        List<IGUID> expected = new RendezvousPlacement(stats::get).rank(guid, nodes, 0);
+        assertEquals(ranked, expected);
+        assertEquals(ranked.get(NUMBER_OF_NODES - 1), nodes.get(0));
+
+        assertEquals(placementStrategy.rank(guid, nodes, 3), expected.subList(0, 3));
+    }
+
+    @Test
+    public void lookupOrderFollowsPlacementTest() throws GUIDGenerationException {
+
+        // Latencies that are close to each other do not change the order
+        for(int i = 0; i < NUMBER_OF_NODES; i++) {
+            addMeasure(nodes.get(i), true, (long) (NUMBER_OF_NODES - i) * 100 + 1000);
+        }
+
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        List<IGUID> ranked = new RendezvousPlacement(stats::get).rank(guid, nodes, 0);
+
+        assertEquals(LookupOrder.order(ranked, stats::get, 0), ranked);
+        assertEquals(LookupOrder.order(ranked, stats::get, 3), ranked.subList(0, 3));
+    }
+
+    @Test
+    public void lookupOrderSlowNodeMovesDownBoundedTest() throws GUIDGenerationException {
+
+        for(int i = 0; i < NUMBER_OF_NODES; i++) {
+            addMeasure(nodes.get(i), true, 1000L);
+        }
+
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        List<IGUID> ranked = new RendezvousPlacement(stats::get).rank(guid, nodes, 0);
+        addMeasure(ranked.get(0), true, 1000000L);
+
+        List<IGUID> ordered = LookupOrder.order(ranked, stats::get, 0);
+        assertEquals(ordered.get(0), ranked.get(1));
+        assertEquals(ordered.get(LookupOrder.SLOW_NODE_PENALTY), ranked.get(0));
+    }
+
+    @Test
+    public void lookupOrderUnavailableNodesComeLastTest() throws GUIDGenerationException {
+
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        List<IGUID> ranked = new RendezvousPlacement(stats::get).rank(guid, nodes, 0);
+        addMeasure(ranked.get(0), false, null);
+
+        List<IGUID> ordered = LookupOrder.order(ranked, stats::get, 0);
+        assertEquals(ordered.size(), NUMBER_OF_NODES);
+        assertEquals(ordered.get(NUMBER_OF_NODES - 1), ranked.get(0));
+    }
+
+    @Test
+    public void limitLargerThanCandidatesTest() throws GUIDGenerationException {
+
+        PlacementStrategy placementStrategy = new RendezvousPlacement(stats::get);
+        List<IGUID> ranked = placementStrategy.rank(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), nodes, NUMBER_OF_NODES * 2);
+
+        assertEquals(ranked.size(), NUMBER_OF_NODES);
+    }
+
+    private void addMeasure(IGUID node, boolean available, Long latency) {
+        stats.computeIfAbsent(node, NodeStats::new).addMeasure(System.currentTimeMillis(), available, latency);
+    }
+}
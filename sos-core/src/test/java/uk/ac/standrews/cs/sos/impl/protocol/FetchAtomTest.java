@@ -32,6 +32,7 @@ import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.impl.node.SOSNode;
 import uk.ac.standrews.cs.sos.impl.protocol.tasks.FetchAtom;
 import uk.ac.standrews.cs.sos.model.Node;
+import uk.ac.standrews.cs.sos.network.ByteRange;
 import uk.ac.standrews.cs.sos.utils.IO;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import uk.ac.standrews.cs.utilities.crypto.DigitalSignature;
@@ -44,6 +45,7 @@ import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
 import static uk.ac.standrews.cs.sos.constants.Paths.TEST_RESOURCES_PATH;
 
@@ -110,6 +112,62 @@ public class FetchAtomTest extends ProtocolTest {
         fetchedData.close();
     }
 
+    @Test
+    public void rangeDataFetchTest() throws IOException, GUIDGenerationException {
+
+        Node node = new SOSNode(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), mockD_PublicKey,
+                "localhost", MOCK_SERVER_PORT,
+                false, true, false, false, false, false, false, false);
+
+        String data = TEST_DATA + "-range";
+        IGUID testGUID = GUIDFactory.generateGUID(GUID_ALGORITHM, data);
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/sos/storage/atom/guid/" + testGUID.toMultiHash())
+                                .withHeader(ByteRange.RANGE_HEADER, "bytes=5-8")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(206)
+                                .withHeader(ByteRange.CONTENT_RANGE_HEADER, "bytes 5-8/" + data.length())
+                                .withBody(data.substring(5, 9))
+                );
+
+        FetchAtom fetchAtom = new FetchAtom(node, testGUID, new ByteRange(5, 8));
+        TasksQueue.instance().performSyncTask(fetchAtom);
+        assertEquals(fetchAtom.getState(), TaskState.SUCCESSFUL);
+        assertEquals(fetchAtom.getRange(), new ByteRange(5, 8));
+        assertEquals(fetchAtom.getTotalLength(), data.length());
+
+        InputStream fetchedData = fetchAtom.getBody();
+        assertEquals(IO.InputStreamToString(fetchedData), "data");
+
+        fetchedData.close();
+    }
+
+    @Test
+    public void rangeNotSupportedDataFetchTest() throws IOException, GUIDGenerationException {
+
+        Node node = new SOSNode(GUIDFactory.generateRandomGUID(GUID_ALGORITHM), mockD_PublicKey,
+                "localhost", MOCK_SERVER_PORT,
+                false, true, false, false, false, false, false, false);
+
+        IGUID testGUID = GUIDFactory.generateGUID(GUID_ALGORITHM, TEST_DATA);
+
+        // The mock node ignores the Range header and returns all the data
+        FetchAtom fetchAtom = new FetchAtom(node, testGUID, new ByteRange(0, 3));
+        TasksQueue.instance().performSyncTask(fetchAtom);
+        assertEquals(fetchAtom.getState(), TaskState.SUCCESSFUL);
+        assertNull(fetchAtom.getRange());
+
+        InputStream fetchedData = fetchAtom.getBody();
+        assertEquals(IO.InputStreamToString(fetchedData), TEST_DATA);
+
+        fetchedData.close();
+    }
+
     @Test (expectedExceptions = IOException.class)
     public void fetchDataFromNonStorageNodeTest() throws IOException, GUIDGenerationException {
 
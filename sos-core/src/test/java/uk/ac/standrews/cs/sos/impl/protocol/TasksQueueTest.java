@@ -20,8 +20,15 @@ import org.testng.annotations.Test;
 import uk.ac.standrews.cs.sos.SetUpTest;
 import uk.ac.standrews.cs.sos.impl.protocol.tasks.Void;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
+import static uk.ac.standrews.cs.sos.constants.Internals.TIMEOUT_LIMIT_S;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
@@ -83,6 +90,76 @@ public class TasksQueueTest extends SetUpTest {
         assertEquals(voidTask.getState(), TaskState.SUCCESSFUL);
     }
 
+    @Test
+    public void completedTasksAreRemovedTest() {
+
+        Task voidTask = new Void(100);
+        TasksQueue.instance().performSyncTask(voidTask);
+
+        assertEquals(voidTask.getState(), TaskState.SUCCESSFUL);
+        assertEquals(TasksQueue.instance().pending(), 0);
+    }
+
+    @Test
+    public void slowTasksDoNotBlockOtherTypesTest() {
+
+        // Keep the fetch pool busy
+        for (int i = 0; i < 8; i++) {
+            TasksQueue.instance().performAsyncTask(new Void(10000, TaskType.FETCH));
+        }
+
+        long start = System.nanoTime();
+        Task pingTask = new Void(100, TaskType.PING);
+        TasksQueue.instance().performSyncTask(pingTask);
+        long duration = System.nanoTime() - start;
+
+        assertEquals(pingTask.getState(), TaskState.SUCCESSFUL);
+        assertTrue(duration < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void nestedTasksInSaturatedPoolTest() throws Exception {
+
+        // More outer tasks than threads in the pool: every thread of the pool waits for a task of the same type
+        List<NestedTask> tasks = new ArrayList<>();
+        List<CompletableFuture<Task>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            NestedTask task = new NestedTask();
+            tasks.add(task);
+            futures.add(TasksQueue.instance().performAsyncTask(task));
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(TIMEOUT_LIMIT_S, TimeUnit.SECONDS);
+        long duration = System.nanoTime() - start;
+
+        for (NestedTask task : tasks) {
+            assertEquals(task.getState(), TaskState.SUCCESSFUL);
+            assertEquals(task.nested.getState(), TaskState.SUCCESSFUL);
+        }
+        assertTrue(duration < TimeUnit.SECONDS.toNanos(TIMEOUT_LIMIT_S / 2));
+    }
+
+    @Test
+    public void asyncTaskFutureTest() throws Exception {
+
+        Task voidTask = new Void(100);
+        CompletableFuture<Task> future = TasksQueue.instance().performAsyncTask(voidTask);
+
+        assertEquals(future.get(5, TimeUnit.SECONDS), voidTask);
+        assertEquals(voidTask.getState(), TaskState.SUCCESSFUL);
+    }
+
+    @Test
+    public void cancelAsyncTaskTest() {
+
+        Task voidTask = new Void(10000);
+        CompletableFuture<Task> future = TasksQueue.instance().performAsyncTask(voidTask);
+        future.cancel(true);
+
+        assertEquals(voidTask.getState(), TaskState.ERROR);
+    }
+
     @Test
     public void timeoutSyncTest() {
 
@@ -107,4 +184,33 @@ public class TasksQueueTest extends SetUpTest {
 
         assertEquals(voidTask.getState(), TaskState.ERROR);
     }
-}
\ No newline at end of file
+
+    /**
+     * Task that runs another task of the same type and waits for it.
+     */
+    private static class NestedTask extends Task {
+
+        private final Task nested = new Void(100, TaskType.DELETION);
+
+        NestedTask() {
+            super(TaskType.DELETION);
+        }
+
+        @Override
+        protected void performAction() {
+
+            TasksQueue.instance().performSyncTask(nested);
+            setState(nested.getState());
+        }
+
+        @Override
+        public String serialize() {
+            return null;
+        }
+
+        @Override
+        public Task deserialize(String json) {
+            return null;
+        }
+    }
+}
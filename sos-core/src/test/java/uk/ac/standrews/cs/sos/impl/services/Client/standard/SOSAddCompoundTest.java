@@ -16,26 +16,36 @@
  */
 package uk.ac.standrews.cs.sos.impl.services.Client.standard;
 
+import org.apache.commons.io.IOUtils;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.castore.data.InputStreamData;
 import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.sos.exceptions.ServiceException;
 import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.datamodel.CompoundManifest;
 import uk.ac.standrews.cs.sos.impl.datamodel.ContentImpl;
+import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.CompoundBuilder;
+import uk.ac.standrews.cs.sos.impl.usro.RoleImpl;
+import uk.ac.standrews.cs.sos.impl.usro.UserImpl;
 import uk.ac.standrews.cs.sos.model.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.Random;
 import java.util.Set;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
 import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
 
 /**
@@ -98,4 +108,119 @@ public class SOSAddCompoundTest extends AgentTest {
         assertFalse(isVerified);
     }
 
+    @Test
+    public void testAddChunkedData() throws Exception {
+        byte[] data = new byte[256 * 1024];
+        new Random(42).nextBytes(data);
+
+        AtomBuilder atomBuilder = new AtomBuilder()
+                .setData(new InputStreamData(new ByteArrayInputStream(data)));
+        CompoundBuilder compoundBuilder = new CompoundBuilder()
+                .setType(CompoundType.DATA)
+                .setChunkSize(4096)
+                .setAtomBuilder(atomBuilder);
+
+        Compound compound = agent.addChunkedData(compoundBuilder);
+        assertEquals(compound.getCompoundType(), CompoundType.DATA);
+        assertTrue(compound.getContents().size() > 1);
+
+        try (Data retrievedData = agent.getData(compound.guid())) {
+            assertTrue(IOUtils.contentEquals(retrievedData.getInputStream(), new ByteArrayInputStream(data)));
+        }
+    }
+
+    @Test
+    public void testChunkedDataSize() throws Exception {
+        byte[] data = new byte[100 * 1024 + 17];
+        new Random(42).nextBytes(data);
+
+        AtomBuilder atomBuilder = new AtomBuilder()
+                .setData(new InputStreamData(new ByteArrayInputStream(data)));
+        CompoundBuilder compoundBuilder = new CompoundBuilder()
+                .setType(CompoundType.DATA)
+                .setChunkSize(4096)
+                .setAtomBuilder(atomBuilder);
+
+        Compound compound = agent.addChunkedData(compoundBuilder);
+
+        // The size is known from the labels of the chunks
+        try (Data retrievedData = agent.getData(compound.guid())) {
+            assertEquals(retrievedData.getSize(), data.length);
+        }
+    }
+
+    @Test (expectedExceptions = ServiceException.class)
+    public void testAddProtectedChunkedDataFails() throws Exception {
+        byte[] data = new byte[64 * 1024];
+        new Random(42).nextBytes(data);
+
+        User user = new UserImpl("TEST_ADD_PROTECTED_CHUNKED_DATA");
+        Role role = new RoleImpl(user, "ROLE_TEST_ADD_PROTECTED_CHUNKED_DATA");
+
+        AtomBuilder atomBuilder = (AtomBuilder) new AtomBuilder()
+                .setData(new InputStreamData(new ByteArrayInputStream(data)))
+                .setRole(role)
+                .setProtectFlag(true);
+        CompoundBuilder compoundBuilder = new CompoundBuilder()
+                .setType(CompoundType.DATA)
+                .setChunkSize(4096)
+                .setAtomBuilder(atomBuilder);
+
+        agent.addChunkedData(compoundBuilder);
+    }
+
+    // The encrypted data of a protected chunk must never be returned as part of the data
+    @Test (expectedExceptions = IOException.class)
+    public void testProtectedChunkIsNotRead() throws Exception {
+        byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+
+        User user = new UserImpl("TEST_PROTECTED_CHUNK");
+        Role role = new RoleImpl(user, "ROLE_TEST_PROTECTED_CHUNK");
+
+        AtomBuilder atomBuilder = (AtomBuilder) new AtomBuilder()
+                .setData(new InputStreamData(new ByteArrayInputStream(data)))
+                .setRole(role)
+                .setProtectFlag(true);
+        Atom protectedChunk = agent.addAtom(atomBuilder);
+
+        Set<Content> contents = new LinkedHashSet<>();
+        contents.add(new ContentImpl("0", protectedChunk.guid()));
+        CompoundBuilder compoundBuilder = new CompoundBuilder()
+                .setType(CompoundType.DATA)
+                .setContents(contents);
+        Compound compound = agent.addCompound(compoundBuilder);
+
+        try (Data retrievedData = agent.getData(compound.guid())) {
+            IOUtils.toByteArray(retrievedData.getInputStream());
+        }
+    }
+
+    @Test
+    public void testAddChunkedDataWithRepeatedChunks() throws Exception {
+        byte[] block = new byte[64 * 1024];
+        new Random(42).nextBytes(block);
+
+        byte[] data = new byte[block.length * 4];
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(block, 0, data, i * block.length, block.length);
+        }
+
+        AtomBuilder atomBuilder = new AtomBuilder()
+                .setData(new InputStreamData(new ByteArrayInputStream(data)));
+        CompoundBuilder compoundBuilder = new CompoundBuilder()
+                .setType(CompoundType.DATA)
+                .setChunkSize(4096)
+                .setAtomBuilder(atomBuilder);
+
+        Compound compound = agent.addChunkedData(compoundBuilder);
+
+        long uniqueChunks = compound.getContents().stream().map(Content::getGUID).distinct().count();
+        assertTrue(uniqueChunks < compound.getContents().size());
+
+        try (Data retrievedData = agent.getData(compound.guid())) {
+            assertTrue(IOUtils.contentEquals(retrievedData.getInputStream(), new ByteArrayInputStream(data)));
+        }
+    }
+
 }
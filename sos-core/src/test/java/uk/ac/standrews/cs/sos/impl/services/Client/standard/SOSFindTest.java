@@ -16,11 +16,92 @@
  */
 package uk.ac.standrews.cs.sos.impl.services.Client.standard;
 
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
+import uk.ac.standrews.cs.sos.impl.datamodel.builders.VersionBuilder;
+import uk.ac.standrews.cs.sos.impl.metadata.MetadataBuilder;
+import uk.ac.standrews.cs.sos.impl.metadata.tika.TikaMetadataEngine;
+import uk.ac.standrews.cs.sos.impl.services.SOSMetadataService;
+import uk.ac.standrews.cs.sos.model.Atom;
+import uk.ac.standrews.cs.sos.model.Location;
+import uk.ac.standrews.cs.sos.model.Metadata;
+import uk.ac.standrews.cs.sos.model.Version;
+import uk.ac.standrews.cs.sos.services.MetadataService;
+import uk.ac.standrews.cs.sos.utils.HelperTest;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class SOSFindTest extends AgentTest {
 
+    @Test
+    public void testFindVersionsBySize() throws Exception {
+
+        Version version = addVersionWithMetadata();
+        long size = sizeOf(version);
+
+        Set<IGUID> versions = localSOSNode.getMMS().findVersions("Size", size, size);
+        assertEquals(versions, Collections.singleton(version.guid()));
+    }
+
+    @Test
+    public void testFindVersionsAfterRestart() throws Exception {
+
+        Version version = addVersionWithMetadata();
+        long size = sizeOf(version);
+
+        // A new service finds the versions stored locally, whether its index is rebuilt yet or not
+        MetadataService metadataService = new SOSMetadataService(new TikaMetadataEngine(), localSOSNode.getMDS());
+        assertEquals(metadataService.findVersions("Size", size, size), Collections.singleton(version.guid()));
+
+        metadataService.shutdown();
+    }
+
+    @Test
+    public void testDeletedVersionIsNotFound() throws Exception {
+
+        Version version = addVersionWithMetadata();
+        long size = sizeOf(version);
+
+        localSOSNode.getMDS().delete(version.guid());
+        assertTrue(localSOSNode.getMMS().findVersions("Size", size, size).isEmpty());
+    }
+
+    @Test
+    public void testDeletedMetadataIsNotFound() throws Exception {
+
+        Version version = addVersionWithMetadata();
+        long size = sizeOf(version);
+
+        localSOSNode.getMDS().delete(version.getMetadata());
+        assertTrue(localSOSNode.getMMS().findVersions("Size", size, size).isEmpty());
+    }
+
+    private Version addVersionWithMetadata() throws Exception {
+
+        Location location = HelperTest.createDummyDataFile(localStorage);
+        AtomBuilder atomBuilder = new AtomBuilder().setLocation(location);
+        Atom atom = agent.addAtom(atomBuilder);
+
+        MetadataBuilder metadataBuilder = new MetadataBuilder().setData(atom.getData());
+        Metadata metadata = agent.addMetadata(metadataBuilder);
+
+        VersionBuilder builder = new VersionBuilder(atom.guid())
+                .setMetadata(metadata);
+        return agent.addVersion(builder);
+    }
+
+    private long sizeOf(Version version) throws Exception {
+        return localSOSNode.getMMS().getProperty(version.guid(), "Size").getValue_l();
+    }
+
 //    @Test
 //    public void testFindAtoms() throws Exception {
 //        Location location = HelperTest.createDummyDataFile(internalStorage);
@@ -20,6 +20,7 @@ import org.apache.commons.io.IOUtils;
 import org.testng.annotations.Test;
 import uk.ac.standrews.cs.castore.data.Data;
 import uk.ac.standrews.cs.castore.data.InputStreamData;
+import uk.ac.standrews.cs.sos.constants.Hashes;
 import uk.ac.standrews.cs.sos.exceptions.manifest.AtomNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
@@ -31,11 +32,13 @@ import uk.ac.standrews.cs.sos.model.Location;
 import uk.ac.standrews.cs.sos.model.ManifestType;
 import uk.ac.standrews.cs.sos.utils.HelperTest;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.Set;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertTrue;
 
 /**
@@ -176,4 +179,41 @@ public class SOSAddRetrieveAtomTest extends StorageServiceTest {
         localSOSNode.getMDS().getManifest(manifest.guid());
     }
 
+    @Test
+    public void testAddAtomGUIDIsHashOfData() throws Exception {
+        InputStream stream = HelperTest.StringToInputStream(Hashes.TEST_STRING);
+
+        AtomBuilder builder = new AtomBuilder()
+                .setData(new InputStreamData(stream))
+                .setBundleType(BundleTypes.PERSISTENT);
+        Atom manifest = storageService.addAtom(builder);
+
+        assertEquals(manifest.guid().toMultiHash(), Hashes.TEST_STRING_HASHED);
+        assertTrue(storageService.atomExists(manifest.guid()));
+    }
+
+    @Test
+    public void testAddSameAtomTwiceIsDeduplicated() throws Exception {
+        String testString = "first line and second line";
+
+        AtomBuilder builder = new AtomBuilder()
+                .setData(new InputStreamData(HelperTest.StringToInputStream(testString)))
+                .setBundleType(BundleTypes.PERSISTENT);
+        Atom manifest = storageService.addAtom(builder);
+
+        AtomBuilder otherBuilder = new AtomBuilder()
+                .setData(new InputStreamData(HelperTest.StringToInputStream(testString)))
+                .setBundleType(BundleTypes.PERSISTENT);
+        Atom otherManifest = storageService.addAtom(otherBuilder);
+
+        assertEquals(manifest.guid(), otherManifest.guid());
+        String[] atoms = new File(localStorage.getAtomsDirectory().getPathname()).list();
+        assertNotNull(atoms);
+        assertEquals(1, atoms.length);
+
+        try (Data data = storageService.getAtomContent(otherManifest)) {
+            assertEquals(data.toString(), testString);
+        }
+    }
+
 }
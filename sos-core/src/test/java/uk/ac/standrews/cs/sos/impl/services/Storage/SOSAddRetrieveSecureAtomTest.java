@@ -18,6 +18,8 @@ package uk.ac.standrews.cs.sos.impl.services.Storage;
 
 import org.apache.commons.io.IOUtils;
 import org.testng.annotations.Test;
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.sos.exceptions.DataNotFoundException;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
 import uk.ac.standrews.cs.sos.impl.usro.RoleImpl;
 import uk.ac.standrews.cs.sos.impl.usro.UserImpl;
@@ -71,7 +73,27 @@ public class SOSAddRetrieveSecureAtomTest extends StorageServiceTest {
                 .setProtectFlag(true);
         SecureAtom secureAtomManifest = (SecureAtom) storageService.addAtom(builder);
 
-        // TODO - storage.getData(role)
+        try (Data data = storageService.getSecureAtomContent(secureAtomManifest, role)) {
+            assertTrue(IOUtils.contentEquals(data.getInputStream(), location.getSource()));
+        }
+    }
+
+    @Test (expectedExceptions = DataNotFoundException.class)
+    public void readSecureAtomDataWithOtherRoleFailsTest() throws Exception {
+
+        User user = new UserImpl("TEST_ADD_SECURE_ATOM");
+        Role role = new RoleImpl(user, "ROLE_TEST_ADD_SECURE_ATOM");
+        Role otherRole = new RoleImpl(user, "ROLE_TEST_OTHER");
+
+        Location location = HelperTest.createDummyDataFile(localStorage);
+
+        AtomBuilder builder = (AtomBuilder) new AtomBuilder()
+                .setLocation(location)
+                .setRole(role)
+                .setProtectFlag(true);
+        SecureAtom secureAtomManifest = (SecureAtom) storageService.addAtom(builder);
+
+        storageService.getSecureAtomContent(secureAtomManifest, otherRole);
     }
 
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+import uk.ac.standrews.cs.guid.IGUID;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class CompactGUIDTest {
+
+    @Test
+    public void roundTripTest() {
+
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+        CompactGUID compactGUID = CompactGUID.of(guid);
+
+        assertEquals(compactGUID.toMultiHash(), guid.toMultiHash());
+        assertEquals(compactGUID.toGUID(), guid);
+    }
+
+    @Test
+    public void equalsTest() {
+
+        IGUID guid = GUIDFactory.generateRandomGUID(GUID_ALGORITHM);
+
+        assertEquals(CompactGUID.of(guid), CompactGUID.of(guid.toMultiHash()));
+        assertEquals(CompactGUID.of(guid).hashCode(), CompactGUID.of(guid.toMultiHash()).hashCode());
+        assertNotEquals(CompactGUID.of(guid), CompactGUID.of(GUIDFactory.generateRandomGUID(GUID_ALGORITHM)));
+    }
+
+    @Test
+    public void digestLengthTest() {
+
+        // Same digest bytes, but different lengths
+        CompactGUID shortGUID = CompactGUID.of("SHA256_16_00ff");
+        CompactGUID longGUID = CompactGUID.of("SHA256_16_00ff00");
+
+        assertNotEquals(shortGUID, longGUID);
+        assertEquals(shortGUID.toMultiHash(), "SHA256_16_00ff");
+        assertEquals(longGUID.toMultiHash(), "SHA256_16_00ff00");
+    }
+
+    @Test
+    public void rawMultiHashTest() {
+
+        // Upper case digits and digests longer than 256 bits cannot be stored in the words
+        String upperCase = "SHA256_16_00FF";
+        String tooLong = "SHA512_16_" + new String(new char[128]).replace('\0', 'a');
+        String noPrefix = "0123abcd";
+
+        assertEquals(CompactGUID.of(upperCase).toMultiHash(), upperCase);
+        assertEquals(CompactGUID.of(tooLong).toMultiHash(), tooLong);
+        assertEquals(CompactGUID.of(noPrefix).toMultiHash(), noPrefix);
+        assertEquals(CompactGUID.of(upperCase), CompactGUID.of(upperCase));
+        assertNotEquals(CompactGUID.of(upperCase), CompactGUID.of("SHA256_16_00ff"));
+    }
+}
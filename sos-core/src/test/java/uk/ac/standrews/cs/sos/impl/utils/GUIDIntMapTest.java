@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class GUIDIntMapTest {
+
+    @Test
+    public void basicTest() {
+
+        CompactGUID one = randomGUID();
+        CompactGUID two = randomGUID();
+
+        GUIDIntMap map = new GUIDIntMap();
+        assertEquals(map.put(one, 1), -1);
+        assertEquals(map.put(one, 2), 1);
+
+        assertEquals(map.get(one), 2);
+        assertEquals(map.get(two), -1);
+        assertTrue(map.containsKey(one));
+        assertFalse(map.containsKey(two));
+        assertEquals(map.size(), 1);
+    }
+
+    @Test
+    public void removeTest() {
+
+        CompactGUID one = randomGUID();
+
+        GUIDIntMap map = new GUIDIntMap(0);
+        map.put(one, 1);
+
+        assertEquals(map.remove(one), 1);
+        assertEquals(map.remove(one), 0);
+        assertFalse(map.containsKey(one));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void clearTest() {
+
+        GUIDIntMap map = new GUIDIntMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(randomGUID(), i);
+        }
+
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void forEachTest() {
+
+        GUIDIntMap map = new GUIDIntMap();
+        Map<CompactGUID, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            CompactGUID guid = randomGUID();
+            map.put(guid, i);
+            expected.put(guid, i);
+        }
+
+        Map<CompactGUID, Integer> entries = new HashMap<>();
+        map.forEach(entries::put);
+        assertEquals(entries, expected);
+    }
+
+    // Compare the map with a HashMap, while keys are added and removed and the map is resized
+    @Test
+    public void randomOperationsTest() {
+
+        Random random = new Random(42);
+        List<CompactGUID> guids = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            guids.add(randomGUID());
+        }
+
+        GUIDIntMap map = new GUIDIntMap();
+        Map<CompactGUID, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            CompactGUID guid = guids.get(random.nextInt(guids.size()));
+
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(guid);
+                assertEquals(map.remove(guid), previous != null ? previous : -1);
+            } else {
+                Integer previous = expected.put(guid, i);
+                assertEquals(map.put(guid, i), previous != null ? previous : -1);
+            }
+        }
+
+        assertEquals(map.size(), expected.size());
+        for (CompactGUID guid : guids) {
+            assertEquals(map.get(guid), expected.getOrDefault(guid, -1).intValue());
+        }
+    }
+
+    private static CompactGUID randomGUID() {
+        return CompactGUID.of(GUIDFactory.generateRandomGUID(GUID_ALGORITHM));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.guid.GUIDFactory;
+
+import java.util.*;
+
+import static org.testng.Assert.*;
+import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class GUIDSetMapTest {
+
+    @Test
+    public void basicTest() {
+
+        CompactGUID key = randomGUID();
+        CompactGUID one = randomGUID();
+        CompactGUID two = randomGUID();
+
+        GUIDSetMap map = new GUIDSetMap();
+        assertTrue(map.add(key, one));
+        assertTrue(map.add(key, two));
+        assertFalse(map.add(key, one));
+
+        assertEquals(map.get(key), Arrays.asList(one, two));
+        assertEquals(map.first(key), one);
+        assertEquals(map.count(key), 2);
+        assertTrue(map.contains(key, two));
+        assertNull(map.get(randomGUID()));
+        assertEquals(map.size(), 1);
+    }
+
+    @Test
+    public void sameValueDifferentKeysTest() {
+
+        CompactGUID key = randomGUID();
+        CompactGUID otherKey = randomGUID();
+        CompactGUID value = randomGUID();
+
+        GUIDSetMap map = new GUIDSetMap();
+        map.add(key, value);
+        map.add(otherKey, value);
+        map.remove(key, value);
+
+        assertFalse(map.contains(key, value));
+        assertTrue(map.contains(otherKey, value));
+    }
+
+    @Test
+    public void emptySetTest() {
+
+        CompactGUID key = randomGUID();
+        CompactGUID value = randomGUID();
+
+        GUIDSetMap map = new GUIDSetMap();
+        map.addKey(key);
+        assertTrue(map.containsKey(key));
+        assertEquals(map.get(key).size(), 0);
+        assertNull(map.first(key));
+
+        // The key stays in the map when its last value is removed
+        map.add(key, value);
+        assertTrue(map.remove(key, value));
+        assertFalse(map.remove(key, value));
+        assertTrue(map.containsKey(key));
+        assertEquals(map.count(key), 0);
+    }
+
+    @Test
+    public void removeKeyTest() {
+
+        CompactGUID key = randomGUID();
+        CompactGUID value = randomGUID();
+
+        GUIDSetMap map = new GUIDSetMap();
+        map.add(key, value);
+
+        assertTrue(map.removeKey(key));
+        assertFalse(map.removeKey(key));
+        assertFalse(map.containsKey(key));
+        assertFalse(map.contains(key, value));
+
+        // The ids of the removed key and value are reused
+        map.add(key, value);
+        assertEquals(map.get(key), Collections.singletonList(value));
+    }
+
+    // Compare the map with a map of LinkedHashSets, while values are added and removed and the map is resized
+    @Test
+    public void randomOperationsTest() {
+
+        Random random = new Random(42);
+        List<CompactGUID> keys = new ArrayList<>();
+        List<CompactGUID> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(randomGUID());
+        }
+        for (int i = 0; i < 500; i++) {
+            values.add(randomGUID());
+        }
+
+        GUIDSetMap map = new GUIDSetMap();
+        Map<CompactGUID, Set<CompactGUID>> expected = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            CompactGUID key = keys.get(random.nextInt(keys.size()));
+            CompactGUID value = values.get(random.nextInt(values.size()));
+
+            int operation = random.nextInt(10);
+            if (operation == 0) {
+                assertEquals(map.removeKey(key), expected.remove(key) != null);
+            } else if (operation < 4) {
+                Set<CompactGUID> set = expected.get(key);
+                assertEquals(map.remove(key, value), set != null && set.remove(value));
+            } else {
+                assertEquals(map.add(key, value), expected.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(value));
+            }
+        }
+
+        assertEquals(map.size(), expected.size());
+        for (CompactGUID key : keys) {
+            Set<CompactGUID> set = expected.get(key);
+            assertEquals(map.get(key), set != null ? new ArrayList<>(set) : null);
+        }
+
+        Set<CompactGUID> mapKeys = new HashSet<>();
+        map.forEachKey(mapKeys::add);
+        assertEquals(mapKeys, expected.keySet());
+    }
+
+    private static CompactGUID randomGUID() {
+        return CompactGUID.of(GUIDFactory.generateRandomGUID(GUID_ALGORITHM));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LRUCacheTest {
+
+    @Test
+    public void basicTest() {
+
+        LRUCache<String, Integer> cache = new LRUCache<>();
+        cache.put("one", 1);
+
+        assertEquals(cache.get("one"), Integer.valueOf(1));
+        assertNull(cache.get("two"));
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedTest() {
+
+        LRUCache<String, Integer> cache = new LRUCache<>(2);
+        cache.put("one", 1);
+        cache.put("two", 2);
+
+        // "one" becomes the most recently used entry
+        cache.get("one");
+        cache.put("three", 3);
+
+        assertTrue(cache.containsKey("one"));
+        assertFalse(cache.containsKey("two"));
+        assertTrue(cache.containsKey("three"));
+        assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void countersTest() {
+
+        LRUCache<String, Integer> cache = new LRUCache<>(1);
+        cache.put("one", 1);
+        cache.get("one");
+        cache.get("two");
+        cache.put("two", 2);
+
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+        assertEquals(cache.getEvictions(), 1);
+
+        cache.peek("two");
+        assertEquals(cache.getHits(), 1);
+
+        cache.resetStats();
+        assertEquals(cache.getHits(), 0);
+        assertEquals(cache.getMisses(), 0);
+        assertEquals(cache.getEvictions(), 0);
+    }
+
+    @Test
+    public void computeTest() {
+
+        LRUCache<String, Integer> cache = new LRUCache<>();
+        cache.compute("one", (key, value) -> value == null ? 1 : value + 1);
+        cache.compute("one", (key, value) -> value == null ? 1 : value + 1);
+
+        assertEquals(cache.get("one"), Integer.valueOf(2));
+
+        cache.compute("one", (key, value) -> null);
+        assertFalse(cache.containsKey("one"));
+    }
+
+    @Test
+    public void peekWithReaderTest() {
+
+        LRUCache<String, List<Integer>> cache = new LRUCache<>();
+        cache.compute("one", (key, value) -> new ArrayList<>());
+        cache.compute("one", (key, value) -> { value.add(1); return value; });
+
+        assertTrue(cache.peek("one", value -> value != null && value.contains(1)));
+        assertFalse(cache.peek("two", value -> value != null));
+
+        // Reading with peek does not count as a lookup
+        assertEquals(cache.getHits(), 0);
+        assertEquals(cache.getMisses(), 0);
+    }
+
+    @Test
+    public void keysOrderedByUseTest() {
+
+        LRUCache<String, Integer> cache = new LRUCache<>(3);
+        cache.put("one", 1);
+        cache.put("two", 2);
+        cache.put("three", 3);
+        cache.get("one");
+
+        List<String> keys = cache.keys();
+        assertEquals(keys.size(), 3);
+        assertEquals(keys.get(0), "two");
+        assertEquals(keys.get(2), "one");
+    }
+
+    @Test
+    public void boundedSizeTest() {
+
+        LRUCache<Integer, Integer> cache = new LRUCache<>();
+        for (int i = 0; i < LRUCache.DEFAULT_MAX_SIZE * 2; i++) {
+            cache.put(i, i);
+        }
+
+        assertTrue(cache.size() <= LRUCache.DEFAULT_MAX_SIZE);
+        assertEquals(cache.getEvictions(), LRUCache.DEFAULT_MAX_SIZE * 2 - cache.size());
+    }
+
+    @Test
+    public void weightedTest() {
+
+        LRUCache<String, String> cache = new LRUCache<>(10, String::length);
+        cache.put("one", "12345");
+        cache.put("two", "1234");
+        assertEquals(cache.getWeight(), 9);
+
+        // Both "one" and "two" must be evicted to make space
+        cache.put("three", "12345678");
+        assertFalse(cache.containsKey("one"));
+        assertFalse(cache.containsKey("two"));
+        assertEquals(cache.getWeight(), 8);
+        assertEquals(cache.getEvictions(), 2);
+
+        cache.remove("three");
+        assertEquals(cache.getWeight(), 0);
+    }
+
+    @Test
+    public void weightedValueTooLargeTest() {
+
+        LRUCache<String, String> cache = new LRUCache<>(4, String::length);
+        cache.put("one", "12345");
+
+        assertFalse(cache.containsKey("one"));
+        assertEquals(cache.getWeight(), 0);
+    }
+
+    @Test
+    public void concurrentAccessTest() throws Exception {
+
+        LRUCache<Integer, Integer> cache = new LRUCache<>(1024);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    cache.compute(i % 2048, (key, value) -> value == null ? 1 : value + 1);
+                    cache.get(i % 2048);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        assertTrue(cache.size() <= 1024);
+        assertEquals(cache.getHits() + cache.getMisses(), 8 * 10000);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void basicTest() {
+
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.put(0L, "zero"));
+        assertNull(map.put(-1L, "minus one"));
+        assertEquals(map.put(0L, "ZERO"), "zero");
+
+        assertEquals(map.get(0L), "ZERO");
+        assertEquals(map.get(-1L), "minus one");
+        assertNull(map.get(1L));
+        assertEquals(map.size(), 2);
+    }
+
+    @Test
+    public void computeIfAbsentTest() {
+
+        LongObjectMap<StringBuilder> map = new LongObjectMap<>();
+        map.computeIfAbsent(7L, key -> new StringBuilder()).append("a");
+        map.computeIfAbsent(7L, key -> new StringBuilder()).append("b");
+
+        assertEquals(map.get(7L).toString(), "ab");
+        assertEquals(map.size(), 1);
+    }
+
+    @Test
+    public void resizeAndForEachTest() {
+
+        Random random = new Random(42);
+        Map<Long, Long> expected = new HashMap<>();
+
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        for (int i = 0; i < 10000; i++) {
+            long key = random.nextLong();
+            map.put(key, key + 1);
+            expected.put(key, key + 1);
+        }
+        assertEquals(map.size(), expected.size());
+
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(actual, expected);
+    }
+
+    @Test (expectedExceptions = NullPointerException.class)
+    public void nullValueTest() {
+
+        new LongObjectMap<String>().put(1L, null);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LongSetTest {
+
+    @Test
+    public void basicTest() {
+
+        LongSet set = new LongSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(0L));
+        assertFalse(set.add(0L));
+        assertTrue(set.add(Long.MIN_VALUE));
+
+        assertTrue(set.contains(0L));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(1L));
+        assertEquals(set.size(), 2);
+    }
+
+    @Test
+    public void resizeAndToArrayTest() {
+
+        Random random = new Random(42);
+        Set<Long> expected = new HashSet<>();
+
+        LongSet set = new LongSet();
+        for (int i = 0; i < 10000; i++) {
+            long element = random.nextInt(5000);
+            assertEquals(set.add(element), expected.add(element));
+        }
+
+        long[] elements = set.toArray();
+        assertEquals(elements.length, expected.size());
+
+        Set<Long> actual = new HashSet<>();
+        Arrays.stream(elements).forEach(actual::add);
+        assertEquals(actual, expected);
+    }
+}
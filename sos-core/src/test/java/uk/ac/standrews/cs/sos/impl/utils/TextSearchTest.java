@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class TextSearchTest {
+
+    @Test
+    public void basicTest() {
+
+        TextSearch search = new TextSearch("TEST", false);
+        assertEquals(search.count("preword TEST postword", TextSearch.NO_LIMIT), 1);
+        assertEquals(search.count("TEST test TEST", TextSearch.NO_LIMIT), 2);
+        assertEquals(search.count("nothing here", TextSearch.NO_LIMIT), 0);
+    }
+
+    @Test
+    public void ignoreCaseTest() {
+
+        TextSearch search = new TextSearch("TeSt", true);
+        assertEquals(search.count("TEST test TEST tEsT", TextSearch.NO_LIMIT), 4);
+    }
+
+    @Test
+    public void emptyTest() {
+
+        assertEquals(new TextSearch("", false).count("some text", TextSearch.NO_LIMIT), 0);
+        assertEquals(new TextSearch(null, false).count("some text", TextSearch.NO_LIMIT), 0);
+        assertEquals(new TextSearch("text", false).count("", TextSearch.NO_LIMIT), 0);
+        assertEquals(new TextSearch("text", false).count((String) null, TextSearch.NO_LIMIT), 0);
+    }
+
+    @Test
+    public void nonOverlappingTest() {
+
+        // Same semantics as repeatedly calling String.indexOf after each match
+        assertEquals(new TextSearch("aa", false).count("aaaaa", TextSearch.NO_LIMIT), 2);
+        assertEquals(new TextSearch("aba", false).count("ababababa", TextSearch.NO_LIMIT), 2);
+    }
+
+    @Test
+    public void partialMatchesTest() {
+
+        // The automaton must fall back to the longest matching prefix after a mismatch
+        assertEquals(new TextSearch("abab", false).count("abaabababab", TextSearch.NO_LIMIT), 2);
+        assertEquals(new TextSearch("aab", false).count("aaab", TextSearch.NO_LIMIT), 1);
+    }
+
+    @Test
+    public void limitTest() {
+
+        TextSearch search = new TextSearch("x", false);
+        assertEquals(search.count("x x x x", 1), 1);
+        assertEquals(search.count("x x x x", 3), 3);
+        assertEquals(search.count("x x", 3), 2);
+    }
+
+    @Test
+    public void limitStopsReadingTest() throws IOException {
+
+        byte[] text = ("TEST" + repeat(' ', 100000)).getBytes(StandardCharsets.UTF_8);
+        CountingInputStream stream = new CountingInputStream(new ByteArrayInputStream(text));
+
+        assertTrue(new TextSearch("TEST", false).contains(stream));
+        assertTrue(stream.read < text.length);
+    }
+
+    @Test
+    public void matchAcrossBuffersTest() throws IOException {
+
+        // The pattern straddles the boundary of the internal buffer
+        String text = repeat('a', 8190) + "NEEDLE" + repeat('a', 8190) + "NEEDLE";
+        InputStream stream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(new TextSearch("needle", true).count(stream, StandardCharsets.UTF_8, TextSearch.NO_LIMIT), 2);
+    }
+
+    @Test
+    public void charsetTest() throws IOException {
+
+        String text = "Ça va? ÇA VA!";
+        InputStream stream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(new TextSearch("ça va", true).count(stream, StandardCharsets.UTF_8, TextSearch.NO_LIMIT), 2);
+    }
+
+    private static String repeat(char c, int times) {
+
+        StringBuilder builder = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            builder.append(c);
+        }
+
+        return builder.toString();
+    }
+
+    private static class CountingInputStream extends InputStream {
+
+        private final InputStream stream;
+        private int read;
+
+        CountingInputStream(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int b = stream.read();
+            if (b != -1) read++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            int n = stream.read(b, off, len);
+            if (n > 0) read += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.impl.utils;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void basicTest() {
+
+        TimerWheel<String> wheel = new TimerWheel<>(8, 0);
+        wheel.schedule("one", 3);
+        assertEquals(wheel.size(), 1);
+
+        assertTrue(wheel.advance(2).isEmpty());
+
+        List<String> expired = wheel.advance(3);
+        assertEquals(expired.size(), 1);
+        assertEquals(expired.get(0), "one");
+        assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void deadlineInLaterRoundTest() {
+
+        TimerWheel<String> wheel = new TimerWheel<>(4, 0);
+        wheel.schedule("one", 2);
+        wheel.schedule("six", 6); // Same bucket as "one"
+
+        List<String> expired = wheel.advance(2);
+        assertEquals(expired.size(), 1);
+        assertEquals(expired.get(0), "one");
+
+        expired = wheel.advance(6);
+        assertEquals(expired.size(), 1);
+        assertEquals(expired.get(0), "six");
+    }
+
+    @Test
+    public void advanceMoreThanOneRoundTest() {
+
+        TimerWheel<Integer> wheel = new TimerWheel<>(4, 0);
+        for (int i = 1; i <= 10; i++) {
+            wheel.schedule(i, i);
+        }
+
+        List<Integer> expired = wheel.advance(100);
+        assertEquals(expired.size(), 10);
+        assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void pastDeadlineFiresOnNextAdvanceTest() {
+
+        TimerWheel<String> wheel = new TimerWheel<>(8, 10);
+        wheel.schedule("past", 5);
+
+        List<String> expired = wheel.advance(11);
+        assertEquals(expired.size(), 1);
+        assertEquals(expired.get(0), "past");
+    }
+
+    @Test
+    public void clearTest() {
+
+        TimerWheel<String> wheel = new TimerWheel<>(8, 0);
+        wheel.schedule("one", 1);
+        wheel.schedule("two", 2);
+        wheel.clear();
+
+        assertEquals(wheel.size(), 0);
+        assertTrue(wheel.advance(10).isEmpty());
+    }
+}
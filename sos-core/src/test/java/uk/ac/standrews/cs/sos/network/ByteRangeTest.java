@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module core.
+ *
+ * core is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * core is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with core. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.network;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void singleRangeTest() {
+
+        List<ByteRange> ranges = ByteRange.parseRangeHeader("bytes=0-99", 1000);
+        assertEquals(ranges.size(), 1);
+        assertEquals(ranges.get(0), new ByteRange(0, 99));
+        assertEquals(ranges.get(0).length(), 100);
+    }
+
+    @Test
+    public void openEndedRangeTest() {
+
+        List<ByteRange> ranges = ByteRange.parseRangeHeader("bytes=900-", 1000);
+        assertEquals(ranges.get(0), new ByteRange(900, 999));
+
+        // The last position is capped to the size of the entity
+        ranges = ByteRange.parseRangeHeader("bytes=900-5000", 1000);
+        assertEquals(ranges.get(0), new ByteRange(900, 999));
+    }
+
+    @Test
+    public void suffixRangeTest() {
+
+        List<ByteRange> ranges = ByteRange.parseRangeHeader("bytes=-100", 1000);
+        assertEquals(ranges.get(0), new ByteRange(900, 999));
+
+        ranges = ByteRange.parseRangeHeader("bytes=-5000", 1000);
+        assertEquals(ranges.get(0), new ByteRange(0, 999));
+    }
+
+    @Test
+    public void multipleRangesTest() {
+
+        List<ByteRange> ranges = ByteRange.parseRangeHeader("bytes=500-599, 0-99", 1000);
+        assertEquals(ranges.size(), 2);
+        assertEquals(ranges.get(0), new ByteRange(0, 99));
+        assertEquals(ranges.get(1), new ByteRange(500, 599));
+    }
+
+    @Test
+    public void overlappingRangesAreMergedTest() {
+
+        List<ByteRange> ranges = ByteRange.parseRangeHeader("bytes=0-99,50-149,150-199,300-", 1000);
+        assertEquals(ranges.size(), 2);
+        assertEquals(ranges.get(0), new ByteRange(0, 199));
+        assertEquals(ranges.get(1), new ByteRange(300, 999));
+    }
+
+    @Test
+    public void unsatisfiableRangeTest() {
+
+        assertTrue(ByteRange.parseRangeHeader("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parseRangeHeader("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parseRangeHeader("bytes=0-10", 0).isEmpty());
+
+        // Only the satisfiable ranges are served
+        assertEquals(ByteRange.parseRangeHeader("bytes=2000-3000,0-9", 1000).size(), 1);
+    }
+
+    @Test
+    public void invalidRangeIsIgnoredTest() {
+
+        assertNull(ByteRange.parseRangeHeader(null, 1000));
+        assertNull(ByteRange.parseRangeHeader("items=0-10", 1000));
+        assertNull(ByteRange.parseRangeHeader("bytes=10-0", 1000));
+        assertNull(ByteRange.parseRangeHeader("bytes=a-b", 1000));
+        assertNull(ByteRange.parseRangeHeader("bytes=10", 1000));
+    }
+
+    @Test
+    public void tooManyRangesAreIgnoredTest() {
+
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+            header.append(",").append(i * 2).append("-").append(i * 2);
+        }
+
+        assertNull(ByteRange.parseRangeHeader(header.toString(), 1000));
+    }
+
+    @Test
+    public void contentRangeTest() {
+
+        ByteRange range = new ByteRange(100, 199);
+        String header = range.toContentRangeHeader(1000);
+        assertEquals(header, "bytes 100-199/1000");
+
+        assertEquals(ByteRange.parseContentRangeHeader(header), range);
+        assertEquals(ByteRange.parseContentRangeSize(header), 1000);
+
+        assertNull(ByteRange.parseContentRangeHeader(ByteRange.unsatisfiedContentRangeHeader(1000)));
+        assertEquals(ByteRange.parseContentRangeSize(ByteRange.unsatisfiedContentRangeHeader(1000)), 1000);
+        assertEquals(ByteRange.parseContentRangeSize("bytes 0-9/*"), -1);
+    }
+
+    @Test
+    public void rangeHeaderTest() {
+
+        assertEquals(new ByteRange(0, 99).toRangeHeader(), "bytes=0-99");
+        assertEquals(ByteRange.parseRangeHeader(new ByteRange(10, 20).toRangeHeader(), 100).get(0), new ByteRange(10, 20));
+    }
+}
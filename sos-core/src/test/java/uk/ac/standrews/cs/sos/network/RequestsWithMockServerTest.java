@@ -23,8 +23,12 @@ import org.testng.annotations.Test;
 import uk.ac.standrews.cs.sos.interfaces.network.Response;
 import uk.ac.standrews.cs.sos.utils.HelperTest;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
@@ -54,6 +58,16 @@ public class RequestsWithMockServerTest {
                                 .withStatusCode(200)
                                 .withBody("test body")
                 );
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/data")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(201)
+                );
     }
 
     @AfterMethod
@@ -70,4 +84,33 @@ public class RequestsWithMockServerTest {
         String responseBody = HelperTest.InputStreamToString(response.getBody());
         assertEquals(responseBody, "test body");
     }
+
+    @Test
+    public void asyncMockServerTest() throws Exception {
+
+        List<CompletableFuture<Response>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            SyncRequest request = new SyncRequest(HTTPMethod.GET, new URL("http://0.0.0.0:9998/test"), ResponseType.TEXT);
+            responses.add(RequestsManager.getInstance().playAsyncRequest(request));
+        }
+
+        for (CompletableFuture<Response> response : responses) {
+            assertEquals(response.get().getCode(), 200);
+            assertEquals(response.get().getStringBody(), "test body");
+        }
+    }
+
+    @Test
+    public void postStreamedDataMockServerTest() throws IOException {
+
+        byte[] data = new byte[4 * 1024 * 1024]; // Larger than the buffers of the transport
+
+        SyncRequest request = new SyncRequest(HTTPMethod.POST, new URL("http://0.0.0.0:9998/data"));
+        request.setBody(new ByteArrayInputStream(data));
+        Response response = RequestsManager.getInstance().playSyncRequest(request);
+        assertNotNull(response);
+
+        assertEquals(response.getCode(), 201);
+        response.consumeResponse();
+    }
 }
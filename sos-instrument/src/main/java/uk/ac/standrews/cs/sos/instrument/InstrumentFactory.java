@@ -22,13 +22,15 @@ import uk.ac.standrews.cs.sos.instrument.impl.DummyInstrument;
 import uk.ac.standrews.cs.sos.instrument.impl.Statistics;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class InstrumentFactory {
 
-    private static BasicInstrument basicInstrument;
+    private static volatile BasicInstrument basicInstrument;
     private static BackgroundInstrument backgroundInstrument;
 
     public static Instrument instance() {
@@ -72,8 +74,39 @@ public class InstrumentFactory {
 
     public static void stop() {
 
+        if (basicInstrument != null) {
+            basicInstrument.close();
+            basicInstrument = null;
+        }
+
 //        if (backgroundInstrument != null) {
 //            backgroundInstrument.stop();
 //        }
     }
+
+    /**
+     * @return the live percentiles of the measures recorded so far, or an empty list if the instrument is not running
+     */
+    public static List<LatencySummary> latencies() {
+
+        BasicInstrument instrument = basicInstrument;
+        if (instrument == null) {
+            return Collections.emptyList();
+        }
+
+        return instrument.latencies();
+    }
+
+    /**
+     * @return the number of measures dropped because the instrument could not keep up, or 0 if the instrument is not running
+     */
+    public static long droppedMeasures() {
+
+        BasicInstrument instrument = basicInstrument;
+        if (instrument == null) {
+            return 0;
+        }
+
+        return instrument.getDroppedMeasures();
+    }
 }
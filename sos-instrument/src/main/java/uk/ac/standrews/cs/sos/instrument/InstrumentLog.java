@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module instrument.
+ *
+ * instrument is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * instrument is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with instrument. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.instrument;
+
+import uk.ac.standrews.cs.logger.LEVEL;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Log used by the instrument.
+ * The instrument does not depend on the SOS, so the SOS sets its own log as the sink when the log is initialised.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class InstrumentLog {
+
+    private static volatile BiConsumer<LEVEL, String> sink;
+
+    public static void setSink(BiConsumer<LEVEL, String> logSink) {
+        sink = logSink;
+    }
+
+    public static void log(LEVEL level, String message) {
+        BiConsumer<LEVEL, String> logSink = sink;
+        if (logSink != null) {
+            logSink.accept(level, message);
+        } else {
+            System.err.println("LOG has not been initialised");
+        }
+    }
+}
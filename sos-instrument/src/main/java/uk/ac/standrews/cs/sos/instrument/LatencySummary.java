@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module instrument.
+ *
+ * instrument is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * instrument is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with instrument. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.instrument;
+
+/**
+ * Snapshot of the latencies recorded for a given StatsTYPE/subtype.
+ * All values are in the unit of the measures (nanoseconds for the timings of the SOS).
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LatencySummary {
+
+    private final StatsTYPE statsType;
+    private final StatsTYPE subtype;
+    private final long count;
+    private final double mean;
+    private final long min;
+    private final long max;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+
+    public LatencySummary(StatsTYPE statsType, StatsTYPE subtype, long count, double mean, long min, long max, long p50, long p99, long p999) {
+        this.statsType = statsType;
+        this.subtype = subtype;
+        this.count = count;
+        this.mean = mean;
+        this.min = min;
+        this.max = max;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+    }
+
+    public StatsTYPE getStatsType() {
+        return statsType;
+    }
+
+    public StatsTYPE getSubtype() {
+        return subtype;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    @Override
+    public String toString() {
+        return statsType + "/" + subtype + " count=" + count + " p50=" + p50 + " p99=" + p99 + " p999=" + p999 + " max=" + max;
+    }
+}
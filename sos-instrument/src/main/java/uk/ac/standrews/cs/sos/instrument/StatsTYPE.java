@@ -52,6 +52,7 @@ public enum StatsTYPE {
     no_valid_policies,
 
     thread,
+    tasks, // queue depth, waiting time and running time of tasks, per type of task
 
     experiment;
 
@@ -26,6 +26,8 @@ import java.time.Instant;
  */
 public class AppMetrics implements Metrics {
 
+    private static final String INSTRUMENT_PACKAGE = "uk.ac.standrews.cs.sos.instrument.";
+
     private Instant now;
     private String message = "n/a";
     private String message_2 = "n/a";
@@ -111,17 +113,36 @@ public class AppMetrics implements Metrics {
         this.stackTraceElement = stackTraceElement;
     }
 
-    public static AppMetrics measure(String message) {
+    /**
+     * @param message of the measure
+     * @param captureCallSite true if the class and method calling the instrument should be recorded.
+     *                        This requires walking the stack, so it is not done unless requested.
+     * @return the metrics for the current instant
+     */
+    public static AppMetrics measure(String message, boolean captureCallSite) {
 
         AppMetrics appMeasure = new AppMetrics();
         appMeasure.setNow(Instant.now());
         appMeasure.setMessage(message);
-        StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
-        appMeasure.setStackTraceElement(stackTraceElements[3]);
+        if (captureCallSite) {
+            appMeasure.setStackTraceElement(callSite(new Throwable().getStackTrace()));
+        }
 
         return appMeasure;
     }
 
+    // The call site is the first frame outside of the instrument package
+    private static StackTraceElement callSite(StackTraceElement[] stackTraceElements) {
+
+        for (StackTraceElement stackTraceElement : stackTraceElements) {
+            if (!stackTraceElement.getClassName().startsWith(INSTRUMENT_PACKAGE)) {
+                return stackTraceElement;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public String tsvHeader() {
         return "Timestamp (ms)"+TAB+"Time(UTC)"+TAB+
@@ -136,7 +157,7 @@ public class AppMetrics implements Metrics {
                 getNow().toEpochMilli() + TAB + getNow().toString() + TAB +
                 getMessage() + TAB + getMessage_2() + TAB + getMessage_3() + TAB +
                 getUserMeasure() + TAB + getUserMeasure_2() + TAB + getUserMeasure_3() + TAB +
-                getStackTraceElement().getClassName() + TAB + getStackTraceElement().getMethodName();
+                (stackTraceElement != null ? stackTraceElement.getClassName() + TAB + stackTraceElement.getMethodName() : "n/a" + TAB + "n/a");
     }
 
 }
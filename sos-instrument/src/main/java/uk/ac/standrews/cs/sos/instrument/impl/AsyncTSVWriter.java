@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module instrument.
+ *
+ * instrument is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * instrument is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with instrument. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.instrument.impl;
+
+import uk.ac.standrews.cs.logger.LEVEL;
+import uk.ac.standrews.cs.sos.instrument.InstrumentLog;
+import uk.ac.standrews.cs.sos.instrument.Metrics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes metrics to a TSV file from a background thread.
+ *
+ * Recorders only append the metrics to a lock-free queue. The queue is bounded: when the writer cannot keep up,
+ * new metrics are dropped (and counted) rather than blocking the recorders or exhausting the memory.
+ * The queue is drained periodically and on flush().
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class AsyncTSVWriter implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 65536;
+    private static final long DRAIN_INTERVAL_MS = 250;
+
+    private final int capacity;
+    private final Queue<Metrics> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    private final BufferedWriter writer;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public AsyncTSVWriter(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    public AsyncTSVWriter(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        this.writer = new BufferedWriter(new FileWriter(file, true));
+
+        thread = new Thread(this::run, "instrument-tsv-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue the metrics to be written. Never blocks.
+     *
+     * @param metrics to write
+     * @return false if the queue is full and the metrics have been dropped
+     */
+    public boolean offer(Metrics metrics) {
+
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+
+        queue.offer(metrics);
+        return true;
+    }
+
+    /**
+     * Write all the queued metrics to the file.
+     *
+     * @throws IOException if the metrics could not be written
+     */
+    public synchronized void flush() throws IOException {
+
+        Metrics metrics;
+        while ((metrics = queue.poll()) != null) {
+            size.decrementAndGet();
+
+            writer.write(metrics.tsv());
+            writer.newLine();
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * @return the number of metrics dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            flush();
+            writer.close();
+        }
+    }
+
+    private void run() {
+
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL_MS));
+
+            try {
+                if (running) flush();
+            } catch (IOException e) {
+                InstrumentLog.log(LEVEL.ERROR, "Unable to write the queued measures: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -16,17 +16,28 @@
  */
 package uk.ac.standrews.cs.sos.instrument.impl;
 
+import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.instrument.Instrument;
+import uk.ac.standrews.cs.sos.instrument.InstrumentLog;
+import uk.ac.standrews.cs.sos.instrument.LatencySummary;
 import uk.ac.standrews.cs.sos.instrument.Metrics;
 import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
 
 import java.io.*;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
 
 import static uk.ac.standrews.cs.sos.instrument.Metrics.TAB;
 
 /**
+ * Records the measures in latency histograms, for live percentiles, and in a TSV file.
+ *
+ * Recording does not lock: the histograms are lock-free and the TSV rows are queued to an AsyncTSVWriter.
+ * The value recorded in the histograms is the duration of the measure:
+ * - end - start for thread measures (measure, measure_2)
+ * - the running time for tasks (measure_3)
+ * - the first measure otherwise
+ * Experiment measures are timestamps or indices, so they are written to the TSV file only.
+ *
  * @author Simone I. Conte "sic2@st-andrews.ac.uk"
  */
 public class BasicInstrument implements Instrument {
@@ -37,24 +48,27 @@ public class BasicInstrument implements Instrument {
     private Statistics statistics;
     private String filename;
 
-    private static final Object LOCK_MEASUREMENTS_QUEUE = new Object();
-    private Queue<Metrics> measurementsQueue;
+    private final LatencyHistograms histograms;
+    private final AsyncTSVWriter tsvWriter;
+    private long reportedDropped;
 
     public BasicInstrument(Statistics statistics, String filename) throws IOException {
         this.statistics = statistics;
         this.filename = filename;
 
-        this.measurementsQueue = new LinkedList<>();
+        this.histograms = new LatencyHistograms();
 
-        boolean fileIsEmpty = fileIsEmpty(filename);
+        File tsvFile = new File(filename + ".tsv");
+        boolean fileIsEmpty = fileIsEmpty(tsvFile);
         if (fileIsEmpty) {
-            try (FileWriter fileWriter = new FileWriter(new File(filename + ".tsv"), true);
+            try (FileWriter fileWriter = new FileWriter(tsvFile, true);
                  BufferedWriter bufferedWriter = new BufferedWriter(fileWriter)) {
 
                 bufferedWriter.write("StatsTYPE" + TAB + "Subtype" + TAB);
                 writeHeader(bufferedWriter, new AppMetrics(), true);
             }
         }
+        this.tsvWriter = new AsyncTSVWriter(tsvFile);
 
         System.out.println("Instrumentation output will be collected at the file: " + filename + ".tsv");
         System.out.println("Statistics about the dataset used will be available at the file: " + (filename + DATASET_SUMMARY));
@@ -96,15 +110,7 @@ public class BasicInstrument implements Instrument {
     public void measure(StatsTYPE statsTYPE, StatsTYPE subtype, String message, long measure) {
 
         if (statistics.isEnabled(statsTYPE)) {
-
-            synchronized (LOCK_MEASUREMENTS_QUEUE) {
-                AppMetrics appMeasure = AppMetrics.measure(message);
-                appMeasure.setUserMeasure(measure);
-                appMeasure.setStatsType(statsTYPE);
-                appMeasure.setSubType(subtype);
-
-                measurementsQueue.add(appMeasure);
-            }
+            record(statsTYPE, subtype, message, null, measure, -1, -1);
         }
     }
 
@@ -112,16 +118,7 @@ public class BasicInstrument implements Instrument {
     public void measure(StatsTYPE statsTYPE, StatsTYPE subtype, String message, long measure, long measure_2) {
 
         if (statistics.isEnabled(statsTYPE)) {
-
-            synchronized (LOCK_MEASUREMENTS_QUEUE) {
-                AppMetrics appMeasure = AppMetrics.measure(message);
-                appMeasure.setUserMeasure(measure);
-                appMeasure.setUserMeasure_2(measure_2);
-                appMeasure.setStatsType(statsTYPE);
-                appMeasure.setSubType(subtype);
-
-                measurementsQueue.add(appMeasure);
-            }
+            record(statsTYPE, subtype, message, null, measure, measure_2, -1);
         }
     }
 
@@ -129,17 +126,7 @@ public class BasicInstrument implements Instrument {
     public void measure(StatsTYPE statsTYPE, StatsTYPE subtype, String message, long measure, long measure_2, long measure_3) {
 
         if (statistics.isEnabled(statsTYPE)) {
-
-            synchronized (LOCK_MEASUREMENTS_QUEUE) {
-                AppMetrics appMeasure = AppMetrics.measure(message);
-                appMeasure.setUserMeasure(measure);
-                appMeasure.setUserMeasure_2(measure_2);
-                appMeasure.setUserMeasure_3(measure_3);
-                appMeasure.setStatsType(statsTYPE);
-                appMeasure.setSubType(subtype);
-
-                measurementsQueue.add(appMeasure);
-            }
+            record(statsTYPE, subtype, message, null, measure, measure_2, measure_3);
         }
     }
 
@@ -147,47 +134,85 @@ public class BasicInstrument implements Instrument {
     public void measure(StatsTYPE statsTYPE, StatsTYPE subtype, String message, String message_2, long measure, long measure_2) {
 
         if (statistics.isEnabled(statsTYPE)) {
-
-            synchronized (LOCK_MEASUREMENTS_QUEUE) {
-                AppMetrics appMeasure = AppMetrics.measure(message);
-                appMeasure.setMessage_2(message_2);
-                appMeasure.setUserMeasure(measure);
-                appMeasure.setUserMeasure_2(measure_2);
-                appMeasure.setStatsType(statsTYPE);
-                appMeasure.setSubType(subtype);
-
-                measurementsQueue.add(appMeasure);
-            }
+            record(statsTYPE, subtype, message, message_2, measure, measure_2, -1);
         }
     }
 
     @Override
     public void flush() {
 
-        synchronized (LOCK_MEASUREMENTS_QUEUE) {
-
-            try (FileWriter fileWriter = new FileWriter(new File(filename + ".tsv"), true);
-                 BufferedWriter bufferedWriter = new BufferedWriter(fileWriter)) {
-
-                for (Metrics metrics : measurementsQueue) {
-                    write(bufferedWriter, metrics, true);
-                }
+        try {
+            tsvWriter.flush();
+        } catch (IOException e) {
+            InstrumentLog.log(LEVEL.ERROR, "Unable to write the measures to " + filename + ".tsv: " + e.getMessage());
+        }
 
-            } catch (IOException e) {
-                e.printStackTrace();
+        long dropped = getDroppedMeasures();
+        synchronized (this) {
+            if (dropped > reportedDropped) {
+                InstrumentLog.log(LEVEL.WARN, "Instrumentation queue full. Measures not written to " + filename + ".tsv: " + (dropped - reportedDropped));
+                reportedDropped = dropped;
             }
+        }
+    }
 
-            measurementsQueue.clear();
+    /**
+     * Flush the measures and stop writing them to the TSV file.
+     */
+    public void close() {
 
+        try {
+            tsvWriter.close();
+        } catch (IOException e) {
+            InstrumentLog.log(LEVEL.ERROR, "Unable to close the measures file " + filename + ".tsv: " + e.getMessage());
         }
     }
 
-    private void write(BufferedWriter bufferedWriter, Metrics metrics, boolean last) throws IOException {
+    /**
+     * @return the live percentiles of the measures recorded so far
+     */
+    public List<LatencySummary> latencies() {
+        return histograms.summaries();
+    }
 
-        bufferedWriter.write(metrics.tsv());
-        if (!last) bufferedWriter.write(TAB);
+    /**
+     * @return the number of measures not written to the TSV file because the queue was full
+     */
+    public long getDroppedMeasures() {
+        return tsvWriter.getDropped();
+    }
 
-        if (last) bufferedWriter.newLine();
+    public LatencyHistograms getHistograms() {
+        return histograms;
+    }
+
+    private void record(StatsTYPE statsTYPE, StatsTYPE subtype, String message, String message_2, long measure, long measure_2, long measure_3) {
+
+        histograms.record(statsTYPE, subtype, duration(statsTYPE, measure, measure_2, measure_3));
+
+        AppMetrics appMeasure = AppMetrics.measure(message, statistics.isCallSite());
+        if (message_2 != null) appMeasure.setMessage_2(message_2);
+        appMeasure.setUserMeasure(measure);
+        appMeasure.setUserMeasure_2(measure_2);
+        appMeasure.setUserMeasure_3(measure_3);
+        appMeasure.setStatsType(statsTYPE);
+        appMeasure.setSubType(subtype);
+
+        tsvWriter.offer(appMeasure);
+    }
+
+    private long duration(StatsTYPE statsTYPE, long measure, long measure_2, long measure_3) {
+
+        switch (statsTYPE) {
+            case thread:
+                return measure >= 0 && measure_2 >= measure ? measure_2 - measure : -1;
+            case tasks:
+                return measure_3;
+            case experiment:
+                return -1;
+            default:
+                return measure;
+        }
     }
 
     private void writeHeader(BufferedWriter bufferedWriter, Metrics metrics, boolean last) throws IOException {
@@ -198,11 +223,11 @@ public class BasicInstrument implements Instrument {
         if (last) bufferedWriter.newLine();
     }
 
-    private boolean fileIsEmpty(String filename) throws IOException {
+    private boolean fileIsEmpty(File file) throws IOException {
 
-        if (!new File(filename).exists()) return true;
+        if (!file.exists()) return true;
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
             if (br.readLine() == null) {
                 return true;
             }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module instrument.
+ *
+ * instrument is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * instrument is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with instrument. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.instrument.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (e.g. latencies in nanoseconds), in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power of two is split in SUB_BUCKET_COUNT / 2 linear sub-buckets,
+ * so that the value reported for any percentile is within ~3% of the recorded one, whatever its magnitude.
+ * The histogram has a fixed size (no allocation while recording) and covers the full range of long values.
+ *
+ * The counts are striped by thread, so that concurrent recorders rarely update the same counter.
+ * Reads merge the stripes and are consistent only when no values are being recorded.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    // Values up to Long.MAX_VALUE fall in bucket 62 - (SUB_BUCKET_BITS - 1)
+    private static final int NUMBER_OF_COUNTS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+
+    private static final int MAX_STRIPES = 4;
+
+    private final AtomicLongArray[] stripes;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    public LatencyHistogram() {
+
+        int numberOfStripes = 1;
+        while (numberOfStripes < MAX_STRIPES && numberOfStripes < Runtime.getRuntime().availableProcessors()) {
+            numberOfStripes *= 2;
+        }
+
+        stripes = new AtomicLongArray[numberOfStripes];
+        for (int i = 0; i < numberOfStripes; i++) {
+            stripes[i] = new AtomicLongArray(NUMBER_OF_COUNTS);
+        }
+    }
+
+    /**
+     * Record a value. Negative values are ignored, since they are used to mark missing measures.
+     *
+     * @param value to record
+     */
+    public void record(long value) {
+
+        if (value < 0) return;
+
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        stripe.incrementAndGet(countsIndex(value));
+
+        count.increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100 (e.g. 99.9)
+     * @return the highest value equivalent to the one at the given percentile (never above the maximum recorded), or 0 if no values were recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        long[] counts = counts();
+
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) return 0;
+
+        double requested = Math.min(Math.max(percentile, 0.0), 100.0);
+        long countAtPercentile = Math.max(1, (long) Math.ceil(requested / 100.0 * total));
+
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    public void reset() {
+
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < stripe.length(); i++) {
+                stripe.set(i, 0);
+            }
+        }
+
+        count.reset();
+        sum.reset();
+        min.reset();
+        max.reset();
+    }
+
+    private long[] counts() {
+
+        long[] counts = new long[NUMBER_OF_COUNTS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < NUMBER_OF_COUNTS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+
+        return counts;
+    }
+
+    static int countsIndex(long value) {
+
+        int bucketIndex = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - (SUB_BUCKET_BITS - 1);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+
+        return bucketIndex * SUB_BUCKET_HALF + subBucketIndex;
+    }
+
+    static long lowestEquivalentValue(int index) {
+
+        int bucketIndex = Math.max(0, (index >> (SUB_BUCKET_BITS - 1)) - 1);
+        int subBucketIndex = index - bucketIndex * SUB_BUCKET_HALF;
+
+        return (long) subBucketIndex << bucketIndex;
+    }
+
+    static long highestEquivalentValue(int index) {
+
+        int bucketIndex = Math.max(0, (index >> (SUB_BUCKET_BITS - 1)) - 1);
+        long next = lowestEquivalentValue(index) + (1L << bucketIndex);
+
+        // The last sub-bucket ends at Long.MAX_VALUE
+        return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
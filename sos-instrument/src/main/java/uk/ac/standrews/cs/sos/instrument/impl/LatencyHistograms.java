@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module instrument.
+ *
+ * instrument is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * instrument is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with instrument. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.instrument.impl;
+
+import uk.ac.standrews.cs.sos.instrument.LatencySummary;
+import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency histograms for each StatsTYPE/subtype pair.
+ *
+ * The histograms are kept in a flat array indexed by the ordinals of the pair, so that finding the histogram
+ * of a measure does not allocate nor lock. Histograms are created lazily, the first time a pair is recorded.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LatencyHistograms {
+
+    private static final StatsTYPE[] TYPES = StatsTYPE.values();
+
+    private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<>(TYPES.length * TYPES.length);
+
+    public void record(StatsTYPE statsTYPE, StatsTYPE subtype, long value) {
+
+        if (value < 0) return;
+
+        int index = statsTYPE.ordinal() * TYPES.length + subtype.ordinal();
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+
+        histogram.record(value);
+    }
+
+    /**
+     * @param statsTYPE of the measures
+     * @param subtype of the measures
+     * @return the histogram for the given pair or null if nothing was recorded for it
+     */
+    public LatencyHistogram getHistogram(StatsTYPE statsTYPE, StatsTYPE subtype) {
+        return histograms.get(statsTYPE.ordinal() * TYPES.length + subtype.ordinal());
+    }
+
+    /**
+     * @return the percentiles of all the pairs recorded so far
+     */
+    public List<LatencySummary> summaries() {
+
+        List<LatencySummary> summaries = new ArrayList<>();
+        for (int i = 0; i < histograms.length(); i++) {
+
+            LatencyHistogram histogram = histograms.get(i);
+            if (histogram == null || histogram.getCount() == 0) continue;
+
+            summaries.add(new LatencySummary(TYPES[i / TYPES.length], TYPES[i % TYPES.length],
+                    histogram.getCount(), histogram.getMean(), histogram.getMin(), histogram.getMax(),
+                    histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0), histogram.getValueAtPercentile(99.9)));
+        }
+
+        return summaries;
+    }
+
+    public void reset() {
+
+        for (int i = 0; i < histograms.length(); i++) {
+            LatencyHistogram histogram = histograms.get(i);
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+    }
+}
@@ -33,6 +33,10 @@ public class Statistics {
     private boolean guid_manifest;
     private boolean ping;
     private boolean thread;
+    private boolean tasks;
+
+    // Record the class and method of each measure. This is expensive, so it should be enabled only when needed
+    private boolean callSite;
 
     // Needed to automatically parse its JSON string into an object
     public Statistics() {}
@@ -68,6 +72,8 @@ public class Statistics {
                 return isPing();
             case thread:
                 return isThread();
+            case tasks:
+                return isTasks();
         }
 
         return false;
@@ -152,4 +158,20 @@ public class Statistics {
     public void setThread(boolean thread) {
         this.thread = thread;
     }
+
+    public boolean isTasks() {
+        return tasks;
+    }
+
+    public void setTasks(boolean tasks) {
+        this.tasks = tasks;
+    }
+
+    public boolean isCallSite() {
+        return callSite;
+    }
+
+    public void setCallSite(boolean callSite) {
+        this.callSite = callSite;
+    }
 }
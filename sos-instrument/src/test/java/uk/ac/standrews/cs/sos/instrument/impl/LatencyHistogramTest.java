@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module instrument.
+ *
+ * instrument is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * instrument is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with instrument. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.instrument.impl;
+
+import org.testng.annotations.Test;
+import uk.ac.standrews.cs.sos.instrument.LatencySummary;
+import uk.ac.standrews.cs.sos.instrument.StatsTYPE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyTest() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMax(), 0);
+        assertEquals(histogram.getValueAtPercentile(50.0), 0);
+    }
+
+    @Test
+    public void smallValuesAreExactTest() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getCount(), 50);
+        assertEquals(histogram.getMin(), 1);
+        assertEquals(histogram.getMax(), 50);
+        assertEquals(histogram.getValueAtPercentile(50.0), 25);
+        assertEquals(histogram.getValueAtPercentile(100.0), 50);
+        assertEquals(histogram.getMean(), 25.5, 0.001);
+    }
+
+    @Test
+    public void negativeValuesIgnoredTest() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+
+        assertEquals(histogram.getCount(), 0);
+    }
+
+    @Test
+    public void percentilesWithinPrecisionTest() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertWithinPrecision(histogram.getValueAtPercentile(50.0), 50000000L);
+        assertWithinPrecision(histogram.getValueAtPercentile(99.0), 99000000L);
+        assertWithinPrecision(histogram.getValueAtPercentile(99.9), 99900000L);
+        assertEquals(histogram.getValueAtPercentile(100.0), 100000000L);
+    }
+
+    @Test
+    public void bucketsTest() {
+
+        long[] values = { 0, 1, 63, 64, 65, 127, 128, 1000, 123456789L, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = LatencyHistogram.countsIndex(value);
+            assertTrue(LatencyHistogram.lowestEquivalentValue(index) <= value);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+        }
+    }
+
+    @Test
+    public void concurrentRecordingTest() throws Exception {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        assertEquals(histogram.getCount(), 8 * 10000);
+        assertEquals(histogram.getMax(), 9999);
+    }
+
+    @Test
+    public void histogramsTest() {
+
+        LatencyHistograms histograms = new LatencyHistograms();
+        histograms.record(StatsTYPE.io, StatsTYPE.add_atom, 100);
+        histograms.record(StatsTYPE.io, StatsTYPE.add_atom, 200);
+        histograms.record(StatsTYPE.io, StatsTYPE.read_atom, 300);
+        histograms.record(StatsTYPE.guid_data, StatsTYPE.sha256, -1);
+
+        List<LatencySummary> summaries = histograms.summaries();
+        assertEquals(summaries.size(), 2);
+
+        LatencySummary summary = summaries.get(0);
+        assertEquals(summary.getStatsType(), StatsTYPE.io);
+        assertEquals(summary.getSubtype(), StatsTYPE.add_atom);
+        assertEquals(summary.getCount(), 2);
+        assertEquals(summary.getMax(), 200);
+        assertNull(histograms.getHistogram(StatsTYPE.guid_data, StatsTYPE.sha256));
+    }
+
+    private void assertWithinPrecision(long actual, long expected) {
+        assertTrue(Math.abs(actual - expected) <= expected / 32, "Expected ~" + expected + " but was " + actual);
+    }
+}
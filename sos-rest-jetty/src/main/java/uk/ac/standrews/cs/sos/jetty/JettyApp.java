@@ -34,7 +34,7 @@ public class JettyApp {
         assert sos != null;
         int port = sos.getHostAddress().getPort();
 
-        RESTConfig restConfig = new RESTConfig();
+        RESTConfig restConfig = new RESTConfig(JettyAtomContentWriter.class);
         restConfig.setSOS(sos);
 
         ServletHolder servlet = new ServletHolder(new ServletContainer(restConfig));
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module rest-jetty.
+ *
+ * rest-jetty is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * rest-jetty is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with rest-jetty. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.jetty;
+
+import org.eclipse.jetty.server.HttpOutput;
+import uk.ac.standrews.cs.sos.rest.HTTP.AtomContentWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sends the local files of atoms directly via the Jetty output, which writes memory-mapped buffers to the socket
+ * without copying the data through the JVM heap (the same mechanism used by the Jetty DefaultServlet to serve files).
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class JettyAtomContentWriter extends AtomContentWriter {
+
+    // Files are mapped in chunks, so that large atoms do not exhaust the address space
+    private static final long MAX_MAPPED_CHUNK = 64 * 1024 * 1024; // 64MB
+
+    @Context
+    private HttpServletResponse response;
+
+    @Override
+    protected void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+
+        ServletOutputStream servletOutputStream = response != null ? response.getOutputStream() : null;
+        if (!(servletOutputStream instanceof HttpOutput)) {
+            super.transfer(channel, position, count, out);
+            return;
+        }
+
+        // Commit the status and headers set by Jersey and send any bytes written so far (e.g. multipart boundaries)
+        out.flush();
+
+        HttpOutput httpOutput = (HttpOutput) servletOutputStream;
+        while (count > 0) {
+            long chunk = Math.min(count, MAX_MAPPED_CHUNK);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, chunk);
+            httpOutput.write(buffer);
+
+            position += chunk;
+            count -= chunk;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module rest.
+ *
+ * rest is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * rest is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with rest. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.rest.HTTP;
+
+import uk.ac.standrews.cs.castore.data.Data;
+import uk.ac.standrews.cs.guid.IGUID;
+import uk.ac.standrews.cs.sos.network.ByteRange;
+
+import javax.ws.rs.core.MediaType;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The data of an atom, or some ranges of it, to be sent in a response.
+ *
+ * The data is either a local file, which can be sent without copying it through the JVM (@see AtomContentWriter),
+ * or a generic Data object.
+ * The content is closed once it is written.
+ *
+ * Since atoms are immutable and identified by the hash of their data, the GUID of the atom is a strong entity tag.
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+public class AtomContent implements Closeable {
+
+    public static final String ETAG_HEADER = "ETag";
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    static final String CRLF = "\r\n";
+    private static final String MULTIPART_BYTERANGES = "multipart/byteranges";
+    private static final String PART_CONTENT_TYPE = MediaType.APPLICATION_OCTET_STREAM;
+
+    private final IGUID guid;
+    private final File file;
+    private final Data data;
+    private final long size;
+    private final List<ByteRange> ranges;
+    private final String boundary;
+
+    private AtomContent(IGUID guid, File file, Data data, long size, List<ByteRange> ranges) {
+        this.guid = guid;
+        this.file = file;
+        this.data = data;
+        this.size = size;
+        this.ranges = ranges != null ? ranges : Collections.emptyList();
+        this.boundary = this.ranges.size() > 1 ? UUID.randomUUID().toString().replace("-", "") : null;
+    }
+
+    /**
+     * @param guid of the atom
+     * @param file of the atom stored in this node
+     * @param ranges to send, or null/empty to send the whole file
+     * @return the content
+     */
+    public static AtomContent fromFile(IGUID guid, File file, List<ByteRange> ranges) {
+        return new AtomContent(guid, file, null, file.length(), ranges);
+    }
+
+    /**
+     * @param guid of the atom
+     * @param data of the atom
+     * @param ranges to send, or null/empty to send all the data
+     * @return the content
+     */
+    public static AtomContent fromData(IGUID guid, Data data, List<ByteRange> ranges) {
+        return new AtomContent(guid, null, data, data.getSize(), ranges);
+    }
+
+    /**
+     * @param guid of an atom
+     * @return the value of the ETag header for the atom
+     */
+    public static String entityTag(IGUID guid) {
+        return "\"" + guid.toMultiHash() + "\"";
+    }
+
+    /**
+     * Check the value of an If-None-Match or If-Range header against the atom.
+     *
+     * @param header value of the header (a list of entity tags or *)
+     * @param guid of the atom
+     * @return true if the header matches the entity tag of the atom
+     */
+    public static boolean matches(String header, IGUID guid) {
+
+        if (header == null) return false;
+        if (header.trim().equals("*")) return true;
+
+        String entityTag = entityTag(guid);
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2); // Weak comparison, as for If-None-Match
+
+            if (tag.equals(entityTag)) return true;
+        }
+
+        return false;
+    }
+
+    public IGUID getGUID() {
+        return guid;
+    }
+
+    /**
+     * @return the local file of the atom, or null if the content is not a local file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public Data getData() {
+        return data;
+    }
+
+    /**
+     * @return the size of the whole atom, or -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the ranges to send, empty if the whole atom is sent
+     */
+    public List<ByteRange> getRanges() {
+        return ranges;
+    }
+
+    public boolean isPartial() {
+        return !ranges.isEmpty();
+    }
+
+    public boolean isMultipart() {
+        return ranges.size() > 1;
+    }
+
+    /**
+     * @return the media type of the response
+     */
+    public String getContentType() {
+        return isMultipart() ? MULTIPART_BYTERANGES + "; boundary=" + boundary : MediaType.MULTIPART_FORM_DATA;
+    }
+
+    /**
+     * @return the value of the Content-Range header, or null if the whole atom or multiple ranges are sent
+     */
+    public String getContentRange() {
+        return ranges.size() == 1 ? ranges.get(0).toContentRangeHeader(size) : null;
+    }
+
+    /**
+     * @return the number of bytes of the body of the response, or -1 if unknown
+     */
+    public long getContentLength() {
+
+        if (!isPartial()) return size;
+        if (!isMultipart()) return ranges.get(0).length();
+
+        long length = 0;
+        for (ByteRange range : ranges) {
+            length += partHeader(range).length + range.length() + CRLF.length();
+        }
+
+        return length + closingBoundary().length;
+    }
+
+    /**
+     * @param range of the part
+     * @return the boundary and headers preceding a part of a multipart/byteranges body
+     */
+    byte[] partHeader(ByteRange range) {
+
+        String header = "--" + boundary + CRLF +
+                "Content-Type: " + PART_CONTENT_TYPE + CRLF +
+                ByteRange.CONTENT_RANGE_HEADER + ": " + range.toContentRangeHeader(size) + CRLF +
+                CRLF;
+
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    byte[] closingBoundary() {
+        return ("--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (data != null) {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module rest.
+ *
+ * rest is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * rest is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with rest. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.sos.rest.HTTP;
+
+import org.apache.commons.io.IOUtils;
+import uk.ac.standrews.cs.sos.network.ByteRange;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the AtomContent entities, i.e. the whole data of an atom, a single range or multiple ranges (multipart/byteranges).
+ *
+ * Local files are sent via FileChannel.transferTo, so that the data is not copied through a buffer of the JVM
+ * for each range. Containers that can send files more efficiently should override transfer(...)
+ * (@see the JettyAtomContentWriter in the rest-jetty module).
+ *
+ * @author Simone I. Conte "sic2@st-andrews.ac.uk"
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class AtomContentWriter implements MessageBodyWriter<AtomContent> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return AtomContent.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(AtomContent atomContent, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1; // Deprecated by JAX-RS. The Content-Length header is set by HTTPResponses
+    }
+
+    @Override
+    public void writeTo(AtomContent atomContent, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+
+        write(atomContent, entityStream);
+    }
+
+    /**
+     * Write the content to the stream and close the content.
+     *
+     * @param atomContent to write
+     * @param out stream to write to
+     * @throws IOException if the content could not be read or written
+     */
+    public void write(AtomContent atomContent, OutputStream out) throws IOException {
+
+        try (AtomContent ignored = atomContent) {
+
+            if (atomContent.getFile() != null) {
+
+                try (FileChannel channel = FileChannel.open(atomContent.getFile().toPath(), StandardOpenOption.READ)) {
+                    writeParts(atomContent, out, (position, count) -> transfer(channel, position, count, out));
+                }
+
+            } else {
+
+                try (InputStream in = atomContent.getData().getInputStream()) {
+
+                    // The ranges are sorted and do not overlap, so the stream is read once
+                    long[] streamPosition = { 0 };
+                    writeParts(atomContent, out, (position, count) -> {
+                        IOUtils.skipFully(in, position - streamPosition[0]);
+                        if (IOUtils.copyLarge(in, out, 0, count) < count) {
+                            throw new EOFException("Data of atom " + atomContent.getGUID().toMultiHash() + " is shorter than expected");
+                        }
+                        streamPosition[0] = position + count;
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Send count bytes of the file starting at position.
+     *
+     * @param channel of the file
+     * @param position of the first byte to send
+     * @param count number of bytes to send
+     * @param out stream of the response
+     * @throws IOException if the file could not be read or sent
+     */
+    protected void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+
+        WritableByteChannel target = Channels.newChannel(out);
+        while (count > 0) {
+            long transferred = channel.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new EOFException("File is shorter than expected");
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private void writeParts(AtomContent atomContent, OutputStream out, RangeWriter rangeWriter) throws IOException {
+
+        if (!atomContent.isPartial()) {
+            rangeWriter.write(0, atomContent.getSize());
+
+        } else if (!atomContent.isMultipart()) {
+            ByteRange range = atomContent.getRanges().get(0);
+            rangeWriter.write(range.getFirst(), range.length());
+
+        } else {
+            for (ByteRange range : atomContent.getRanges()) {
+                out.write(atomContent.partHeader(range));
+                rangeWriter.write(range.getFirst(), range.length());
+                out.write(AtomContent.CRLF.getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write(atomContent.closingBoundary());
+        }
+
+        out.flush();
+    }
+
+    private interface RangeWriter {
+        void write(long position, long count) throws IOException;
+    }
+}
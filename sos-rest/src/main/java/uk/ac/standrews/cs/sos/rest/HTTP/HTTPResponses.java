@@ -16,11 +16,14 @@
  */
 package uk.ac.standrews.cs.sos.rest.HTTP;
 
+import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.network.ByteRange;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import uk.ac.standrews.cs.utilities.crypto.CryptoException;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
@@ -78,6 +81,54 @@ public class HTTPResponses {
         return builder.build();
     }
 
+    /**
+     * Response with the data of an atom or some ranges of it (206 Partial Content).
+     * The data can be cached and requested by ranges using the GUID of the atom as entity tag.
+     *
+     * @param localNode signing the challenge
+     * @param challenge to sign
+     * @param atomContent data of the atom to send
+     * @return the response
+     */
+    public static Response OK(SOSLocalNode localNode, String challenge, AtomContent atomContent) {
+        Response.ResponseBuilder builder =  Response.status(atomContent.isPartial() ? HTTPStatus.PARTIAL_CONTENT : HTTPStatus.OK)
+                .entity(atomContent)
+                .type(atomContent.getContentType())
+                .header(AtomContent.ETAG_HEADER, AtomContent.entityTag(atomContent.getGUID()))
+                .header(ByteRange.ACCEPT_RANGES_HEADER, ByteRange.BYTES_UNIT);
+
+        // The length of the data is not known in advance for some data (e.g. decrypted data)
+        long contentLength = atomContent.getContentLength();
+        if (contentLength >= 0) {
+            builder = builder.header(HttpHeaders.CONTENT_LENGTH, contentLength);
+        }
+
+        String contentRange = atomContent.getContentRange();
+        if (contentRange != null) {
+            builder = builder.header(ByteRange.CONTENT_RANGE_HEADER, contentRange);
+        }
+
+        builder = signChallenge(builder, localNode, challenge);
+        return builder.build();
+    }
+
+    public static Response NOT_MODIFIED(SOSLocalNode localNode, String challenge, IGUID guid) {
+        Response.ResponseBuilder builder =  Response.status(HTTPStatus.NOT_MODIFIED)
+                .header(AtomContent.ETAG_HEADER, AtomContent.entityTag(guid));
+
+        builder = signChallenge(builder, localNode, challenge);
+        return builder.build();
+    }
+
+    public static Response RANGE_NOT_SATISFIABLE(SOSLocalNode localNode, String challenge, IGUID guid, long size) {
+        Response.ResponseBuilder builder =  Response.status(HTTPStatus.RANGE_NOT_SATISFIABLE)
+                .header(AtomContent.ETAG_HEADER, AtomContent.entityTag(guid))
+                .header(ByteRange.CONTENT_RANGE_HEADER, ByteRange.unsatisfiedContentRangeHeader(size));
+
+        builder = signChallenge(builder, localNode, challenge);
+        return builder.build();
+    }
+
     public static Response OK(SOSLocalNode localNode, String challenge, Object message) {
         Response.ResponseBuilder builder =  Response.status(HTTPStatus.OK)
                 .entity(message);
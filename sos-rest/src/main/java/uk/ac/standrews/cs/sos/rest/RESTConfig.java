@@ -24,6 +24,7 @@ import org.glassfish.jersey.jackson.JacksonFeature;
 import org.glassfish.jersey.logging.LoggingFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.rest.HTTP.AtomContentWriter;
 import uk.ac.standrews.cs.sos.rest.filters.*;
 
 import javax.ws.rs.ext.ContextResolver;
@@ -39,11 +40,19 @@ public class RESTConfig extends ResourceConfig {
     public static SOSLocalNode sos;
 
     public RESTConfig() {
+        this(AtomContentWriter.class);
+    }
+
+    /**
+     * @param atomContentWriter used to send the data of atoms, which can be specific to the container running the REST server
+     */
+    public RESTConfig(Class<? extends AtomContentWriter> atomContentWriter) {
         packages(REST_PACKAGE);
 
         register(LoggingFeature.class);
         register(JacksonProvider.class);
         register(JacksonFeature.class);
+        register(atomContentWriter);
 
         register(GeneralFilter.class);
         register(StorageFilter.class);
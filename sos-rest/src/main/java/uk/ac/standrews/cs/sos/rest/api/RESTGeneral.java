@@ -16,12 +16,15 @@
  */
 package uk.ac.standrews.cs.sos.rest.api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.impl.protocol.json.DataPackage;
+import uk.ac.standrews.cs.sos.instrument.InstrumentFactory;
 import uk.ac.standrews.cs.sos.rest.HTTP.HTTPResponses;
 import uk.ac.standrews.cs.sos.rest.RESTConfig;
 import uk.ac.standrews.cs.sos.rest.bindings.GeneralAPI;
+import uk.ac.standrews.cs.sos.utils.JSONHelper;
 import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import uk.ac.standrews.cs.utilities.crypto.CryptoException;
 
@@ -96,6 +99,37 @@ public class RESTGeneral {
         return HTTPResponses.OK(RESTConfig.sos, node_challenge, retval);
     }
 
+    /**
+     * Live percentiles (p50, p99, p999) of the latencies measured by the instrument, per StatsTYPE/subtype.
+     * The list is empty if the node is not instrumented.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics(@HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
+        SOS_LOG.log(LEVEL.INFO, "REST: GET /sos/metrics");
+
+        try {
+            String out = JSONHelper.jsonObjMapper().writeValueAsString(InstrumentFactory.latencies());
+            return HTTPResponses.OK(RESTConfig.sos, node_challenge, out);
+
+        } catch (JsonProcessingException e) {
+            return HTTPResponses.INTERNAL_SERVER(RESTConfig.sos, node_challenge);
+        }
+    }
+
+    /**
+     * Number of measures dropped by the instrument because it could not keep up.
+     */
+    @GET
+    @Path("/metrics/dropped")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getDroppedMeasures(@HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
+        SOS_LOG.log(LEVEL.INFO, "REST: GET /sos/metrics/dropped");
+
+        return HTTPResponses.OK(RESTConfig.sos, node_challenge, Long.toString(InstrumentFactory.droppedMeasures()));
+    }
+
     @GET
     @Path("/sign/{message}")
     @Produces(MediaType.TEXT_PLAIN)
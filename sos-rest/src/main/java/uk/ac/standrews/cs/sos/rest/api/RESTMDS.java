@@ -18,6 +18,7 @@ package uk.ac.standrews.cs.sos.rest.api;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
 import uk.ac.standrews.cs.guid.exceptions.GUIDGenerationException;
@@ -25,11 +26,17 @@ import uk.ac.standrews.cs.logger.LEVEL;
 import uk.ac.standrews.cs.sos.constants.JSONConstants;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestNotFoundException;
 import uk.ac.standrews.cs.sos.exceptions.manifest.ManifestPersistException;
+import uk.ac.standrews.cs.sos.exceptions.node.NodesCollectionException;
 import uk.ac.standrews.cs.sos.impl.datamodel.AtomManifest;
 import uk.ac.standrews.cs.sos.impl.datamodel.CompoundManifest;
 import uk.ac.standrews.cs.sos.impl.datamodel.VersionManifest;
+import uk.ac.standrews.cs.sos.impl.node.NodesCollectionImpl;
+import uk.ac.standrews.cs.sos.impl.protocol.json.ChallengePackage;
+import uk.ac.standrews.cs.sos.interfaces.node.NodeType;
 import uk.ac.standrews.cs.sos.model.Manifest;
 import uk.ac.standrews.cs.sos.model.ManifestType;
+import uk.ac.standrews.cs.sos.model.NodesCollection;
+import uk.ac.standrews.cs.sos.model.NodesCollectionType;
 import uk.ac.standrews.cs.sos.rest.HTTP.HTTPResponses;
 import uk.ac.standrews.cs.sos.rest.RESTConfig;
 import uk.ac.standrews.cs.sos.rest.bindings.MDSNode;
@@ -139,6 +146,55 @@ public class RESTMDS {
 
     }
 
+    /**
+     * Challenge this node for multiple manifests, using the same challenge string for all of them.
+     *
+     * @param challengePackage with the challenge string and the GUIDs of the manifests
+     * @return a JSON object mapping the GUID of each manifest stored in this node to the result of its challenge
+     */
+    @POST
+    @Path("/manifests/challenge")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response challengeManifests(final ChallengePackage challengePackage, @HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
+        SOS_LOG.log(LEVEL.INFO, "REST: POST /sos/mds/manifests/challenge");
+
+        String challenge = challengePackage.getChallenge();
+        if (challenge == null || challenge.trim().isEmpty()) return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Challenge is empty");
+
+        Set<IGUID> manifestGUIDs;
+        try {
+            manifestGUIDs = challengePackage.getGUIDObjs();
+        } catch (GUIDGenerationException e) {
+            return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Bad input");
+        }
+
+        if (manifestGUIDs.size() > ChallengePackage.MAX_ENTITIES) return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Too many manifests");
+
+        ManifestsDataService mds = RESTConfig.sos.getMDS();
+
+        ObjectNode results = JSONHelper.jsonObjMapper().createObjectNode();
+        try {
+            NodesCollection local = new NodesCollectionImpl(NodesCollectionType.LOCAL);
+            for (IGUID manifestGUID : manifestGUIDs) {
+
+                // Manifests not stored in this node are left out, without looking for them in other nodes
+                try {
+                    mds.getManifest(local, NodeType.MDS, manifestGUID);
+                    IGUID challengeResult = mds.challenge(manifestGUID, challenge);
+                    results.put(manifestGUID.toMultiHash(), challengeResult.toMultiHash());
+                } catch (ManifestNotFoundException e) {
+                    // Skip manifest
+                }
+            }
+
+        } catch (NodesCollectionException e) {
+            return HTTPResponses.INTERNAL_SERVER(RESTConfig.sos, node_challenge);
+        }
+
+        return HTTPResponses.OK(RESTConfig.sos, node_challenge, results.toString());
+    }
+
     @DELETE
     @Path("/manifest/guid/{guid}")
     public Response deleteManifest(@PathParam("guid") String guid, @HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
@@ -17,6 +17,7 @@
 package uk.ac.standrews.cs.sos.rest.api;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import uk.ac.standrews.cs.castore.data.Data;
 import uk.ac.standrews.cs.guid.GUIDFactory;
 import uk.ac.standrews.cs.guid.IGUID;
@@ -30,8 +31,11 @@ import uk.ac.standrews.cs.sos.exceptions.storage.DataStorageException;
 import uk.ac.standrews.cs.sos.impl.datamodel.builders.AtomBuilder;
 import uk.ac.standrews.cs.sos.impl.datamodel.locations.bundles.BundleTypes;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
+import uk.ac.standrews.cs.sos.impl.protocol.json.ChallengePackage;
 import uk.ac.standrews.cs.sos.impl.protocol.json.DataPackage;
 import uk.ac.standrews.cs.sos.model.Atom;
+import uk.ac.standrews.cs.sos.network.ByteRange;
+import uk.ac.standrews.cs.sos.rest.HTTP.AtomContent;
 import uk.ac.standrews.cs.sos.rest.HTTP.HTTPResponses;
 import uk.ac.standrews.cs.sos.rest.RESTConfig;
 import uk.ac.standrews.cs.sos.rest.bindings.StorageNode;
@@ -42,8 +46,11 @@ import uk.ac.standrews.cs.sos.utils.SOS_LOG;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
 
 import static uk.ac.standrews.cs.sos.constants.Internals.GUID_ALGORITHM;
 import static uk.ac.standrews.cs.sos.network.Request.SOS_NODE_CHALLENGE_HEADER;
@@ -79,13 +86,21 @@ public class RESTStorage {
     /**
      * Get the data as a stream of bytes
      *
+     * The GUID of the atom is used as its entity tag, so the data can be requested conditionally (If-None-Match)
+     * and by ranges (Range, If-Range), including multiple ranges.
+     *
      * @param guid matching the Atom of the data
+     * @param range value of the Range header, if any
+     * @param ifRange value of the If-Range header, if any
+     * @param ifNoneMatch value of the If-None-Match header, if any
      * @return a response with a body containing a stream of bytes
      */
     @GET
     @Path("/atom/guid/{guid}")
     @Produces(MediaType.MULTIPART_FORM_DATA)
-    public Response getData(@PathParam("guid") String guid, @HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
+    public Response getData(@PathParam("guid") String guid, @HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge,
+                            @HeaderParam(ByteRange.RANGE_HEADER) String range, @HeaderParam(ByteRange.IF_RANGE_HEADER) String ifRange,
+                            @HeaderParam(AtomContent.IF_NONE_MATCH_HEADER) String ifNoneMatch) {
         SOS_LOG.log(LEVEL.INFO, "REST: GET /sos/storage/atom/guid/{guid}");
 
         if (guid == null || guid.isEmpty()) {
@@ -99,10 +114,35 @@ public class RESTStorage {
             return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Bad input");
         }
 
+        // Atoms are immutable, so a client with a matching entity tag already has the data
+        if (AtomContent.matches(ifNoneMatch, atomGUID)) {
+            return HTTPResponses.NOT_MODIFIED(RESTConfig.sos, node_challenge, atomGUID);
+        }
+
         StorageService storageService = RESTConfig.sos.getStorageService();
-        try (Data data = storageService.getAtomContent(atomGUID)){
+        File file = storageService.getLocalAtomFile(atomGUID);
+
+        Data data = null;
+        try {
+            if (file == null) {
+                data = storageService.getAtomContent(atomGUID);
+            }
+            long size = file != null ? file.length() : data.getSize();
 
-            return HTTPResponses.OK(RESTConfig.sos, node_challenge, data.getInputStream());
+            // The Range header is ignored if the If-Range header does not match the atom or the size of the data is unknown
+            List<ByteRange> ranges = null;
+            if (size >= 0 && (ifRange == null || AtomContent.matches(ifRange, atomGUID))) {
+                ranges = ByteRange.parseRangeHeader(range, size);
+            }
+
+            if (ranges != null && ranges.isEmpty()) {
+                if (data != null) data.close();
+                return HTTPResponses.RANGE_NOT_SATISFIABLE(RESTConfig.sos, node_challenge, atomGUID, size);
+            }
+
+            // The content is closed once sent
+            AtomContent atomContent = file != null ? AtomContent.fromFile(atomGUID, file, ranges) : AtomContent.fromData(atomGUID, data, ranges);
+            return HTTPResponses.OK(RESTConfig.sos, node_challenge, atomContent);
 
         } catch (AtomNotFoundException | IOException e) {
             return HTTPResponses.NOT_FOUND(RESTConfig.sos, node_challenge, "Atom not found");
@@ -192,6 +232,68 @@ public class RESTStorage {
 
     }
 
+    /**
+     * Challenge this node for multiple atoms, using the same challenge string for all of them.
+     *
+     * @param challengePackage with the challenge string and the GUIDs of the atoms
+     * @return a JSON object mapping the GUID of each atom stored in this node to the result of its challenge
+     */
+    @POST
+    @Path("/atoms/challenge")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response challengeAtoms(final ChallengePackage challengePackage, @HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
+        SOS_LOG.log(LEVEL.INFO, "REST: POST /sos/storage/atoms/challenge");
+
+        String challenge = challengePackage.getChallenge();
+        if (challenge == null || challenge.trim().isEmpty()) return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Challenge is empty");
+
+        Set<IGUID> atomGUIDs;
+        try {
+            atomGUIDs = challengePackage.getGUIDObjs();
+        } catch (GUIDGenerationException e) {
+            return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Bad input");
+        }
+
+        if (atomGUIDs.size() > ChallengePackage.MAX_ENTITIES) return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Too many atoms");
+
+        StorageService storageService = RESTConfig.sos.getStorageService();
+
+        ObjectNode results = JSONHelper.jsonObjMapper().createObjectNode();
+        for(IGUID atomGUID : atomGUIDs) {
+
+            // Atoms not stored in this node are left out
+            if (storageService.atomExists(atomGUID)) {
+                IGUID challengeResult = storageService.challenge(atomGUID, challenge);
+                results.put(atomGUID.toMultiHash(), challengeResult.toMultiHash());
+            }
+        }
+
+        return HTTPResponses.OK(RESTConfig.sos, node_challenge, results.toString());
+    }
+
+    /**
+     * Rebuild the text index of this node from the atoms stored locally. The index is rebuilt in the background.
+     *
+     * @return the number of atoms to be indexed
+     */
+    @POST
+    @Path("/index/text/rebuild")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response rebuildTextIndex(@HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
+        SOS_LOG.log(LEVEL.INFO, "REST: POST /sos/storage/index/text/rebuild");
+
+        try {
+            StorageService storageService = RESTConfig.sos.getStorageService();
+            int atoms = storageService.rebuildTextIndex();
+
+            return HTTPResponses.OK(RESTConfig.sos, node_challenge, Integer.toString(atoms));
+
+        } catch (DataStorageException e) {
+            return HTTPResponses.BAD_REQUEST(RESTConfig.sos, node_challenge, "Unable to rebuild the text index");
+        }
+    }
+
     @DELETE
     @Path("/atom/guid/{guid}")
     public Response deleteData(@PathParam("guid") final String guid, @HeaderParam(SOS_NODE_CHALLENGE_HEADER) String node_challenge) {
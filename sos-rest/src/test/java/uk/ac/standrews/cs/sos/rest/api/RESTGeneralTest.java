@@ -113,4 +113,26 @@ public class RESTGeneralTest extends CommonRESTTest {
         response.close();
     }
 
+    @Test
+    public void testGetMetrics() throws Exception {
+
+        Response response = target("/sos/metrics").request().get();
+        assertEquals(response.getStatus(), HTTPStatus.OK);
+
+        // The node used for the tests is not instrumented
+        JSONAssert.assertEquals("[]", response.readEntity(String.class), true);
+
+        response.close();
+    }
+
+    @Test
+    public void testGetDroppedMeasures() throws Exception {
+
+        Response response = target("/sos/metrics/dropped").request().get();
+        assertEquals(response.getStatus(), HTTPStatus.OK);
+        assertEquals(response.readEntity(String.class), "0");
+
+        response.close();
+    }
+
 }
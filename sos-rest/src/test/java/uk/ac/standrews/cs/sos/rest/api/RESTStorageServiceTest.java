@@ -16,6 +16,7 @@
  */
 package uk.ac.standrews.cs.sos.rest.api;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.testng.annotations.Test;
 import uk.ac.standrews.cs.guid.GUIDFactory;
@@ -233,6 +234,95 @@ public class RESTStorageServiceTest extends CommonRESTTest {
         assertEquals(response.getStatus(), HTTPStatus.BAD_REQUEST);
     }
 
+    @Test
+    public void getDataTest() {
+
+        String guid = storeData();
+
+        Response response = target("/sos/storage/atom/guid/" + guid)
+                .request().get();
+
+        assertEquals(response.getStatus(), HTTPStatus.OK);
+        assertEquals(response.getHeaderString("ETag"), "\"" + guid + "\"");
+        assertEquals(response.getHeaderString("Accept-Ranges"), "bytes");
+        assertEquals(response.readEntity(String.class), "data");
+    }
+
+    @Test
+    public void getDataRangeTest() {
+
+        String guid = storeData();
+
+        Response response = target("/sos/storage/atom/guid/" + guid)
+                .request()
+                .header("Range", "bytes=1-2")
+                .get();
+
+        assertEquals(response.getStatus(), HTTPStatus.PARTIAL_CONTENT);
+        assertEquals(response.getHeaderString("Content-Range"), "bytes 1-2/4");
+        assertEquals(response.readEntity(String.class), "at");
+    }
+
+    @Test
+    public void getDataMultipleRangesTest() {
+
+        String guid = storeData();
+
+        Response response = target("/sos/storage/atom/guid/" + guid)
+                .request()
+                .header("Range", "bytes=0-0,3-3")
+                .get();
+
+        assertEquals(response.getStatus(), HTTPStatus.PARTIAL_CONTENT);
+        assertTrue(response.getHeaderString("Content-Type").startsWith("multipart/byteranges; boundary="));
+
+        String body = response.readEntity(String.class);
+        assertTrue(body.contains("Content-Range: bytes 0-0/4\r\n\r\nd\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 3-3/4\r\n\r\na\r\n"));
+    }
+
+    @Test
+    public void getDataRangeNotSatisfiableTest() {
+
+        String guid = storeData();
+
+        Response response = target("/sos/storage/atom/guid/" + guid)
+                .request()
+                .header("Range", "bytes=10-20")
+                .get();
+
+        assertEquals(response.getStatus(), HTTPStatus.RANGE_NOT_SATISFIABLE);
+        assertEquals(response.getHeaderString("Content-Range"), "bytes */4");
+    }
+
+    @Test
+    public void getDataIfRangeDoesNotMatchTest() {
+
+        String guid = storeData();
+
+        Response response = target("/sos/storage/atom/guid/" + guid)
+                .request()
+                .header("Range", "bytes=1-2")
+                .header("If-Range", "\"SHA256_16_0000a025d7d3b2cf782da0ef24423181fdd4096091bd8cc18b18c3aab9cb00a4\"")
+                .get();
+
+        assertEquals(response.getStatus(), HTTPStatus.OK);
+        assertEquals(response.readEntity(String.class), "data");
+    }
+
+    @Test
+    public void getDataNotModifiedTest() {
+
+        String guid = storeData();
+
+        Response response = target("/sos/storage/atom/guid/" + guid)
+                .request()
+                .header("If-None-Match", "\"" + guid + "\"")
+                .get();
+
+        assertEquals(response.getStatus(), HTTPStatus.NOT_MODIFIED);
+    }
+
     @Test
     public void challengeForNoAtomFails() throws GUIDGenerationException {
 
@@ -302,4 +392,57 @@ public class RESTStorageServiceTest extends CommonRESTTest {
         assertEquals(challengeResponse.getStatus(), HTTPStatus.BAD_REQUEST);
     }
 
+    @Test
+    public void batchChallengeForAtomsWorks() throws IOException {
+
+        Response response = target("/sos/storage/atom")
+                .request()
+                .post(Entity.json(
+                        BASIC_REQUEST.replace("{DATA}", IO.toBase64("data"))
+                                .replace("{GUID}", "SHA256_16_3a6eb0790f39ac87c94f3856b2dd2c5d110e6811602261a9a923d3bb23adc8b7")
+                ));
+
+        assertEquals(response.getStatus(), HTTPStatus.CREATED);
+        AtomManifest atomManifest = JSONHelper.jsonObjMapper().readValue(response.readEntity(String.class), AtomManifest.class);
+
+        String challengeRequest = "{\"challenge\" : \"THIS_IS_MY_CHALLENGE\", \"guids\" : [\"" + atomManifest.guid().toMultiHash() + "\", " +
+                "\"SHA256_16_0000a025d7d3b2cf782da0ef24423181fdd4096091bd8cc18b18c3aab9cb00a4\"]}";
+        Response challengeResponse = target("/sos/storage/atoms/challenge")
+                .request()
+                .post(Entity.json(challengeRequest));
+
+        assertEquals(challengeResponse.getStatus(), HTTPStatus.OK);
+
+        // The atom that is not stored in the node is left out
+        JsonNode results = JSONHelper.jsonObjMapper().readTree(challengeResponse.readEntity(String.class));
+        assertEquals(results.size(), 1);
+        assertEquals(results.get(atomManifest.guid().toMultiHash()).asText(), "SHA256_16_83941ab394968e84292a106b8df43a0d9cc12b4481c2de85d56f9db483cde28b");
+    }
+
+    @Test
+    public void batchChallengeWithNoChallengeDoesNotWork() {
+
+        String challengeRequest = "{\"challenge\" : \" \", \"guids\" : [\"SHA256_16_0000a025d7d3b2cf782da0ef24423181fdd4096091bd8cc18b18c3aab9cb00a4\"]}";
+        Response challengeResponse = target("/sos/storage/atoms/challenge")
+                .request()
+                .post(Entity.json(challengeRequest));
+
+        assertEquals(challengeResponse.getStatus(), HTTPStatus.BAD_REQUEST);
+    }
+
+    private String storeData() {
+
+        String guid = "SHA256_16_3a6eb0790f39ac87c94f3856b2dd2c5d110e6811602261a9a923d3bb23adc8b7";
+        Response response = target("/sos/storage/atom")
+                .request()
+                .post(Entity.json(
+                        BASIC_REQUEST.replace("{DATA}", IO.toBase64("data"))
+                                .replace("{GUID}", guid)
+                ));
+        assertEquals(response.getStatus(), HTTPStatus.CREATED);
+        response.close();
+
+        return guid;
+    }
+
 }
@@ -17,7 +17,6 @@
 package uk.ac.standrews.cs.sos.web.agents;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import org.apache.commons.io.IOUtils;
 import org.apache.xmlbeans.impl.util.Base64;
 import spark.Request;
 import spark.Response;
@@ -42,16 +41,23 @@ import uk.ac.standrews.cs.sos.impl.metadata.MetadataBuilder;
 import uk.ac.standrews.cs.sos.impl.node.NodesCollectionImpl;
 import uk.ac.standrews.cs.sos.impl.node.SOSLocalNode;
 import uk.ac.standrews.cs.sos.model.*;
+import uk.ac.standrews.cs.sos.network.ByteRange;
+import uk.ac.standrews.cs.sos.rest.HTTP.AtomContent;
+import uk.ac.standrews.cs.sos.rest.HTTP.AtomContentWriter;
+import uk.ac.standrews.cs.sos.rest.HTTP.HTTPStatus;
+import uk.ac.standrews.cs.sos.services.StorageService;
 import uk.ac.standrews.cs.sos.utils.JSONHelper;
 
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
 import javax.servlet.http.Part;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -304,10 +310,7 @@ public class WData {
                     }
 
                     response.header("Content-Disposition", "attachment; filename=\"Version-" + version.guid().toMultiHash() + extension + "\"");
-                    Data data = sos.getStorageService().getAtomContent(version.content());
-                    try (OutputStream out = response.raw().getOutputStream()) {
-                        IOUtils.copy(data.getInputStream(), out);
-                    }
+                    DownloadAtom(req, response, sos, version.content());
                     return "";
                 }
             }
@@ -319,6 +322,54 @@ public class WData {
         return "N/A";
     }
 
+    /**
+     * Send the data of the atom, supporting conditional (If-None-Match) and range requests (Range, If-Range),
+     * so that downloads can be resumed or split in parallel segments by the browser or download manager.
+     */
+    private static void DownloadAtom(Request req, Response response, SOSLocalNode sos, IGUID atomGUID) throws AtomNotFoundException, IOException {
+
+        response.header(AtomContent.ETAG_HEADER, AtomContent.entityTag(atomGUID));
+        response.header(ByteRange.ACCEPT_RANGES_HEADER, ByteRange.BYTES_UNIT);
+
+        if (AtomContent.matches(req.headers(AtomContent.IF_NONE_MATCH_HEADER), atomGUID)) {
+            response.status(HTTPStatus.NOT_MODIFIED);
+            return;
+        }
+
+        StorageService storageService = sos.getStorageService();
+        File file = storageService.getLocalAtomFile(atomGUID);
+        Data data = file == null ? storageService.getAtomContent(atomGUID) : null;
+        long size = file != null ? file.length() : data.getSize();
+
+        List<ByteRange> ranges = null;
+        String ifRange = req.headers(ByteRange.IF_RANGE_HEADER);
+        if (ifRange == null || AtomContent.matches(ifRange, atomGUID)) {
+            ranges = ByteRange.parseRangeHeader(req.headers(ByteRange.RANGE_HEADER), size);
+        }
+
+        if (ranges != null && ranges.isEmpty()) {
+            if (data != null) data.close();
+
+            response.status(HTTPStatus.RANGE_NOT_SATISFIABLE);
+            response.header(ByteRange.CONTENT_RANGE_HEADER, ByteRange.unsatisfiedContentRangeHeader(size));
+            return;
+        }
+
+        AtomContent atomContent = file != null ? AtomContent.fromFile(atomGUID, file, ranges) : AtomContent.fromData(atomGUID, data, ranges);
+        response.status(atomContent.isPartial() ? HTTPStatus.PARTIAL_CONTENT : HTTPStatus.OK);
+        if (atomContent.isMultipart()) {
+            response.type(atomContent.getContentType());
+        }
+        if (atomContent.getContentRange() != null) {
+            response.header(ByteRange.CONTENT_RANGE_HEADER, atomContent.getContentRange());
+        }
+        response.raw().setContentLengthLong(atomContent.getContentLength());
+
+        try (OutputStream out = response.raw().getOutputStream()) {
+            new AtomContentWriter().write(atomContent, out);
+        }
+    }
+
     public static String GetProtectedData(Request req, SOSLocalNode sos) throws GUIDGenerationException, RoleNotFoundException {
 
         String guidParam = req.params("id");